@@ -0,0 +1,82 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+/**
+ * A single benchmark, run by the {@link BenchmarkRunner}. Each call to
+ * {@link #run()} is one operation, it processes a number of items (episodes,
+ * podcasts, records) and the runner reports the cost per item. This way,
+ * results for inputs of different size can be compared.
+ */
+public abstract class Benchmark {
+
+    /** The benchmark's name, used to match results across runs */
+    private final String name;
+
+    /**
+     * Create a new benchmark.
+     * 
+     * @param name The name to report results under. Keep it stable, otherwise
+     *            results cannot be compared to earlier runs.
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The name results are reported under.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Called once before the benchmark is run, not measured.
+     * 
+     * @throws Exception If the benchmark cannot be set up.
+     */
+    public void setUp() throws Exception {
+        // Nothing to do by default
+    }
+
+    /**
+     * Called before each operation, not measured.
+     * 
+     * @throws Exception If the operation cannot be prepared.
+     */
+    public void prepare() throws Exception {
+        // Nothing to do by default
+    }
+
+    /**
+     * Run one operation, this is what gets measured.
+     * 
+     * @return The number of items processed, has to be positive.
+     * @throws Exception If the operation fails, the benchmark is aborted.
+     */
+    public abstract int run() throws Exception;
+
+    /**
+     * Called once after the benchmark is run, not measured.
+     * 
+     * @throws Exception If clean up fails.
+     */
+    public void tearDown() throws Exception {
+        // Nothing to do by default
+    }
+}
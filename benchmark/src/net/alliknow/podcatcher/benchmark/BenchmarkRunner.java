@@ -0,0 +1,319 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import net.alliknow.podcatcher.benchmark.MetadataStoreBenchmark.Operation;
+import net.alliknow.podcatcher.model.ParserPool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks on a plain JVM and reports the time and memory
+ * allocated per item. Every benchmark is warmed up first, then measured for a
+ * number of rounds and the median round is reported. Results can be written
+ * to a file and compared to the file of an earlier run, e.g. one for the
+ * commit before a change.<br />
+ * Arguments (all optional):
+ * <ul>
+ * <li><code>-corpus DIR</code> the corpus directory, defaults to
+ * <code>corpus</code></li>
+ * <li><code>-filter TEXT</code> only run benchmarks with names containing the
+ * text</li>
+ * <li><code>-label TEXT</code> the label to put in the results file, e.g. the
+ * commit id</li>
+ * <li><code>-out FILE</code> write the results to the file</li>
+ * <li><code>-baseline FILE</code> compare to the results in the file</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+
+    /** The number of warm-up rounds, not measured */
+    private static final int WARMUP_ROUNDS = 5;
+    /** The number of measured rounds */
+    private static final int MEASURED_ROUNDS = 10;
+    /** The minimum time per round in nanoseconds */
+    private static final long MIN_ROUND_TIME = 200 * 1000 * 1000L;
+
+    /** The feed sizes for the synthetic feed benchmarks */
+    private static final int[] FEED_SIZES = {
+            10, 100, 1000
+    };
+    /** The record counts for the metadata benchmarks */
+    private static final int[] RECORD_COUNTS = {
+            100, 1000, 10000
+    };
+    /** The number of podcasts the metadata records are spread over */
+    private static final int PODCASTS = 20;
+    /** The episode limit used for the partial parse benchmark */
+    private static final int EPISODE_LIMIT = 20;
+
+    /** The thread bean we get the allocations from */
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Run the benchmarks.
+     * 
+     * @param args See class documentation.
+     * @throws Exception If any of the benchmarks fails.
+     */
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = readOptions(args);
+        final Corpus corpus = new Corpus(new File(get(options, "corpus", "corpus")));
+        final String filter = get(options, "filter", "");
+
+        // 1. Collect and run the benchmarks
+        final List<Result> results = new ArrayList<Result>();
+        for (Benchmark benchmark : createBenchmarks(corpus))
+            if (benchmark.getName().contains(filter))
+                results.add(run(benchmark));
+
+        // 2. Report
+        final String baselineFile = get(options, "baseline", "");
+        final Map<String, Result> baseline = baselineFile.length() > 0 ?
+                readResults(new File(baselineFile)) : new HashMap<String, Result>();
+        print(results, baseline);
+
+        System.out.println(String.format(Locale.US,
+                "Parsers created: %d, reused: %d", ParserPool.getCreatedCount(),
+                ParserPool.getReusedCount()));
+
+        final String outFile = get(options, "out", "");
+        if (outFile.length() > 0)
+            writeResults(new File(outFile), get(options, "label", "unlabeled"), results);
+    }
+
+    private static List<Benchmark> createBenchmarks(Corpus corpus) throws IOException {
+        final List<Benchmark> result = new ArrayList<Benchmark>();
+
+        // 1. Feed parsing, real and synthetic
+        for (File feed : corpus.getFeeds())
+            result.add(new FeedParseBenchmark("feed." + feed.getName(), Corpus.read(feed), 0));
+        for (int size : FEED_SIZES)
+            result.add(new FeedParseBenchmark("feed.synthetic." + size,
+                    Corpus.createFeed(size), 0));
+        result.add(new FeedParseBenchmark("feed.synthetic." + FEED_SIZES[FEED_SIZES.length - 1]
+                + ".limit" + EPISODE_LIMIT, Corpus.createFeed(FEED_SIZES[FEED_SIZES.length - 1]),
+                EPISODE_LIMIT));
+
+        // 2. Podcast lists
+        for (File list : corpus.getPodcastLists())
+            result.add(new PodcastListBenchmark("opml." + list.getName(), list));
+
+        // 3. Episode metadata
+        for (Operation operation : Operation.values())
+            for (int records : RECORD_COUNTS)
+                result.add(new MetadataStoreBenchmark(operation, records, PODCASTS));
+
+        // 4. Loading feeds from a local server
+        for (int size : FEED_SIZES)
+            if (size >= 100)
+                result.add(new RemoteLoadBenchmark("remote.synthetic." + size, size));
+
+        // 5. Title decoding
+        result.add(new TextDecodeBenchmark("text.plain", TextDecodeBenchmark.PLAIN_TITLES));
+        result.add(new TextDecodeBenchmark("text.entities", TextDecodeBenchmark.ENTITY_TITLES));
+
+        return result;
+    }
+
+    private static Result run(Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+
+        try {
+            // 1. Warm up
+            for (int round = 0; round < WARMUP_ROUNDS; round++)
+                runRound(benchmark);
+
+            // 2. Measure
+            final double[] nanos = new double[MEASURED_ROUNDS];
+            final double[] bytes = new double[MEASURED_ROUNDS];
+            int items = 0;
+
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                final long[] measured = runRound(benchmark);
+
+                items = (int) (measured[0] / measured[3]);
+                nanos[round] = (double) measured[1] / measured[0];
+                bytes[round] = measured[2] < 0 ? -1 : (double) measured[2] / measured[0];
+            }
+
+            return new Result(benchmark.getName(), items, median(nanos), median(bytes));
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Run operations until the round's minimum time is reached.
+     * 
+     * @return The items processed, the nanoseconds and bytes allocated for
+     *         them and the number of operations.
+     */
+    private static long[] runRound(Benchmark benchmark) throws Exception {
+        long items = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long operations = 0;
+
+        while (nanos < MIN_ROUND_TIME) {
+            benchmark.prepare();
+
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+            final int processed = benchmark.run();
+            nanos += System.nanoTime() - start;
+
+            final long allocatedAfter = getAllocatedBytes();
+            bytes = allocatedBefore < 0 || bytes < 0 ? -1 :
+                    bytes + allocatedAfter - allocatedBefore;
+
+            if (processed <= 0)
+                throw new IllegalStateException(benchmark.getName() + " processed no items");
+
+            items += processed;
+            operations++;
+        }
+
+        return new long[] {
+                items, nanos, bytes, operations
+        };
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far or -1 if the
+     *         VM cannot tell.
+     */
+    private static long getAllocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread
+                    .currentThread().getId());
+        else
+            return -1;
+    }
+
+    private static double median(double[] values) {
+        final double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        return sorted[sorted.length / 2];
+    }
+
+    private static void print(List<Result> results, Map<String, Result> baseline) {
+        System.out.println(String.format(Locale.US, "%-40s %7s %12s %12s %10s %10s",
+                "Benchmark", "Items", "ns/item", "B/item", "Time", "Alloc"));
+
+        for (Result result : results) {
+            final Result base = baseline.get(result.getName());
+
+            System.out.println(String.format(Locale.US, "%-40s %7d %12.1f %12.1f %10s %10s",
+                    result.getName(), result.getItems(), result.getNanosPerItem(),
+                    result.getBytesPerItem(),
+                    base == null ? "" : change(base.getNanosPerItem(), result.getNanosPerItem()),
+                    base == null ? "" : change(base.getBytesPerItem(), result.getBytesPerItem())));
+        }
+    }
+
+    private static String change(double before, double after) {
+        if (before <= 0 || after < 0)
+            return "n/a";
+
+        return String.format(Locale.US, "%+.1f%%", (after - before) * 100 / before);
+    }
+
+    private static Map<String, Result> readResults(File file) throws IOException {
+        final Map<String, Result> result = new HashMap<String, Result>();
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final Result read = Result.parse(line);
+
+                if (read != null)
+                    result.put(read.getName(), read);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return result;
+    }
+
+    private static void writeResults(File file, String label, List<Result> results)
+            throws IOException {
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+
+        final PrintWriter writer =
+                new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+
+        try {
+            writer.println("# " + label + ", " + new Date() + ", "
+                    + System.getProperty("java.vm.name") + " "
+                    + System.getProperty("java.version"));
+            writer.println("# name\titems\tns/item\tbytes/item");
+
+            for (Result result : results)
+                writer.println(result);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Read options given as pairs of <code>-name value</code>.
+     * 
+     * @param args The command line arguments.
+     * @return The options by name (without the dash).
+     */
+    static Map<String, String> readOptions(String[] args) {
+        final Map<String, String> result = new HashMap<String, String>();
+
+        for (int index = 0; index + 1 < args.length; index += 2)
+            if (args[index].startsWith("-"))
+                result.put(args[index].substring(1), args[index + 1]);
+            else
+                throw new IllegalArgumentException("Unknown argument " + args[index]);
+
+        return result;
+    }
+
+    /**
+     * @return The option's value or the default if not given.
+     */
+    static String get(Map<String, String> options, String key, String defaultValue) {
+        return options.containsKey(key) ? options.get(key) : defaultValue;
+    }
+}
@@ -0,0 +1,299 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The input for the benchmarks. There are the files bundled in the corpus
+ * directory (feeds and podcast lists shaped like the ones found in the wild)
+ * and synthetic feeds and metadata records of any size. The synthetic data is
+ * created from a fixed seed, so it is the same for every run and results stay
+ * comparable across commits.
+ */
+public class Corpus {
+
+    /** The seed for all synthetic data */
+    private static final long SEED = 20131019L;
+    /** The first publication date for synthetic episodes */
+    private static final long FIRST_EPISODE = 1262304000000L;
+    /** The time between two synthetic episodes */
+    private static final long EPISODE_INTERVAL = 7 * 24 * 60 * 60 * 1000L;
+
+    /** The size of the blocks synthetic logos are made of */
+    private static final int LOGO_BLOCK = 10;
+
+    /** Words to build synthetic titles and descriptions from */
+    private static final String[] WORDS = {
+            "podcast", "episode", "interview", "news", "Caf&#233;", "Gr&#252;&#223;e",
+            "Q&amp;A", "&quot;live&quot;", "special", "update", "review", "season", "part",
+            "Android", "Java", "music", "science", "&#8220;best of&#8221;", "week", "talk"
+    };
+
+    /** The directory the bundled files live in */
+    private final File dir;
+
+    /**
+     * Create a corpus.
+     * 
+     * @param dir The directory with the bundled files, it has
+     *            <code>feeds</code> and <code>opml</code> sub-directories.
+     */
+    public Corpus(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return The bundled feed files, sorted by name.
+     */
+    public List<File> getFeeds() {
+        return list("feeds", ".xml");
+    }
+
+    /**
+     * @return The bundled podcast list files, sorted by name.
+     */
+    public List<File> getPodcastLists() {
+        return list("opml", ".opml");
+    }
+
+    /**
+     * Read a file completely.
+     * 
+     * @param file The file to read.
+     * @return The file content.
+     * @throws IOException If the file cannot be read.
+     */
+    public static byte[] read(File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+
+        try {
+            final ByteArrayOutputStream result = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[8192];
+
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                result.write(buffer, 0, read);
+
+            return result.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Create a synthetic RSS feed. Episodes are sorted newest first, like in
+     * most feeds, and have titles with character references, HTML
+     * descriptions, enclosures, publication dates and durations.
+     * 
+     * @param episodes The number of episodes in the feed.
+     * @return The feed, UTF-8 encoded.
+     */
+    public static byte[] createFeed(int episodes) {
+        return createFeed(episodes, "http://example.com/logo.png");
+    }
+
+    /**
+     * Create a synthetic RSS feed, see {@link #createFeed(int)}.
+     * 
+     * @param episodes The number of episodes in the feed.
+     * @param logoUrl The logo URL to put into the feed.
+     * @return The feed, UTF-8 encoded.
+     */
+    public static byte[] createFeed(int episodes, String logoUrl) {
+        final Random random = new Random(SEED + episodes);
+        final SimpleDateFormat format =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        final StringBuilder feed = new StringBuilder(episodes * 1024);
+        feed.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<rss version=\"2.0\" ")
+                .append("xmlns:itunes=\"http://www.itunes.com/dtds/podcast-1.0.dtd\" ")
+                .append("xmlns:content=\"http://purl.org/rss/1.0/modules/content/\">\n")
+                .append("<channel>\n<title>Synthetic podcast with ").append(episodes)
+                .append(" episodes</title>\n<link>http://example.com/</link>\n")
+                .append("<language>en</language>\n<itunes:author>Benchmark</itunes:author>\n")
+                .append("<image><url>").append(logoUrl).append("</url></image>\n");
+
+        for (int index = episodes; index > 0; index--) {
+            final String slug = "episode-" + index;
+
+            feed.append("<item>\n<title>").append(index).append(": ")
+                    .append(words(random, 3 + random.nextInt(5))).append("</title>\n")
+                    .append("<link>http://example.com/").append(slug).append("</link>\n")
+                    .append("<guid isPermaLink=\"false\">").append(slug).append("</guid>\n")
+                    .append("<pubDate>")
+                    .append(format.format(new Date(FIRST_EPISODE + index * EPISODE_INTERVAL)))
+                    .append("</pubDate>\n")
+                    .append("<enclosure url=\"http://example.com/media/").append(slug)
+                    .append(".mp3\" length=\"").append(20000000 + random.nextInt(40000000))
+                    .append("\" type=\"audio/mpeg\"/>\n")
+                    .append("<itunes:duration>").append(random.nextInt(2)).append(':')
+                    .append(10 + random.nextInt(50)).append(':').append(10 + random.nextInt(50))
+                    .append("</itunes:duration>\n")
+                    .append("<itunes:summary>").append(words(random, 20)).append("</itunes:summary>\n")
+                    .append("<description><![CDATA[<p>").append(words(random, 40))
+                    .append("</p><ul><li>").append(words(random, 8)).append("</li><li>")
+                    .append(words(random, 8)).append("</li></ul>]]></description>\n")
+                    .append("<content:encoded><![CDATA[<p>").append(words(random, 80))
+                    .append("</p>]]></content:encoded>\n</item>\n");
+        }
+
+        feed.append("</channel>\n</rss>\n");
+
+        try {
+            return feed.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Create a synthetic podcast logo. It is made of random colored blocks,
+     * so it compresses about as well as a real one.
+     * 
+     * @param dimension The logo's width and height in pixels.
+     * @return The logo, PNG encoded.
+     */
+    public static byte[] createLogo(int dimension) {
+        final Random random = new Random(SEED + dimension);
+        final BufferedImage logo =
+                new BufferedImage(dimension, dimension, BufferedImage.TYPE_INT_RGB);
+        final Graphics graphics = logo.getGraphics();
+
+        for (int x = 0; x < dimension; x += LOGO_BLOCK)
+            for (int y = 0; y < dimension; y += LOGO_BLOCK) {
+                graphics.setColor(new Color(random.nextInt(0x1000000)));
+                graphics.fillRect(x, y, LOGO_BLOCK, LOGO_BLOCK);
+            }
+
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(logo, "png", result);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return result.toByteArray();
+    }
+
+    /**
+     * Create synthetic episode metadata records. The records are spread over
+     * the given number of podcasts, every tenth one has a download, all the
+     * others are marked old or have a resume time.
+     * 
+     * @param records The number of records to create.
+     * @param podcasts The number of podcasts to spread them over.
+     * @return A new thread-safe map with the records, like the episode
+     *         manager keeps them.
+     */
+    public static Map<URL, EpisodeMetadata> createMetadata(int records, int podcasts) {
+        final Random random = new Random(SEED + records);
+        final Map<URL, EpisodeMetadata> result = new ConcurrentHashMap<URL, EpisodeMetadata>();
+
+        for (int index = 0; index < records; index++) {
+            final int podcast = index % podcasts;
+            final EpisodeMetadata meta = new EpisodeMetadata();
+
+            meta.podcastUrl = getPodcastUrl(podcast);
+            if (index % 10 == 0) {
+                meta.downloadId = Long.valueOf(index);
+                meta.filePath = "/sdcard/Podcasts/Podcast " + podcast + "/Episode " + index
+                        + ".mp3";
+                meta.podcastName = "Podcast " + podcast;
+                meta.episodeName = "Episode " + index + ": " + words(random, 5);
+                meta.episodePubDate = new Date(FIRST_EPISODE + index * EPISODE_INTERVAL);
+                meta.episodeDescription = words(random, 40);
+            }
+            else if (random.nextBoolean())
+                meta.isOld = Boolean.TRUE;
+            else
+                meta.resumeAt = Integer.valueOf(random.nextInt(3600000));
+
+            try {
+                result.put(new URL("http://example.com/" + podcast + "/episode-" + index
+                        + ".mp3"), meta);
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param podcast The index of a synthetic podcast.
+     * @return The URL used for that podcast in the synthetic metadata.
+     */
+    public static String getPodcastUrl(int podcast) {
+        return "http://example.com/" + podcast + "/feed.xml";
+    }
+
+    private List<File> list(String subdir, String fileEnding) {
+        final List<File> result = new ArrayList<File>();
+        final File[] files = new File(dir, subdir).listFiles();
+
+        if (files != null) {
+            Arrays.sort(files);
+
+            for (File file : files)
+                if (file.getName().endsWith(fileEnding))
+                    result.add(file);
+        }
+
+        return result;
+    }
+
+    private static String words(Random random, int count) {
+        final StringBuilder result = new StringBuilder();
+
+        for (int index = 0; index < count; index++) {
+            if (index > 0)
+                result.append(' ');
+
+            result.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        return result.toString();
+    }
+}
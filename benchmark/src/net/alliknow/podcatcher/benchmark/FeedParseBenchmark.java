@@ -0,0 +1,77 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import net.alliknow.podcatcher.model.ParserPool;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+
+/**
+ * Measures {@link Podcast#parse(XmlPullParser, int)} on a feed held in
+ * memory, i.e. what is left of a podcast refresh without the network. The
+ * items are the episodes parsed, so the result is the cost of parsing an
+ * episode (including its share of the feed's header).
+ */
+public class FeedParseBenchmark extends Benchmark {
+
+    /** The feed to parse */
+    private final byte[] feed;
+    /** The maximum number of episodes to keep */
+    private final int maxEpisodes;
+    /** The podcast parsed into */
+    private Podcast podcast;
+
+    /**
+     * Create the benchmark.
+     * 
+     * @param name The name to report results under.
+     * @param feed The feed content.
+     * @param maxEpisodes The episode limit to parse with, give a number <= 0
+     *            to parse all episodes.
+     */
+    public FeedParseBenchmark(String name, byte[] feed, int maxEpisodes) {
+        super(name);
+
+        this.feed = feed;
+        this.maxEpisodes = maxEpisodes;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        this.podcast = new Podcast(null, new URL("http://example.com/feed.xml"));
+    }
+
+    @Override
+    public int run() throws Exception {
+        final XmlPullParser parser = ParserPool.acquire(true);
+
+        try {
+            parser.setInput(new ByteArrayInputStream(feed), null);
+            podcast.parse(parser, maxEpisodes);
+        } finally {
+            ParserPool.release(parser);
+        }
+
+        // Feeds without episodes still count as one item
+        return Math.max(1, podcast.getEpisodeNumber());
+    }
+}
@@ -0,0 +1,463 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.alliknow.podcatcher.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP server standing in for the podcast hosts. It serves a number
+ * of synthetic feeds under <code>/feed/<i>n</i>.xml</code>, each pointing to
+ * its logo under <code>/logo/<i>n</i>.png</code>. Connections are kept alive
+ * unless the client says otherwise. All the things that make real hosts slow
+ * or unreliable can be set:
+ * <ul>
+ * <li>{@link #setLatency(int)}: time to the response head</li>
+ * <li>{@link #setBandwidth(int)}: bytes per second for each response</li>
+ * <li>{@link #setGzip(boolean)}: compress if the client accepts it</li>
+ * <li>{@link #setEtags(boolean)}: send ETags and answer matching
+ * <code>If-None-Match</code> requests with 304</li>
+ * <li>{@link #setRedirects(double, int)}: the share of feeds that moved</li>
+ * <li>{@link #setFailures(double)}: the share of requests that fail</li>
+ * </ul>
+ * The server counts what it does, see the getters, and
+ * {@link #resetStats()} starts over.
+ */
+public class FeedServer implements Runnable {
+
+    /** The seed for the failure decisions */
+    private static final long SEED = 20131019L;
+    /** The placeholder for the logo URL in the feed template */
+    private static final String LOGO_PLACEHOLDER = "@LOGO@";
+    /** The time slice we throttle bandwidth in */
+    private static final int THROTTLE_SLICE = 50;
+
+    /** The socket we listen on */
+    private final ServerSocket socket;
+    /** The threads serving connections */
+    private final ExecutorService workers;
+    /** The number of feeds served */
+    private final int feeds;
+    /** The feed content up to the logo URL */
+    private final byte[] feedHead;
+    /** The feed content after the logo URL */
+    private final byte[] feedTail;
+    /** The logo served for all feeds */
+    private final byte[] logo;
+    /** The random numbers for the failure decisions */
+    private final Random random = new Random(SEED);
+
+    private volatile int latency;
+    private volatile int bandwidth;
+    private volatile boolean gzip;
+    private volatile boolean etags = true;
+    private volatile double redirectShare;
+    private volatile int redirectCode = 301;
+    private volatile double failureShare;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger redirected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    /**
+     * Create and start the server on a free port of the loopback interface.
+     * 
+     * @param feeds The number of feeds to serve.
+     * @param episodes The number of episodes per feed.
+     * @param logoDimension The logos' width and height in pixels.
+     * @throws IOException If the server cannot be started.
+     */
+    public FeedServer(int feeds, int episodes, int logoDimension) throws IOException {
+        this.feeds = feeds;
+        this.socket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+
+        // The feed is the same for all, only the logo URL differs
+        final String feed = new String(Corpus.createFeed(episodes, LOGO_PLACEHOLDER), "UTF-8");
+        final int logoStart = feed.indexOf(LOGO_PLACEHOLDER);
+        this.feedHead = feed.substring(0, logoStart).getBytes("UTF-8");
+        this.feedTail = feed.substring(logoStart + LOGO_PLACEHOLDER.length()).getBytes("UTF-8");
+        this.logo = Corpus.createLogo(logoDimension);
+
+        this.workers = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FeedServer #"
+                        + count.incrementAndGet());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        final Thread thread = new Thread(this, "FeedServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param index The feed's index, starting at zero.
+     * @return The URL the feed is served at.
+     * @throws IOException If the URL cannot be created.
+     */
+    public URL getFeedUrl(int index) throws IOException {
+        return getUrl("/feed/" + index + ".xml");
+    }
+
+    /**
+     * @param millis The time to wait before each response head.
+     */
+    public void setLatency(int millis) {
+        this.latency = millis;
+    }
+
+    /**
+     * @param bytesPerSecond The bandwidth for each response, give a number
+     *            <= 0 for no limit.
+     */
+    public void setBandwidth(int bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * @param gzip Whether to compress responses if the client accepts it.
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * @param etags Whether to send ETags and answer conditional requests.
+     */
+    public void setEtags(boolean etags) {
+        this.etags = etags;
+    }
+
+    /**
+     * Set the share of feeds that moved. The same feeds always redirect to
+     * <code>/moved/<i>n</i>.xml</code>.
+     * 
+     * @param share The share of feeds redirected, between 0 and 1.
+     * @param code The status code to redirect with, e.g. 301 or 302.
+     */
+    public void setRedirects(double share, int code) {
+        this.redirectShare = share;
+        this.redirectCode = code;
+    }
+
+    /**
+     * @param share The share of requests answered with 503, between 0 and 1.
+     */
+    public void setFailures(double share) {
+        this.failureShare = share;
+    }
+
+    /**
+     * @return The number of connections accepted.
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * @return The number of requests served.
+     */
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of requests answered with 304.
+     */
+    public int getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    /**
+     * @return The number of requests redirected.
+     */
+    public int getRedirectCount() {
+        return redirected.get();
+    }
+
+    /**
+     * @return The number of requests failed on purpose.
+     */
+    public int getFailureCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return The number of body bytes sent.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return The maximum number of requests served at the same time.
+     */
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * Set all counters back to zero.
+     */
+    public void resetStats() {
+        connections.set(0);
+        requests.set(0);
+        notModified.set(0);
+        redirected.set(0);
+        failed.set(0);
+        bytesSent.set(0);
+        peakInFlight.set(inFlight.get());
+    }
+
+    /**
+     * Stop the server, open connections are dropped.
+     */
+    public void shutdown() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+
+        workers.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        while (!socket.isClosed())
+            try {
+                final Socket client = socket.accept();
+                connections.incrementAndGet();
+
+                workers.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+            } catch (IOException e) {
+                // Socket closed
+            }
+    }
+
+    private URL getUrl(String path) throws IOException {
+        return new URL("http", "127.0.0.1", socket.getLocalPort(), path);
+    }
+
+    private void serve(Socket client) {
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    client.getInputStream(), "ISO-8859-1"));
+            final OutputStream out = client.getOutputStream();
+
+            boolean keepAlive = true;
+            while (keepAlive) {
+                // 1. Read request line and headers
+                final String requestLine = reader.readLine();
+                if (requestLine == null || requestLine.length() == 0)
+                    break;
+
+                final String[] request = requestLine.split(" ");
+                String ifNoneMatch = null;
+                boolean acceptsGzip = false;
+                keepAlive = request.length > 2 && "HTTP/1.1".equals(request[2]);
+
+                String line;
+                while ((line = reader.readLine()) != null && line.length() > 0) {
+                    final int colon = line.indexOf(':');
+                    final String name = line.substring(0, colon).trim();
+                    final String value = line.substring(colon + 1).trim();
+
+                    if ("If-None-Match".equalsIgnoreCase(name))
+                        ifNoneMatch = value;
+                    else if ("Accept-Encoding".equalsIgnoreCase(name))
+                        acceptsGzip = value.contains("gzip");
+                    else if ("Connection".equalsIgnoreCase(name))
+                        keepAlive = keepAlive && !"close".equalsIgnoreCase(value);
+                }
+
+                // 2. Answer it
+                final int running = inFlight.incrementAndGet();
+                requests.incrementAndGet();
+                try {
+                    updatePeak(running);
+                    respond(out, request[1], ifNoneMatch, acceptsGzip, keepAlive);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        } catch (Exception e) {
+            // Client went away, nothing to do
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    private void respond(OutputStream out, String path, String ifNoneMatch,
+            boolean acceptsGzip, boolean keepAlive) throws IOException, InterruptedException {
+        if (latency > 0)
+            Thread.sleep(latency);
+
+        final int index = getIndex(path);
+        final boolean fail;
+        synchronized (random) {
+            fail = random.nextDouble() < failureShare;
+        }
+
+        // 1. Things that go wrong
+        if (fail) {
+            failed.incrementAndGet();
+            writeHead(out, "503 Service Unavailable", keepAlive, "Content-Length: 0");
+        }
+        else if (index < 0 || index >= feeds)
+            writeHead(out, "404 Not Found", keepAlive, "Content-Length: 0");
+        // 2. The feed moved
+        else if (path.startsWith("/feed/") && isMoved(index)) {
+            redirected.incrementAndGet();
+            writeHead(out, redirectCode + " Redirect", keepAlive, "Content-Length: 0",
+                    "Location: " + getUrl("/moved/" + index + ".xml"));
+        }
+        // 3. The actual content
+        else if (path.startsWith("/feed/") || path.startsWith("/moved/"))
+            writeContent(out, "application/rss+xml", "\"feed-" + index + "\"", ifNoneMatch,
+                    acceptsGzip, keepAlive, feedHead,
+                    getUrl("/logo/" + index + ".png").toString().getBytes("UTF-8"), feedTail);
+        else if (path.startsWith("/logo/"))
+            writeContent(out, "image/png", "\"logo-" + index + "\"", ifNoneMatch, false,
+                    keepAlive, logo);
+        else
+            writeHead(out, "404 Not Found", keepAlive, "Content-Length: 0");
+    }
+
+    private void writeContent(OutputStream out, String type, String etag, String ifNoneMatch,
+            boolean acceptsGzip, boolean keepAlive, byte[]... parts) throws IOException,
+            InterruptedException {
+        // 1. The client has it already
+        if (etags && etag.equals(ifNoneMatch)) {
+            notModified.incrementAndGet();
+            writeHead(out, "304 Not Modified", keepAlive, "ETag: " + etag);
+
+            return;
+        }
+
+        // 2. Put the body together, compress if asked to
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final boolean compress = gzip && acceptsGzip;
+        final OutputStream bodyOut = compress ? new GZIPOutputStream(body) : body;
+        for (byte[] part : parts)
+            bodyOut.write(part);
+        bodyOut.close();
+
+        writeHead(out, "200 OK", keepAlive, "Content-Type: " + type,
+                "Content-Length: " + body.size(), etags ? "ETag: " + etag : null,
+                compress ? "Content-Encoding: gzip" : null);
+
+        // 3. Send it, as fast as the bandwidth allows
+        final byte[] content = body.toByteArray();
+        final int slice = bandwidth > 0 ?
+                Math.max(1, bandwidth * THROTTLE_SLICE / 1000) : content.length;
+
+        for (int offset = 0; offset < content.length; offset += slice) {
+            final int length = Math.min(slice, content.length - offset);
+            out.write(content, offset, length);
+            out.flush();
+            bytesSent.addAndGet(length);
+
+            if (bandwidth > 0 && offset + length < content.length)
+                Thread.sleep(THROTTLE_SLICE);
+        }
+    }
+
+    private void writeHead(OutputStream out, String status, boolean keepAlive,
+            String... fields) throws IOException {
+        final StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append("\r\n");
+        for (String field : fields)
+            if (field != null)
+                head.append(field).append("\r\n");
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        head.append("\r\n");
+
+        out.write(toBytes(head.toString()));
+        out.flush();
+    }
+
+    private boolean isMoved(int index) {
+        // The same feeds are moved every time, spread them by hashing
+        final long hash = (SEED + index) * 0x9E3779B97F4A7C15L;
+
+        return (hash >>> 11) / (double) (1L << 53) < redirectShare;
+    }
+
+    private void updatePeak(int running) {
+        int peak;
+        do
+            peak = peakInFlight.get();
+        while (running > peak && !peakInFlight.compareAndSet(peak, running));
+    }
+
+    private static int getIndex(String path) {
+        final int start = path.lastIndexOf('/') + 1;
+        final int end = path.lastIndexOf('.');
+
+        try {
+            return end > start ? Integer.parseInt(path.substring(start, end)) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] toBytes(String text) {
+        try {
+            return text.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import net.alliknow.podcatcher.model.EpisodeMetadataStore;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Measures the episode metadata store, which is what the load and store
+ * metadata tasks spend their time in. The items are the metadata records.
+ */
+public class MetadataStoreBenchmark extends Benchmark {
+
+    /** The operations we can measure */
+    public enum Operation {
+        /** Write all records to an empty store */
+        WRITE,
+
+        /** Write all records again without any changes */
+        WRITE_UNCHANGED,
+
+        /** Load the start-up shards and then all others */
+        LOAD
+    }
+
+    /** The operation to measure */
+    private final Operation operation;
+    /** The number of records */
+    private final int records;
+    /** The number of podcasts the records are spread over */
+    private final int podcasts;
+
+    /** The records to write */
+    private Map<URL, EpisodeMetadata> metadata;
+    /** The directory the store lives in */
+    private File dir;
+    /** The store used */
+    private EpisodeMetadataStore store;
+
+    /**
+     * Create the benchmark.
+     * 
+     * @param operation The operation to measure.
+     * @param records The number of records.
+     * @param podcasts The number of podcasts to spread the records over.
+     */
+    public MetadataStoreBenchmark(Operation operation, int records, int podcasts) {
+        super("metadata." + operation.name().toLowerCase() + "." + records);
+
+        this.operation = operation;
+        this.records = records;
+        this.podcasts = podcasts;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        this.metadata = Corpus.createMetadata(records, podcasts);
+        this.dir = File.createTempFile("metadata", "");
+        dir.delete();
+
+        // Loading and unchanged writes need the records on file
+        if (!Operation.WRITE.equals(operation)) {
+            store = new EpisodeMetadataStore(dir);
+            store.migrate(metadata);
+        }
+    }
+
+    @Override
+    public void prepare() throws Exception {
+        if (Operation.WRITE.equals(operation)) {
+            delete();
+            store = new EpisodeMetadataStore(dir);
+        }
+        else if (Operation.LOAD.equals(operation))
+            store = new EpisodeMetadataStore(dir);
+    }
+
+    @Override
+    public int run() throws Exception {
+        switch (operation) {
+            case WRITE:
+                if (store.write(metadata) != podcasts)
+                    throw new IOException("Failed to write all shards");
+                break;
+            case WRITE_UNCHANGED:
+                if (store.write(metadata) != 0)
+                    throw new IllegalStateException("Shards written without changes");
+                break;
+            case LOAD:
+                final Map<URL, EpisodeMetadata> loaded = store.loadStartupShards();
+                for (int podcast = 0; podcast < podcasts; podcast++)
+                    store.load(Corpus.getPodcastUrl(podcast), loaded);
+
+                if (loaded.size() != records)
+                    throw new IllegalStateException("Loaded " + loaded.size() + " records");
+                break;
+        }
+
+        return records;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        delete();
+    }
+
+    private void delete() {
+        final File[] files = dir.listFiles();
+
+        if (files != null)
+            for (File file : files)
+                file.delete();
+
+        dir.delete();
+    }
+}
@@ -0,0 +1,70 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import net.alliknow.podcatcher.model.tasks.LoadPodcastListTask;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Measures reading a podcast list (OPML) file the way the app does on
+ * start-up and import. The items are the podcasts read.
+ */
+public class PodcastListBenchmark extends Benchmark {
+
+    /** The podcast list file to read */
+    private final File file;
+
+    /**
+     * Create the benchmark.
+     * 
+     * @param name The name to report results under.
+     * @param file The OPML file to read.
+     */
+    public PodcastListBenchmark(String name, File file) {
+        super(name);
+
+        this.file = file;
+    }
+
+    @Override
+    public int run() throws Exception {
+        final List<Podcast> podcasts = new ImportTask(file).load();
+
+        if (podcasts.isEmpty())
+            throw new IllegalStateException("No podcasts read from " + file);
+
+        return podcasts.size();
+    }
+
+    /** The load task, reading from a custom location without a listener */
+    private static class ImportTask extends LoadPodcastListTask {
+
+        private ImportTask(File file) {
+            super(null, null);
+
+            setCustomLocation(file);
+        }
+
+        private List<Podcast> load() {
+            return doInBackground();
+        }
+    }
+}
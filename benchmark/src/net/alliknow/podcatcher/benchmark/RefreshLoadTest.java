@@ -0,0 +1,350 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.alliknow.podcatcher.benchmark;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
+import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.model.ParserPool;
+import net.alliknow.podcatcher.model.PodcastLoadScheduler;
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnections;
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastLogoTask;
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask;
+import net.alliknow.podcatcher.model.types.Podcast;
+import net.alliknow.podcatcher.model.types.Progress;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes a large number of podcasts from a local {@link FeedServer} the
+ * way the app does and reports how long it took. Each round runs the podcast
+ * manager's background update with all podcasts due, using the same
+ * {@link PodcastLoadScheduler}, i.e. its limit of running tasks and skipping
+ * podcasts the executor rejects. Once a podcast is loaded, its logo is
+ * loaded. Moved podcasts follow their feed. The first round finds the logo
+ * cache empty, later ones use it.
+ * The real {@link LoadPodcastTask} and {@link LoadPodcastLogoTask} are used,
+ * on an executor configured like Android's.<br />
+ * Reported per round: wall time, p50/p99 of the time from starting a load to
+ * its call-back, the peak number of requests in flight at the server, the
+ * largest pool size, the peak heap (sum of the heap pools' peaks) and what
+ * the server did.<br />
+ * Arguments (all optional, as <code>-name value</code>): <code>feeds</code>
+ * (500), <code>episodes</code> per feed (50), <code>logo</code> dimension in
+ * pixels (600), <code>latency</code> in ms (20), <code>bandwidth</code> in
+ * bytes per second and response (0, unlimited), <code>gzip</code> (false),
+ * <code>etags</code> (true), <code>redirects</code> share of moved feeds
+ * (0.05), <code>failures</code> share of failed requests (0.01),
+ * <code>rounds</code> (2), <code>logos</code> (true), <code>label</code> and
+ * <code>out</code> to append the rounds to a file.
+ */
+public class RefreshLoadTest {
+
+    /** The maximum time we wait for a round */
+    private static final int ROUND_TIMEOUT = 10;
+    /** The app's connection pool settings */
+    private static final int HTTP_MAX_IDLE_CONNECTIONS = 4;
+    private static final long HTTP_KEEP_ALIVE = 2 * 60 * 1000;
+
+    /**
+     * Run the load test.
+     * 
+     * @param args See class documentation.
+     * @throws Exception If the test cannot be run.
+     */
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = BenchmarkRunner.readOptions(args);
+        final int feeds = Integer.parseInt(BenchmarkRunner.get(options, "feeds", "500"));
+        final int rounds = Integer.parseInt(BenchmarkRunner.get(options, "rounds", "2"));
+        final boolean logos = Boolean.parseBoolean(BenchmarkRunner.get(options, "logos", "true"));
+
+        // 1. Start the server
+        final FeedServer server = new FeedServer(feeds,
+                Integer.parseInt(BenchmarkRunner.get(options, "episodes", "50")),
+                Integer.parseInt(BenchmarkRunner.get(options, "logo", "600")));
+        server.setLatency(Integer.parseInt(BenchmarkRunner.get(options, "latency", "20")));
+        server.setBandwidth(Integer.parseInt(BenchmarkRunner.get(options, "bandwidth", "0")));
+        server.setGzip(Boolean.parseBoolean(BenchmarkRunner.get(options, "gzip", "false")));
+        server.setEtags(Boolean.parseBoolean(BenchmarkRunner.get(options, "etags", "true")));
+        server.setRedirects(Double.parseDouble(BenchmarkRunner.get(options, "redirects", "0.05")),
+                301);
+        server.setFailures(Double.parseDouble(BenchmarkRunner.get(options, "failures", "0.01")));
+
+        // 2. Set up the connection layer like the app does
+        final File cacheDir = File.createTempFile("loadtest", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        final Context context = new Context() {
+
+            @Override
+            public FileInputStream openFileInput(String name) throws FileNotFoundException {
+                throw new FileNotFoundException(name);
+            }
+
+            @Override
+            public File getCacheDir() {
+                return cacheDir;
+            }
+        };
+        HttpConnections.configure(context, HTTP_MAX_IDLE_CONNECTIONS, HTTP_KEEP_ALIVE);
+
+        final List<Podcast> podcasts = new ArrayList<Podcast>();
+        for (int index = 0; index < feeds; index++)
+            podcasts.add(new Podcast("Podcast " + index, server.getFeedUrl(index)));
+
+        // 3. Run the rounds
+        final List<String> report = new ArrayList<String>();
+        System.out.println(String.format(Locale.US,
+                "%5s %6s %6s %6s %6s %8s %7s %7s %6s %5s %8s %6s %5s %5s %8s %5s",
+                "Round", "Loaded", "Failed", "Skip", "Logos", "Wall ms", "p50 ms", "p99 ms",
+                "Flight", "Pool", "Heap MB", "Reqs", "304", "3xx", "KB", "Conns"));
+
+        try {
+            for (int round = 1; round <= rounds; round++) {
+                server.resetStats();
+                resetPeakHeap();
+
+                final Round result = new Round(context, podcasts, logos);
+                result.run();
+
+                final String line = String.format(Locale.US,
+                        "%5d %6d %6d %6d %6d %8d %7d %7d %6d %5d %8.1f %6d %5d %5d %8d %5d",
+                        round, result.loaded, result.failed, result.skipped, result.logosLoaded,
+                        result.wallTime, result.getPercentile(50), result.getPercentile(99),
+                        server.getPeakInFlight(), getLargestPoolSize(),
+                        getPeakHeap() / (1024 * 1024.0), server.getRequestCount(),
+                        server.getNotModifiedCount(), server.getRedirectCount(),
+                        server.getBytesSent() / 1024, server.getConnectionCount());
+
+                System.out.println(line);
+                report.add(line);
+            }
+        } finally {
+            server.shutdown();
+            delete(cacheDir);
+        }
+
+        System.out.println(String.format(Locale.US, "Parsers created: %d, reused: %d, "
+                + "HTTP requests: %d", ParserPool.getCreatedCount(),
+                ParserPool.getReusedCount(), HttpConnections.getRequestCount()));
+
+        final String outFile = BenchmarkRunner.get(options, "out", "");
+        if (outFile.length() > 0)
+            writeReport(new File(outFile), BenchmarkRunner.get(options, "label", "unlabeled"),
+                    args, report);
+    }
+
+    /**
+     * One refresh of all podcasts. Everything but {@link #run()} happens on
+     * the main thread, like in the podcast manager.
+     */
+    private static class Round implements OnLoadPodcastListener, OnLoadPodcastLogoListener {
+
+        private final PodcastLoadScheduler scheduler;
+        private final List<Podcast> podcasts;
+        private final boolean logos;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /** The start times of the loads running by podcast */
+        private final Map<Podcast, Long> loading = new HashMap<Podcast, Long>();
+        /** The times from starting a load to its call-back */
+        private final List<Long> latencies = new ArrayList<Long>();
+
+        private int loaded;
+        private int failed;
+        private int skipped;
+        private int logosLoaded;
+        private long wallTime;
+
+        private Round(Context context, List<Podcast> podcasts, boolean logos) {
+            this.scheduler = new PodcastLoadScheduler(context, this, this);
+            this.podcasts = podcasts;
+            this.logos = logos;
+        }
+
+        private void run() throws InterruptedException {
+            final long start = System.nanoTime();
+
+            AsyncTask.runOnMainThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    update();
+                }
+            });
+
+            if (!done.await(ROUND_TIMEOUT, TimeUnit.MINUTES))
+                throw new IllegalStateException("Round did not finish in time");
+
+            wallTime = (System.nanoTime() - start) / 1000000;
+        }
+
+        private void update() {
+            // The update task, with all podcasts due
+            final long start = System.nanoTime();
+            skipped = podcasts.size() - scheduler.update(podcasts, new Date(Long.MAX_VALUE));
+
+            for (Podcast podcast : podcasts)
+                if (scheduler.isLoading(podcast))
+                    loading.put(podcast, start);
+
+            checkDone();
+        }
+
+        @Override
+        public void onPodcastLoadProgress(Podcast podcast, Progress progress) {
+            // Not measured
+        }
+
+        @Override
+        public void onPodcastLoaded(Podcast podcast) {
+            loaded++;
+            finish(podcast);
+
+            // Follow moved feeds like the podcast manager (in memory only)
+            if (podcast.getMovedTo() != null) {
+                scheduler.move(podcast, podcast.getMovedTo());
+                podcast.setMovedTo(null);
+            }
+
+            if (logos)
+                scheduler.loadLogo(podcast, -1, false);
+
+            checkDone();
+        }
+
+        @Override
+        public void onPodcastLoadFailed(Podcast podcast) {
+            failed++;
+            finish(podcast);
+            checkDone();
+        }
+
+        @Override
+        public void onPodcastLogoLoaded(Podcast podcast) {
+            logosLoaded++;
+            scheduler.finishLogoLoad(podcast);
+            checkDone();
+        }
+
+        @Override
+        public void onPodcastLogoLoadFailed(Podcast podcast) {
+            scheduler.finishLogoLoad(podcast);
+            checkDone();
+        }
+
+        private void finish(Podcast podcast) {
+            scheduler.finishLoad(podcast);
+            final Long start = loading.remove(podcast);
+
+            if (start != null)
+                latencies.add((System.nanoTime() - start) / 1000000);
+        }
+
+        private void checkDone() {
+            if (scheduler.getLoadCount() == 0 && scheduler.getLogoLoadCount() == 0)
+                done.countDown();
+        }
+
+        private long getPercentile(int percentile) {
+            if (latencies.isEmpty())
+                return -1;
+
+            final List<Long> sorted = new ArrayList<Long>(latencies);
+            Collections.sort(sorted);
+
+            return sorted.get(Math.min(sorted.size() - 1,
+                    (int) Math.ceil(sorted.size() * percentile / 100.0) - 1));
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (MemoryType.HEAP.equals(pool.getType()))
+                pool.resetPeakUsage();
+    }
+
+    private static long getPeakHeap() {
+        long result = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (MemoryType.HEAP.equals(pool.getType()))
+                result += pool.getPeakUsage().getUsed();
+
+        return result;
+    }
+
+    private static int getLargestPoolSize() {
+        return AsyncTask.THREAD_POOL_EXECUTOR instanceof ThreadPoolExecutor ?
+                ((ThreadPoolExecutor) AsyncTask.THREAD_POOL_EXECUTOR).getLargestPoolSize() : -1;
+    }
+
+    private static void writeReport(File file, String label, String[] args, List<String> report)
+            throws IOException {
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+
+        final PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), "UTF-8"));
+
+        try {
+            final StringBuilder arguments = new StringBuilder();
+            for (String arg : args)
+                arguments.append(' ').append(arg);
+
+            writer.println("# " + label + ", " + new Date() + ":" + arguments);
+            for (String line : report)
+                writer.println(line);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void delete(File dir) {
+        final File[] files = dir.listFiles();
+
+        if (files != null)
+            for (File file : files)
+                if (file.isDirectory())
+                    delete(file);
+                else
+                    file.delete();
+
+        dir.delete();
+    }
+}
@@ -0,0 +1,88 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import net.alliknow.podcatcher.model.tasks.remote.BufferPool;
+import net.alliknow.podcatcher.model.tasks.remote.LoadRemoteFileTask;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Measures {@link LoadRemoteFileTask#loadFile(URL)} loading a feed from a
+ * local {@link FeedServer}, i.e. the client side of a refresh without the
+ * parsing. The items are the kilobytes loaded, so the allocations reported
+ * show what the copying between buffers costs per kilobyte. Only the loading
+ * thread's allocations are counted, the server's threads are not.
+ */
+public class RemoteLoadBenchmark extends Benchmark {
+
+    /** The number of episodes in the feed loaded */
+    private final int episodes;
+    /** The server to load from */
+    private FeedServer server;
+    /** The feed location */
+    private URL url;
+    /** The buffers allocated by the pool before the benchmark */
+    private int allocations;
+
+    /**
+     * Create the benchmark.
+     *
+     * @param name The name to report results under.
+     * @param episodes The number of episodes in the feed loaded.
+     */
+    public RemoteLoadBenchmark(String name, int episodes) {
+        super(name);
+
+        this.episodes = episodes;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        this.server = new FeedServer(1, episodes, 16);
+        this.url = server.getFeedUrl(0);
+        this.allocations = BufferPool.getAllocationCount();
+    }
+
+    @Override
+    public int run() throws Exception {
+        return new Loader().load(url).length / 1024;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        server.shutdown();
+
+        System.out.println(getName() + ": " + (BufferPool.getAllocationCount() - allocations)
+                + " buffers allocated by the pool");
+    }
+
+    /** The load task, loading the file without a listener */
+    private static class Loader extends LoadRemoteFileTask<Void, Void> {
+
+        private byte[] load(URL remote) throws IOException {
+            return loadFile(remote);
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import java.util.Locale;
+
+/**
+ * The outcome of running a benchmark. Results are written one per line,
+ * separated by tabs, so they can be stored and compared to the results of
+ * later runs.
+ */
+public class Result {
+
+    /** The benchmark's name */
+    private final String name;
+    /** The items processed per operation */
+    private final int items;
+    /** The median time per item in nanoseconds */
+    private final double nanosPerItem;
+    /** The bytes allocated per item, negative if not available */
+    private final double bytesPerItem;
+
+    /**
+     * Create a new result.
+     * 
+     * @param name The benchmark's name.
+     * @param items The items processed per operation.
+     * @param nanosPerItem The median time per item in nanoseconds.
+     * @param bytesPerItem The bytes allocated per item, give a negative number
+     *            if the VM cannot tell.
+     */
+    public Result(String name, int items, double nanosPerItem, double bytesPerItem) {
+        this.name = name;
+        this.items = items;
+        this.nanosPerItem = nanosPerItem;
+        this.bytesPerItem = bytesPerItem;
+    }
+
+    /**
+     * Read a result from a line written by {@link #toString()}.
+     * 
+     * @param line The line to read.
+     * @return The result or <code>null</code> if the line is not a result.
+     */
+    public static Result parse(String line) {
+        final String[] fields = line.split("\t");
+        if (line.startsWith("#") || fields.length != 4)
+            return null;
+
+        try {
+            return new Result(fields[0], Integer.parseInt(fields[1]),
+                    Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The benchmark's name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The items processed per operation.
+     */
+    public int getItems() {
+        return items;
+    }
+
+    /**
+     * @return The median time per item in nanoseconds.
+     */
+    public double getNanosPerItem() {
+        return nanosPerItem;
+    }
+
+    /**
+     * @return The bytes allocated per item, negative if not available.
+     */
+    public double getBytesPerItem() {
+        return bytesPerItem;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s\t%d\t%.1f\t%.1f", name, items, nanosPerItem,
+                bytesPerItem);
+    }
+}
@@ -0,0 +1,74 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.benchmark;
+
+import net.alliknow.podcatcher.model.TextDecoder;
+
+/**
+ * Measures {@link TextDecoder#decode(String)} on typical feed titles. The
+ * items are the titles decoded. The app's alternative, Html.fromHtml(), only
+ * exists on the device (the stand-in here just drops tags), so compare runs
+ * against a baseline instead of against it.
+ */
+public class TextDecodeBenchmark extends Benchmark {
+
+    /** Titles without any markup or entities, the decoder's fast path */
+    public static final String[] PLAIN_TITLES = {
+            "Plain episode title",
+            "Folge 42: Gr\u00fc\u00dfe aus K\u00f6ln",
+            "Line\nbreaks\t and   spaces",
+            "Episode 117 - The one with the long title that goes on and on"
+    };
+
+    /** Titles with entities and character data sections */
+    public static final String[] ENTITY_TITLES = {
+            "Q&amp;A with the team",
+            "Tom &amp; Jerry&#8217;s &quot;Best of&quot; &ndash; Part 2",
+            "Caf&eacute; &#x263A; &hellip; &#233;t&eacute;",
+            "<![CDATA[Raw & unescaped]]> title",
+            "&euro;5 &trade; &copy; 2013"
+    };
+
+    /** The titles to decode */
+    private final String[] titles;
+
+    /**
+     * Create the benchmark.
+     *
+     * @param name The name to report results under.
+     * @param titles The titles to decode in each operation.
+     */
+    public TextDecodeBenchmark(String name, String[] titles) {
+        super(name);
+
+        this.titles = titles;
+    }
+
+    @Override
+    public int run() throws Exception {
+        int length = 0;
+        for (String title : titles)
+            length += TextDecoder.decode(title).length();
+
+        // Keep the JIT from dropping the work
+        if (length == 0)
+            throw new IllegalStateException("Nothing decoded");
+
+        return titles.length;
+    }
+}
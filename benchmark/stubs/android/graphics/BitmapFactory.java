@@ -0,0 +1,83 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+package android.graphics;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Plain JVM stand-in for the Android bitmap factory used by the benchmarks.
+ * Images are decoded with image I/O and sampled down by scaling, so decoding
+ * costs about what it costs on a device.
+ */
+public final class BitmapFactory {
+
+    public static class Options {
+
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public byte[] inTempStorage;
+        public int outWidth;
+        public int outHeight;
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+        try {
+            return decode(ImageIO.read(new ByteArrayInputStream(data, offset, length)), opts);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static Bitmap decodeFile(String pathName, Options opts) {
+        try {
+            return decode(ImageIO.read(new File(pathName)), opts);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Bitmap decode(BufferedImage image, Options opts) {
+        if (image == null)
+            return null;
+
+        if (opts != null) {
+            opts.outWidth = image.getWidth();
+            opts.outHeight = image.getHeight();
+
+            if (opts.inJustDecodeBounds)
+                return null;
+            else if (opts.inSampleSize > 1) {
+                final int width = Math.max(1, image.getWidth() / opts.inSampleSize);
+                final int height = Math.max(1, image.getHeight() / opts.inSampleSize);
+                final BufferedImage sampled =
+                        new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                sampled.getGraphics().drawImage(
+                        image.getScaledInstance(width, height, Image.SCALE_FAST), 0, 0, null);
+
+                return new Bitmap(sampled);
+            }
+        }
+
+        return new Bitmap(image);
+    }
+}
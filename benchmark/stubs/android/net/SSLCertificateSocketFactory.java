@@ -0,0 +1,31 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+package android.net;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Plain JVM stand-in for the Android SSL socket factory used by the
+ * benchmarks. Hands out the JVM's default factory.
+ */
+public final class SSLCertificateSocketFactory {
+
+    public static SSLSocketFactory getDefault(int handshakeTimeoutMillis, SSLSessionCache cache) {
+        return HttpsURLConnection.getDefaultSSLSocketFactory();
+    }
+}
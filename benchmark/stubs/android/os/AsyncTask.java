@@ -0,0 +1,152 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+package android.os;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plain JVM stand-in for the Android async task used by the benchmarks. The
+ * benchmarks call {@link #doInBackground(Object...)} directly, there is no
+ * background thread and progress is reported right away. Tasks started via
+ * {@link #executeOnExecutor(Executor, Object...)} run like on Android:
+ * progress and results are posted to a single main thread, see
+ * {@link #runOnMainThread(Runnable)}.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /** The main thread everything is posted to, not part of the Android API */
+    private static final ExecutorService main = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "main");
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+
+    /** Same pool configuration as on Android 4.4 */
+    public static final Executor THREAD_POOL_EXECUTOR;
+
+    static {
+        final AtomicInteger count = new AtomicInteger();
+        final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(128);
+
+        THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(CPU_COUNT + 1, CPU_COUNT * 2 + 1, 1,
+                TimeUnit.SECONDS, queue, new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "AsyncTask #"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+    }
+
+    /** Whether the task was cancelled */
+    private volatile boolean cancelled;
+    /** Whether the task was started on an executor */
+    private volatile boolean executed;
+
+    protected abstract Result doInBackground(Params... params);
+
+    protected void onPostExecute(Result result) {
+    }
+
+    protected void onCancelled(Result result) {
+    }
+
+    protected void onProgressUpdate(Progress... values) {
+    }
+
+    public final AsyncTask<Params, Progress, Result> executeOnExecutor(Executor exec,
+            final Params... params) {
+        if (executed)
+            throw new IllegalStateException("Task already executed");
+
+        executed = true;
+        exec.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final Result result = doInBackground(params);
+
+                runOnMainThread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (cancelled)
+                            onCancelled(result);
+                        else
+                            onPostExecute(result);
+                    }
+                });
+            }
+        });
+
+        return this;
+    }
+
+    protected final void publishProgress(final Progress... values) {
+        if (executed)
+            runOnMainThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    onProgressUpdate(values);
+                }
+            });
+        else
+            onProgressUpdate(values);
+    }
+
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        cancelled = true;
+
+        return true;
+    }
+
+    public final boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Run the given code on the main thread, this is where results and
+     * progress of executed tasks go. Not part of the Android API, it replaces
+     * handlers and loopers in the stand-ins.
+     * 
+     * @param runnable The code to run.
+     */
+    public static void runOnMainThread(Runnable runnable) {
+        main.execute(runnable);
+    }
+}
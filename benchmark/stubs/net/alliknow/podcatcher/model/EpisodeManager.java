@@ -0,0 +1,41 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.alliknow.podcatcher.model;
+
+import net.alliknow.podcatcher.model.types.Podcast;
+
+/**
+ * Benchmark stand-in for the episode manager, which needs the application.
+ * There is no episode metadata, so it is always available.
+ */
+public final class EpisodeManager {
+
+    /** The single instance */
+    private static final EpisodeManager manager = new EpisodeManager();
+
+    public static EpisodeManager getInstance() {
+        return manager;
+    }
+
+    public void loadEpisodeMetadata(Podcast podcast) {
+        // Nothing to load
+    }
+
+    public void runWhenEpisodeMetadataIsLoaded(Podcast podcast, Runnable runnable) {
+        runnable.run();
+    }
+}
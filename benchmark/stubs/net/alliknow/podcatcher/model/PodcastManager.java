@@ -0,0 +1,49 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+/**
+ * Benchmark stand-in for the podcast manager. The real one needs the
+ * application, the model classes benchmarked only need its constants and
+ * look-ups.
+ */
+public final class PodcastManager {
+
+    /** The name of the file we store our saved podcasts in (as OPML) */
+    public static final String OPML_FILENAME = "podcasts.opml";
+    /** The OPML file encoding */
+    public static final String OPML_FILE_ENCODING = "utf8";
+
+    /** The single instance */
+    private static final PodcastManager manager = new PodcastManager();
+
+    public static PodcastManager getInstance() {
+        return manager;
+    }
+
+    public Podcast findPodcastForUrl(String url) {
+        return null;
+    }
+
+    public Episode findEpisodeForUrl(String url) {
+        return null;
+    }
+}
@@ -24,12 +24,13 @@ import android.os.Bundle;
 
 import net.alliknow.podcatcher.listeners.OnAddSuggestionListener;
 import net.alliknow.podcatcher.listeners.OnLoadSuggestionListener;
+import net.alliknow.podcatcher.model.SuggestionIndex;
 import net.alliknow.podcatcher.model.SuggestionManager;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.view.fragments.SuggestionFragment;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -52,7 +53,7 @@ public class AddSuggestionActivity extends BaseActivity implements
         super.onCreate(savedInstanceState);
 
         // Get suggestions manager and register call-back
-        suggestionManager = SuggestionManager.getInstance();
+        suggestionManager = SuggestionManager.getInstance((Podcatcher) getApplication());
         suggestionManager.addLoadSuggestionListListener(this);
     }
 
@@ -91,19 +92,20 @@ public class AddSuggestionActivity extends BaseActivity implements
     }
 
     @Override
-    public void onSuggestionsLoaded(List<Podcast> suggestions) {
+    public void onFeaturedSuggestionsLoaded(SuggestionIndex featured) {
+        // Show what we have until the complete catalog is there
+        onSuggestionsLoaded(featured);
+    }
+
+    @Override
+    public void onSuggestionsLoaded(SuggestionIndex suggestions) {
         // Currently already existing podcasts (to be filtered out)
         List<Podcast> podcastList = podcastManager.getPodcastList();
-        // Resulting list
-        List<Podcast> filteredSuggestionList = new ArrayList<Podcast>();
-
-        // Do filter!
-        for (Podcast suggestion : suggestions)
-            if (podcastList == null || !podcastList.contains(suggestion))
-                filteredSuggestionList.add(suggestion);
+        BitSet existing = podcastList == null ?
+                new BitSet() : suggestions.getPositions(podcastList);
 
         // Filter list and update UI
-        suggestionFragment.setList(filteredSuggestionList);
+        suggestionFragment.setSuggestions(suggestions, existing);
     }
 
     @Override
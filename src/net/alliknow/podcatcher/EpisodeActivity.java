@@ -28,19 +28,17 @@ import android.widget.SeekBar;
 import net.alliknow.podcatcher.listeners.OnChangeEpisodeStateListener;
 import net.alliknow.podcatcher.listeners.OnChangePlaylistListener;
 import net.alliknow.podcatcher.listeners.OnDownloadEpisodeListener;
+import net.alliknow.podcatcher.listeners.OnPlaybackProgressListener;
 import net.alliknow.podcatcher.listeners.OnSelectEpisodeListener;
 import net.alliknow.podcatcher.listeners.PlayServiceListener;
 import net.alliknow.podcatcher.listeners.PlayerListener;
 import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.services.PlayEpisodeService;
 import net.alliknow.podcatcher.services.PlayEpisodeService.PlayServiceBinder;
 import net.alliknow.podcatcher.view.fragments.EpisodeFragment;
 import net.alliknow.podcatcher.view.fragments.PlayerFragment;
 
-import java.lang.ref.WeakReference;
-import java.util.Timer;
-import java.util.TimerTask;
-
 /**
  * Show episode activity. This is thought of as an abstract activity for an app
  * only consisting of an episode view and the player. Sub-classes could extend
@@ -48,7 +46,8 @@ import java.util.TimerTask;
  */
 public abstract class EpisodeActivity extends BaseActivity implements
         PlayerListener, PlayServiceListener, OnSelectEpisodeListener,
-        OnDownloadEpisodeListener, OnChangePlaylistListener, OnChangeEpisodeStateListener {
+        OnDownloadEpisodeListener, OnChangePlaylistListener, OnChangeEpisodeStateListener,
+        OnPlaybackProgressListener {
 
     /** Key used to store episode URL in intent or bundle */
     public static final String EPISODE_URL_KEY = "episode_url";
@@ -61,45 +60,11 @@ public abstract class EpisodeActivity extends BaseActivity implements
     /** Play service */
     protected PlayEpisodeService service;
 
-    /** Play update timer */
-    private Timer playUpdateTimer = new Timer();
-    /** Play update timer task */
-    private TimerTask playUpdateTimerTask;
-    /** Flag for visibility, coordinating timer */
+    /** The interval we want to update the player UI at while playing */
+    private static final int PLAY_PROGRESS_INTERVAL = 1000;
+    /** Flag for visibility, coordinating progress updates */
     private boolean visible = false;
 
-    /** The actual task to regularly update the UI on playback */
-    private static class PlayProgressTask extends TimerTask {
-
-        /** Use weak reference to avoid any leaking of activities */
-        private final WeakReference<EpisodeActivity> activityReference;
-
-        /**
-         * Create a new update task.
-         * 
-         * @param episodeActivity Activity to call update player for.
-         */
-        public PlayProgressTask(EpisodeActivity episodeActivity) {
-            activityReference = new WeakReference<EpisodeActivity>(episodeActivity);
-        }
-
-        @Override
-        public void run() {
-            final EpisodeActivity episodeActivity = activityReference.get();
-            if (episodeActivity != null) {
-                // Need to run on UI thread, since we want to update the play
-                // button
-                episodeActivity.runOnUiThread(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        episodeActivity.updatePlayerUi();
-                    }
-                });
-            }
-        }
-    }
-
     /**
      * Get the fragments needed by this activity from the fragment manager and
      * set member fields. Sub-classes should call this after setting their
@@ -143,9 +108,9 @@ public abstract class EpisodeActivity extends BaseActivity implements
         super.onStart();
         this.visible = true;
 
-        // This is safe since it actually only starts the timer if it is
-        // actually needed
-        startPlayProgressTimer();
+        // This is safe since it actually only subscribes if the service is
+        // already connected
+        startPlayProgressUpdates();
     }
 
     @Override
@@ -161,16 +126,13 @@ public abstract class EpisodeActivity extends BaseActivity implements
         super.onStop();
         this.visible = false;
 
-        stopPlayProgressTimer();
+        stopPlayProgressUpdates();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
-        // Stop the timer
-        playUpdateTimer.cancel();
-
         // Disconnect from episode manager
         episodeManager.removeDownloadListener(this);
         episodeManager.removePlaylistListener(this);
@@ -179,6 +141,7 @@ public abstract class EpisodeActivity extends BaseActivity implements
         // Detach from play service (prevents leaking)
         if (service != null) {
             service.removePlayServiceListener(this);
+            service.removePlaybackProgressListener(this);
             unbindService(connection);
         }
     }
@@ -243,6 +206,11 @@ public abstract class EpisodeActivity extends BaseActivity implements
         updateDownloadUi();
     }
 
+    @Override
+    public void onDownloadProgress(Episode episode, Progress progress) {
+        // Nothing to do here, the download UI does not show any progress
+    }
+
     @Override
     public final void onDownloadDeleted() {
         updateDownloadUi();
@@ -286,8 +254,8 @@ public abstract class EpisodeActivity extends BaseActivity implements
 
     @Override
     public void onToggleLoad() {
-        // Stop timer task
-        stopPlayProgressTimer();
+        // Stop progress updates
+        stopPlayProgressUpdates();
 
         // Stop called: unload episode
         if (service.isLoadedEpisode(selection.getEpisode()))
@@ -306,11 +274,11 @@ public abstract class EpisodeActivity extends BaseActivity implements
         // Player is playing
         if (service.isPlaying()) {
             service.pause();
-            stopPlayProgressTimer();
+            stopPlayProgressUpdates();
         } // Player in pause
         else {
             service.resume();
-            startPlayProgressTimer();
+            startPlayProgressUpdates();
         }
 
         updatePlayerUi();
@@ -324,7 +292,7 @@ public abstract class EpisodeActivity extends BaseActivity implements
 
     @Override
     public void onPlaybackStarted() {
-        startPlayProgressTimer();
+        startPlayProgressUpdates();
     }
 
     @Override
@@ -332,9 +300,9 @@ public abstract class EpisodeActivity extends BaseActivity implements
         updatePlayerUi();
 
         if (service != null && service.isPlaying())
-            startPlayProgressTimer();
+            startPlayProgressUpdates();
         else
-            stopPlayProgressTimer();
+            stopPlayProgressUpdates();
     }
 
     @Override
@@ -347,23 +315,23 @@ public abstract class EpisodeActivity extends BaseActivity implements
 
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {
-        stopPlayProgressTimer();
+        stopPlayProgressUpdates();
     }
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
-        startPlayProgressTimer();
+        startPlayProgressUpdates();
     }
 
     @Override
     public void onStopForBuffering() {
-        stopPlayProgressTimer();
+        stopPlayProgressUpdates();
         updatePlayerUi();
     }
 
     @Override
     public void onResumeFromBuffering() {
-        startPlayProgressTimer();
+        startPlayProgressUpdates();
     }
 
     @Override
@@ -374,14 +342,14 @@ public abstract class EpisodeActivity extends BaseActivity implements
     @Override
     public void onPlaybackComplete() {
         if (episodeManager.isPlaylistEmpty()) {
-            stopPlayProgressTimer();
+            stopPlayProgressUpdates();
             updatePlayerUi();
         }
     }
 
     @Override
     public void onError() {
-        stopPlayProgressTimer();
+        stopPlayProgressUpdates();
         service.reset();
 
         updatePlayerUi();
@@ -471,31 +439,22 @@ public abstract class EpisodeActivity extends BaseActivity implements
         }
     }
 
-    private void startPlayProgressTimer() {
-        // Do not start the task if there is no progress to monitor and we are
-        // visible (this fixes the case of stacked activities running the timer)
-        if (visible && service != null && service.isPlaying()) {
-            // Only start task if it isn't already running and
-            // there is actually some progress to monitor
-            if (playUpdateTimerTask == null) {
-                PlayProgressTask task = new PlayProgressTask(this);
-
-                try {
-                    playUpdateTimer.schedule(task, 0, 1000);
-                    playUpdateTimerTask = task;
-                } catch (IllegalStateException e) {
-                    // In rare cases, the timer might be canceled (the activity
-                    // is going down) while schedule() is called, skip...
-                }
-            }
-        }
+    @Override
+    public void onPlaybackProgress(int position, int duration) {
+        updatePlayerUi();
     }
 
-    private void stopPlayProgressTimer() {
-        if (playUpdateTimerTask != null) {
-            playUpdateTimerTask.cancel();
-            playUpdateTimerTask = null;
-        }
+    private void startPlayProgressUpdates() {
+        // Do not subscribe if we are not visible (this fixes the case of
+        // stacked activities updating their UI), the service's clock will
+        // only call us while there is actually some progress to monitor
+        if (visible && service != null)
+            service.addPlaybackProgressListener(this, PLAY_PROGRESS_INTERVAL);
+    }
+
+    private void stopPlayProgressUpdates() {
+        if (service != null)
+            service.removePlaybackProgressListener(this);
     }
 
     /** Defines callbacks for service binding, passed to bindService() */
@@ -511,9 +470,8 @@ public abstract class EpisodeActivity extends BaseActivity implements
             // Update player UI
             updatePlayerUi();
 
-            // Restart play progress timer task if service is playing
-            if (service.isPlaying())
-                startPlayProgressTimer();
+            // Subscribe to play progress updates
+            startPlayProgressUpdates();
         }
 
         @Override
@@ -23,17 +23,20 @@ import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.text.format.Formatter;
 import android.view.View;
 
 import net.alliknow.podcatcher.listeners.OnLoadDownloadsListener;
 import net.alliknow.podcatcher.listeners.OnLoadPlaylistListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.listeners.OnLoadPodcastsProgressListener;
 import net.alliknow.podcatcher.listeners.OnReverseSortingListener;
 import net.alliknow.podcatcher.listeners.OnSelectPodcastListener;
 import net.alliknow.podcatcher.listeners.OnToggleFilterListener;
 import net.alliknow.podcatcher.model.tasks.LoadDownloadsTask;
 import net.alliknow.podcatcher.model.tasks.LoadPlaylistTask;
+import net.alliknow.podcatcher.model.types.BatchProgress;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
@@ -56,7 +59,7 @@ import java.util.TreeSet;
 public abstract class EpisodeListActivity extends EpisodeActivity implements
         OnLoadPodcastListener, OnLoadPodcastLogoListener, OnSelectPodcastListener,
         OnLoadDownloadsListener, OnLoadPlaylistListener, OnToggleFilterListener,
-        OnReverseSortingListener {
+        OnReverseSortingListener, OnLoadPodcastsProgressListener {
 
     /** Key used to save the current content mode in bundle */
     public static final String MODE_KEY = "MODE_KEY";
@@ -117,6 +120,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
         // on the call-backs properly once we have our fragment
         podcastManager.addLoadPodcastListener(this);
         podcastManager.addLoadPodcastLogoListener(this);
+        podcastManager.addLoadPodcastsProgressListener(this);
     }
 
     @Override
@@ -141,6 +145,7 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
         podcastManager.removeLoadPodcastListener(this);
         podcastManager.removeLoadPodcastLogoListener(this);
+        podcastManager.removeLoadPodcastsProgressListener(this);
     }
 
     @Override
@@ -330,6 +335,16 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             episodeListFragment.showProgress(progress);
     }
 
+    @Override
+    public void onPodcastsLoadProgress(BatchProgress progress) {
+        // Only interesting while all podcasts are selected and some are still
+        // loading, the final update is done by updateActionBar()
+        if (selection.isAll() && progress.getProgress() < progress.getTotal())
+            contentSpinner.setSubtitle(getString(R.string.podcast_load_multiple_progress_bytes,
+                    progress.getProgress(), progress.getTotal(),
+                    Formatter.formatShortFileSize(this, progress.getBytes())));
+    }
+
     @Override
     public void onPodcastLoaded(Podcast podcast) {
         // Update list fragment to show episode list
@@ -350,8 +365,9 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
             updateDivider();
         }
 
-        // We may want to auto-download the latest episode
-        if (shouldAutoDownloadLatestEpisode(podcast))
+        // We may want to auto-download the latest episode (but wait for the
+        // revalidated feed)
+        if (!podcast.isStale() && shouldAutoDownloadLatestEpisode(podcast))
             episodeManager.download(podcast.getEpisodes().get(0));
 
         updateActionBar();
@@ -359,8 +375,14 @@ public abstract class EpisodeListActivity extends EpisodeActivity implements
 
     @Override
     public void onPodcastLoadFailed(Podcast failedPodcast) {
+        final boolean selected = selection.isSingle()
+                && failedPodcast.equals(selection.getPodcast());
+
+        // The podcast we show failed to revalidate, keep its snapshot
+        if (selected && failedPodcast.isStale())
+            showToast(getString(R.string.podcast_load_multiple_error, failedPodcast.getName()));
         // The podcast we are waiting for failed to load
-        if (selection.isSingle() && failedPodcast.equals(selection.getPodcast())) {
+        else if (selected) {
             this.currentEpisodeSet = new TreeSet<Episode>();
             addSpecialEpisodes(failedPodcast);
             // We might at least be able to show the downloaded episodes
@@ -0,0 +1,332 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.alliknow.podcatcher;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small registry for the app's hot-path metrics: timers with latency
+ * histograms, counters and gauges. Recording is cheap enough to stay on in
+ * production: there are no locks and no allocations, values go into atomic
+ * slots striped by thread, so concurrent loads hardly ever touch the same
+ * one. Histograms are log-linear (like HDR histograms) with eight buckets per
+ * power of two, so percentiles are precise to about 6%. Use {@link #dump()}
+ * for a readable report and {@link #export(File)} to write it to a file. This
+ * class is thread-safe.
+ */
+public final class Metrics {
+
+    /** The timed operations, all recorded in microseconds */
+    public static enum Timer {
+        /** Connect to a feed and wait for the response head */
+        FEED_FETCH,
+        /** Read and parse a feed (done while it streams in) */
+        FEED_PARSE,
+        /** Decode and sample a podcast logo, loaded or from cache */
+        LOGO_DECODE,
+        /** Load episode metadata shards */
+        METADATA_LOAD,
+        /** Write episode metadata shards */
+        METADATA_STORE,
+        /** Bind a podcast list item view */
+        PODCAST_LIST_BIND,
+        /** Bind an episode list item view */
+        EPISODE_LIST_BIND
+    }
+
+    /** The counted things */
+    public static enum Counter {
+        /** The bytes loaded from remote files, feeds and logos */
+        BYTES_DOWNLOADED,
+        /** The feeds loaded and parsed */
+        FEEDS_LOADED,
+        /** The feed loads that failed */
+        FEEDS_FAILED
+    }
+
+    /** A value read when the metrics are dumped, e.g. a queue size */
+    public static interface Gauge {
+
+        /**
+         * @return The current value, called on the dumping thread.
+         */
+        public long getValue();
+    }
+
+    /** The number of stripes, needs to be a power of two */
+    private static final int STRIPES = 4;
+    /** The distance between two counter stripes, keeps them on own cache lines */
+    private static final int PADDING = 8;
+    /** Bits for the buckets per power of two */
+    private static final int SUB_BITS = 3;
+    /** The number of buckets per power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** The largest power of two tracked, larger values go into the last bucket */
+    private static final int MAX_EXPONENT = 40;
+    /** The number of histogram buckets */
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    /** The histograms for all timers */
+    private static final Histogram[] timers = new Histogram[Timer.values().length];
+    /** The counters' slots, striped */
+    private static final AtomicLongArray counters =
+            new AtomicLongArray(Counter.values().length * STRIPES * PADDING);
+    /** The gauges registered by name */
+    private static final Map<String, Gauge> gauges = new LinkedHashMap<String, Gauge>();
+    /** The time recording (re-)started */
+    private static volatile long startTime = SystemClock.elapsedRealtime();
+
+    static {
+        for (Timer timer : Timer.values())
+            timers[timer.ordinal()] = new Histogram();
+    }
+
+    private Metrics() {
+        // No instances
+    }
+
+    /**
+     * Start timing an operation.
+     * 
+     * @return The start time to give to {@link #record(Timer, long)}.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the time an operation took.
+     * 
+     * @param timer The operation timed.
+     * @param start The start time as returned by {@link #start()}.
+     */
+    public static void record(Timer timer, long start) {
+        timers[timer.ordinal()].record((System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Add to a counter.
+     * 
+     * @param counter The counter to add to.
+     * @param delta The amount to add.
+     */
+    public static void count(Counter counter, long delta) {
+        counters.addAndGet((counter.ordinal() * STRIPES + stripe()) * PADDING, delta);
+    }
+
+    /**
+     * @param counter The counter to read.
+     * @return The counter's value.
+     */
+    public static long get(Counter counter) {
+        long result = 0;
+
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            result += counters.get((counter.ordinal() * STRIPES + stripe) * PADDING);
+
+        return result;
+    }
+
+    /**
+     * Register a gauge, it replaces any gauge registered under the same name.
+     * 
+     * @param name The name to show the gauge's value under.
+     * @param gauge The gauge.
+     */
+    public static void register(String name, Gauge gauge) {
+        synchronized (gauges) {
+            gauges.put(name, gauge);
+        }
+    }
+
+    /**
+     * Set all timers and counters back to zero, gauges stay registered.
+     */
+    public static void reset() {
+        for (Histogram histogram : timers)
+            histogram.reset();
+        for (int index = 0; index < counters.length(); index++)
+            counters.set(index, 0);
+
+        startTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return A readable report of all metrics. Timers show the number of
+     *         operations recorded, percentiles, the maximum and mean in
+     *         microseconds.
+     */
+    public static String dump() {
+        final StringBuilder result = new StringBuilder();
+        result.append(String.format(Locale.US, "Metrics for the last %ds\n",
+                (SystemClock.elapsedRealtime() - startTime) / 1000));
+
+        // 1. Timers
+        result.append(String.format(Locale.US, "%-18s %7s %9s %9s %9s %9s %9s\n",
+                "Timer (us)", "count", "p50", "p90", "p99", "max", "mean"));
+        for (Timer timer : Timer.values()) {
+            final Histogram histogram = timers[timer.ordinal()];
+            final long[] counts = histogram.getCounts();
+            final long count = sum(counts);
+            final long max = histogram.max.get();
+
+            result.append(String.format(Locale.US, "%-18s %7d %9d %9d %9d %9d %9d\n",
+                    timer, count, getPercentile(counts, count, max, 50),
+                    getPercentile(counts, count, max, 90), getPercentile(counts, count, max, 99),
+                    max, count == 0 ? 0 : histogram.getSum() / count));
+        }
+
+        // 2. Counters
+        for (Counter counter : Counter.values())
+            result.append(String.format(Locale.US, "%-18s %7d\n", counter, get(counter)));
+
+        // 3. Gauges
+        synchronized (gauges) {
+            for (Entry<String, Gauge> gauge : gauges.entrySet())
+                result.append(String.format(Locale.US, "%-18s %7d\n", gauge.getKey(),
+                        gauge.getValue().getValue()));
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Write the report as given by {@link #dump()} to a file. This does file
+     * I/O, do not call from the main thread.
+     * 
+     * @param file The file to write to, it is replaced.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void export(File file) throws IOException {
+        final OutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(dump().getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+
+    private static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    private static long sum(long[] values) {
+        long result = 0;
+        for (long value : values)
+            result += value;
+
+        return result;
+    }
+
+    /**
+     * @return The highest value of the bucket the percentile falls into (but
+     *         not above the maximum), or zero if there are no values.
+     */
+    private static long getPercentile(long[] counts, long count, long max, int percentile) {
+        final long target = (count * percentile + 99) / 100;
+        long seen = 0;
+
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+
+            if (seen >= target && seen > 0)
+                return Math.min(max, getLowerBound(bucket + 1) - 1);
+        }
+
+        return 0;
+    }
+
+    private static int getBucket(long value) {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) Math.max(0, value);
+
+        final int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+        if (exponent == MAX_EXPONENT)
+            return BUCKETS - 1;
+
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS
+                + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    private static long getLowerBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+
+        final int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+    }
+
+    /** The values recorded for a timer, striped like the counters */
+    private static class Histogram {
+
+        /** The bucket counts, one set per stripe */
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * STRIPES);
+        /** The sums of all values, one per stripe */
+        private final AtomicLongArray sums = new AtomicLongArray(STRIPES * PADDING);
+        /** The largest value */
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long value) {
+            final int stripe = stripe();
+            counts.incrementAndGet(stripe * BUCKETS + getBucket(value));
+            sums.addAndGet(stripe * PADDING, value);
+
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value))
+                ;
+        }
+
+        private long[] getCounts() {
+            final long[] result = new long[BUCKETS];
+
+            for (int index = 0; index < counts.length(); index++)
+                result[index % BUCKETS] += counts.get(index);
+
+            return result;
+        }
+
+        private long getSum() {
+            long result = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++)
+                result += sums.get(stripe * PADDING);
+
+            return result;
+        }
+
+        private void reset() {
+            for (int index = 0; index < counts.length(); index++)
+                counts.set(index, 0);
+            for (int index = 0; index < sums.length(); index++)
+                sums.set(index, 0);
+
+            max.set(0);
+        }
+    }
+}
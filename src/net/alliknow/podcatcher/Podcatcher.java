@@ -24,25 +24,37 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.http.HttpResponseCache;
 import android.os.AsyncTask;
+import android.os.Looper;
+import android.os.MessageQueue.IdleHandler;
 import android.util.Log;
 
+import net.alliknow.podcatcher.Metrics.Gauge;
+import net.alliknow.podcatcher.StartupTrace.Stage;
+import net.alliknow.podcatcher.listeners.OnLoadPodcastListListener;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.PodcastManager;
-import net.alliknow.podcatcher.model.SuggestionManager;
 import net.alliknow.podcatcher.model.tasks.LoadEpisodeMetadataTask;
 import net.alliknow.podcatcher.model.tasks.LoadPodcastListTask;
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnections;
+import net.alliknow.podcatcher.model.types.Podcast;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Our application subclass. Holds global state and model. The Podcatcher
  * application object is created on application startup and will be alive for
  * all the app's lifetime. Its main purpose is to hold handles to the singleton
  * instances of our model data and data managers. In addition, it provides some
- * generic convenience methods.
+ * generic convenience methods. The application also runs the start-up and
+ * records its timing in a {@link StartupTrace} and registers the gauges for
+ * the {@link Metrics}.
  */
-public class Podcatcher extends Application {
+public class Podcatcher extends Application implements OnLoadPodcastListListener {
 
     /**
      * The amount of dp establishing the border between small and large screen
@@ -59,6 +71,17 @@ public class Podcatcher extends Application {
     public static final String USER_AGENT_VALUE = "Podcatcher Deluxe";
     /** The HTTP cache size */
     public static final long HTTP_CACHE_SIZE = 8 * 1024 * 1024; // 8 MiB
+    /** The number of idle HTTP connections kept (for all hosts together) */
+    public static final int HTTP_MAX_IDLE_CONNECTIONS = 4;
+    /** The time idle HTTP connections are kept alive */
+    public static final long HTTP_KEEP_ALIVE = 2 * 60 * 1000; // 2 minutes
+    /** The file name the start-up trace is exported to */
+    public static final String STARTUP_TRACE_FILENAME = "startup_trace.txt";
+    /** The file name the metrics are dumped to */
+    public static final String METRICS_FILENAME = "metrics.txt";
+
+    /** The start-up trace */
+    private StartupTrace startupTrace;
 
     /** Thread to move the http cache flushing off the UI thread */
     private static class FlushCacheThread extends Thread {
@@ -76,39 +99,105 @@ public class Podcatcher extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        startupTrace = new StartupTrace(new File(getFilesDir(), STARTUP_TRACE_FILENAME));
 
         // This will only run once in the lifetime of the app
         // since the application is an implicit singleton. We create the other
-        // singletons here to make sure they know their application instance.
+        // singletons needed on start-up here to make sure they know their
+        // application instance. The suggestion manager is created on first
+        // use.
+        startupTrace.begin(Stage.MANAGERS);
         PodcastManager.getInstance(this);
         // And this one as well
         EpisodeManager.getInstance(this);
-        // dito
-        SuggestionManager.getInstance(this);
-
-        // Enabled caching for our HTTP connections
-        try {
-            File httpCacheDir = new File(getCacheDir(), "http");
-            HttpResponseCache.install(httpCacheDir, HTTP_CACHE_SIZE);
-        } catch (IOException ioe) {
-            Log.w(getClass().getSimpleName(), "HTTP response cache installation failed:" + ioe);
-        }
+        startupTrace.end(Stage.MANAGERS);
+        registerGauges();
 
         // Now we will trigger the preparation on start-up, steps include:
-        // 1. Load podcast list from file async, once this is finished the
+        // 1. Set up the shared HTTP layer and enable caching for our HTTP
+        // connections. This is off the main thread, but the podcast list load
+        // is queued behind it on the same thread: The podcast loads started
+        // once the list is shown need the cache to work offline and all
+        // connections need to come from the configured connection pool.
+        final ExecutorService startupExecutor = Executors.newSingleThreadExecutor();
+        startupTrace.begin(Stage.HTTP_CACHE);
+        startupExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                HttpConnections.configure(Podcatcher.this, HTTP_MAX_IDLE_CONNECTIONS,
+                        HTTP_KEEP_ALIVE);
+                HttpConnections.setDetailedTiming(isInDebugMode());
+
+                try {
+                    File httpCacheDir = new File(getCacheDir(), "http");
+                    HttpResponseCache.install(httpCacheDir, HTTP_CACHE_SIZE);
+                } catch (IOException ioe) {
+                    Log.w(Podcatcher.class.getSimpleName(), "HTTP response cache installation failed:"
+                            + ioe);
+                } finally {
+                    startupTrace.end(Stage.HTTP_CACHE);
+                }
+            }
+        });
+        // 2. Load podcast list from file async, once this is finished the
         // podcast manager is alerted and in turn tells the controller activity.
-        // Then the UI can show the list and we are ready to go
+        // Then the UI can show the list and we are ready to go. This is the
+        // critical path, we listen in to start the deferred work afterwards.
+        PodcastManager.getInstance().addLoadPodcastListListener(this);
+        startupTrace.begin(Stage.PODCAST_LIST);
         new LoadPodcastListTask(this, PodcastManager.getInstance())
-                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
-        // 2. At the same time we load episode metadata from file async (this
-        // has the potential to take a lot of time, since the amount of data
-        // might be quite big). The UI is functional without this having
-        // completed, but loading of podcasts, downloads or the playlist will
-        // block until the data is available.
+                .executeOnExecutor(startupExecutor, (Void) null);
+        // The executor's thread goes away once both are done
+        startupExecutor.shutdown();
+        // 3. At the same time we load episode metadata from file async. The UI
+        // is functional without this having completed, but podcasts,
+        // downloads or the playlist will only show once the data is available.
+        startupTrace.begin(Stage.EPISODE_METADATA);
         new LoadEpisodeMetadataTask(this, EpisodeManager.getInstance())
                 .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
     }
 
+    @Override
+    public void onPodcastListLoaded(List<Podcast> podcastList) {
+        startupTrace.end(Stage.PODCAST_LIST);
+
+        // 4. Once the list is shown and the main thread has nothing else to
+        // do, the app is interactive and we start the deferred work
+        Looper.myQueue().addIdleHandler(new IdleHandler() {
+
+            @Override
+            public boolean queueIdle() {
+                startupTrace.markInteractive();
+                PodcastManager.getInstance().removeLoadPodcastListListener(Podcatcher.this);
+
+                // Go load all podcast logos available offline
+                PodcastManager.getInstance().warmUpLogos();
+
+                // Only run once
+                return false;
+            }
+        });
+    }
+
+    /**
+     * @return The trace recording the timing of the application's start-up.
+     */
+    public StartupTrace getStartupTrace() {
+        return startupTrace;
+    }
+
+    /**
+     * @return The file to dump the metrics to. This is in the external files
+     *         directory if available, so it can be pulled from the device.
+     * @see Metrics#export(File)
+     */
+    public File getMetricsFile() {
+        final File dir = getExternalFilesDir(null);
+
+        return new File(dir != null ? dir : getFilesDir(), METRICS_FILENAME);
+    }
+
     /**
      * Write http cache data to disk (async).
      */
@@ -189,6 +278,52 @@ public class Podcatcher extends Application {
         return builder.toString();
     }
 
+    private void registerGauges() {
+        final ThreadPoolExecutor executor = (ThreadPoolExecutor) AsyncTask.THREAD_POOL_EXECUTOR;
+
+        Metrics.register("TASKS_QUEUED", new Gauge() {
+
+            @Override
+            public long getValue() {
+                return executor.getQueue().size();
+            }
+        });
+        Metrics.register("TASKS_RUNNING", new Gauge() {
+
+            @Override
+            public long getValue() {
+                return executor.getActiveCount();
+            }
+        });
+        Metrics.register("PODCASTS_LOADING", new Gauge() {
+
+            @Override
+            public long getValue() {
+                return PodcastManager.getInstance().getLoadCount();
+            }
+        });
+        // The response cache counts since it was installed
+        Metrics.register("HTTP_CACHE_HIT_%", new Gauge() {
+
+            @Override
+            public long getValue() {
+                final HttpResponseCache cache = HttpResponseCache.getInstalled();
+
+                return cache == null || cache.getRequestCount() == 0 ? 0 :
+                        cache.getHitCount() * 100L / cache.getRequestCount();
+            }
+        });
+        Metrics.register("HTTP_CACHE_KB", new Gauge() {
+
+            @Override
+            public long getValue() {
+                final HttpResponseCache cache = HttpResponseCache.getInstalled();
+
+                return cache == null ? 0 : cache.size() / 1024;
+            }
+        });
+    }
+
     private NetworkInfo getNetworkInfo() {
         ConnectivityManager manager =
                 (ConnectivityManager) getApplicationContext()
@@ -42,6 +42,12 @@ public class SettingsActivity extends BaseActivity {
     public static final String AUTO_DELETE_KEY = "auto_delete";
     /** The key for the download folder preference */
     public static final String DOWNLOAD_FOLDER_KEY = "download_folder";
+    /** The preference key for the in-app downloader flag */
+    public static final String IN_APP_DOWNLOADER_KEY = "in_app_downloader";
+    /** The key for the show metrics entry (debug only) */
+    public static final String SHOW_METRICS_KEY = "show_metrics";
+    /** The key for the dump metrics entry (debug only) */
+    public static final String DUMP_METRICS_KEY = "dump_metrics";
 
     /** The settings fragment we display */
     private SettingsFragment settingsFragment;
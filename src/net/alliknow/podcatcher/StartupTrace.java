@@ -0,0 +1,175 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Records the timing of the application's start-up stages. All times are
+ * relative to the creation of the trace, which happens first thing in
+ * {@link Podcatcher#onCreate()}. Once all stages are done and the app became
+ * interactive (i.e. the podcast list is shown and the main thread went idle),
+ * the trace is written to the log and exported to a small text file in the
+ * app's files directory. This class is thread-safe, stages might begin and end
+ * on any thread.
+ */
+public class StartupTrace {
+
+    /** The start-up stages */
+    public static enum Stage {
+        /** Create the managers needed right away */
+        MANAGERS,
+        /** Set up the HTTP layer and its response cache, before the podcast list */
+        HTTP_CACHE,
+        /** Load the podcast list, this is the critical path */
+        PODCAST_LIST,
+        /** Load the episode metadata needed on start-up */
+        EPISODE_METADATA,
+        /** Load the podcast logos available offline (deferred) */
+        LOGO_WARM_UP
+    }
+
+    /** The file the trace is exported to */
+    private final File file;
+    /** The time the trace started */
+    private final long startTime = SystemClock.elapsedRealtime();
+
+    /** The start times for all stages relative to the trace start */
+    private final long[] begin = new long[Stage.values().length];
+    /** The durations for all stages */
+    private final long[] duration = new long[Stage.values().length];
+    /** The time the app became interactive relative to the trace start */
+    private long interactive = -1;
+    /** Flag to indicate whether the trace is complete and has been exported */
+    private boolean exported = false;
+
+    /**
+     * Create and start a new trace.
+     * 
+     * @param file The file to export the trace to.
+     */
+    public StartupTrace(File file) {
+        this.file = file;
+
+        for (Stage stage : Stage.values()) {
+            begin[stage.ordinal()] = -1;
+            duration[stage.ordinal()] = -1;
+        }
+    }
+
+    /**
+     * Mark the beginning of a stage.
+     * 
+     * @param stage The stage beginning.
+     */
+    public synchronized void begin(Stage stage) {
+        begin[stage.ordinal()] = now();
+    }
+
+    /**
+     * Mark the end of a stage. Does nothing if the stage has not begun or
+     * already ended.
+     * 
+     * @param stage The stage done.
+     */
+    public synchronized void end(Stage stage) {
+        if (begin[stage.ordinal()] >= 0 && duration[stage.ordinal()] < 0) {
+            duration[stage.ordinal()] = now() - begin[stage.ordinal()];
+
+            exportIfComplete();
+        }
+    }
+
+    /**
+     * Mark the app as interactive, i.e. the first screen is usable.
+     */
+    public synchronized void markInteractive() {
+        if (interactive < 0) {
+            interactive = now();
+
+            exportIfComplete();
+        }
+    }
+
+    /**
+     * @return The time in millis from the trace start until the app became
+     *         interactive, or -1 if it has not yet.
+     */
+    public synchronized long getTimeToInteractive() {
+        return interactive;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder result = new StringBuilder();
+
+        for (Stage stage : Stage.values())
+            result.append(String.format(Locale.US, "%s: start +%dms, took %dms\n",
+                    stage, begin[stage.ordinal()], duration[stage.ordinal()]));
+        result.append(String.format(Locale.US, "INTERACTIVE: +%dms\n", interactive));
+
+        return result.toString();
+    }
+
+    private long now() {
+        return SystemClock.elapsedRealtime() - startTime;
+    }
+
+    private void exportIfComplete() {
+        if (exported || interactive < 0)
+            return;
+
+        for (long time : duration)
+            if (time < 0)
+                return;
+
+        exported = true;
+        final String trace = toString();
+        Log.i(getClass().getSimpleName(), "Start-up trace:\n" + trace);
+
+        // Go off the calling thread, this might be the main thread
+        new Thread() {
+
+            @Override
+            public void run() {
+                OutputStream output = null;
+
+                try {
+                    output = new FileOutputStream(file);
+                    output.write(trace.getBytes("UTF-8"));
+                } catch (IOException e) {
+                    Log.w(StartupTrace.class.getSimpleName(), "Cannot export start-up trace", e);
+                } finally {
+                    if (output != null)
+                        try {
+                            output.close();
+                        } catch (IOException e) {
+                            // Nothing more we could do here
+                        }
+                }
+            }
+        }.start();
+    }
+}
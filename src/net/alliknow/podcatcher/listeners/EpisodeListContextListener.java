@@ -26,10 +26,14 @@ import android.widget.AbsListView.MultiChoiceModeListener;
 
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.EpisodeManager.BulkAction;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.view.adapters.EpisodeListAdapter;
 import net.alliknow.podcatcher.view.fragments.EpisodeListFragment;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Listener for the episode list context mode.
  */
@@ -37,8 +41,6 @@ public class EpisodeListContextListener implements MultiChoiceModeListener {
 
     /** The maximum number of episodes to download at once */
     private static final int MAX_DOWNLOADS = 10;
-    /** The maximum number of episodes to enqueue in playlist at once */
-    private static final int MAX_TO_PLAYLIST = 25;
 
     /** The owning fragment */
     private EpisodeListFragment fragment;
@@ -57,6 +59,8 @@ public class EpisodeListContextListener implements MultiChoiceModeListener {
     private MenuItem addToPlaylistMenuItem;
     /** The remove from playlist menu item */
     private MenuItem removeFromPlaylistMenuItem;
+    /** The play next menu item */
+    private MenuItem playNextMenuItem;
     /** The select all menu item */
     private MenuItem selectAllMenuItem;
 
@@ -90,6 +94,7 @@ public class EpisodeListContextListener implements MultiChoiceModeListener {
                 .findItem(R.id.episode_add_to_playlist_contextmenuitem);
         removeFromPlaylistMenuItem = menu
                 .findItem(R.id.episode_remove_from_playlist_contextmenuitem);
+        playNextMenuItem = menu.findItem(R.id.episode_play_next_contextmenuitem);
         selectAllMenuItem = menu.findItem(R.id.episode_select_all_contextmenuitem);
 
         return true;
@@ -104,61 +109,29 @@ public class EpisodeListContextListener implements MultiChoiceModeListener {
 
     @Override
     public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
-        boolean markNew = false;
-        boolean download = false;
-        boolean append = false;
-
-        SparseBooleanArray checkedItems = fragment.getListView().getCheckedItemPositions();
-
         switch (item.getItemId()) {
             case R.id.episode_new_contextmenuitem:
-                markNew = true;
-                // No break here, code blow should run
+                episodeManager.apply(BulkAction.MARK_NEW, getCheckedEpisodes());
+                break;
             case R.id.episode_old_contextmenuitem:
-                for (int position = 0; position < fragment.getListAdapter().getCount(); position++)
-                    if (checkedItems.get(position)) {
-                        Episode episode = (Episode) fragment.getListAdapter().getItem(position);
-
-                        episodeManager.setState(episode, !markNew);
-                    }
-
-                // Action picked, so close the CAB
-                mode.finish();
-                return true;
+                episodeManager.apply(BulkAction.MARK_OLD, getCheckedEpisodes());
+                break;
             case R.id.episode_download_contextmenuitem:
-                download = true;
-                // No break here, code blow should run
+                episodeManager.apply(BulkAction.DOWNLOAD, getCheckedEpisodes());
+                break;
             case R.id.episode_remove_contextmenuitem:
-                for (int position = 0; position < fragment.getListAdapter().getCount(); position++)
-                    if (checkedItems.get(position)) {
-                        Episode episode = (Episode) fragment.getListAdapter().getItem(position);
-
-                        if (download)
-                            episodeManager.download(episode);
-                        else
-                            episodeManager.deleteDownload(episode);
-                    }
-
-                // Action picked, so close the CAB
-                mode.finish();
-                return true;
+                episodeManager.apply(BulkAction.DELETE_DOWNLOAD, getCheckedEpisodes());
+                break;
             case R.id.episode_add_to_playlist_contextmenuitem:
-                append = true;
-                // No break here, code blow should run
+                episodeManager.apply(BulkAction.APPEND_TO_PLAYLIST, getCheckedEpisodes());
+                break;
             case R.id.episode_remove_from_playlist_contextmenuitem:
-                for (int position = 0; position < fragment.getListAdapter().getCount(); position++)
-                    if (checkedItems.get(position)) {
-                        Episode episode = (Episode) fragment.getListAdapter().getItem(position);
-
-                        if (append)
-                            episodeManager.appendToPlaylist(episode);
-                        else
-                            episodeManager.removeFromPlaylist(episode);
-                    }
-
-                // Action picked, so close the CAB
-                mode.finish();
-                return true;
+                episodeManager.apply(BulkAction.REMOVE_FROM_PLAYLIST, getCheckedEpisodes());
+                break;
+            case R.id.episode_play_next_contextmenuitem:
+                for (Episode episode : getCheckedEpisodes())
+                    episodeManager.insertNextInPlaylist(episode);
+                break;
             case R.id.episode_select_all_contextmenuitem:
                 // Disable expensive UI updates
                 updateUi = false;
@@ -172,6 +145,10 @@ public class EpisodeListContextListener implements MultiChoiceModeListener {
             default:
                 return false;
         }
+
+        // Action picked, so close the CAB
+        mode.finish();
+        return true;
     }
 
     @Override
@@ -184,6 +161,17 @@ public class EpisodeListContextListener implements MultiChoiceModeListener {
         update(mode);
     }
 
+    private List<Episode> getCheckedEpisodes() {
+        final List<Episode> result = new ArrayList<Episode>();
+        final SparseBooleanArray checkedItems = fragment.getListView().getCheckedItemPositions();
+
+        for (int position = 0; position < fragment.getListAdapter().getCount(); position++)
+            if (checkedItems.get(position))
+                result.add((Episode) fragment.getListAdapter().getItem(position));
+
+        return result;
+    }
+
     private void update(ActionMode mode) {
         // This also avoids crashed when the app has been hidden for some time
         // while the context mode was activated and (parts of) the fragment is
@@ -237,11 +225,11 @@ public class EpisodeListContextListener implements MultiChoiceModeListener {
             }
         }
 
-        // Do not show some actions if too many episodes are selected
+        // Do not show the download action if too many episodes are selected
         if (checkedItems.size() > MAX_DOWNLOADS)
             downloadMenuItem.setVisible(false);
-        if (checkedItems.size() > MAX_TO_PLAYLIST)
-            addToPlaylistMenuItem.setVisible(false);
+        // Play next only works for a single episode
+        playNextMenuItem.setVisible(fragment.getListView().getCheckedItemCount() == 1);
 
         // Hide the select all item if all items are selected
         selectAllMenuItem.setVisible(checkedItems.size() != fragment.getListAdapter().getCount());
@@ -28,7 +28,8 @@ public interface OnChangeEpisodeStateListener {
     /**
      * Called on the listener when the state (old/new) of an episode is altered.
      * 
-     * @param episode Episode the state was changed for.
+     * @param episode Episode the state was changed for, <code>null</code> if
+     *            the state changed for several episodes at once.
      */
     public void onStateChanged(Episode episode);
 
@@ -0,0 +1,58 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.listeners;
+
+import net.alliknow.podcatcher.model.tasks.remote.DownloadEpisodeTask;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Progress;
+
+import java.io.File;
+
+/**
+ * Interface definition for a callback to be invoked when an episode media file
+ * is downloaded by the app itself.
+ * 
+ * @see DownloadEpisodeTask
+ */
+public interface OnDownloadEpisodeFileListener {
+
+    /**
+     * Called on progress update.
+     * 
+     * @param episode Episode downloading.
+     * @param progress Amount of the media file loaded or flag from
+     *            <code>Progress</code>.
+     */
+    public void onEpisodeFileDownloadProgress(Episode episode, Progress progress);
+
+    /**
+     * Called on completion.
+     * 
+     * @param episode Episode downloaded.
+     * @param file The local file the episode media was stored in.
+     */
+    public void onEpisodeFileDownloaded(Episode episode, File file);
+
+    /**
+     * Called when the download failed. Partial content is kept and will be
+     * used when the download is restarted.
+     * 
+     * @param episode Episode failing to download.
+     */
+    public void onEpisodeFileDownloadFailed(Episode episode);
+}
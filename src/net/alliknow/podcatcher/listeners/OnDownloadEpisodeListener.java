@@ -17,6 +17,8 @@
 
 package net.alliknow.podcatcher.listeners;
 
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Progress;
 
 /**
  * Interface for the controller to implement when the user requests an episode
@@ -34,6 +36,16 @@ public interface OnDownloadEpisodeListener {
      */
     public void onDownloadSuccess();
 
+    /**
+     * Called on the listener while an episode is downloading. This is only
+     * triggered by the in-app download engine, the system download manager
+     * does not report any progress.
+     * 
+     * @param episode Episode downloading.
+     * @param progress The progress made (in KiB).
+     */
+    public void onDownloadProgress(Episode episode, Progress progress);
+
     /**
      * Called on the listener if a download failed.
      */
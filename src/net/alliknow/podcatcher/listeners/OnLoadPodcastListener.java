@@ -38,7 +38,9 @@ public interface OnLoadPodcastListener {
     public void onPodcastLoadProgress(Podcast podcast, Progress progress);
 
     /**
-     * Called on completion.
+     * Called on completion. This is also called if the podcast was restored
+     * from a snapshot and is still being revalidated, check
+     * {@link Podcast#isStale()} to tell.
      * 
      * @param podcast Podcast loaded.
      */
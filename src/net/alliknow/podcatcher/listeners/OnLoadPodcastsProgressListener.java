@@ -0,0 +1,38 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.listeners;
+
+import net.alliknow.podcatcher.model.types.BatchProgress;
+
+/**
+ * Interface definition for a callback to be invoked when the overall progress
+ * of all podcasts loading changes. This is less chatty than
+ * {@link OnLoadPodcastListener#onPodcastLoadProgress} and meant for the UI to
+ * show a single progress while many podcasts refresh.
+ */
+public interface OnLoadPodcastsProgressListener {
+
+    /**
+     * Called when the overall progress changed. Updates are throttled.
+     * 
+     * @param progress Number of podcasts finished (loaded or failed) out of
+     *            all podcasts loading in the current batch, plus the number of
+     *            bytes loaded. A batch ends once no podcast is loading.
+     */
+    public void onPodcastsLoadProgress(BatchProgress progress);
+}
@@ -17,11 +17,9 @@
 
 package net.alliknow.podcatcher.listeners;
 
-import net.alliknow.podcatcher.model.types.Podcast;
+import net.alliknow.podcatcher.model.SuggestionIndex;
 import net.alliknow.podcatcher.model.types.Progress;
 
-import java.util.List;
-
 /**
  * Interface definition for a callback to be invoked when podcast suggestions
  * are loaded.
@@ -39,12 +37,23 @@ public interface OnLoadSuggestionListener {
      */
     public void onSuggestionsLoadProgress(Progress progress);
 
+    /**
+     * Called when the featured podcast suggestions are available. This happens
+     * before the complete suggestions catalog is loaded, but only if it
+     * actually needs parsing. It is always followed by a call to either
+     * {@link #onSuggestionsLoaded(SuggestionIndex)} or
+     * {@link #onSuggestionsLoadFailed()}.
+     * 
+     * @param featured Featured podcast suggestions, indexed for filtering.
+     */
+    public void onFeaturedSuggestionsLoaded(SuggestionIndex featured);
+
     /**
      * Called on completion.
      * 
-     * @param suggestions Podcast suggestions loaded.
+     * @param suggestions Podcast suggestions loaded, indexed for filtering.
      */
-    public void onSuggestionsLoaded(List<Podcast> suggestions);
+    public void onSuggestionsLoaded(SuggestionIndex suggestions);
 
     /**
      * Called when loading the suggestions failed.
@@ -0,0 +1,38 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.listeners;
+
+import net.alliknow.podcatcher.services.PlaybackClock;
+
+/**
+ * Interface definition for a callback to be invoked regularly while an episode
+ * is playing.
+ * 
+ * @see PlaybackClock
+ */
+public interface OnPlaybackProgressListener {
+
+    /**
+     * Called on the listener (on the main thread) while playback continues.
+     * 
+     * @param position Current position of playback in seconds from media
+     *            start.
+     * @param duration Duration of media element in seconds.
+     */
+    public void onPlaybackProgress(int position, int duration);
+}
@@ -17,39 +17,58 @@
 
 package net.alliknow.podcatcher.model;
 
+import android.os.AsyncTask;
+import android.os.Handler;
+
 import net.alliknow.podcatcher.Podcatcher;
+import net.alliknow.podcatcher.StartupTrace.Stage;
 import net.alliknow.podcatcher.listeners.OnLoadEpisodeMetadataListener;
 import net.alliknow.podcatcher.model.tasks.StoreEpisodeMetadataTask;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.Podcast;
 
+import java.io.File;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 
 /**
  * Base for the episode manager's class hierarchy. This sets things up by
- * defining the basic data structures.
+ * defining the basic data structures. The metadata is stored per podcast in
+ * the {@link EpisodeMetadataStore}, on start-up only the records needed
+ * globally (i.e. for downloads) are loaded, the records for each podcast are
+ * added once the podcast itself is loaded. Code that needs the metadata does
+ * not wait for it, but hands in a call-back via
+ * {@link #runWhenEpisodeMetadataIsLoaded(Runnable)}.
  * 
  * @see EpisodeManager
  */
 public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListener {
 
-    /** The file name to store local episode metadata information under */
+    /** The file name older versions stored the episode metadata under */
     public static final String METADATA_FILENAME = "episodes.xml";
+    /** The directory name to store the episode metadata shards under */
+    public static final String METADATA_DIRNAME = "episodes";
 
     /** The application itself (used e.g. as context in tasks) */
     protected Podcatcher podcatcher;
 
+    /** The store the metadata is read from and written to */
+    protected final EpisodeMetadataStore metadataStore;
     /** The metadata information held for episodes */
     protected Map<URL, EpisodeMetadata> metadata;
-    /** Flag to indicate whether metadata is dirty */
-    protected boolean metadataChanged;
+    /** Flag to indicate whether metadata is dirty, also set off the main thread */
+    protected volatile boolean metadataChanged;
+    /** The compactor holding the per-podcast index for the metadata */
+    protected MetadataCompactor compactor;
 
-    /** Latch we use to block all threads until we have our data */
-    private CountDownLatch latch = new CountDownLatch(1);
+    /** Flag to indicate whether the metadata is available */
+    private volatile boolean metadataAvailable = false;
+    /** The actions waiting for the metadata, only used on the main thread */
+    private List<Runnable> waitingForMetadata = new ArrayList<Runnable>();
 
     /**
      * Init the base episode manager.
@@ -60,6 +79,15 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
         // We use some of its method below, so we keep a reference to the
         // application object.
         this.podcatcher = app;
+        this.metadataStore = new EpisodeMetadataStore(new File(app.getFilesDir(), METADATA_DIRNAME));
+    }
+
+    /**
+     * @return The store for the episode metadata. This is only to be used by
+     *         the tasks loading and storing the metadata.
+     */
+    public EpisodeMetadataStore getMetadataStore() {
+        return metadataStore;
     }
 
     @Override
@@ -68,22 +96,147 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
         // clean-up work off to other threads.
         this.metadata = new ConcurrentHashMap<URL, EpisodeMetadata>(metadata);
         this.metadataChanged = false;
+        // The compactor's index is built later, off the main thread
+        this.compactor = new MetadataCompactor(this.metadata);
+
+        // Here we need to run everything that is waiting for the episode
+        // metadata to become available, but only after all parts of the
+        // manager stack had the chance to set themselves up
+        new Handler().post(new Runnable() {
+
+            @Override
+            public void run() {
+                metadataAvailable = true;
+
+                for (Runnable action : waitingForMetadata)
+                    action.run();
+                waitingForMetadata = null;
+
+                podcatcher.getStartupTrace().end(Stage.EPISODE_METADATA);
+            }
+        });
+    }
+
+    /**
+     * @return Whether the episode metadata is available. This is safe to call
+     *         from any thread.
+     */
+    public boolean isEpisodeMetadataLoaded() {
+        return metadataAvailable;
+    }
+
+    /**
+     * Run the given action once the episode metadata has become available
+     * during the application's start-up. Once the metadata is read, the action
+     * is run immediately. Call this on the main thread only, the action will
+     * also be run on the main thread.
+     * 
+     * @param action The action to run.
+     */
+    public void runWhenEpisodeMetadataIsLoaded(Runnable action) {
+        if (metadataAvailable)
+            action.run();
+        else
+            waitingForMetadata.add(action);
+    }
+
+    /**
+     * Run the given action once the episode metadata for the given podcast has
+     * become available. If needed, the podcast's metadata is read in the
+     * background first, use {@link #loadEpisodeMetadata(Podcast)} from your
+     * worker thread to avoid this. Call this on the main thread only, the
+     * action will also be run on the main thread.
+     * 
+     * @param podcast The podcast the metadata is needed for.
+     * @param action The action to run.
+     */
+    public void runWhenEpisodeMetadataIsLoaded(final Podcast podcast, final Runnable action) {
+        runWhenEpisodeMetadataIsLoaded(new Runnable() {
+
+            @Override
+            public void run() {
+                if (metadataStore.isLoaded(podcast.getUrl().toString()))
+                    action.run();
+                else
+                    new LoadEpisodeMetadataShardTask(action)
+                            .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
+            }
+        });
+    }
+
+    /**
+     * Load the episode metadata for the given podcast if the episode metadata
+     * is available and this has not been done before. Otherwise this does
+     * nothing and returns immediately. The podcast's metadata might be read
+     * from disk, do not call this from the main thread.
+     * 
+     * @param podcast The podcast to load the metadata for.
+     * @see #runWhenEpisodeMetadataIsLoaded(Podcast, Runnable)
+     */
+    public void loadEpisodeMetadata(Podcast podcast) {
+        if (metadataAvailable)
+            loadEpisodeMetadata(podcast.getUrl().toString());
+    }
 
-        // Here we need to release all threads (AsyncTasks) that might be
-        // waiting for the episode metadata to become available
-        latch.countDown();
+    /**
+     * Load the metadata shard for the given podcast unless this has been done
+     * before. This might read from disk, so avoid calling it on the main
+     * thread. Only call this after the metadata is available.
+     * 
+     * @param podcastUrl The podcast to load the metadata for.
+     */
+    protected void loadEpisodeMetadata(String podcastUrl) {
+        if (!metadataStore.isLoaded(podcastUrl))
+            for (URL episodeUrl : metadataStore.load(podcastUrl, metadata))
+                compactor.register(episodeUrl, podcastUrl);
     }
 
     /**
-     * This blocks the calling thread until the episode metadata has become
-     * available during the application's start-up. Once the metadata is read,
-     * this method returns immediately.
+     * Move all episode metadata for a podcast that changed its location to
+     * the new location and write it. The managers further down the stack also
+     * move the data they keep in stores of their own. This reads and writes to
+     * disk, so do not call it on the main thread. Only call this after the
+     * metadata is available.
      * 
-     * @throws InterruptedException When the thread is interrupted while
-     *             waiting.
+     * @param from The podcast's former URL.
+     * @param to The podcast's new URL.
      */
-    public void blockUntilEpisodeMetadataIsLoaded() throws InterruptedException {
-        latch.await();
+    public void migrateEpisodeMetadata(String from, String to) {
+        // 1. Make sure we have all records for both locations in memory
+        loadEpisodeMetadata(from);
+        loadEpisodeMetadata(to);
+
+        // 2. Re-assign the records, the shard for the former location is
+        // empty afterwards and will be deleted on write
+        for (EpisodeMetadata meta : metadata.values())
+            if (from.equals(meta.podcastUrl))
+                meta.podcastUrl = to;
+        compactor.move(from, to);
+
+        metadataStore.write(metadata);
+    }
+
+    /** Task to load a podcast's metadata shard and run an action afterwards */
+    private class LoadEpisodeMetadataShardTask extends AsyncTask<Podcast, Void, Void> {
+
+        /** The action to run once the shard is loaded */
+        private final Runnable action;
+
+        private LoadEpisodeMetadataShardTask(Runnable action) {
+            this.action = action;
+        }
+
+        @Override
+        protected Void doInBackground(Podcast... podcasts) {
+            loadEpisodeMetadata(podcasts[0].getUrl().toString());
+
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void nothing) {
+            action.run();
+        }
     }
 
     /**
@@ -93,15 +246,15 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
     public void saveState() {
         // Store cleaned metadata if dirty
         if (metadataChanged && metadata != null) {
-            // Store a copy of the actual map, since there might come in changes
-            // to the metadata while the task is running and that would lead to
-            // a concurrent modification exception.
-            new StoreEpisodeMetadataTask(podcatcher)
-                    .execute(new HashMap<URL, EpisodeMetadata>(metadata));
-
             // Reset the flag, so the list will only be saved if changed again.
+            // This happens first, changes made from other threads while the
+            // task is started then flag the metadata again.
             // TODO Storing the metadata might fail?
             metadataChanged = false;
+
+            // We can hand in the actual map since it is thread safe, the store
+            // will only write the shards that actually changed
+            new StoreEpisodeMetadataTask(metadataStore).execute(metadata);
         }
     }
 
@@ -119,6 +272,8 @@ public abstract class EpisodeBaseManager implements OnLoadEpisodeMetadataListene
             meta.episodeDescription = episode.getDescription();
             meta.podcastName = episode.getPodcast().getName();
             meta.podcastUrl = episode.getPodcast().getUrl().toString();
+
+            compactor.register(episode.getMediaUrl(), meta.podcastUrl);
         }
     }
 }
@@ -38,6 +38,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
@@ -47,11 +48,14 @@ import net.alliknow.podcatcher.EpisodeListActivity;
 import net.alliknow.podcatcher.PodcastActivity;
 import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.SettingsActivity;
+import net.alliknow.podcatcher.listeners.OnDownloadEpisodeFileListener;
 import net.alliknow.podcatcher.listeners.OnDownloadEpisodeListener;
 import net.alliknow.podcatcher.listeners.OnLoadDownloadsListener;
 import net.alliknow.podcatcher.model.tasks.LoadDownloadsTask;
+import net.alliknow.podcatcher.model.tasks.remote.DownloadEpisodeTask;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+import net.alliknow.podcatcher.model.types.Progress;
 import net.alliknow.podcatcher.preferences.DownloadFolderPreference;
 
 import java.io.File;
@@ -61,23 +65,47 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * This class is the part of the episode manager stack that handles the download
  * and deletion of episodes. It uses the Android {@link DownloadManager} API to
- * carry out the downloads.
+ * carry out the downloads, unless the user opted for the in-app downloader (see
+ * {@link DownloadEpisodeTask}). In-app downloads are marked by negative
+ * download ids, so they never clash with the system download manager's ids.
+ * Episodes streamed completely before are not downloaded again, but their
+ * {@link StreamCacheFile} is promoted in the background (as an in-app
+ * download).
  * 
  * @see EpisodeManager
  */
 public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
 
-    /** The current number of downloaded episode we know of */
+    /**
+     * The current number of downloaded episode we know of, -1 if not counted
+     * yet. Only used on the main thread.
+     */
     protected int downloadsSize = -1;
 
-    /** The system download manager */
+    /** The number of in-app downloads running in parallel */
+    private static final int IN_APP_DOWNLOADS = 2;
+
+    /** The system download manager, use {@link #getDownloadManager()} */
     private DownloadManager downloadManager;
+    /** The in-app downloads currently running, keyed by their download id */
+    private Map<Long, DownloadEpisodeTask> downloadTasks = new ConcurrentHashMap<Long, DownloadEpisodeTask>();
+    /** The last in-app download id handed out */
+    private long lastInAppDownloadId = 0;
+    /**
+     * The executor for in-app downloads, these are long running and should not
+     * block the async task thread pool
+     */
+    private Executor downloadExecutor = Executors.newFixedThreadPool(IN_APP_DOWNLOADS);
 
     /** The call-back set for the complete download listeners */
     private Set<OnDownloadEpisodeListener> downloadListeners = new HashSet<OnDownloadEpisodeListener>();
@@ -90,11 +118,6 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
     protected EpisodeDownloadManager(Podcatcher app) {
         super(app);
 
-        // Get handle to the system download manager which does all the
-        // downloading for us
-        downloadManager = (DownloadManager)
-                podcatcher.getSystemService(Context.DOWNLOAD_SERVICE);
-
         // Register as a receiver for download events so we are alerted when a
         // download completes (both successfully or failed)
         podcatcher.registerReceiver(onDownloadComplete,
@@ -105,6 +128,27 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
                 new IntentFilter(DownloadManager.ACTION_NOTIFICATION_CLICKED));
     }
 
+    @Override
+    public void onEpisodeMetadataLoaded(Map<URL, EpisodeMetadata> metadata) {
+        super.onEpisodeMetadataLoaded(metadata);
+
+        // Resume in-app downloads interrupted when the app was stopped, the
+        // download task will pick up the partial content
+        Iterator<Entry<URL, EpisodeMetadata>> iterator = this.metadata.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Entry<URL, EpisodeMetadata> entry = iterator.next();
+            final EpisodeMetadata meta = entry.getValue();
+
+            if (meta.downloadId != null && meta.downloadId < 0 && meta.filePath == null) {
+                final Episode download = meta.marshalEpisode(entry.getKey());
+
+                if (download != null)
+                    startInAppDownload(meta.downloadId, download,
+                            new File(getDownloadFolder(), getSubPath(download)));
+            }
+        }
+    }
+
     /**
      * Initiate a download for the given episode. Will do nothing if the episode
      * is already downloaded or is currently downloading.
@@ -114,9 +158,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
     public void download(Episode episode) {
         if (episode != null && metadata != null && !isDownloadingOrDownloaded(episode)) {
             // Find the podcast directory and the path to store episode under
-            File podcastDir = new File(PreferenceManager.getDefaultSharedPreferences(podcatcher)
-                    .getString(SettingsActivity.DOWNLOAD_FOLDER_KEY,
-                            DownloadFolderPreference.getDefaultDownloadFolder().getAbsolutePath()));
+            File podcastDir = getDownloadFolder();
             String subPath = getSubPath(episode);
             // We need to put a download id. If the episode is already
             // downloaded (i.e. the file exists) and we somehow missed to catch
@@ -129,8 +171,23 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
                 metadata.put(episode.getMediaUrl(), meta);
             }
 
+            // The episode might have been streamed completely before, in this
+            // case we promote the cached copy (this might take a while)
+            if (!new File(podcastDir, subPath).exists()
+                    && StreamCacheFile.isComplete(podcatcher, episode.getMediaUrl())) {
+                id = createInAppDownloadId();
+
+                promoteStreamCache(id, episode, new File(podcastDir, subPath));
+            }
+            // Start in-app download if the episode is not there and the user
+            // prefers to not use the system's download manager
+            else if (!new File(podcastDir, subPath).exists() && useInAppDownloader()) {
+                id = createInAppDownloadId();
+
+                startInAppDownload(id, episode, new File(podcastDir, subPath));
+            }
             // Start download if the episode is not there
-            if (!new File(podcastDir, subPath).exists()) {
+            else if (!new File(podcastDir, subPath).exists()) {
                 // Make sure podcast directory exists
                 new File(podcastDir, sanitizeAsFilename(episode.getPodcast().getName())).mkdirs();
 
@@ -149,7 +206,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
 
                 // Start the download
                 try {
-                    id = downloadManager.enqueue(download);
+                    id = getDownloadManager().enqueue(download);
                 } catch (SecurityException se) {
                     // This happens if the download manager has not the rights
                     // to write to the selected downloads directory
@@ -189,13 +246,44 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
      * @param episode Episode to delete download for.
      */
     public void deleteDownload(Episode episode) {
+        if (removeDownload(episode, null)) {
+            // Decrement counter
+            if (downloadsSize != -1)
+                downloadsSize--;
+
+            fireDownloadDeleted();
+        }
+    }
+
+    /**
+     * Cancel the download for given episode and delete all downloaded content
+     * without alerting any listeners or updating the downloads counter. This
+     * is safe to call off the main thread.
+     * 
+     * @param episode Episode to delete download for.
+     * @param systemDownloadIds If not <code>null</code>, downloads handled by
+     *            the system's download manager are not removed right away,
+     *            but their ids are added to this list. Use
+     *            {@link #removeSystemDownloads(List)} to remove them all at
+     *            once.
+     * @return Whether there was any download to delete.
+     */
+    protected boolean removeDownload(Episode episode, List<Long> systemDownloadIds) {
         if (episode != null && metadata != null && isDownloadingOrDownloaded(episode)) {
             // Find the metadata information holder
             EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
 
             if (meta != null) {
+                // In-app download: stop the task (if running) and remove
+                // partial content
+                if (meta.downloadId < 0)
+                    cancelInAppDownload(meta.downloadId, episode);
+                // Collect the id to remove later
+                else if (systemDownloadIds != null)
+                    systemDownloadIds.add(meta.downloadId);
                 // This should delete the download and remove any information
-                downloadManager.remove(meta.downloadId);
+                else
+                    getDownloadManager().remove(meta.downloadId);
                 // Make sure the file is deleted since this might not have taken
                 // care of by remove() above
                 if (meta.filePath != null)
@@ -204,17 +292,38 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
                 meta.downloadId = null;
                 meta.filePath = null;
 
-                // Alert listeners
-                for (OnDownloadEpisodeListener listener : downloadListeners)
-                    listener.onDownloadDeleted();
-
                 // Mark metadata record as dirty
                 metadataChanged = true;
-                // Decrement counter
-                if (downloadsSize != -1)
-                    downloadsSize--;
+
+                return true;
             }
         }
+
+        return false;
+    }
+
+    /**
+     * Remove downloads from the system's download manager in one go.
+     * 
+     * @param ids The download ids to remove.
+     * @see #removeDownload(Episode, List)
+     */
+    protected void removeSystemDownloads(List<Long> ids) {
+        if (!ids.isEmpty()) {
+            final long[] idArray = new long[ids.size()];
+            for (int index = 0; index < idArray.length; index++)
+                idArray[index] = ids.get(index);
+
+            getDownloadManager().remove(idArray);
+        }
+    }
+
+    /**
+     * Alert all download listeners that downloads have been deleted.
+     */
+    protected void fireDownloadDeleted() {
+        for (OnDownloadEpisodeListener listener : downloadListeners)
+            listener.onDownloadDeleted();
     }
 
     /**
@@ -352,6 +461,138 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
         downloadListeners.remove(listener);
     }
 
+    private boolean useInAppDownloader() {
+        return PreferenceManager.getDefaultSharedPreferences(podcatcher)
+                .getBoolean(SettingsActivity.IN_APP_DOWNLOADER_KEY, false);
+    }
+
+    private File getDownloadFolder() {
+        return new File(PreferenceManager.getDefaultSharedPreferences(podcatcher)
+                .getString(SettingsActivity.DOWNLOAD_FOLDER_KEY,
+                        DownloadFolderPreference.getDefaultDownloadFolder().getAbsolutePath()));
+    }
+
+    /**
+     * @return A new in-app download id. These are negative and unique, even
+     *         if several downloads are started within the same millisecond.
+     */
+    private synchronized long createInAppDownloadId() {
+        lastInAppDownloadId = Math.min(-System.currentTimeMillis(), lastInAppDownloadId - 1);
+
+        return lastInAppDownloadId;
+    }
+
+    private void startInAppDownload(long id, Episode episode, File destination) {
+        final DownloadEpisodeTask task = new DownloadEpisodeTask(destination,
+                new InAppDownloadListener(id));
+
+        downloadTasks.put(id, task);
+        task.executeOnExecutor(downloadExecutor, episode);
+    }
+
+    private void promoteStreamCache(final long id, final Episode episode, final File destination) {
+        new AsyncTask<Void, Void, Boolean>() {
+
+            @Override
+            protected Boolean doInBackground(Void... nothing) {
+                return StreamCacheFile.moveToIfComplete(podcatcher, episode.getMediaUrl(),
+                        destination);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean promoted) {
+                final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+                // Make sure the download was not deleted in the meantime
+                final boolean current = meta != null && meta.downloadId != null
+                        && meta.downloadId == id;
+
+                if (promoted && current)
+                    new InAppDownloadListener(id).onEpisodeFileDownloaded(episode, destination);
+                else if (promoted)
+                    destination.delete();
+                // The cache is gone, go get the episode the usual way
+                else if (current) {
+                    meta.downloadId = null;
+
+                    download(episode);
+                }
+            }
+        }.executeOnExecutor(downloadExecutor);
+    }
+
+    private void cancelInAppDownload(long id, Episode episode) {
+        final DownloadEpisodeTask task = downloadTasks.remove(id);
+
+        // The task will clean up after itself
+        if (task != null)
+            task.cancelAndDiscard();
+        // No task running, clean up the partial content ourselves
+        else {
+            final File partial = new File(getDownloadFolder(), getSubPath(episode)
+                    + DownloadEpisodeTask.PARTIAL_SUFFIX);
+
+            partial.delete();
+            new File(partial.getPath() + DownloadEpisodeTask.STATE_SUFFIX).delete();
+        }
+    }
+
+    /** The call-back for a single in-app download */
+    private class InAppDownloadListener implements OnDownloadEpisodeFileListener {
+
+        /** The download id we care for */
+        private final long downloadId;
+
+        private InAppDownloadListener(long downloadId) {
+            this.downloadId = downloadId;
+        }
+
+        @Override
+        public void onEpisodeFileDownloadProgress(Episode episode, Progress progress) {
+            for (OnDownloadEpisodeListener listener : downloadListeners)
+                listener.onDownloadProgress(episode, progress);
+        }
+
+        @Override
+        public void onEpisodeFileDownloaded(Episode episode, File file) {
+            downloadTasks.remove(downloadId);
+
+            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            // Make sure the download was not deleted in the meantime
+            if (meta != null && meta.downloadId != null && meta.downloadId == downloadId) {
+                meta.filePath = file.getAbsolutePath();
+
+                for (OnDownloadEpisodeListener listener : downloadListeners)
+                    listener.onDownloadSuccess();
+
+                // Update counter
+                if (downloadsSize != -1)
+                    downloadsSize++;
+
+                // Mark metadata record as dirty
+                metadataChanged = true;
+            }
+        }
+
+        @Override
+        public void onEpisodeFileDownloadFailed(Episode episode) {
+            downloadTasks.remove(downloadId);
+
+            final EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            // The partial content stays on disk and will be picked up if the
+            // user restarts the download
+            if (meta != null && meta.downloadId != null && meta.downloadId == downloadId) {
+                meta.downloadId = null;
+                meta.filePath = null;
+
+                for (OnDownloadEpisodeListener listener : downloadListeners)
+                    listener.onDownloadFailed();
+
+                // Mark metadata record as dirty
+                metadataChanged = true;
+            }
+        }
+    }
+
     private void initDownloadsCounter() {
         this.downloadsSize = 0;
 
@@ -383,6 +624,19 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
                 && new File(meta.filePath).exists();
     }
 
+    /**
+     * @return The system download manager which does all the downloading for
+     *         us. This is fetched on first use to keep the manager's creation
+     *         on start-up cheap.
+     */
+    private synchronized DownloadManager getDownloadManager() {
+        if (downloadManager == null)
+            downloadManager = (DownloadManager)
+                    podcatcher.getSystemService(Context.DOWNLOAD_SERVICE);
+
+        return downloadManager;
+    }
+
     /** The receiver we register for episode downloads */
     private BroadcastReceiver onDownloadComplete = new BroadcastReceiver() {
 
@@ -406,7 +660,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
             for (EpisodeMetadata meta : metadata.values())
                 if (meta.downloadId != null && meta.downloadId == downloadId && !isDownloaded(meta)) {
                     // Find download result information
-                    Cursor result = downloadManager.query(new Query().setFilterById(downloadId));
+                    Cursor result = getDownloadManager().query(new Query().setFilterById(downloadId));
                     // There should be information on the download
                     if (result.moveToFirst())
                         // Download was a success
@@ -426,7 +680,7 @@ public abstract class EpisodeDownloadManager extends EpisodeBaseManager {
                         }
                         // Download failed
                         else {
-                            downloadManager.remove(downloadId);
+                            getDownloadManager().remove(downloadId);
 
                             meta.downloadId = null;
                             meta.filePath = null;
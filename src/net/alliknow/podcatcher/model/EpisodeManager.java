@@ -17,7 +17,13 @@
 
 package net.alliknow.podcatcher.model;
 
+import android.os.AsyncTask;
+
 import net.alliknow.podcatcher.Podcatcher;
+import net.alliknow.podcatcher.model.types.Episode;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Manager to handle episode specific activities. This is the bottom end of the
@@ -34,6 +40,22 @@ public class EpisodeManager extends EpisodeStateManager {
     /** The single instance */
     private static EpisodeManager manager;
 
+    /** The actions available to apply to many episodes at once */
+    public static enum BulkAction {
+        /** Mark the episodes old */
+        MARK_OLD,
+        /** Mark the episodes new */
+        MARK_NEW,
+        /** Download the episodes */
+        DOWNLOAD,
+        /** Delete the episodes' downloads */
+        DELETE_DOWNLOAD,
+        /** Append the episodes to the playlist */
+        APPEND_TO_PLAYLIST,
+        /** Remove the episodes from the playlist */
+        REMOVE_FROM_PLAYLIST
+    }
+
     /**
      * Init the episode manager.
      * 
@@ -68,4 +90,119 @@ public class EpisodeManager extends EpisodeStateManager {
         // to least once
         return manager;
     }
+
+    /**
+     * Apply an action to all the given episodes. Unlike calling the
+     * corresponding single episode methods in a loop, this changes the
+     * metadata in one pass off the main thread, alerts the listeners only
+     * once and stores the metadata once when done.
+     * 
+     * @param action The action to perform.
+     * @param episodes The episodes to apply the action to.
+     */
+    public void apply(BulkAction action, List<Episode> episodes) {
+        if (action != null && episodes != null && !episodes.isEmpty() && metadata != null) {
+            // Downloads are started right here, since they alert listeners
+            // immediately. There are never many of them at a time anyway.
+            if (BulkAction.DOWNLOAD.equals(action)) {
+                for (Episode episode : episodes)
+                    download(episode);
+
+                saveState();
+            }
+            else
+                // This runs serially with other bulk actions
+                new BulkActionTask(action, new ArrayList<Episode>(episodes)).execute((Void) null);
+        }
+    }
+
+    /**
+     * The task applying a bulk action.
+     */
+    private class BulkActionTask extends AsyncTask<Void, Void, Integer> {
+
+        /** The action to apply */
+        private final BulkAction action;
+        /** The episodes to apply the action to */
+        private final List<Episode> episodes;
+
+        /**
+         * Create the task.
+         * 
+         * @param action Action to apply.
+         * @param episodes The episodes to work on, the task owns this list.
+         */
+        private BulkActionTask(BulkAction action, List<Episode> episodes) {
+            this.action = action;
+            this.episodes = episodes;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            int count = 0;
+
+            switch (action) {
+                case MARK_OLD:
+                case MARK_NEW:
+                    for (Episode episode : episodes)
+                        if (putState(episode, BulkAction.MARK_OLD.equals(action)))
+                            count++;
+
+                    break;
+                case DELETE_DOWNLOAD:
+                    final List<Long> systemDownloadIds = new ArrayList<Long>();
+                    for (Episode episode : episodes)
+                        if (removeDownload(episode, systemDownloadIds))
+                            count++;
+
+                    removeSystemDownloads(systemDownloadIds);
+                    break;
+                case APPEND_TO_PLAYLIST:
+                    for (Episode episode : episodes)
+                        if (putAtPlaylistEnd(episode))
+                            count++;
+
+                    storePlaylist();
+                    break;
+                case REMOVE_FROM_PLAYLIST:
+                    count = removeAllFromPlaylist(episodes);
+
+                    storePlaylist();
+                    break;
+                default:
+                    break;
+            }
+
+            return count;
+        }
+
+        @Override
+        protected void onPostExecute(Integer count) {
+            // Nothing changed, nothing to tell
+            if (count == 0)
+                return;
+
+            // Alert listeners once
+            switch (action) {
+                case MARK_OLD:
+                case MARK_NEW:
+                    fireStateChanged(episodes.size() == 1 ? episodes.get(0) : null);
+                    break;
+                case DELETE_DOWNLOAD:
+                    // The downloads are counted again once asked for
+                    downloadsSize = -1;
+                    fireDownloadDeleted();
+                    break;
+                case APPEND_TO_PLAYLIST:
+                case REMOVE_FROM_PLAYLIST:
+                    firePlaylistChanged();
+                    break;
+                default:
+                    break;
+            }
+
+            // Store the changes once
+            saveState();
+        }
+    }
 }
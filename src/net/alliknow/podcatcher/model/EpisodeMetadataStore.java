@@ -0,0 +1,476 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static net.alliknow.podcatcher.model.StoreUtils.close;
+import static net.alliknow.podcatcher.model.StoreUtils.createFileName;
+import static net.alliknow.podcatcher.model.StoreUtils.digest;
+import static net.alliknow.podcatcher.model.StoreUtils.readFile;
+import static net.alliknow.podcatcher.model.StoreUtils.readString;
+import static net.alliknow.podcatcher.model.StoreUtils.writeFile;
+import static net.alliknow.podcatcher.model.StoreUtils.writeString;
+
+import android.util.Log;
+
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Metrics.Timer;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The file store for the episode metadata. Records are sharded by podcast:
+ * the records for each podcast live in a file of their own, so they can be
+ * loaded when the podcast is and only need to be written when they changed.
+ * Records without a podcast go to a shard of their own. A small index lists
+ * all shards and marks those that need to be loaded on start-up because they
+ * hold downloads.<br />
+ * The store keeps track of the shards loaded and remembers a digest of each
+ * shard's file content, that is how it knows which shards need to be written.
+ * Records for shards not loaded yet are merged with the shard's file content
+ * before it is written. All methods are synchronized.
+ * 
+ * @see EpisodeBaseManager
+ */
+public class EpisodeMetadataStore {
+
+    /** The magic number at the beginning of the shard and index files */
+    private static final int MAGIC = 0x50434d44;
+    /** The file format version */
+    private static final int FORMAT_VERSION = 1;
+    /** The name of the index file */
+    private static final String INDEX_FILENAME = "index.dat";
+    /** The name of the shard file for records without a podcast */
+    private static final String UNASSIGNED_FILENAME = "unassigned.dat";
+    /** The file ending for shard files */
+    private static final String SHARD_FILE_ENDING = ".dat";
+
+    /** The flag for the download id field in a record */
+    private static final int DOWNLOAD_ID = 1 << 0;
+    /** The flag for the file path field in a record */
+    private static final int FILE_PATH = 1 << 1;
+    /** The flag for the resume time field in a record */
+    private static final int RESUME_AT = 1 << 2;
+    /** The flag for the state field in a record */
+    private static final int IS_OLD = 1 << 3;
+    /** The flag for the legacy playlist position field in a record */
+    private static final int PLAYLIST_POSITION = 1 << 4;
+    /** The flag for the podcast name field in a record */
+    private static final int PODCAST_NAME = 1 << 5;
+    /** The flag for the episode name field in a record */
+    private static final int EPISODE_NAME = 1 << 6;
+    /** The flag for the episode date field in a record */
+    private static final int EPISODE_PUB_DATE = 1 << 7;
+    /** The flag for the episode description field in a record */
+    private static final int EPISODE_DESCRIPTION = 1 << 8;
+
+    /** The directory the shards live in */
+    private final File dir;
+
+    /**
+     * The shards listed in the index by podcast URL, the value tells whether
+     * the shard is needed on start-up. Read on first use.
+     */
+    private Map<String, Boolean> index;
+    /** The podcast URLs of all shards loaded */
+    private final Set<String> loaded = new HashSet<String>();
+    /** The digests of the shard file contents read or written by podcast URL */
+    private final Map<String, byte[]> digests = new HashMap<String, byte[]>();
+
+    /**
+     * Create the store, this does not touch the file system yet.
+     * 
+     * @param dir The directory to put the shard files in. Will be created if
+     *            needed.
+     */
+    public EpisodeMetadataStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return The time the store was last written to, zero if never.
+     */
+    public synchronized long lastModified() {
+        return new File(dir, INDEX_FILENAME).lastModified();
+    }
+
+    /**
+     * Load all shards needed on start-up, i.e. the ones holding records with
+     * downloads and the one with the records without a podcast.
+     * 
+     * @return The records loaded, in a new map owned by the caller.
+     */
+    public synchronized Map<URL, EpisodeMetadata> loadStartupShards() {
+        final long start = Metrics.start();
+        final Map<URL, EpisodeMetadata> result = new HashMap<URL, EpisodeMetadata>();
+
+        readIndex();
+        for (Entry<String, Boolean> entry : index.entrySet())
+            if (entry.getValue() && loaded.add(entry.getKey()))
+                result.putAll(read(entry.getKey()));
+
+        Metrics.record(Timer.METADATA_LOAD, start);
+        return result;
+    }
+
+    /**
+     * @param podcastUrl The podcast the shard is for.
+     * @return Whether the shard has been loaded before.
+     */
+    public synchronized boolean isLoaded(String podcastUrl) {
+        return loaded.contains(podcastUrl);
+    }
+
+    /**
+     * Load the shard for the given podcast into the metadata given. Records
+     * already present win over the shard's content, but missing fields are
+     * filled in. Does nothing if the shard is already loaded.
+     * 
+     * @param podcastUrl The podcast to load the records for.
+     * @param metadata The in-memory metadata to load the records into. From
+     *            now on, the store expects it to hold all the shard's records
+     *            on {@link #write(Map)}.
+     * @return The keys of the records loaded.
+     */
+    public synchronized Set<URL> load(String podcastUrl, Map<URL, EpisodeMetadata> metadata) {
+        if (!loaded.add(podcastUrl))
+            return new HashSet<URL>();
+
+        final long start = Metrics.start();
+        final Map<URL, EpisodeMetadata> shard = read(podcastUrl);
+        for (Entry<URL, EpisodeMetadata> entry : shard.entrySet()) {
+            final EpisodeMetadata meta = metadata.get(entry.getKey());
+
+            if (meta == null)
+                metadata.put(entry.getKey(), entry.getValue());
+            else
+                meta.fillFrom(entry.getValue());
+        }
+
+        Metrics.record(Timer.METADATA_LOAD, start);
+        return shard.keySet();
+    }
+
+    /**
+     * Treat the shards for all the records given as loaded and write them.
+     * Use this to move records from another source into the store.
+     * 
+     * @param metadata The records to import.
+     * @return Whether all shards were written successfully.
+     */
+    public synchronized boolean migrate(Map<URL, EpisodeMetadata> metadata) {
+        final Set<String> shards = new HashSet<String>();
+
+        for (EpisodeMetadata meta : metadata.values())
+            if (meta.hasData())
+                shards.add(meta.podcastUrl);
+
+        loaded.addAll(shards);
+        return write(metadata) == shards.size();
+    }
+
+    /**
+     * Write all shards that changed. Records are grouped by their podcast URL.
+     * For shards loaded before, the records given are the shard's complete
+     * content and the shard is deleted if there are none left. Records for
+     * shards not loaded are merged into the records on file. Records without
+     * data are skipped.
+     * 
+     * @param metadata The complete in-memory metadata. This needs to be a
+     *            thread-safe map since it might be changed while being
+     *            written.
+     * @return The number of shards written.
+     */
+    public synchronized int write(Map<URL, EpisodeMetadata> metadata) {
+        final long start = Metrics.start();
+        readIndex();
+
+        // 1. Group records by podcast, sorted to make the shard file content
+        // predictable
+        final Map<String, Map<String, EpisodeMetadata>> shards =
+                new HashMap<String, Map<String, EpisodeMetadata>>();
+        for (String podcastUrl : loaded)
+            shards.put(podcastUrl, new TreeMap<String, EpisodeMetadata>());
+
+        for (Entry<URL, EpisodeMetadata> entry : metadata.entrySet()) {
+            if (!entry.getValue().hasData())
+                continue;
+
+            Map<String, EpisodeMetadata> shard = shards.get(entry.getValue().podcastUrl);
+            if (shard == null) {
+                shard = new TreeMap<String, EpisodeMetadata>();
+                shards.put(entry.getValue().podcastUrl, shard);
+            }
+
+            shard.put(entry.getKey().toString(), entry.getValue());
+        }
+
+        // 2. Write the shards that changed
+        int written = 0;
+        for (Entry<String, Map<String, EpisodeMetadata>> entry : shards.entrySet()) {
+            final String podcastUrl = entry.getKey();
+            Map<String, EpisodeMetadata> shard = entry.getValue();
+
+            if (!loaded.contains(podcastUrl))
+                shard = merge(read(podcastUrl), shard);
+
+            if (writeShard(podcastUrl, shard))
+                written++;
+        }
+
+        // 3. Update the index
+        if (written > 0)
+            writeIndex();
+
+        Metrics.record(Timer.METADATA_STORE, start);
+        return written;
+    }
+
+    private Map<URL, EpisodeMetadata> read(String podcastUrl) {
+        final Map<URL, EpisodeMetadata> result = new HashMap<URL, EpisodeMetadata>();
+        final File file = getShardFile(podcastUrl);
+
+        if (file.exists()) {
+            DataInputStream input = null;
+            try {
+                final byte[] content = readFile(file);
+                input = new DataInputStream(new ByteArrayInputStream(content));
+                readHeader(input);
+
+                final int count = input.readInt();
+                for (int position = 0; position < count; position++) {
+                    final String url = readString(input);
+                    final EpisodeMetadata meta = readRecord(input);
+                    meta.podcastUrl = podcastUrl;
+
+                    try {
+                        result.put(new URL(url), meta);
+                    } catch (MalformedURLException e) {
+                        // Skip this record
+                    }
+                }
+
+                digests.put(podcastUrl, digest(content));
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Failed to read metadata shard " + file, e);
+            } finally {
+                close(input);
+            }
+        }
+
+        return result;
+    }
+
+    private Map<String, EpisodeMetadata> merge(Map<URL, EpisodeMetadata> onFile,
+            Map<String, EpisodeMetadata> records) {
+        final Map<String, EpisodeMetadata> result = new TreeMap<String, EpisodeMetadata>();
+        for (Entry<URL, EpisodeMetadata> entry : onFile.entrySet())
+            result.put(entry.getKey().toString(), entry.getValue());
+
+        // Fields set in the records given win over the file content, we do
+        // not alter the records given since they are in use elsewhere
+        for (Entry<String, EpisodeMetadata> entry : records.entrySet()) {
+            final EpisodeMetadata merged = new EpisodeMetadata();
+            merged.fillFrom(entry.getValue());
+
+            final EpisodeMetadata existing = result.get(entry.getKey());
+            if (existing != null)
+                merged.fillFrom(existing);
+
+            result.put(entry.getKey(), merged);
+        }
+
+        return result;
+    }
+
+    private boolean writeShard(String podcastUrl, Map<String, EpisodeMetadata> shard) {
+        final File file = getShardFile(podcastUrl);
+
+        // 1. Empty shards are deleted
+        if (shard.isEmpty()) {
+            digests.remove(podcastUrl);
+            final boolean changed = index.remove(podcastUrl) != null;
+            file.delete();
+
+            return changed;
+        }
+
+        try {
+            // 2. Create the file content
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+
+            boolean neededOnStartUp = podcastUrl == null;
+            output.writeInt(shard.size());
+            for (Entry<String, EpisodeMetadata> entry : shard.entrySet()) {
+                writeString(output, entry.getKey());
+                writeRecord(output, entry.getValue());
+
+                neededOnStartUp |= entry.getValue().downloadId != null
+                        || entry.getValue().filePath != null;
+            }
+
+            // 3. Only write if the content actually changed
+            final byte[] content = bytes.toByteArray();
+            final byte[] digest = digest(content);
+            if (Arrays.equals(digest, digests.get(podcastUrl)) && file.exists())
+                return false;
+
+            writeFile(file, content);
+            digests.put(podcastUrl, digest);
+            index.put(podcastUrl, neededOnStartUp);
+
+            return true;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to write metadata shard " + file, e);
+
+            return false;
+        }
+    }
+
+    private void readIndex() {
+        if (index != null)
+            return;
+
+        index = new HashMap<String, Boolean>();
+        final File file = new File(dir, INDEX_FILENAME);
+
+        if (file.exists()) {
+            DataInputStream input = null;
+            try {
+                input = new DataInputStream(new ByteArrayInputStream(readFile(file)));
+                readHeader(input);
+
+                final int count = input.readInt();
+                for (int position = 0; position < count; position++)
+                    index.put(readString(input), input.readBoolean());
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Failed to read metadata index " + file, e);
+            } finally {
+                close(input);
+            }
+        }
+    }
+
+    private void writeIndex() {
+        final File file = new File(dir, INDEX_FILENAME);
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+
+            output.writeInt(index.size());
+            for (Entry<String, Boolean> entry : index.entrySet()) {
+                writeString(output, entry.getKey());
+                output.writeBoolean(entry.getValue());
+            }
+
+            writeFile(file, bytes.toByteArray());
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to write metadata index " + file, e);
+        }
+    }
+
+    private EpisodeMetadata readRecord(DataInputStream input) throws IOException {
+        final EpisodeMetadata result = new EpisodeMetadata();
+        final int fields = input.readInt();
+
+        if ((fields & DOWNLOAD_ID) != 0)
+            result.downloadId = input.readLong();
+        if ((fields & FILE_PATH) != 0)
+            result.filePath = readString(input);
+        if ((fields & RESUME_AT) != 0)
+            result.resumeAt = input.readInt();
+        if ((fields & IS_OLD) != 0)
+            result.isOld = input.readBoolean();
+        if ((fields & PLAYLIST_POSITION) != 0)
+            result.playlistPosition = input.readInt();
+        if ((fields & PODCAST_NAME) != 0)
+            result.podcastName = readString(input);
+        if ((fields & EPISODE_NAME) != 0)
+            result.episodeName = readString(input);
+        if ((fields & EPISODE_PUB_DATE) != 0)
+            result.episodePubDate = new Date(input.readLong());
+        if ((fields & EPISODE_DESCRIPTION) != 0)
+            result.episodeDescription = readString(input);
+
+        return result;
+    }
+
+    private void writeRecord(DataOutputStream output, EpisodeMetadata meta) throws IOException {
+        int fields = 0;
+        fields |= meta.downloadId == null ? 0 : DOWNLOAD_ID;
+        fields |= meta.filePath == null ? 0 : FILE_PATH;
+        fields |= meta.resumeAt == null ? 0 : RESUME_AT;
+        fields |= meta.isOld == null ? 0 : IS_OLD;
+        fields |= meta.playlistPosition == null ? 0 : PLAYLIST_POSITION;
+        fields |= meta.podcastName == null ? 0 : PODCAST_NAME;
+        fields |= meta.episodeName == null ? 0 : EPISODE_NAME;
+        fields |= meta.episodePubDate == null ? 0 : EPISODE_PUB_DATE;
+        fields |= meta.episodeDescription == null ? 0 : EPISODE_DESCRIPTION;
+        output.writeInt(fields);
+
+        if (meta.downloadId != null)
+            output.writeLong(meta.downloadId);
+        if (meta.filePath != null)
+            writeString(output, meta.filePath);
+        if (meta.resumeAt != null)
+            output.writeInt(meta.resumeAt);
+        if (meta.isOld != null)
+            output.writeBoolean(meta.isOld);
+        if (meta.playlistPosition != null)
+            output.writeInt(meta.playlistPosition);
+        if (meta.podcastName != null)
+            writeString(output, meta.podcastName);
+        if (meta.episodeName != null)
+            writeString(output, meta.episodeName);
+        if (meta.episodePubDate != null)
+            output.writeLong(meta.episodePubDate.getTime());
+        if (meta.episodeDescription != null)
+            writeString(output, meta.episodeDescription);
+    }
+
+    private File getShardFile(String podcastUrl) {
+        return new File(dir, podcastUrl == null ?
+                UNASSIGNED_FILENAME : createFileName(podcastUrl, SHARD_FILE_ENDING));
+    }
+
+    private static void readHeader(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+            throw new IOException("Unknown metadata file format");
+    }
+}
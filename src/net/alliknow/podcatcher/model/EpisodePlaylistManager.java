@@ -24,24 +24,43 @@ import net.alliknow.podcatcher.model.tasks.LoadPlaylistTask;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
 
+import java.io.File;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Episode manager in the episode manager stack that cares for the playlist.
+ * The playlist is kept in its own {@link Playlist} structure and file, so
+ * editing it does not mark the episode metadata dirty.
  * 
  * @see EpisodeManager
  */
 public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
 
-    /** Helper to make playlist methods more efficient */
-    private int playlistSize = -1;
+    /** The file name to store the playlist under */
+    public static final String PLAYLIST_FILENAME = "playlist.dat";
+
+    /** The playlist */
+    private final Playlist playlist;
+    /** The single thread the playlist is written on */
+    private final ExecutorService playlistExecutor = Executors.newSingleThreadExecutor();
+    /** The task writing the playlist */
+    private final Runnable storePlaylist = new Runnable() {
+
+        @Override
+        public void run() {
+            playlist.store();
+        }
+    };
 
     /** The call-back set for the playlist listeners */
     private Set<OnChangePlaylistListener> playlistListeners = new HashSet<OnChangePlaylistListener>();
@@ -53,6 +72,55 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      */
     protected EpisodePlaylistManager(Podcatcher app) {
         super(app);
+
+        playlist = new Playlist(new File(app.getFilesDir(), PLAYLIST_FILENAME));
+    }
+
+    @Override
+    public void onEpisodeMetadataLoaded(Map<URL, EpisodeMetadata> metadata) {
+        super.onEpisodeMetadataLoaded(metadata);
+
+        // The playlist file is small, so this is cheap
+        final boolean playlistExists = playlist.exists();
+        if (playlistExists)
+            playlist.load();
+
+        // Earlier versions kept the playlist as positions in the metadata,
+        // move these over to the playlist (once) and clear them
+        final TreeMap<Integer, Episode> legacyPlaylist = new TreeMap<Integer, Episode>();
+        final Iterator<Entry<URL, EpisodeMetadata>> iterator = this.metadata.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Entry<URL, EpisodeMetadata> entry = iterator.next();
+            final EpisodeMetadata meta = entry.getValue();
+
+            if (meta.playlistPosition != null) {
+                if (!playlistExists) {
+                    final Episode episode = meta.marshalEpisode(entry.getKey());
+
+                    if (episode != null)
+                        legacyPlaylist.put(meta.playlistPosition, episode);
+                }
+
+                meta.playlistPosition = null;
+                metadataChanged = true;
+            }
+        }
+
+        if (!legacyPlaylist.isEmpty()) {
+            for (Episode episode : legacyPlaylist.values())
+                playlist.append(episode);
+
+            storePlaylist();
+        }
+    }
+
+    @Override
+    public void migrateEpisodeMetadata(String from, String to) {
+        super.migrateEpisodeMetadata(from, to);
+
+        // The playlist entries carry the podcast location as well
+        if (playlist.movePodcast(from, to))
+            storePlaylist();
     }
 
     /**
@@ -63,50 +131,29 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      * @see OnLoadPlaylistListener
      */
     public List<Episode> getPlaylist() {
-        // The resulting playlist
-        TreeMap<Integer, Episode> playlist = new TreeMap<Integer, Episode>();
-
-        // This is only possible if the metadata is available
-        if (metadata != null) {
-            // Find playlist entries from metadata
-            Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Entry<URL, EpisodeMetadata> entry = iterator.next();
-
-                // Find records for playlist entries
-                if (entry.getValue().playlistPosition != null) {
-                    // Create and add the downloaded episode
-                    Episode playlistEntry = entry.getValue().marshalEpisode(entry.getKey());
-                    playlist.put(entry.getValue().playlistPosition, playlistEntry);
-                }
-            }
-
-            // Since we have the playlist here, we could just as well set this
-            // and make the other methods return faster
-            this.playlistSize = playlist.size();
-        }
+        return playlist.getEpisodes();
+    }
 
-        return new ArrayList<Episode>(playlist.values());
+    /**
+     * @return The first episode in the playlist, i.e. the one to play next, or
+     *         <code>null</code> if the playlist is empty.
+     */
+    public Episode getPlaylistHead() {
+        return playlist.getHead();
     }
 
     /**
      * @return The number of episodes in the playlist.
      */
     public int getPlaylistSize() {
-        if (playlistSize == -1 && metadata != null)
-            initPlaylistCounter();
-
-        return playlistSize == -1 ? 0 : playlistSize;
+        return playlist.size();
     }
 
     /**
      * @return Whether the current playlist has any entries.
      */
     public boolean isPlaylistEmpty() {
-        if (playlistSize == -1 && metadata != null)
-            initPlaylistCounter();
-
-        return playlistSize <= 0;
+        return playlist.size() == 0;
     }
 
     /**
@@ -116,7 +163,7 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      * @return <code>true</code> iff present in playlist.
      */
     public boolean isInPlaylist(Episode episode) {
-        return getPlaylistPosition(episode) != -1;
+        return episode != null && playlist.contains(episode.getMediaUrl());
     }
 
     /**
@@ -126,16 +173,7 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      * @return The position of the episode (staring at 0) or -1 if not present.
      */
     public int getPlaylistPosition(Episode episode) {
-        int result = -1;
-
-        if (episode != null && metadata != null) {
-            // Find metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
-            if (meta != null && meta.playlistPosition != null)
-                result = meta.playlistPosition;
-        }
-
-        return result;
+        return episode == null ? -1 : playlist.indexOf(episode.getMediaUrl());
     }
 
     /**
@@ -145,34 +183,38 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      * @param episode The episode to add.
      */
     public void appendToPlaylist(Episode episode) {
-        if (episode != null && metadata != null) {
-            // Only append the episode if it is not already part of the playlist
-            final List<Episode> playlist = getPlaylist();
-            if (!playlist.contains(episode)) {
-                final int position = playlist.size();
-
-                // Find or create the metadata information holder
-                EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
-                if (meta == null) {
-                    meta = new EpisodeMetadata();
-                    metadata.put(episode.getMediaUrl(), meta);
-                }
-
-                // Put metadata information
-                meta.playlistPosition = position;
-                putAdditionalEpisodeInformation(episode, meta);
-
-                // Increment counter
-                if (playlistSize != -1)
-                    playlistSize++;
+        if (putAtPlaylistEnd(episode)) {
+            storePlaylist();
+            firePlaylistChanged();
+        }
+    }
 
-                // Alert listeners
-                for (OnChangePlaylistListener listener : playlistListeners)
-                    listener.onPlaylistChanged();
+    /**
+     * Put an episode at the beginning of the playlist, so it will be played
+     * next. If the episode is already in the playlist, it is moved.
+     * 
+     * @param episode The episode to play next.
+     */
+    public void insertNextInPlaylist(Episode episode) {
+        if (episode != null && playlist.insertFirst(episode)) {
+            storePlaylist();
+            firePlaylistChanged();
+        }
+    }
 
-                // Mark metadata record as dirty
-                metadataChanged = true;
-            }
+    /**
+     * Move an episode in the playlist, e.g. after it was dragged to a new
+     * position.
+     * 
+     * @param episode The episode to move.
+     * @param predecessor The episode to put it behind, give <code>null</code>
+     *            to make it the first entry.
+     */
+    public void moveInPlaylist(Episode episode, Episode predecessor) {
+        if (episode != null && playlist.move(episode.getMediaUrl(),
+                predecessor == null ? null : predecessor.getMediaUrl())) {
+            storePlaylist();
+            firePlaylistChanged();
         }
     }
 
@@ -182,37 +224,50 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
      * @param episode Episode to pop.
      */
     public void removeFromPlaylist(Episode episode) {
-        if (episode != null && metadata != null) {
-            // Find the metadata information holder
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
-            if (meta != null && meta.playlistPosition != null) {
-                // Update the playlist positions for all entries beyond the one
-                // we are removing
-                Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    EpisodeMetadata other = iterator.next().getValue();
-
-                    // Find records for playlist entries
-                    if (other.playlistPosition != null
-                            && other.playlistPosition > meta.playlistPosition)
-                        other.playlistPosition--;
-                }
+        if (episode != null && playlist.remove(episode.getMediaUrl())) {
+            storePlaylist();
+            firePlaylistChanged();
+        }
+    }
 
-                // Reset the playlist position for given episode
-                meta.playlistPosition = null;
+    /**
+     * Append an episode to the playlist without alerting any listeners. This
+     * is safe to call off the main thread, use {@link #storePlaylist()} when
+     * done.
+     * 
+     * @param episode The episode to add.
+     * @return Whether the episode was added, i.e. was not part of the
+     *         playlist before.
+     */
+    protected boolean putAtPlaylistEnd(Episode episode) {
+        return episode != null && episode.getMediaUrl() != null && playlist.append(episode);
+    }
 
-                // Decrement counter
-                if (playlistSize != -1)
-                    playlistSize--;
+    /**
+     * Delete the given episodes off the playlist without alerting any
+     * listeners. This is safe to call off the main thread, use
+     * {@link #storePlaylist()} when done.
+     * 
+     * @param episodes Episodes to pop.
+     * @return The number of episodes actually removed.
+     */
+    protected int removeAllFromPlaylist(Collection<Episode> episodes) {
+        return playlist.removeAll(episodes);
+    }
 
-                // Alert listeners
-                for (OnChangePlaylistListener listener : playlistListeners)
-                    listener.onPlaylistChanged();
+    /**
+     * Write the playlist to disk (off the calling thread) if it changed.
+     */
+    protected void storePlaylist() {
+        playlistExecutor.execute(storePlaylist);
+    }
 
-                // Mark metadata record as dirty
-                metadataChanged = true;
-            }
-        }
+    /**
+     * Alert all playlist listeners that the playlist changed.
+     */
+    protected void firePlaylistChanged() {
+        for (OnChangePlaylistListener listener : playlistListeners)
+            listener.onPlaylistChanged();
     }
 
     /**
@@ -234,12 +289,4 @@ public abstract class EpisodePlaylistManager extends EpisodeDownloadManager {
     public void removePlaylistListener(OnChangePlaylistListener listener) {
         playlistListeners.remove(listener);
     }
-
-    private void initPlaylistCounter() {
-        this.playlistSize = 0;
-
-        for (EpisodeMetadata meta : metadata.values())
-            if (meta.playlistPosition != null)
-                playlistSize++;
-    }
 }
@@ -21,32 +21,66 @@ import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.listeners.OnChangeEpisodeStateListener;
 import net.alliknow.podcatcher.listeners.OnChangePodcastListListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
+import net.alliknow.podcatcher.model.ResumeCheckpointStore.Checkpoint;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
+import java.io.File;
 import java.net.URL;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This part of the episode manager stack handles the actual episode state,
- * including old/new flagging and resume times.
+ * including old/new flagging and resume times. Resume times can also be
+ * checkpointed regularly during playback (see
+ * {@link #checkpointResumeAt(Episode, int)}), this does not mark the metadata
+ * dirty but goes to a small, cheap {@link ResumeCheckpointStore} instead.
+ * State-only metadata records no longer needed are reclaimed by the
+ * {@link MetadataCompactor} on a low priority maintenance thread.
  * 
  * @see EpisodeManager
  */
 public abstract class EpisodeStateManager extends EpisodePlaylistManager implements
         OnLoadPodcastListener, OnChangePodcastListListener {
 
+    /** The file name to store resume checkpoints under */
+    public static final String CHECKPOINT_FILENAME = "resume.dat";
+
+    /** The resume checkpoint store */
+    private final ResumeCheckpointStore checkpoints;
+    /** The single thread all checkpoint store access runs on */
+    private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor();
+
     /** The call-back set for the episode state changed listeners */
     private Set<OnChangeEpisodeStateListener> stateListeners = new HashSet<OnChangeEpisodeStateListener>();
 
-    /** Helper to prevent clean-up from running too often */
-    private int podcastLoadCounter = 0;
+    /** The single low priority thread all metadata maintenance runs on */
+    private final ExecutorService maintenanceExecutor = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            android.os.Process.setThreadPriority(
+                                    android.os.Process.THREAD_PRIORITY_BACKGROUND);
+
+                            runnable.run();
+                        }
+                    }, "MetadataMaintenance");
+                }
+            });
+
     /** Helper to prevent clean-up to run twice for the same podcast */
     private Set<String> podcastsCleanUpRanFor = new HashSet<String>();
 
@@ -57,18 +91,70 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      */
     protected EpisodeStateManager(Podcatcher app) {
         super(app);
+
+        checkpoints = new ResumeCheckpointStore(new File(app.getFilesDir(), CHECKPOINT_FILENAME));
     }
 
     @Override
     public void onEpisodeMetadataLoaded(Map<URL, EpisodeMetadata> metadata) {
         super.onEpisodeMetadataLoaded(metadata);
 
+        // Build the compactor's index, compactions will queue up behind this
+        maintenanceExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                compactor.rebuild();
+            }
+        });
+
+        // Merge the resume checkpoints taken since the metadata was last
+        // written, e.g. because the app was killed during playback
+        final long written = metadataStore.lastModified();
+        checkpointExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                for (Entry<URL, Checkpoint> entry : checkpoints.readAll(written).entrySet()) {
+                    EpisodeMetadata meta = EpisodeStateManager.this.metadata.get(entry.getKey());
+
+                    if (meta == null) {
+                        meta = new EpisodeMetadata();
+                        EpisodeStateManager.this.metadata.put(entry.getKey(), meta);
+                    }
+
+                    meta.resumeAt = entry.getValue().position;
+                    if (entry.getValue().podcastUrl != null) {
+                        meta.podcastUrl = entry.getValue().podcastUrl;
+                        compactor.register(entry.getKey(), meta.podcastUrl);
+                    }
+
+                    // Mark metadata record as dirty
+                    metadataChanged = true;
+                }
+            }
+        });
+
         // We register to be alerted on podcast loads and podcast list changes
         // so we can perform some clean-ups
         PodcastManager.getInstance().addLoadPodcastListener(this);
         PodcastManager.getInstance().addChangePodcastListListener(this);
     }
 
+    @Override
+    public void migrateEpisodeMetadata(final String from, final String to) {
+        super.migrateEpisodeMetadata(from, to);
+
+        // So do the resume checkpoints, these might not be merged yet
+        checkpointExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                checkpoints.movePodcast(from, to);
+            }
+        });
+    }
+
     /**
      * Set the old/new state for an episode.
      * 
@@ -77,6 +163,20 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      *            the default.
      */
     public void setState(Episode episode, Boolean isOld) {
+        if (putState(episode, isOld))
+            fireStateChanged(episode);
+    }
+
+    /**
+     * Set the old/new state for an episode without alerting any listeners.
+     * This is safe to call off the main thread.
+     * 
+     * @param episode Episode to set state for (not <code>null</code>).
+     * @param isOld State to set, give <code>null</code> to reset the value to
+     *            the default.
+     * @return Whether the state could be set.
+     */
+    protected boolean putState(Episode episode, Boolean isOld) {
         if (episode != null && episode.getMediaUrl() != null && metadata != null) {
             EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
 
@@ -95,16 +195,29 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
             // information is still needed later (Once the podcast feed is
             // deleted or the episode is not in the feed anymore, we can delete
             // the metadata for the episode).
-            if (meta != null && meta.isOld != null && episode.getPodcast() != null)
+            if (meta != null && meta.isOld != null && episode.getPodcast() != null) {
                 meta.podcastUrl = episode.getPodcast().getUrl().toString();
+                compactor.register(episode.getMediaUrl(), meta.podcastUrl);
+            }
 
             // Mark metadata record as dirty
             metadataChanged = true;
 
-            // Alert listeners
-            for (OnChangeEpisodeStateListener listener : stateListeners)
-                listener.onStateChanged(episode);
+            return true;
         }
+
+        return false;
+    }
+
+    /**
+     * Alert all state listeners that an episode's state changed.
+     * 
+     * @param episode The episode the state was changed for or
+     *            <code>null</code> if it changed for several episodes.
+     */
+    protected void fireStateChanged(Episode episode) {
+        for (OnChangeEpisodeStateListener listener : stateListeners)
+            listener.onStateChanged(episode);
     }
 
     /**
@@ -171,27 +284,61 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
      */
     public void setResumeAt(Episode episode, Integer at) {
         if (episode != null && episode.getMediaUrl() != null && metadata != null) {
-            EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+            putResumeAt(episode, at);
 
-            // Metadata not yet created
-            if (meta == null && at != null) {
-                meta = new EpisodeMetadata();
-                meta.resumeAt = at;
+            // Mark metadata record as dirty
+            metadataChanged = true;
+        }
+    }
 
-                metadata.put(episode.getMediaUrl(), meta);
-            } // Metadata available
-            else if (meta != null)
-                meta.resumeAt = at;
+    /**
+     * Checkpoint the resume time for an episode during playback. In contrast to
+     * {@link #setResumeAt(Episode, Integer)}, this does not mark the metadata
+     * dirty (and thus will not make the complete metadata be written on the
+     * next save). Instead, the resume time goes to a small checkpoint store
+     * that is merged into the metadata on the next start-up if needed. Call
+     * this as often as you like, e.g. every couple of seconds or on pause.
+     * 
+     * @param episode Episode to set resume time for.
+     * @param at Time in millis from the start of the episode's media file to
+     *            resume playback from.
+     */
+    public void checkpointResumeAt(final Episode episode, final int at) {
+        if (episode != null && episode.getMediaUrl() != null && metadata != null && at > 0) {
+            putResumeAt(episode, at);
 
-            // We need to add the podcast URL to decide whether this meta
-            // information is still needed later (Once the podcast feed is
-            // deleted or the episode is not in the feed anymore, we can delete
-            // the metadata for the episode).
-            if (meta != null && meta.resumeAt != null && episode.getPodcast() != null)
-                meta.podcastUrl = episode.getPodcast().getUrl().toString();
+            final String podcastUrl = episode.getPodcast() == null ? null :
+                    episode.getPodcast().getUrl().toString();
+            checkpointExecutor.execute(new Runnable() {
 
-            // Mark metadata record as dirty
-            metadataChanged = true;
+                @Override
+                public void run() {
+                    checkpoints.put(episode.getMediaUrl(), podcastUrl, at);
+                }
+            });
+        }
+    }
+
+    private void putResumeAt(Episode episode, Integer at) {
+        EpisodeMetadata meta = metadata.get(episode.getMediaUrl());
+
+        // Metadata not yet created
+        if (meta == null && at != null) {
+            meta = new EpisodeMetadata();
+            meta.resumeAt = at;
+
+            metadata.put(episode.getMediaUrl(), meta);
+        } // Metadata available
+        else if (meta != null)
+            meta.resumeAt = at;
+
+        // We need to add the podcast URL to decide whether this meta
+        // information is still needed later (Once the podcast feed is
+        // deleted or the episode is not in the feed anymore, we can delete
+        // the metadata for the episode).
+        if (meta != null && meta.resumeAt != null && episode.getPodcast() != null) {
+            meta.podcastUrl = episode.getPodcast().getUrl().toString();
+            compactor.register(episode.getMediaUrl(), meta.podcastUrl);
         }
     }
 
@@ -218,90 +365,54 @@ public abstract class EpisodeStateManager extends EpisodePlaylistManager impleme
 
     @Override
     public void onPodcastRemoved(final Podcast podcast) {
-        if (podcast != null) {
-            // Go off the main thread, we rely on getting an iterator from the
-            // metadata being thread safe here!
-            new Thread() {
+        // Clean all state metadata information for episodes of the deleted
+        // feed, the podcast's metadata might not be loaded yet
+        if (podcast != null && metadata != null) {
+            final String podcastUrl = podcast.getUrl().toString();
+
+            maintenanceExecutor.execute(new Runnable() {
 
                 @Override
                 public void run() {
-                    android.os.Process
-                            .setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
-
-                    // Clean all state meta data information for episodes of the
-                    // deleted feed
-                    Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-                    while (iterator.hasNext()) {
-                        final Entry<URL, EpisodeMetadata> entry = iterator.next();
-
-                        // Find metadata records with matching podcast
-                        if (podcast.getUrl().toString().equals(entry.getValue().podcastUrl)
-                                && entry.getValue().hasOnlyStateData()) {
-                            // This is actually enough since the task storing
-                            // the metadata will clean empty records
-                            entry.getValue().isOld = null;
-                            entry.getValue().resumeAt = null;
-                        }
-                    }
+                    loadEpisodeMetadata(podcastUrl);
                 }
-            }.start();
+            });
+            compact(podcastUrl, null);
         }
     }
 
     @Override
     public void onPodcastLoaded(final Podcast podcast) {
-        // We do not want to run this too frequently and for all podcasts at
-        // once. In addition it should run only once per podcast during the
-        // lifetime of this EpisodeManager
-        if (podcast != null && !podcastsCleanUpRanFor.contains(podcast.getUrl().toString())
-                && podcastLoadCounter % 10 == 0) {
-            // Update helpers
-            podcastLoadCounter++;
-            podcastsCleanUpRanFor.add(podcast.getUrl().toString());
-
-            // Go off the main thread, we rely on getting an iterator from the
-            // metadata being thread safe here!
-            new Thread() {
+        // The clean-up is cheap since it only looks at the records for this
+        // podcast, but it should still only run once per podcast during the
+        // lifetime of this EpisodeManager. Stale podcasts restored from a
+        // snapshot are not trusted to list the feed's episodes and truncated
+        // ones do not list all of them.
+        if (podcast != null && metadata != null && !podcast.isStale()
+                && !podcast.isTruncated()
+                && podcastsCleanUpRanFor.add(podcast.getUrl().toString())) {
+            // Collect the episodes currently in the feed, we do not want to
+            // use URL.equals() here
+            final Set<String> inFeed = new HashSet<String>();
+            for (Episode episode : podcast.getEpisodes())
+                inFeed.add(episode.getMediaUrl().toString());
 
-                @Override
-                public void run() {
-                    android.os.Process
-                            .setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
-
-                    // Clean all state meta data information for episodes no
-                    // longer present in the podcast feed
-                    Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-                    while (iterator.hasNext()) {
-                        final Entry<URL, EpisodeMetadata> entry = iterator.next();
-
-                        // Podcast matches
-                        if (podcast.getUrl().toString().equals(entry.getValue().podcastUrl)) {
-                            boolean stillInPodcast = false;
-
-                            // Check whether the episode is still there
-                            for (Episode episode : podcast.getEpisodes())
-                                if (episode.getMediaUrl().equals(entry.getKey()))
-                                    stillInPodcast = true;
-
-                            // If it is not there and the episode metadata does
-                            // not have any other information, delete the
-                            // metadata
-                            if (!stillInPodcast && entry.getValue().hasOnlyStateData()) {
-                                // This is actually enough since the task
-                                // storing the metadata will clean empty records
-                                entry.getValue().isOld = null;
-                                entry.getValue().resumeAt = null;
-                            }
-                        }
-                    }
-                }
-            }.start();
+            // Clean all state metadata information for episodes no longer
+            // present in the podcast feed
+            compact(podcast.getUrl().toString(), inFeed);
         }
-        // The other interesting case is when the load counter allowed the
-        // clean-up to run but the podcast is already clean: Do nothing.
-        // In all other cases: increment counter.
-        else if (podcast != null && podcastLoadCounter % 10 != 0)
-            podcastLoadCounter++;
+    }
+
+    private void compact(final String podcastUrl, final Set<String> inFeed) {
+        maintenanceExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (compactor.compact(podcastUrl, inFeed) > 0)
+                    // Mark metadata record as dirty
+                    metadataChanged = true;
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,191 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Reclaims episode metadata records that are no longer needed, i.e. records
+ * that only carry state information (old/new, resume time) for episodes that
+ * are not in their podcast's feed anymore or whose podcast has been removed.
+ * To avoid scanning all metadata for each podcast, the compactor keeps a
+ * secondary index of the record keys per podcast URL.<br />
+ * The index might hold keys for records that have since been removed or moved
+ * to another podcast, these are verified and dropped during compaction. Records
+ * created after {@link #rebuild()} need to be made known via
+ * {@link #register(URL, String)}.<br />
+ * All methods are synchronized, but the compactor relies on the metadata map
+ * given being thread-safe, the episode manager runs it on its maintenance
+ * thread.
+ */
+public class MetadataCompactor {
+
+    /** The metadata map we work on */
+    private final Map<URL, EpisodeMetadata> metadata;
+    /** The per-podcast index, maps podcast URL to episode URLs */
+    private final Map<String, Set<URL>> byPodcast = new HashMap<String, Set<URL>>();
+
+    /** The number of compaction runs */
+    private int runCount;
+    /** The number of records looked at by all runs */
+    private long examinedCount;
+    /** The number of records reclaimed by all runs */
+    private long reclaimedCount;
+
+    /**
+     * Create a new compactor, you need to call {@link #rebuild()} for the
+     * index to be filled.
+     * 
+     * @param metadata The metadata to work on, this needs to be a thread-safe
+     *            map.
+     */
+    public MetadataCompactor(Map<URL, EpisodeMetadata> metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Build the per-podcast index from the metadata. This iterates all records
+     * once. Records registered before are kept, so it is safe to already use
+     * {@link #register(URL, String)} while this runs on another thread.
+     */
+    public synchronized void rebuild() {
+        for (Entry<URL, EpisodeMetadata> entry : metadata.entrySet())
+            register(entry.getKey(), entry.getValue().podcastUrl);
+    }
+
+    /**
+     * Add a record to the per-podcast index. This is cheap and can be called
+     * whenever a record's podcast URL is set.
+     * 
+     * @param episodeUrl The record's key.
+     * @param podcastUrl The podcast the record belongs to, nothing happens if
+     *            this is <code>null</code>.
+     */
+    public synchronized void register(URL episodeUrl, String podcastUrl) {
+        if (episodeUrl != null && podcastUrl != null) {
+            Set<URL> keys = byPodcast.get(podcastUrl);
+            if (keys == null) {
+                keys = new HashSet<URL>();
+                byPodcast.put(podcastUrl, keys);
+            }
+
+            keys.add(episodeUrl);
+        }
+    }
+
+    /**
+     * Move the index entries for a podcast that changed its location. The
+     * records themselves are not touched.
+     * 
+     * @param from The podcast's former URL.
+     * @param to The podcast's new URL.
+     */
+    public synchronized void move(String from, String to) {
+        final Set<URL> keys = byPodcast.remove(from);
+
+        if (keys != null)
+            for (URL episodeUrl : keys)
+                register(episodeUrl, to);
+    }
+
+    /**
+     * Remove all state-only records for the given podcast that are not in the
+     * given set of episodes.
+     * 
+     * @param podcastUrl The podcast to compact records for.
+     * @param inFeed The media URLs (as strings, to avoid the costly
+     *            {@link URL#equals(Object)}) of all episodes currently in the
+     *            podcast's feed. Give <code>null</code> if the podcast is gone
+     *            altogether.
+     * @return The number of records reclaimed.
+     */
+    public synchronized int compact(String podcastUrl, Set<String> inFeed) {
+        final Set<URL> keys = byPodcast.get(podcastUrl);
+        if (keys == null)
+            return 0;
+
+        final long start = System.currentTimeMillis();
+        final List<URL> dropped = new ArrayList<URL>();
+        int reclaimed = 0;
+
+        for (URL key : keys) {
+            final EpisodeMetadata meta = metadata.get(key);
+
+            // 1. Remove stale index entries
+            if (meta == null || !podcastUrl.equals(meta.podcastUrl))
+                dropped.add(key);
+            // 2. Remove records no longer needed
+            else if (!meta.hasData() || (meta.hasOnlyStateData()
+                    && (inFeed == null || !inFeed.contains(key.toString())))) {
+                metadata.remove(key);
+                dropped.add(key);
+
+                reclaimed++;
+            }
+        }
+
+        // 3. Update the index
+        keys.removeAll(dropped);
+        if (keys.isEmpty())
+            byPodcast.remove(podcastUrl);
+
+        // 4. Update metrics
+        runCount++;
+        examinedCount += dropped.size() + keys.size();
+        reclaimedCount += reclaimed;
+
+        if (reclaimed > 0)
+            Log.i(getClass().getSimpleName(), "Reclaimed " + reclaimed + " metadata records for "
+                    + podcastUrl + " in " + (System.currentTimeMillis() - start) + "ms, "
+                    + reclaimedCount + " in " + runCount + " runs overall");
+
+        return reclaimed;
+    }
+
+    /**
+     * @return The number of compaction runs so far.
+     */
+    public synchronized int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * @return The number of records looked at by all compaction runs so far.
+     */
+    public synchronized long getExaminedCount() {
+        return examinedCount;
+    }
+
+    /**
+     * @return The number of records reclaimed by all compaction runs so far.
+     */
+    public synchronized long getReclaimedCount() {
+        return reclaimedCount;
+    }
+}
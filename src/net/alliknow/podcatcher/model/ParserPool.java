@@ -0,0 +1,159 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread pool of XML pull parsers. Looking up the parser factory is
+ * reflective and each new parser allocates its buffers again, so instead of
+ * doing this for every file parsed, we keep one parser of each kind per
+ * thread. The background executors reuse their threads, so a refresh of all
+ * podcasts gets along with a handful of parsers.<br />
+ * Get a parser via {@link #acquire(boolean)}, set its input and make sure to
+ * give it back via {@link #release(XmlPullParser)} once done.
+ */
+public class ParserPool {
+
+    /** The factory, looked up once */
+    private static XmlPullParserFactory factory;
+    /** The time it took to look up the factory in nanoseconds */
+    private static long factoryNanos;
+
+    /** The idle namespace-aware parser per thread */
+    private static final ThreadLocal<XmlPullParser> namespaceAware = new ThreadLocal<XmlPullParser>();
+    /** The idle plain parser per thread */
+    private static final ThreadLocal<XmlPullParser> plain = new ThreadLocal<XmlPullParser>();
+
+    /** The number of parsers created */
+    private static final AtomicInteger createdCount = new AtomicInteger();
+    /** The number of times a parser was reused */
+    private static final AtomicInteger reusedCount = new AtomicInteger();
+    /** The time spent creating parsers in nanoseconds */
+    private static final AtomicLong createNanos = new AtomicLong();
+
+    private ParserPool() {
+        // No instances, please
+    }
+
+    /**
+     * Get a parser for the current thread. Call
+     * {@link XmlPullParser#setInput(java.io.InputStream, String)} before
+     * using it.
+     * 
+     * @param processNamespaces Whether the parser should be namespace-aware.
+     * @return The parser, idle or newly created.
+     * @throws XmlPullParserException If no parser can be created.
+     */
+    public static XmlPullParser acquire(boolean processNamespaces) throws XmlPullParserException {
+        final ThreadLocal<XmlPullParser> idle = processNamespaces ? namespaceAware : plain;
+
+        // 1. Reuse the parser of this thread, if it is not in use
+        XmlPullParser parser = idle.get();
+        if (parser != null) {
+            idle.set(null);
+            reusedCount.incrementAndGet();
+
+            return parser;
+        }
+
+        // 2. Create a new one
+        final XmlPullParserFactory factory = getFactory();
+        final long start = System.nanoTime();
+        parser = factory.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, processNamespaces);
+
+        createNanos.addAndGet(System.nanoTime() - start);
+        createdCount.incrementAndGet();
+
+        return parser;
+    }
+
+    /**
+     * Give a parser back to the pool. It drops its input, so the stream is not
+     * held on to. Do not use the parser afterwards.
+     * 
+     * @param parser The parser from {@link #acquire(boolean)}, might be
+     *            <code>null</code>, which is ignored.
+     */
+    public static void release(XmlPullParser parser) {
+        if (parser != null)
+            try {
+                parser.setInput((Reader) null);
+
+                if (parser.getFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES))
+                    namespaceAware.set(parser);
+                else
+                    plain.set(parser);
+            } catch (XmlPullParserException e) {
+                // Parser cannot be reset, leave it to the garbage collector
+            }
+    }
+
+    /**
+     * @return The number of parsers created so far.
+     */
+    public static int getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return The number of times a parser was reused so far.
+     */
+    public static int getReusedCount() {
+        return reusedCount.get();
+    }
+
+    /**
+     * Estimate the time saved by pooling. Without the pool, every parse would
+     * have looked up the factory and created a parser. This is compared to
+     * the time actually spent on the factory lookup and the parsers created.
+     * 
+     * @return The time saved in milliseconds.
+     */
+    public static long getSavedTime() {
+        final int created = createdCount.get();
+        if (created == 0)
+            return 0;
+
+        final long perParser = createNanos.get() / created;
+        final int parses = created + reusedCount.get();
+        final long lookup;
+        synchronized (ParserPool.class) {
+            lookup = factoryNanos;
+        }
+
+        return ((parses - 1) * lookup + reusedCount.get() * perParser) / 1000000;
+    }
+
+    private static synchronized XmlPullParserFactory getFactory() throws XmlPullParserException {
+        if (factory == null) {
+            final long start = System.nanoTime();
+            factory = XmlPullParserFactory.newInstance();
+            factoryNanos = System.nanoTime() - start;
+        }
+
+        return factory;
+    }
+}
@@ -0,0 +1,441 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static net.alliknow.podcatcher.model.StoreUtils.close;
+import static net.alliknow.podcatcher.model.StoreUtils.readString;
+import static net.alliknow.podcatcher.model.StoreUtils.writeFile;
+import static net.alliknow.podcatcher.model.StoreUtils.writeString;
+
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The playlist, an ordered list of episodes that is stored in its own small
+ * file and not as part of the episode metadata. This way playlist edits never
+ * require the (potentially large) metadata file to be written.<br />
+ * Each entry has a sort key, keys are spaced so that entries can be inserted
+ * anywhere by picking a key in between its neighbors. Only if there is no room
+ * left, all keys are re-assigned. This makes appending, removing and moving
+ * entries cheap, no matter how long the playlist is. The entries also carry
+ * the information needed to create the episode object even if its podcast is
+ * not available. Episodes without a podcast location cannot be created this
+ * way, so they are never taken in (and dropped when read).<br />
+ * All methods are synchronized, the playlist can be edited from any thread.
+ * 
+ * @see EpisodePlaylistManager
+ */
+public class Playlist {
+
+    /** The magic number at the beginning of the file */
+    private static final int MAGIC = 0x50434c50;
+    /** The file format version */
+    private static final int FORMAT_VERSION = 1;
+    /** The distance between sort keys when assigned freshly */
+    private static final long KEY_GAP = 1 << 20;
+
+    /** The playlist file */
+    private final File file;
+
+    /** The entries' episode URLs by their sort key */
+    private final TreeMap<Long, String> order = new TreeMap<Long, String>();
+    /** The sort key for each entry by episode URL */
+    private final Map<String, Long> keys = new HashMap<String, Long>();
+    /** The information needed to create the episode for each entry */
+    private final Map<String, EpisodeMetadata> entries = new HashMap<String, EpisodeMetadata>();
+    /** The entries' positions, created on demand and reset on change */
+    private Map<String, Integer> positions;
+
+    /** Flag to indicate whether the playlist needs to be written */
+    private boolean dirty = false;
+
+    /**
+     * Create the playlist, this does not touch the file system yet.
+     * 
+     * @param file The file to store the playlist in.
+     */
+    public Playlist(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return Whether the playlist file exists.
+     */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * @return The number of entries in the playlist.
+     */
+    public synchronized int size() {
+        return order.size();
+    }
+
+    /**
+     * @param episodeUrl The episode's media URL.
+     * @return Whether the episode is in the playlist.
+     */
+    public synchronized boolean contains(URL episodeUrl) {
+        return keys.containsKey(episodeUrl.toString());
+    }
+
+    /**
+     * @param episodeUrl The episode's media URL.
+     * @return The episode's position in the playlist (starting at 0) or -1
+     *         if it is not in the playlist.
+     */
+    public synchronized int indexOf(URL episodeUrl) {
+        // Re-create the positions after a change
+        if (positions == null) {
+            positions = new HashMap<String, Integer>(order.size());
+
+            for (String url : order.values())
+                positions.put(url, positions.size());
+        }
+
+        final Integer position = positions.get(episodeUrl.toString());
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * @return The first episode in the playlist or <code>null</code> if the
+     *         playlist is empty.
+     */
+    public synchronized Episode getHead() {
+        return order.isEmpty() ? null : marshalEpisode(order.firstEntry().getValue());
+    }
+
+    /**
+     * @return All episodes in the playlist in order. Might be empty but not
+     *         <code>null</code>.
+     */
+    public synchronized List<Episode> getEpisodes() {
+        final List<Episode> result = new ArrayList<Episode>(order.size());
+
+        for (String url : order.values()) {
+            final Episode episode = marshalEpisode(url);
+
+            if (episode != null)
+                result.add(episode);
+        }
+
+        return result;
+    }
+
+    /**
+     * Add an episode to the end of the playlist.
+     * 
+     * @param episode The episode to add.
+     * @return Whether the episode was added, i.e. was not part of the playlist
+     *         before and has a podcast location.
+     */
+    public synchronized boolean append(Episode episode) {
+        if (!hasPodcastUrl(episode) || contains(episode.getMediaUrl()))
+            return false;
+
+        put(episode, order.isEmpty() ? 0 : order.lastKey() + KEY_GAP);
+        return true;
+    }
+
+    /**
+     * Put an episode at the beginning of the playlist, so it will be played
+     * next. If the episode is already in the playlist, it is moved.
+     * 
+     * @param episode The episode to put first.
+     * @return Whether the playlist changed, this is <code>false</code> if the
+     *         episode has no podcast location.
+     */
+    public synchronized boolean insertFirst(Episode episode) {
+        final Long key = keys.get(episode.getMediaUrl().toString());
+        // Already first or cannot be taken in
+        if ((key != null && key.equals(order.firstKey())) || !hasPodcastUrl(episode))
+            return false;
+
+        remove(episode.getMediaUrl());
+        put(episode, order.isEmpty() ? 0 : order.firstKey() - KEY_GAP);
+        return true;
+    }
+
+    /**
+     * Move an episode in the playlist, e.g. when dragged to a new position.
+     * 
+     * @param episodeUrl The media URL of the episode to move.
+     * @param predecessorUrl The media URL of the episode to put it behind, give
+     *            <code>null</code> to make it the first entry.
+     * @return Whether the playlist changed, this is <code>false</code> if any
+     *         of the episodes is not in the playlist.
+     */
+    public synchronized boolean move(URL episodeUrl, URL predecessorUrl) {
+        final String url = episodeUrl.toString();
+        final Long key = keys.get(url);
+        final Long predecessorKey = predecessorUrl == null ?
+                null : keys.get(predecessorUrl.toString());
+
+        if (key == null || (predecessorUrl != null && predecessorKey == null)
+                || key.equals(predecessorKey))
+            return false;
+
+        // Take the entry out, so it is not in the way when finding the keys
+        final EpisodeMetadata entry = entries.get(url);
+        removeKey(url);
+
+        // Find the keys of the entries the episode is moved in between
+        Long before = predecessorKey;
+        Long after = before == null ? (order.isEmpty() ? null : order.firstKey()) :
+                order.higherKey(before);
+
+        // No room left, re-assign all keys and find the neighbors again
+        if (before != null && after != null && after - before < 2) {
+            spreadKeys();
+
+            before = keys.get(predecessorUrl.toString());
+            after = order.higherKey(before);
+        }
+
+        final long newKey;
+        if (before == null && after == null)
+            newKey = 0;
+        else if (before == null)
+            newKey = after - KEY_GAP;
+        else if (after == null)
+            newKey = before + KEY_GAP;
+        else
+            newKey = before + (after - before) / 2;
+
+        putKey(url, newKey, entry);
+        return true;
+    }
+
+    /**
+     * Remove an episode from the playlist.
+     * 
+     * @param episodeUrl The media URL of the episode to remove.
+     * @return Whether the episode was in the playlist.
+     */
+    public synchronized boolean remove(URL episodeUrl) {
+        return removeKey(episodeUrl.toString());
+    }
+
+    /**
+     * Remove the given episodes from the playlist.
+     * 
+     * @param episodes The episodes to remove.
+     * @return The number of episodes actually removed.
+     */
+    public synchronized int removeAll(Collection<Episode> episodes) {
+        int count = 0;
+
+        for (Episode episode : episodes)
+            if (episode != null && remove(episode.getMediaUrl()))
+                count++;
+
+        return count;
+    }
+
+    /**
+     * Re-assign all entries for a podcast that changed its location.
+     * 
+     * @param from The podcast's former URL.
+     * @param to The podcast's new URL.
+     * @return Whether any entry was re-assigned.
+     */
+    public synchronized boolean movePodcast(String from, String to) {
+        boolean moved = false;
+
+        for (EpisodeMetadata entry : entries.values())
+            if (from.equals(entry.podcastUrl)) {
+                entry.podcastUrl = to;
+                moved = true;
+            }
+
+        dirty |= moved;
+        return moved;
+    }
+
+    /**
+     * Read the playlist from its file. Entries already present are dropped.
+     * Does nothing if the file does not exist. Entries without a valid podcast
+     * location are dropped and will be gone once the playlist is stored.
+     */
+    public synchronized void load() {
+        if (!file.exists())
+            return;
+
+        order.clear();
+        keys.clear();
+        entries.clear();
+        positions = null;
+
+        DataInputStream input = null;
+        boolean dropped = false;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+                throw new IOException("Unknown playlist format");
+
+            final int count = input.readInt();
+            for (int index = 0; index < count; index++) {
+                final String url = input.readUTF();
+                final EpisodeMetadata entry = new EpisodeMetadata();
+
+                entry.episodeName = readString(input);
+                final long pubDate = input.readLong();
+                entry.episodePubDate = pubDate < 0 ? null : new Date(pubDate);
+                entry.episodeDescription = readString(input);
+                entry.podcastName = readString(input);
+                entry.podcastUrl = readString(input);
+
+                if (isValidUrl(url) && isValidUrl(entry.podcastUrl))
+                    putKey(url, index * KEY_GAP, entry);
+                else
+                    dropped = true;
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to read playlist from " + file, e);
+        } finally {
+            close(input);
+        }
+
+        dirty = dropped;
+    }
+
+    /**
+     * Write the playlist to its file if it changed since it was last read or
+     * written. The file is only replaced once it is completely written.
+     */
+    public synchronized void store() {
+        if (!dirty)
+            return;
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+
+            output.writeInt(order.size());
+            for (String url : order.values()) {
+                final EpisodeMetadata entry = entries.get(url);
+
+                output.writeUTF(url);
+                writeString(output, entry.episodeName);
+                output.writeLong(entry.episodePubDate == null ?
+                        -1 : entry.episodePubDate.getTime());
+                writeString(output, entry.episodeDescription);
+                writeString(output, entry.podcastName);
+                writeString(output, entry.podcastUrl);
+            }
+
+            writeFile(file, bytes.toByteArray());
+            dirty = false;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to write playlist to " + file, e);
+        }
+    }
+
+    private void put(Episode episode, long key) {
+        final EpisodeMetadata entry = new EpisodeMetadata();
+
+        entry.episodeName = episode.getName();
+        entry.episodePubDate = episode.getPubDate();
+        entry.episodeDescription = episode.getDescription();
+        entry.podcastName = episode.getPodcast().getName();
+        entry.podcastUrl = episode.getPodcast().getUrl().toString();
+
+        putKey(episode.getMediaUrl().toString(), key, entry);
+    }
+
+    private void putKey(String url, long key, EpisodeMetadata entry) {
+        order.put(key, url);
+        keys.put(url, key);
+        entries.put(url, entry);
+
+        positions = null;
+        dirty = true;
+    }
+
+    private boolean removeKey(String url) {
+        final Long key = keys.remove(url);
+
+        if (key != null) {
+            order.remove(key);
+            entries.remove(url);
+
+            positions = null;
+            dirty = true;
+        }
+
+        return key != null;
+    }
+
+    private void spreadKeys() {
+        final List<String> urls = new ArrayList<String>(order.values());
+
+        order.clear();
+        for (int index = 0; index < urls.size(); index++) {
+            order.put(index * KEY_GAP, urls.get(index));
+            keys.put(urls.get(index), index * KEY_GAP);
+        }
+    }
+
+    private static boolean hasPodcastUrl(Episode episode) {
+        return episode.getPodcast().getUrl() != null;
+    }
+
+    private static boolean isValidUrl(String url) {
+        if (url == null)
+            return false;
+
+        try {
+            new URL(url);
+            return true;
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    private Episode marshalEpisode(String url) {
+        final EpisodeMetadata entry = entries.get(url);
+
+        try {
+            return entry.podcastUrl == null ? null : entry.marshalEpisode(new URL(url));
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
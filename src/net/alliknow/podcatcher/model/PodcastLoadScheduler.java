@@ -0,0 +1,247 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
+import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastLogoTask;
+import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Starts the podcast and logo load tasks and keeps track of the ones running,
+ * so there is at most one task per podcast. This is the part of the podcast
+ * manager that decides what to load when, it does not need the application
+ * and also drives the benchmark's refresh load test. The caller configures
+ * the loads (cache staleness, size limits) and has to report each task
+ * finished, i.e. call {@link #finishLoad(Podcast)} or
+ * {@link #finishLogoLoad(Podcast)} from the call-backs. This class is not
+ * synchronized.
+ */
+public class PodcastLoadScheduler {
+
+    /** The number of running tasks from which on the update is skipped */
+    public static final int MAX_UPDATE_TASKS = 50;
+
+    /** The context the logo tasks use */
+    private final Context context;
+    /** The call-back for the podcast load tasks */
+    private final OnLoadPodcastListener podcastListener;
+    /** The call-back for the logo load tasks */
+    private final OnLoadPodcastLogoListener logoListener;
+
+    /** The current podcast load tasks */
+    private final Map<Podcast, LoadPodcastTask> loadPodcastTasks =
+            new HashMap<Podcast, LoadPodcastTask>();
+    /** The current podcast logo load tasks */
+    private final Map<Podcast, LoadPodcastLogoTask> loadPodcastLogoTasks =
+            new HashMap<Podcast, LoadPodcastLogoTask>();
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param context The context for the logo load tasks.
+     * @param podcastListener The call-back for all podcast loads.
+     * @param logoListener The call-back for all logo loads.
+     */
+    public PodcastLoadScheduler(Context context, OnLoadPodcastListener podcastListener,
+            OnLoadPodcastLogoListener logoListener) {
+        this.context = context;
+        this.podcastListener = podcastListener;
+        this.logoListener = logoListener;
+    }
+
+    /**
+     * Start loading the given podcast, unless it is loading already.
+     *
+     * @param podcast Podcast to load.
+     * @param maxStale The max stale time in seconds we accept from the HTTP
+     *            cache, give -1 for the default.
+     * @param snapshots The snapshot store to restore from and update, might
+     *            be <code>null</code>.
+     * @return <code>true</code> iff a load task was started.
+     */
+    public boolean load(Podcast podcast, int maxStale, PodcastSnapshotStore snapshots) {
+        if (loadPodcastTasks.containsKey(podcast))
+            return false;
+
+        // Download podcast RSS feed (async)
+        final LoadPodcastTask task = new LoadPodcastTask(podcastListener);
+        if (maxStale >= 0)
+            task.setMaxStale(maxStale);
+        if (snapshots != null)
+            task.setSnapshotStore(snapshots);
+
+        try {
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
+
+            // Keep task reference, so we can cancel the load and determine
+            // whether a task for this podcast is already running
+            loadPodcastTasks.put(podcast, task);
+
+            return true;
+        } catch (RejectedExecutionException ree) {
+            // Skip update TODO We might need a better solution here?
+            Log.d(getClass().getSimpleName(), "Cannot update podcast \"" + podcast + "\"", ree);
+
+            return false;
+        }
+    }
+
+    /**
+     * Run the background update: Start loading all podcasts given that are
+     * not loading and have not been loaded since the point in time given.
+     * Nothing is started if there are too many tasks running already.
+     *
+     * @param podcasts The podcasts to update.
+     * @param loadedBefore Podcasts last loaded before this are due.
+     * @return The number of load tasks started.
+     * @see #MAX_UPDATE_TASKS
+     */
+    public int update(List<Podcast> podcasts, Date loadedBefore) {
+        int started = 0;
+
+        // There should not be too many threads open
+        if (loadPodcastTasks.size() + loadPodcastLogoTasks.size() < MAX_UPDATE_TASKS)
+            for (Podcast podcast : podcasts)
+                // The podcast has not been loaded recently
+                if (podcast.getLastLoaded() == null
+                        || podcast.getLastLoaded().before(loadedBefore))
+                    if (load(podcast, -1, null))
+                        started++;
+
+        return started;
+    }
+
+    /**
+     * Start loading the given podcast's logo, unless it is loading already.
+     *
+     * @param podcast Podcast to load the logo for.
+     * @param loadLimit The maximum logo size to load in bytes, give -1 for no
+     *            limit.
+     * @param localOnly Whether to only use a cached logo.
+     * @return <code>true</code> iff a load task was started.
+     */
+    public boolean loadLogo(Podcast podcast, int loadLimit, boolean localOnly) {
+        if (loadPodcastLogoTasks.containsKey(podcast))
+            return false;
+
+        // Start logo download
+        final LoadPodcastLogoTask task = new LoadPodcastLogoTask(context, logoListener);
+        if (loadLimit >= 0)
+            task.setLoadLimit(loadLimit);
+        task.setLocalOnly(localOnly);
+
+        try {
+            // Go for it!
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
+
+            // Keep task reference, so we can cancel the load and determine
+            // whether a task for this podcast logo is already running
+            loadPodcastLogoTasks.put(podcast, task);
+
+            return true;
+        } catch (RejectedExecutionException ree) {
+            // Skip logo loading
+            Log.d(getClass().getSimpleName(), "Cannot load logo for podcast \"" + podcast
+                    + "\"", ree);
+
+            return false;
+        }
+    }
+
+    /**
+     * Forget the load task for the given podcast (if any).
+     *
+     * @param podcast The podcast finished loading.
+     * @return The task that was running or <code>null</code> if none.
+     */
+    public LoadPodcastTask finishLoad(Podcast podcast) {
+        return loadPodcastTasks.remove(podcast);
+    }
+
+    /**
+     * Forget the logo load task for the given podcast (if any).
+     *
+     * @param podcast The podcast its logo finished loading.
+     */
+    public void finishLogoLoad(Podcast podcast) {
+        loadPodcastLogoTasks.remove(podcast);
+    }
+
+    /**
+     * Switch a podcast to a new location. The podcast is a key here, so use
+     * this instead of calling {@link Podcast#setUrl(URL)} directly while it
+     * might be loading.
+     *
+     * @param podcast The podcast to move.
+     * @param to The podcast's new location.
+     */
+    public void move(Podcast podcast, URL to) {
+        final LoadPodcastTask task = loadPodcastTasks.remove(podcast);
+        final LoadPodcastLogoTask logoTask = loadPodcastLogoTasks.remove(podcast);
+
+        podcast.setUrl(to);
+
+        if (task != null)
+            loadPodcastTasks.put(podcast, task);
+        if (logoTask != null)
+            loadPodcastLogoTasks.put(podcast, logoTask);
+    }
+
+    /**
+     * @param podcast Podcast to check for.
+     * @return <code>true</code> iff the podcast is loading.
+     */
+    public boolean isLoading(Podcast podcast) {
+        return loadPodcastTasks.containsKey(podcast);
+    }
+
+    /**
+     * @return The number of podcasts currently loading.
+     */
+    public int getLoadCount() {
+        return loadPodcastTasks.size();
+    }
+
+    /**
+     * @return The podcast load tasks currently running.
+     */
+    public Collection<LoadPodcastTask> getLoadTasks() {
+        return loadPodcastTasks.values();
+    }
+
+    /**
+     * @return The number of podcast logos currently loading.
+     */
+    public int getLogoLoadCount() {
+        return loadPodcastLogoTasks.size();
+    }
+}
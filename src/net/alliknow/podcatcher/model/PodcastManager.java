@@ -18,25 +18,29 @@
 package net.alliknow.podcatcher.model;
 
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
-import android.text.Html;
 import android.util.Log;
 
 import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.SettingsActivity;
+import net.alliknow.podcatcher.StartupTrace.Stage;
 import net.alliknow.podcatcher.listeners.OnChangePodcastListListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
+import net.alliknow.podcatcher.listeners.OnLoadPodcastsProgressListener;
 import net.alliknow.podcatcher.model.tasks.StorePodcastListTask;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastLogoTask;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask;
+import net.alliknow.podcatcher.model.types.BatchProgress;
 import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
 import org.xmlpull.v1.XmlPullParser;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -49,7 +53,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Our model class. Holds all the podcast and episode model data and offers
@@ -90,16 +93,31 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     public static final String OPML_FILENAME = "podcasts.opml";
     /** The OPML file encoding */
     public static final String OPML_FILE_ENCODING = "utf8";
+    /** The name of the directory we store the podcast snapshots in */
+    public static final String SNAPSHOT_DIRNAME = "snapshots";
+    /** The minimum time between two overall load progress reports in millis */
+    private static final int BATCH_PROGRESS_INTERVAL = 500;
+
+    /** The store for the podcast snapshots */
+    private final PodcastSnapshotStore snapshotStore;
 
     /** The list of podcasts we know */
     private List<Podcast> podcastList;
     /** Flag to indicate whether podcast list is dirty */
     private boolean podcastListChanged;
 
-    /** The current podcast load tasks */
-    private Map<Podcast, LoadPodcastTask> loadPodcastTasks = new HashMap<Podcast, LoadPodcastTask>();
-    /** The current podcast logo load tasks */
-    private Map<Podcast, LoadPodcastLogoTask> loadPodcastLogoTasks = new HashMap<Podcast, LoadPodcastLogoTask>();
+    /** The scheduler starting and tracking the podcast and logo loads */
+    private final PodcastLoadScheduler scheduler;
+    /** The former URLs of the podcasts migrated in this session */
+    private Map<String, String> movedPodcasts = new HashMap<String, String>();
+    /** Flag to indicate whether the logo warm-up is running */
+    private boolean warmingUpLogos;
+    /** The number of podcasts finished loading in the current batch */
+    private int batchDone;
+    /** The number of bytes loaded by the podcasts finished in the batch */
+    private long batchBytes;
+    /** The time the overall load progress was last reported */
+    private long lastBatchReport;
 
     /** The call-back set for the podcast list load listeners */
     private Set<OnLoadPodcastListListener> loadPodcastListListeners = new HashSet<OnLoadPodcastListListener>();
@@ -109,6 +127,8 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     private Set<OnLoadPodcastListener> loadPodcastListeners = new HashSet<OnLoadPodcastListener>();
     /** The call-back set for the podcast logo load listeners */
     private Set<OnLoadPodcastLogoListener> loadPodcastLogoListeners = new HashSet<OnLoadPodcastLogoListener>();
+    /** The call-back set for the overall load progress listeners */
+    private Set<OnLoadPodcastsProgressListener> loadPodcastsProgressListeners = new HashSet<OnLoadPodcastsProgressListener>();
 
     /** This is the background update task */
     private class PodcastUpdateTask extends TimerTask {
@@ -117,7 +137,6 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         public void run() {
             Log.i(getClass().getSimpleName(), "Running podcast background update");
 
-            final boolean online = podcatcher.isOnline();
             // This is the current time minus the time to life for the podcast
             // minus some extra time to make sure we refresh before it if
             // actually due
@@ -125,31 +144,9 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
                     (podcatcher.isOnFastConnection() ? TIME_TO_LIFE : TIME_TO_LIFE_MOBILE) -
                     1000 * 60 * 6); // trigger if six minutes before reload
 
-            // There are some conditions here: We need to be online and there
-            // should not be too many threads open
-            if (online && (loadPodcastTasks.size() + loadPodcastLogoTasks.size() < 50))
-                for (Podcast podcast : podcastList) {
-                    // There are more conditions here: The podcast is not
-                    // currently loading, and has not been loaded recently
-                    if (!loadPodcastTasks.containsKey(podcast) &&
-                            (podcast.getLastLoaded() == null || podcast.getLastLoaded().before(
-                                    triggerIfLoadedBefore))) {
-                        // Download podcast RSS feed (async)
-                        final LoadPodcastTask task = new LoadPodcastTask(PodcastManager.this);
-                        try {
-                            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
-
-                            // Keep task reference, so we can cancel the load
-                            // and determine whether a task for this podcast is
-                            // already running
-                            loadPodcastTasks.put(podcast, task);
-                        } catch (RejectedExecutionException ree) {
-                            // Skip update
-                            Log.d(getClass().getSimpleName(), "Cannot update podcast \"" + podcast
-                                    + "\"", ree);
-                        }
-                    }
-                }
+            // We need to be online, the scheduler checks the rest
+            if (podcatcher.isOnline())
+                scheduler.update(podcastList, triggerIfLoadedBefore);
         }
     }
 
@@ -162,6 +159,10 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         // We use some of its method below, so we keep a reference to the
         // application object.
         this.podcatcher = app;
+        // This does not touch the file system yet
+        this.snapshotStore = new PodcastSnapshotStore(new File(app.getFilesDir(),
+                SNAPSHOT_DIRNAME));
+        this.scheduler = new PodcastLoadScheduler(app, this, this);
     }
 
     /**
@@ -213,10 +214,6 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
             for (OnLoadPodcastListListener listener : loadPodcastListListeners)
                 listener.onPodcastListLoaded(getPodcastList());
 
-        // Go load all podcast logo available offline
-        for (Podcast podcast : podcastList)
-            loadLogo(podcast, true);
-
         // Run podcast update task every five minutes
         final int fiveMinutes = 1000 * 60 * 60 * 5;
         final boolean isSelectAllOnStart = PreferenceManager.getDefaultSharedPreferences(
@@ -249,38 +246,32 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     /**
      * Load data for given podcast from its URL. This is an async load, so this
      * method will return immediately. Implement the appropriate call-back to
-     * monitor the load process and to get its result. Note that the async task
-     * might be held back until the episode metadata has finished loading.
+     * monitor the load process and to get its result. Note that the call-back
+     * might be held back until the episode metadata has finished loading. If
+     * the podcast has not been loaded in this session, but there is a snapshot
+     * of an earlier load, listeners will be alerted twice: first with the
+     * podcast restored from the snapshot and marked stale, then once the feed
+     * has been revalidated.
      * 
      * @param podcast Podcast to load.
      * @see OnLoadPodcastListener
-     * @see EpisodeManager#blockUntilEpisodeMetadataIsLoaded()
+     * @see EpisodeManager#runWhenEpisodeMetadataIsLoaded(Podcast, Runnable)
      */
     public void load(Podcast podcast) {
         // Only load podcast if not too old
         if (!shouldReload(podcast))
             onPodcastLoaded(podcast);
-        // Only start the load task if it is not already active
-        else if (!loadPodcastTasks.containsKey(podcast)) {
-            // Download podcast RSS feed (async)
-            final LoadPodcastTask task = new LoadPodcastTask(this);
-            // We will accept stale versions from the cache in certain
-            // situations
-            task.setMaxStale(podcatcher.isOnline() ?
-                    podcatcher.isOnFastConnection() ? MAX_STALE : MAX_STALE_MOBILE
-                    : MAX_STALE_OFFLINE);
-
-            try {
-                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
-
-                // Keep task reference, so we can cancel the load and determine
-                // whether a task for this podcast is already running
-                loadPodcastTasks.put(podcast, task);
-            } catch (RejectedExecutionException ree) {
-                // Skip update TODO We might need a better solution here?
-                Log.d(getClass().getSimpleName(), "Cannot update podcast \"" + podcast
-                        + "\"", ree);
-            }
+        // Only start the load task if it is not already active, we will
+        // accept stale versions from the cache in certain situations and
+        // snapshots are only used for the podcasts in our list
+        else if (scheduler.load(podcast, podcatcher.isOnline() ?
+                podcatcher.isOnFastConnection() ? MAX_STALE : MAX_STALE_MOBILE
+                : MAX_STALE_OFFLINE, contains(podcast) ? snapshotStore : null)) {
+            // Show what we have while the podcast is revalidated
+            if (podcast.isStale())
+                onPodcastLoaded(podcast);
+
+            reportBatchProgress(true);
         }
     }
 
@@ -291,14 +282,14 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      * @return <code>true</code> iff loading.
      */
     public boolean isLoading(Podcast podcast) {
-        return loadPodcastTasks.containsKey(podcast);
+        return scheduler.isLoading(podcast);
     }
 
     /**
      * @return The number of podcasts currently loading.
      */
     public int getLoadCount() {
-        return loadPodcastTasks.size();
+        return scheduler.getLoadCount();
     }
 
     @Override
@@ -306,12 +297,21 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         // Notify listeners
         for (OnLoadPodcastListener listener : loadPodcastListeners)
             listener.onPodcastLoadProgress(podcast, progress);
+
+        reportBatchProgress(false);
     }
 
     @Override
     public void onPodcastLoaded(Podcast podcast) {
-        // Remove from the map of loading task
-        loadPodcastTasks.remove(podcast);
+        // Remove from the map of loading task, unless the podcast is restored
+        // from a snapshot and still being revalidated (if that fails, we get
+        // onPodcastLoadFailed)
+        if (!podcast.isStale())
+            finishTask(podcast);
+
+        // The feed moved permanently, follow it
+        if (podcast.getMovedTo() != null && !podcast.isStale())
+            migrate(podcast);
 
         // Notify listeners
         if (loadPodcastListeners.isEmpty())
@@ -324,7 +324,7 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     @Override
     public void onPodcastLoadFailed(Podcast podcast) {
         // Remove from the map of loading task
-        loadPodcastTasks.remove(podcast);
+        finishTask(podcast);
 
         // Notify listeners
         if (loadPodcastListeners.isEmpty())
@@ -334,6 +334,107 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
                 listener.onPodcastLoadFailed(podcast);
     }
 
+    /**
+     * Switch a podcast to the location its feed permanently moved to. The
+     * podcast list, the episode metadata (including the playlist and the
+     * resume checkpoints), the snapshot and the cached logo all follow. The
+     * podcast list is written last: If anything fails before, the podcast is
+     * still listed under its former location and will simply run into the
+     * redirect and be migrated again on the next load.
+     * 
+     * @param podcast The podcast to migrate, its load task needs to be done.
+     */
+    private void migrate(final Podcast podcast) {
+        final URL from = podcast.getUrl();
+        final URL to = podcast.getMovedTo();
+        podcast.setMovedTo(null);
+
+        // Only podcasts in our list are migrated, and only if we do not have
+        // the new location in the list already
+        if (!contains(podcast) || findPodcastForUrl(to.toString()) != null)
+            return;
+
+        Log.i(getClass().getSimpleName(), "Podcast \"" + podcast.getName() + "\" moved from "
+                + from + " to " + to);
+
+        // 1. Switch in memory, the podcast is a key in the scheduler
+        scheduler.move(podcast, to);
+        movedPodcasts.put(from.toString(), to.toString());
+
+        // 2. Move the data stored for the podcast (off the main thread), then
+        // write the podcast list
+        new AsyncTask<Void, Void, Void>() {
+
+            @Override
+            protected Void doInBackground(Void... nothing) {
+                EpisodeManager.getInstance().migrateEpisodeMetadata(from.toString(),
+                        to.toString());
+                snapshotStore.move(from, podcast);
+                LoadPodcastLogoTask.moveCachedLogo(podcatcher, from, to);
+
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void nothing) {
+                podcastListChanged = true;
+                saveState();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Remove the load task for the given podcast (if any) and count it as done
+     * in the current batch.
+     * 
+     * @param podcast The podcast finished loading.
+     */
+    private void finishTask(Podcast podcast) {
+        final LoadPodcastTask task = scheduler.finishLoad(podcast);
+
+        if (task != null) {
+            batchDone++;
+            batchBytes += task.getBytesLoaded();
+
+            reportBatchProgress(true);
+
+            // The batch is over, start over with the next load
+            if (scheduler.getLoadCount() == 0) {
+                Log.d(getClass().getSimpleName(), "Loaded " + batchDone + " podcast(s), "
+                        + batchBytes + " bytes, parser pooling saved "
+                        + ParserPool.getSavedTime() + "ms so far");
+
+                batchDone = 0;
+                batchBytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Alert the overall load progress listeners. The podcasts loading are
+     * counted as the rest of the current batch.
+     * 
+     * @param force Whether to report regardless of the time passed since the
+     *            last report.
+     */
+    private void reportBatchProgress(boolean force) {
+        final long now = SystemClock.elapsedRealtime();
+
+        if (!loadPodcastsProgressListeners.isEmpty()
+                && (force || now - lastBatchReport >= BATCH_PROGRESS_INTERVAL)) {
+            lastBatchReport = now;
+
+            long bytes = batchBytes;
+            for (LoadPodcastTask task : scheduler.getLoadTasks())
+                bytes += task.getBytesLoaded();
+
+            final BatchProgress progress = new BatchProgress(batchDone,
+                    batchDone + scheduler.getLoadCount(), bytes);
+            for (OnLoadPodcastsProgressListener listener : loadPodcastsProgressListeners)
+                listener.onPodcastsLoadProgress(progress);
+        }
+    }
+
     /**
      * Load logo for given podcast from its URL. This is an async load, so this
      * method will return immediately. Implement the appropriate call-back to
@@ -346,39 +447,51 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         loadLogo(podcast, false);
     }
 
+    /**
+     * Load the logos for all podcasts in the list that are available offline.
+     * This is deferred start-up work, the application calls it once it became
+     * interactive. Logos are loaded async and the usual call-backs apply.
+     * 
+     * @see OnLoadPodcastLogoListener
+     */
+    public void warmUpLogos() {
+        if (podcastList != null && !warmingUpLogos) {
+            podcatcher.getStartupTrace().begin(Stage.LOGO_WARM_UP);
+
+            for (Podcast podcast : podcastList)
+                loadLogo(podcast, true);
+
+            // Set this after the loop, logos already available call back
+            // immediately and should not end the warm-up early
+            warmingUpLogos = true;
+            checkLogoWarmUpFinished();
+        }
+    }
+
+    private void checkLogoWarmUpFinished() {
+        if (warmingUpLogos && scheduler.getLogoLoadCount() == 0) {
+            warmingUpLogos = false;
+
+            podcatcher.getStartupTrace().end(Stage.LOGO_WARM_UP);
+        }
+    }
+
     private void loadLogo(Podcast podcast, boolean localOnly) {
         // Only load podcast logo if it is not there yet
         if (podcast.getLogo() != null)
             onPodcastLogoLoaded(podcast);
-        // Only start the load task if it is not already active
-        else if (!loadPodcastLogoTasks.containsKey(podcast)) {
-            // Start logo download
-            LoadPodcastLogoTask task = new LoadPodcastLogoTask(podcatcher, this);
-
-            // Limit logo size download unless we are on a fast network.
-            if (!podcatcher.isOnFastConnection())
-                task.setLoadLimit(MAX_LOGO_SIZE_MOBILE);
-            // Only use cached file if offline (even if stale)
-            task.setLocalOnly(!podcatcher.isOnline() || localOnly);
-
-            try {
-                // Go for it!
-                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, podcast);
-
-                // Keep task reference, so we can cancel the load and determine
-                // whether a task for this podcast logo is already running
-                loadPodcastLogoTasks.put(podcast, task);
-            } catch (RejectedExecutionException ree) {
-                // Skip logo loading
-                Log.d(getClass().getSimpleName(), "Cannot load logo for podcast \"" + podcast
-                        + "\"", ree);
-            }
-        }
+        // Only start the load task if it is not already active, limit logo
+        // size download unless we are on a fast network and only use cached
+        // file if offline (even if stale)
+        else
+            scheduler.loadLogo(podcast, podcatcher.isOnFastConnection() ?
+                    -1 : MAX_LOGO_SIZE_MOBILE, !podcatcher.isOnline() || localOnly);
     }
 
     @Override
     public void onPodcastLogoLoaded(Podcast podcast) {
-        loadPodcastLogoTasks.remove(podcast);
+        scheduler.finishLogoLoad(podcast);
+        checkLogoWarmUpFinished();
 
         if (loadPodcastLogoListeners.isEmpty())
             Log.w(getClass().getSimpleName(), "Podcast logo loaded, but no listener set.");
@@ -389,7 +502,8 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
 
     @Override
     public void onPodcastLogoLoadFailed(Podcast podcast) {
-        loadPodcastLogoTasks.remove(podcast);
+        scheduler.finishLogoLoad(podcast);
+        checkLogoWarmUpFinished();
 
         if (loadPodcastLogoListeners.isEmpty())
             Log.w(getClass().getSimpleName(), "Podcast logo failed to load, but no listener set.");
@@ -436,7 +550,16 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     public void remove(int index) {
         if (index >= 0 && index < size()) {
             // Remove podcast at given position
-            Podcast removedPodcast = podcastList.remove(index);
+            final Podcast removedPodcast = podcastList.remove(index);
+
+            // Drop the snapshot (off the main thread)
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    snapshotStore.delete(removedPodcast);
+                }
+            });
 
             // Alert listeners of removed podcast
             for (OnChangePodcastListListener listener : changePodcastListListeners)
@@ -497,7 +620,8 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
     }
 
     /**
-     * Find the podcast object for given URL.
+     * Find the podcast object for given URL. Podcasts that moved in this
+     * session are also found by their former URL.
      * 
      * @param url URL of podcast to look up.
      * @return The podcast object, or <code>null</code> if not found.
@@ -506,10 +630,11 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         // Make sure search only runs once the podcast list is actually
         // available.
         if (podcastList != null) {
+            final String current = movedPodcasts.containsKey(url) ? movedPodcasts.get(url) : url;
 
             // Find the podcast object
             for (Podcast podcast : podcastList)
-                if (podcast.getUrl().toString().equals(url))
+                if (podcast.getUrl().toString().equals(current))
                     return podcast;
         }
 
@@ -597,6 +722,26 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
         loadPodcastListeners.remove(listener);
     }
 
+    /**
+     * Add overall load progress listener.
+     * 
+     * @param listener Listener to add.
+     * @see OnLoadPodcastsProgressListener
+     */
+    public void addLoadPodcastsProgressListener(OnLoadPodcastsProgressListener listener) {
+        loadPodcastsProgressListeners.add(listener);
+    }
+
+    /**
+     * Remove overall load progress listener.
+     * 
+     * @param listener Listener to remove.
+     * @see OnLoadPodcastsProgressListener
+     */
+    public void removeLoadPodcastsProgressListener(OnLoadPodcastsProgressListener listener) {
+        loadPodcastsProgressListeners.remove(listener);
+    }
+
     /**
      * Add load podcast logo listener.
      * 
@@ -628,8 +773,8 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
      *         never been loaded.
      */
     private boolean shouldReload(Podcast podcast) {
-        // Has never been loaded
-        if (podcast.getLastLoaded() == null)
+        // Has never been loaded or only restored from a snapshot
+        if (podcast.getLastLoaded() == null || podcast.isStale())
             return true;
         // Has been loaded and we are now offline
         else if (!podcatcher.isOnline())
@@ -676,7 +821,7 @@ public class PodcastManager implements OnLoadPodcastListListener, OnLoadPodcastL
 
     private static Podcast createPodcast(String name, String url) {
         try {
-            return new Podcast(Html.fromHtml(name).toString(), new URL(url));
+            return new Podcast(TextDecoder.decode(name), new URL(url));
         } catch (MalformedURLException e) {
             Log.e("Podcatcher", "Cannot add sample podcast: " + name, e);
             return null;
@@ -0,0 +1,294 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static net.alliknow.podcatcher.model.StoreUtils.close;
+import static net.alliknow.podcatcher.model.StoreUtils.createFileName;
+import static net.alliknow.podcatcher.model.StoreUtils.digest;
+import static net.alliknow.podcatcher.model.StoreUtils.readString;
+import static net.alliknow.podcatcher.model.StoreUtils.writeFile;
+import static net.alliknow.podcatcher.model.StoreUtils.writeString;
+
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The file store for podcast snapshots. A snapshot is a compact copy of a
+ * podcast's parsed feed written after each successful parse. It lets us show a
+ * podcast right away after the app has been restarted, without going to the
+ * network or parsing any XML. Podcasts restored from a snapshot are marked
+ * stale and should be revalidated. Each podcast's snapshot lives in a file of
+ * its own and is only rewritten if its content actually changed.
+ * <p>
+ * The file starts with the fields needed to list the podcast's episodes (logo
+ * location and the episodes' title, media URL, date and duration). The
+ * episode descriptions follow in a section of their own, they are read in the
+ * same pass so the episodes restored do not need to go back to the file. All
+ * methods are synchronized, but do file I/O and should not be called on the
+ * main thread.
+ * 
+ * @see Podcast#isStale()
+ */
+public class PodcastSnapshotStore {
+
+    /** The magic number at the beginning of the snapshot files */
+    private static final int MAGIC = 0x50435350;
+    /** The file format version */
+    private static final int FORMAT_VERSION = 2;
+    /** The length of the content digest in the header */
+    private static final int DIGEST_LENGTH = 16;
+    /** The length of the header (magic, version, digest, descriptions start) */
+    private static final int HEADER_LENGTH = 4 + 4 + DIGEST_LENGTH + 4;
+    /** The file ending for snapshot files */
+    private static final String SNAPSHOT_FILE_ENDING = ".dat";
+
+    /** The directory the snapshots live in */
+    private final File dir;
+    /** The digests of the snapshot contents read or written by podcast URL */
+    private final Map<String, byte[]> digests = new HashMap<String, byte[]>();
+
+    /**
+     * Create the store, this does not touch the file system yet.
+     * 
+     * @param dir The directory to put the snapshot files in. Will be created
+     *            if needed.
+     */
+    public PodcastSnapshotStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Check for a snapshot. This is cheap and does not read the file.
+     * 
+     * @param podcast Podcast to check for.
+     * @return Whether there is a snapshot for the podcast.
+     */
+    public synchronized boolean contains(Podcast podcast) {
+        return getSnapshotFile(podcast.getUrl()).exists();
+    }
+
+    /**
+     * Write the snapshot for the podcast given, replacing any older snapshot.
+     * Podcasts that are stale themselves are not written. If the snapshot
+     * present has the same content, only its time stamp is updated.
+     * 
+     * @param podcast The podcast to take the snapshot of, this should have
+     *            been parsed.
+     * @return Whether the snapshot was written.
+     */
+    public synchronized boolean write(Podcast podcast) {
+        if (podcast.isStale() || podcast.getLastLoaded() == null)
+            return false;
+
+        final File file = getSnapshotFile(podcast.getUrl());
+        try {
+            // 1. Create the list and the descriptions section
+            final ByteArrayOutputStream list = new ByteArrayOutputStream();
+            final ByteArrayOutputStream descriptions = new ByteArrayOutputStream();
+            final DataOutputStream listOutput = new DataOutputStream(list);
+            final DataOutputStream descriptionsOutput = new DataOutputStream(descriptions);
+
+            writeString(listOutput, podcast.getName());
+            writeString(listOutput, podcast.getLogoUrl() == null ?
+                    null : podcast.getLogoUrl().toString());
+
+            final List<Episode> episodes = podcast.getEpisodes();
+            listOutput.writeInt(episodes.size());
+            for (Episode episode : episodes) {
+                writeString(listOutput, episode.getMediaUrl().toString());
+                writeString(listOutput, episode.getName());
+                listOutput.writeLong(episode.getPubDate() == null ?
+                        Long.MIN_VALUE : episode.getPubDate().getTime());
+                listOutput.writeInt(episode.getDuration());
+
+                if (episode.getDescription() == null)
+                    listOutput.writeInt(-1);
+                else {
+                    listOutput.writeInt(descriptionsOutput.size());
+                    writeString(descriptionsOutput, episode.getDescription());
+                }
+            }
+
+            // 2. Only write if the content actually changed
+            final byte[] digest = digest(list.toByteArray(), descriptions.toByteArray());
+
+            final String key = podcast.getUrl().toString();
+            if (!(Arrays.equals(digest, digests.get(key)) && file.exists())) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                        HEADER_LENGTH + list.size() + descriptions.size());
+                final DataOutputStream output = new DataOutputStream(bytes);
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.write(digest);
+                output.writeInt(HEADER_LENGTH + list.size());
+                list.writeTo(output);
+                descriptions.writeTo(output);
+
+                writeFile(file, bytes.toByteArray());
+                digests.put(key, digest);
+            }
+
+            // 3. The file's time stamp is the time the content was parsed
+            file.setLastModified(podcast.getLastLoaded().getTime());
+
+            return true;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to write snapshot " + file, e);
+
+            return false;
+        }
+    }
+
+    /**
+     * Restore the podcast given from its snapshot. On success, the podcast
+     * has its episodes set (including their descriptions) and is marked
+     * stale.
+     * 
+     * @param podcast The podcast to restore.
+     * @return Whether there was a snapshot and the podcast was restored.
+     * @see Podcast#restore(String, URL, Date, List)
+     */
+    public synchronized boolean restore(Podcast podcast) {
+        final File file = getSnapshotFile(podcast.getUrl());
+        if (!file.exists())
+            return false;
+
+        DataInputStream input = null;
+        try {
+            final Date loaded = new Date(file.lastModified());
+
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            final byte[] digest = readHeader(input);
+            // Skip the descriptions start, the section directly follows
+            input.readInt();
+
+            final String name = readString(input);
+            final URL logoUrl = createUrl(readString(input));
+
+            // 1. Read the list, the episodes are created once the
+            // descriptions are known
+            final int count = input.readInt();
+            final URL[] mediaUrls = new URL[count];
+            final String[] names = new String[count];
+            final long[] pubDates = new long[count];
+            final int[] durations = new int[count];
+            final boolean[] described = new boolean[count];
+            for (int position = 0; position < count; position++) {
+                mediaUrls[position] = createUrl(readString(input));
+                names[position] = readString(input);
+                pubDates[position] = input.readLong();
+                durations[position] = input.readInt();
+                described[position] = input.readInt() >= 0;
+            }
+
+            // 2. The descriptions are written in episode order
+            final List<Episode> episodes = new ArrayList<Episode>(count);
+            for (int position = 0; position < count; position++) {
+                final String description = described[position] ? readString(input) : null;
+
+                if (mediaUrls[position] != null)
+                    episodes.add(new Episode(podcast, names[position], mediaUrls[position],
+                            pubDates[position] == Long.MIN_VALUE ?
+                                    null : new Date(pubDates[position]),
+                            durations[position], description));
+            }
+
+            podcast.restore(name, logoUrl, loaded, episodes);
+            digests.put(podcast.getUrl().toString(), digest);
+
+            return true;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to read snapshot " + file, e);
+
+            return false;
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Delete the snapshot for the podcast given (if any).
+     * 
+     * @param podcast The podcast to delete the snapshot for.
+     */
+    public synchronized void delete(Podcast podcast) {
+        getSnapshotFile(podcast.getUrl()).delete();
+        digests.remove(podcast.getUrl().toString());
+    }
+
+    /**
+     * Move the snapshot for a podcast that changed its location. Any snapshot
+     * already present for the new location is replaced.
+     * 
+     * @param from The podcast's former location.
+     * @param podcast The podcast, already at its new location.
+     * @return Whether there was a snapshot to move and it was moved.
+     */
+    public synchronized boolean move(URL from, Podcast podcast) {
+        final File source = getSnapshotFile(from);
+        final File target = getSnapshotFile(podcast.getUrl());
+
+        final boolean moved = source.exists() && (!target.exists() || target.delete())
+                && source.renameTo(target);
+        if (moved)
+            digests.put(podcast.getUrl().toString(), digests.remove(from.toString()));
+
+        return moved;
+    }
+
+    private static byte[] readHeader(DataInput input) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+            throw new IOException("Unknown snapshot file format");
+
+        final byte[] digest = new byte[DIGEST_LENGTH];
+        input.readFully(digest);
+
+        return digest;
+    }
+
+    private File getSnapshotFile(URL podcastUrl) {
+        return new File(dir, createFileName(podcastUrl.toString(), SNAPSHOT_FILE_ENDING));
+    }
+
+    private static URL createUrl(String url) {
+        try {
+            return url == null ? null : new URL(url);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small store for playback position checkpoints. It is much cheaper to write
+ * than the complete episode metadata: The file has a fixed number of slots of
+ * fixed size, writing a checkpoint only touches the slot for the episode.<br />
+ * Each slot holds the episode media URL, the podcast URL, the position in
+ * millis and the time the checkpoint was taken. Checkpoints are merged into
+ * the episode metadata when it is loaded, only checkpoints taken after the
+ * metadata file was last written are relevant.<br />
+ * This class is not thread-safe, the episode manager serializes all access.
+ * 
+ * @see EpisodeStateManager#checkpointResumeAt(net.alliknow.podcatcher.model.types.Episode,
+ *      int)
+ */
+public class ResumeCheckpointStore {
+
+    /** The number of slots in the file */
+    private static final int SLOT_COUNT = 16;
+    /** The size of each slot in bytes */
+    private static final int SLOT_SIZE = 2048;
+    /** The maximum length of each URL in bytes */
+    private static final int MAX_URL_LENGTH = (SLOT_SIZE - 4 - 8 - 2 * 2) / 2;
+
+    /** The checkpoint file */
+    private final File file;
+    /** The file handle (open once used) */
+    private RandomAccessFile data;
+
+    /** The slot index for each episode URL (once read) */
+    private Map<String, Integer> slots;
+    /** The time each slot was written (once read) */
+    private long[] slotTimes;
+
+    /** A checkpoint as read from the store */
+    public static class Checkpoint {
+
+        /** The podcast URL */
+        public final String podcastUrl;
+        /** The resume position in millis */
+        public final int position;
+        /** The time the checkpoint was taken */
+        public final long time;
+
+        private Checkpoint(String podcastUrl, int position, long time) {
+            this.podcastUrl = podcastUrl;
+            this.position = position;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Create the store, this does not touch the file system yet.
+     * 
+     * @param file The file to keep checkpoints in.
+     */
+    public ResumeCheckpointStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Write a checkpoint. Will replace the checkpoint for the same episode or
+     * the oldest checkpoint if all slots are used.
+     * 
+     * @param episodeUrl The episode's media URL.
+     * @param podcastUrl The episode's podcast URL (might be <code>null</code>).
+     * @param position The position to resume at in millis.
+     */
+    public void put(URL episodeUrl, String podcastUrl, int position) {
+        final byte[] url = toBytes(episodeUrl.toString());
+        final byte[] podcast = toBytes(podcastUrl == null ? "" : podcastUrl);
+
+        // We cannot store these, give up
+        if (url.length > MAX_URL_LENGTH || podcast.length > MAX_URL_LENGTH)
+            return;
+
+        try {
+            open();
+
+            // Find the slot to use
+            Integer slot = slots.get(episodeUrl.toString());
+            if (slot == null) {
+                slot = 0;
+                for (int index = 1; index < SLOT_COUNT; index++)
+                    if (slotTimes[index] < slotTimes[slot])
+                        slot = index;
+            }
+
+            final long time = System.currentTimeMillis();
+            writeSlot(slot, url, podcast, position, time);
+
+            // Update the index
+            final String replaced = findUrl(slot);
+            if (replaced != null)
+                slots.remove(replaced);
+            slots.put(episodeUrl.toString(), slot);
+            slotTimes[slot] = time;
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to write resume checkpoint", e);
+        }
+    }
+
+    /**
+     * Re-assign all checkpoints for a podcast that changed its location. The
+     * checkpoints keep the time they were taken.
+     * 
+     * @param from The podcast's former URL.
+     * @param to The podcast's new URL.
+     */
+    public void movePodcast(String from, String to) {
+        final byte[] podcast = toBytes(to);
+
+        // Nothing to move or we cannot store the new location
+        if (!file.exists() || podcast.length > MAX_URL_LENGTH)
+            return;
+
+        try {
+            open();
+
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                final Checkpoint checkpoint = readSlot(slot);
+
+                if (checkpoint != null && from.equals(checkpoint.podcastUrl))
+                    writeSlot(slot, toBytes(findUrl(slot)), podcast, checkpoint.position,
+                            checkpoint.time);
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to move resume checkpoints", e);
+        }
+    }
+
+    /**
+     * Read all checkpoints taken after the given time.
+     * 
+     * @param after Only return checkpoints newer than this time.
+     * @return The checkpoints mapped by episode media URL (might be empty, but
+     *         not <code>null</code>).
+     */
+    public Map<URL, Checkpoint> readAll(long after) {
+        final Map<URL, Checkpoint> result = new HashMap<URL, Checkpoint>();
+        if (!file.exists())
+            return result;
+
+        try {
+            open();
+
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                final Checkpoint checkpoint = readSlot(slot);
+
+                if (checkpoint != null && checkpoint.time > after)
+                    try {
+                        result.put(new URL(findUrl(slot)), checkpoint);
+                    } catch (MalformedURLException e) {
+                        // Skip this one
+                    }
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to read resume checkpoints", e);
+        }
+
+        return result;
+    }
+
+    private void open() throws IOException {
+        if (data == null) {
+            data = new RandomAccessFile(file, "rw");
+            if (data.length() < SLOT_COUNT * SLOT_SIZE)
+                data.setLength(SLOT_COUNT * SLOT_SIZE);
+
+            // Build the index
+            slots = new HashMap<String, Integer>();
+            slotTimes = new long[SLOT_COUNT];
+            for (int slot = 0; slot < SLOT_COUNT; slot++)
+                readSlot(slot);
+        }
+    }
+
+    private void writeSlot(int slot, byte[] url, byte[] podcast, int position, long time)
+            throws IOException {
+        // Write the complete slot in one go
+        final byte[] record = new byte[SLOT_SIZE];
+        int offset = putShort(record, 0, url.length);
+        System.arraycopy(url, 0, record, offset, url.length);
+        offset = putShort(record, offset + url.length, podcast.length);
+        System.arraycopy(podcast, 0, record, offset, podcast.length);
+        offset = putInt(record, offset + podcast.length, position);
+        putLong(record, offset, time);
+
+        data.seek((long) slot * SLOT_SIZE);
+        data.write(record);
+    }
+
+    private Checkpoint readSlot(int slot) throws IOException {
+        final byte[] record = new byte[SLOT_SIZE];
+        data.seek((long) slot * SLOT_SIZE);
+        data.readFully(record);
+
+        final int urlLength = getShort(record, 0);
+        // Empty or corrupt slot
+        if (urlLength == 0 || urlLength > MAX_URL_LENGTH)
+            return null;
+        final String url = new String(record, 2, urlLength, "UTF-8");
+
+        int offset = 2 + urlLength;
+        final int podcastLength = getShort(record, offset);
+        if (podcastLength > MAX_URL_LENGTH)
+            return null;
+        final String podcast = new String(record, offset + 2, podcastLength, "UTF-8");
+
+        offset += 2 + podcastLength;
+        final Checkpoint result = new Checkpoint(podcast.length() == 0 ? null : podcast,
+                (int) getLong(record, offset, 4), getLong(record, offset + 4, 8));
+
+        slots.put(url, slot);
+        slotTimes[slot] = result.time;
+
+        return result;
+    }
+
+    private String findUrl(int slot) {
+        for (Map.Entry<String, Integer> entry : slots.entrySet())
+            if (entry.getValue() == slot)
+                return entry.getKey();
+
+        return null;
+    }
+
+    private static byte[] toBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException e) {
+            return new byte[0];
+        }
+    }
+
+    private static int putShort(byte[] record, int offset, int value) {
+        record[offset] = (byte) (value >> 8);
+        record[offset + 1] = (byte) value;
+
+        return offset + 2;
+    }
+
+    private static int putInt(byte[] record, int offset, int value) {
+        for (int index = 0; index < 4; index++)
+            record[offset + index] = (byte) (value >> (24 - 8 * index));
+
+        return offset + 4;
+    }
+
+    private static int putLong(byte[] record, int offset, long value) {
+        for (int index = 0; index < 8; index++)
+            record[offset + index] = (byte) (value >> (56 - 8 * index));
+
+        return offset + 8;
+    }
+
+    private static int getShort(byte[] record, int offset) {
+        return (int) getLong(record, offset, 2);
+    }
+
+    private static long getLong(byte[] record, int offset, int length) {
+        long result = 0;
+        for (int index = 0; index < length; index++)
+            result = (result << 8) | (record[offset + index] & 0xff);
+
+        return result;
+    }
+}
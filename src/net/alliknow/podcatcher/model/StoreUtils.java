@@ -0,0 +1,190 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Utility class shared by the binary file stores in this package.
+ */
+final class StoreUtils {
+
+    private StoreUtils() {
+        // Static helpers only
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param input Stream to read from.
+     * @return The string read, might be <code>null</code>.
+     * @throws IOException On I/O trouble.
+     */
+    static String readString(DataInput input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0)
+            return null;
+
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Write a string as its UTF-8 byte length followed by the bytes. Unlike
+     * {@link DataOutputStream#writeUTF(String)}, this allows for
+     * <code>null</code> and has no length limit.
+     *
+     * @param output Stream to write to.
+     * @param value String to write, might be <code>null</code>.
+     * @throws IOException On I/O trouble.
+     */
+    static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null)
+            output.writeInt(-1);
+        else {
+            final byte[] bytes = value.getBytes("UTF-8");
+
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Read the complete content of a file.
+     *
+     * @param file The file to read.
+     * @return The file's content.
+     * @throws IOException If the file is not there or cannot be read.
+     */
+    static byte[] readFile(File file) throws IOException {
+        final byte[] result = new byte[(int) file.length()];
+        DataInputStream input = null;
+
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            input.readFully(result);
+        } finally {
+            close(input);
+        }
+
+        return result;
+    }
+
+    /**
+     * Replace the content of a file. The content goes to a temporary file
+     * first and only replaces the file once it is completely written.
+     *
+     * @param file The file to write, its directory is created if needed.
+     * @param content The new content.
+     * @throws IOException If the file could not be written or replaced.
+     */
+    static void writeFile(File file, byte[] content) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        OutputStream output = null;
+        boolean written = false;
+
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        try {
+            output = new BufferedOutputStream(new FileOutputStream(temp));
+            output.write(content);
+            output.flush();
+            written = true;
+        } finally {
+            close(output);
+
+            if (!written)
+                temp.delete();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    /**
+     * Create a file name from a key (e.g. a podcast URL) that is safe to use
+     * on any file system.
+     *
+     * @param key The key to create the name for.
+     * @param ending The file ending to append.
+     * @return The file name, the hex MD5 hash of the key plus the ending.
+     */
+    static String createFileName(String key, String ending) {
+        try {
+            final StringBuilder name = new StringBuilder();
+            for (byte value : digest(key.getBytes("UTF-8")))
+                name.append(String.format(Locale.US, "%02x", value));
+
+            return name.append(ending).toString();
+        } catch (IOException e) {
+            // UTF-8 is always there
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Calculate the MD5 digest of some content.
+     *
+     * @param content The bytes to digest, in order.
+     * @return The digest.
+     */
+    static byte[] digest(byte[]... content) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            for (byte[] part : content)
+                digest.update(part);
+
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always there
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Close a stream ignoring any error.
+     *
+     * @param stream The stream to close, might be <code>null</code>.
+     */
+    static void close(Closeable stream) {
+        if (stream != null)
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing more we could do here
+            }
+    }
+}
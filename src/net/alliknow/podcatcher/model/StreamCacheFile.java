@@ -0,0 +1,518 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A sparse, file-backed cache for a streamed episode media file. Bytes can be
+ * written at any position, the cache keeps track of the ranges available. The
+ * data is stored under <b>streamCache/<i>media URL hash</i>.media</b> in the
+ * app's cache folder, the ranges go to a side-car file with the suffix
+ * <b>.ranges</b>. Once all bytes are available, the cache file can be promoted
+ * to a download using {@link #moveToIfComplete(Context, URL, File)}.<br />
+ * Caches are shared: Get one via {@link #acquire(Context, URL)} and give it
+ * back via {@link #release()}, the file is closed once nobody uses it anymore.
+ * All methods are thread-safe, since the stream cache proxy serves several
+ * connections for the same media file at once.
+ */
+public class StreamCacheFile {
+
+    /** The name of the stream cache directory */
+    private static final String CACHE_DIR = "streamCache";
+    /** The suffix for cache data files */
+    private static final String DATA_SUFFIX = ".media";
+    /** The suffix for range side-car files */
+    private static final String RANGES_SUFFIX = ".ranges";
+    /** The maximum size of all cache files in bytes */
+    private static final long MAX_CACHE_SIZE = 256 * 1024 * 1024;
+    /** The number of bytes written between two cache trims */
+    private static final long TRIM_INTERVAL = 8 * 1024 * 1024;
+
+    /** The caches currently in use, keyed by the name of their data file */
+    private static final Map<String, StreamCacheFile> openCaches = new HashMap<String, StreamCacheFile>();
+
+    /** The number of users holding this cache */
+    private int users;
+    /** Flag to indicate the cache was closed */
+    private boolean closed;
+    /** The number of bytes written since the cache was last trimmed */
+    private long sinceTrimmed;
+
+    /** The file the data is stored in */
+    private final File dataFile;
+    /** The file the ranges are stored in */
+    private final File rangesFile;
+    /** The data file handle */
+    private RandomAccessFile data;
+
+    /** The total length of the media file, negative if unknown */
+    private long length = -1;
+    /** The content type of the media file */
+    private String contentType;
+    /** The ranges available (start mapped to end, exclusive) */
+    private final TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+
+    private StreamCacheFile(File dir, URL remote) throws IOException {
+        this.dataFile = new File(dir, getName(remote) + DATA_SUFFIX);
+        this.rangesFile = new File(dir, getName(remote) + RANGES_SUFFIX);
+
+        restoreRanges();
+        this.data = new RandomAccessFile(dataFile, "rw");
+        // Mark the file as recently used
+        dataFile.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Get the cache for the given media URL, open or create it if needed. Make
+     * sure to call {@link #release()} once you are done with it.
+     * 
+     * @param context The context to find the cache folder in.
+     * @param remote The media file URL.
+     * @return The cache, shared with all other users of the same media file.
+     * @throws IOException If the cache file cannot be opened.
+     */
+    public static StreamCacheFile acquire(Context context, URL remote) throws IOException {
+        final File dir = getCacheDir(context);
+        StreamCacheFile cache;
+
+        synchronized (openCaches) {
+            cache = openCaches.get(getName(remote));
+
+            if (cache == null) {
+                dir.mkdirs();
+
+                cache = new StreamCacheFile(dir, remote);
+                openCaches.put(getName(remote), cache);
+            }
+
+            cache.users++;
+        }
+
+        // Make room for the new file
+        trim(dir);
+
+        return cache;
+    }
+
+    /**
+     * Give back a cache acquired before. The last user to do so closes the
+     * cache, persisting its range information.
+     */
+    public void release() {
+        synchronized (openCaches) {
+            if (--users > 0)
+                return;
+
+            if (openCaches.get(getName()) == this)
+                openCaches.remove(getName());
+        }
+
+        close();
+    }
+
+    /**
+     * @return The total length of the media file in bytes or a negative number
+     *         if it is not known yet.
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Set the length of the media file, as reported by the server.
+     * 
+     * @param length Total length in bytes.
+     */
+    public synchronized void setLength(long length) {
+        // Start over if the remote file changed
+        if (this.length >= 0 && this.length != length)
+            ranges.clear();
+
+        this.length = length;
+    }
+
+    /**
+     * @return The content type of the media file (might be <code>null</code>).
+     */
+    public synchronized String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @param contentType The content type as reported by the server.
+     */
+    public synchronized void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * Find the number of bytes that are available from the given position on
+     * without interruption.
+     * 
+     * @param position Position to check from.
+     * @return The number of bytes available (zero if the position itself is not
+     *         cached).
+     */
+    public synchronized long available(long position) {
+        if (closed)
+            return 0;
+
+        final Entry<Long, Long> range = ranges.floorEntry(position);
+
+        return range != null && range.getValue() > position ? range.getValue() - position : 0;
+    }
+
+    /**
+     * @return Whether all bytes of the media file are available.
+     */
+    public synchronized boolean isComplete() {
+        return length > 0 && available(0) == length;
+    }
+
+    /**
+     * Read from the cache. Make sure the bytes are available first.
+     * 
+     * @param position Position to start reading at.
+     * @param buffer Buffer to read to.
+     * @param offset Offset in buffer.
+     * @param count Number of bytes to read.
+     * @throws IOException If the file cannot be read.
+     * @see #available(long)
+     */
+    public synchronized void read(long position, byte[] buffer, int offset, int count)
+            throws IOException {
+        if (closed)
+            throw new IOException("Stream cache closed");
+
+        data.seek(position);
+        data.readFully(buffer, offset, count);
+    }
+
+    /**
+     * Write to the cache and mark the bytes as available. If the cache was
+     * closed in the meantime, this does nothing. Every now and then, this
+     * trims the cache folder to its size limit.
+     * 
+     * @param position Position the bytes start at.
+     * @param buffer Buffer with bytes to write.
+     * @param offset Offset in buffer.
+     * @param count Number of bytes to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(long position, byte[] buffer, int offset, int count)
+            throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+
+            data.seek(position);
+            data.write(buffer, offset, count);
+
+            addRange(position, position + count);
+
+            sinceTrimmed += count;
+            if (sinceTrimmed < TRIM_INTERVAL)
+                return;
+            else
+                sinceTrimmed = 0;
+        }
+
+        // Not holding our lock here, trim() needs the open caches
+        trim(dataFile.getParentFile());
+    }
+
+    /**
+     * Persist the range information. Call this whenever a bunch of bytes were
+     * written, the data will not be used on the next start-up otherwise.
+     */
+    public synchronized void storeRanges() {
+        if (closed)
+            return;
+
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new FileOutputStream(rangesFile));
+
+            out.writeLong(length);
+            out.writeUTF(contentType == null ? "" : contentType);
+            out.writeInt(ranges.size());
+            for (Entry<Long, Long> range : ranges.entrySet()) {
+                out.writeLong(range.getKey());
+                out.writeLong(range.getValue());
+            }
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Cannot store ranges to " + rangesFile, e);
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing more we can do here
+                }
+        }
+    }
+
+    private synchronized void close() {
+        storeRanges();
+        closed = true;
+        ranges.clear();
+
+        try {
+            data.close();
+        } catch (IOException e) {
+            // Nothing more we can do here
+        }
+    }
+
+    /**
+     * Check whether there is a complete cached copy of the given media file.
+     * 
+     * @param context The context to find the cache folder in.
+     * @param remote The media file URL.
+     * @return <code>true</code> iff the media file is available in the cache.
+     */
+    public static boolean isComplete(Context context, URL remote) {
+        synchronized (openCaches) {
+            final StreamCacheFile cache = openCaches.get(getName(remote));
+
+            if (cache != null)
+                return cache.isComplete();
+        }
+
+        final File dir = getCacheDir(context);
+        final File rangesFile = new File(dir, getName(remote) + RANGES_SUFFIX);
+
+        if (!rangesFile.exists())
+            return false;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(rangesFile));
+
+            final long length = in.readLong();
+            in.readUTF();
+            // Complete files have exactly one range covering everything
+            return length > 0 && in.readInt() == 1 && in.readLong() == 0
+                    && in.readLong() == length
+                    && new File(dir, getName(remote) + DATA_SUFFIX).length() >= length;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing more we can do here
+                }
+        }
+    }
+
+    /**
+     * Promote a complete cached copy of the given media file to a download.
+     * The cache is moved (or copied if moving fails, e.g. because the
+     * destination is on another file system) and removed afterwards. If the
+     * cache is in use, it is closed first: Its users will find it empty from
+     * now on and need to go over the air. This might take a while, do not call
+     * it on the main thread.
+     * 
+     * @param context The context to find the cache folder in.
+     * @param remote The media file URL.
+     * @param destination The file to move the media to.
+     * @return <code>true</code> iff the cache was complete and the destination
+     *         file now exists.
+     */
+    public static boolean moveToIfComplete(Context context, URL remote, File destination) {
+        if (!isComplete(context, remote))
+            return false;
+
+        // Take the cache away from its users, so nobody writes to it anymore
+        synchronized (openCaches) {
+            final StreamCacheFile cache = openCaches.remove(getName(remote));
+
+            if (cache != null)
+                cache.close();
+        }
+
+        final File dir = getCacheDir(context);
+        final File dataFile = new File(dir, getName(remote) + DATA_SUFFIX);
+
+        try {
+            destination.getParentFile().mkdirs();
+
+            if (!dataFile.renameTo(destination))
+                copy(dataFile, destination);
+
+            return true;
+        } catch (IOException e) {
+            Log.w(StreamCacheFile.class.getSimpleName(), "Cannot move cache to " + destination, e);
+
+            destination.delete();
+            return false;
+        } finally {
+            dataFile.delete();
+            new File(dir, getName(remote) + RANGES_SUFFIX).delete();
+        }
+    }
+
+    private void addRange(long start, long end) {
+        // Merge with any overlapping or adjacent range before
+        final Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+
+        // Merge with all ranges starting in the new one
+        Entry<Long, Long> after = ranges.ceilingEntry(start);
+        while (after != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            ranges.remove(after.getKey());
+
+            after = ranges.ceilingEntry(start);
+        }
+
+        ranges.put(start, end);
+    }
+
+    private void restoreRanges() {
+        if (!rangesFile.exists() || !dataFile.exists())
+            return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(rangesFile));
+
+            this.length = in.readLong();
+            final String type = in.readUTF();
+            this.contentType = type.length() == 0 ? null : type;
+
+            final int count = in.readInt();
+            for (int index = 0; index < count; index++)
+                ranges.put(in.readLong(), in.readLong());
+        } catch (IOException e) {
+            // Cannot trust the data, start over
+            ranges.clear();
+            length = -1;
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing more we can do here
+                }
+        }
+    }
+
+    private static File getCacheDir(Context context) {
+        return new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    private static String getName(URL remote) {
+        return String.valueOf(remote.toString().hashCode());
+    }
+
+    private String getName() {
+        final String name = dataFile.getName();
+
+        return name.substring(0, name.length() - DATA_SUFFIX.length());
+    }
+
+    /**
+     * Delete the least recently used cache files until the cache is below its
+     * size limit. Caches currently in use are kept.
+     */
+    private static void trim(File dir) {
+        final File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        final Set<String> keep;
+        synchronized (openCaches) {
+            keep = new HashSet<String>(openCaches.keySet());
+        }
+
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+
+        if (size > MAX_CACHE_SIZE) {
+            Arrays.sort(files, new Comparator<File>() {
+
+                @Override
+                public int compare(File lhs, File rhs) {
+                    return Long.valueOf(lhs.lastModified()).compareTo(rhs.lastModified());
+                }
+            });
+
+            for (File file : files) {
+                final String name = file.getName();
+                if (size <= MAX_CACHE_SIZE || !name.endsWith(DATA_SUFFIX))
+                    continue;
+
+                final String base = name.substring(0, name.length() - DATA_SUFFIX.length());
+                if (!keep.contains(base)) {
+                    final File sideCar = new File(dir, base + RANGES_SUFFIX);
+
+                    size -= file.length() + sideCar.length();
+                    file.delete();
+                    sideCar.delete();
+                }
+            }
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        final FileChannel source = new FileInputStream(from).getChannel();
+
+        try {
+            final FileChannel target = new FileOutputStream(to).getChannel();
+
+            try {
+                long position = 0;
+                final long size = source.size();
+                while (position < size)
+                    position += source.transferTo(position, size - position, target);
+            } finally {
+                target.close();
+            }
+        } finally {
+            source.close();
+        }
+    }
+}
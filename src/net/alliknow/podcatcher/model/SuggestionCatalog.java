@@ -0,0 +1,295 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import static net.alliknow.podcatcher.model.StoreUtils.close;
+import static net.alliknow.podcatcher.model.StoreUtils.readFile;
+import static net.alliknow.podcatcher.model.StoreUtils.writeFile;
+
+import net.alliknow.podcatcher.model.types.Genre;
+import net.alliknow.podcatcher.model.types.Language;
+import net.alliknow.podcatcher.model.types.MediaType;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parsed podcast suggestions catalog in a compact binary form. Reading it
+ * back only takes one sequential read of the file and no JSON parsing at all,
+ * so this is what we use after the first download of the catalog.<br />
+ * The file starts with a magic number, the format version, a hash over the
+ * language, genre and media type constants (their ordinals are stored, so
+ * changing these invalidates the file) and the version tag of the catalog it
+ * was written from (e.g. a hash of the original JSON). Next
+ * is a pool of all distinct strings, each given as its length and UTF-8 bytes.
+ * Then follows the number of suggestions and each suggestion as the pool
+ * indices of its title, URL and description, and the ordinals of its language,
+ * genre and media type (-1 if not set). A file that cannot be read is deleted,
+ * so it is replaced on the next download.
+ */
+public class SuggestionCatalog {
+
+    /** The magic number at the beginning of the file */
+    private static final int MAGIC = 0x50435343;
+    /** The file format version */
+    private static final int FORMAT_VERSION = 2;
+    /** The hash over the enum constants we store ordinals for */
+    private static final int ENUMS_VERSION = hashEnums(Language.values(), Genre.values(),
+            MediaType.values());
+    /** The string encoding in the pool */
+    private static final String ENCODING = "UTF-8";
+
+    /** The catalog file */
+    private final File file;
+
+    /**
+     * Create the catalog, this does not touch the file system yet.
+     * 
+     * @param file The file to read from and write to.
+     */
+    public SuggestionCatalog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return Whether the catalog file is present.
+     */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * @return The age of the catalog file in minutes or -1 if it does not
+     *         exist.
+     */
+    public int getAge() {
+        if (exists())
+            return (int) ((System.currentTimeMillis() - file.lastModified()) / (60 * 1000));
+        else
+            return -1;
+    }
+
+    /**
+     * Reset the age of the catalog file, use this if the catalog was checked
+     * against the remote version and is still up to date.
+     */
+    public void touch() {
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Read the version tag of the catalog stored without reading all of it.
+     * 
+     * @return The tag given when the catalog was written or <code>null</code>
+     *         if there is no (readable) catalog.
+     */
+    public String readVersion() {
+        DataInputStream input = null;
+
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            if (!readHeader(input))
+                return null;
+
+            return input.readUTF();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Read the complete catalog.
+     * 
+     * @return The suggestions in the order they were written.
+     * @throws IOException If the file is not present, corrupted or written in
+     *             an unknown format. In the latter cases, the file is deleted.
+     */
+    public List<Podcast> read() throws IOException {
+        // 1. Get the complete file content in one go
+        final byte[] content = readFile(file);
+
+        // 2. Parse it, anything going wrong here means we cannot use the file
+        try {
+            return parse(content);
+        } catch (IOException e) {
+            file.delete();
+
+            throw e;
+        } catch (RuntimeException e) {
+            file.delete();
+
+            throw new IOException("Suggestion catalog corrupted", e);
+        }
+    }
+
+    private List<Podcast> parse(byte[] content) throws IOException {
+        // 1. Check the header
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(content));
+        if (!readHeader(input))
+            throw new IOException("Unknown suggestion catalog format");
+        input.readUTF();
+
+        // 2. Restore the string pool, each entry takes at least its length
+        final String[] pool = new String[checkSize(input.readInt(), content.length / 4)];
+        int offset = content.length - input.available();
+        for (int index = 0; index < pool.length; index++) {
+            final int length = input.readInt();
+            offset += 4;
+
+            pool[index] = new String(content, offset, length, ENCODING);
+            input.skipBytes(length);
+            offset += length;
+        }
+
+        // 3. Create suggestions, each takes three references and ordinals
+        final int count = checkSize(input.readInt(), content.length / 15);
+        final List<Podcast> result = new ArrayList<Podcast>(count);
+        final Language[] languages = Language.values();
+        final Genre[] genres = Genre.values();
+        final MediaType[] mediaTypes = MediaType.values();
+
+        for (int index = 0; index < count; index++) {
+            final Podcast suggestion = new Podcast(pool[input.readInt()],
+                    new URL(pool[input.readInt()]));
+            suggestion.setDescription(pool[input.readInt()]);
+
+            final byte language = input.readByte();
+            suggestion.setLanguage(language < 0 ? null : languages[language]);
+            final byte genre = input.readByte();
+            suggestion.setGenre(genre < 0 ? null : genres[genre]);
+            final byte mediaType = input.readByte();
+            suggestion.setMediaType(mediaType < 0 ? null : mediaTypes[mediaType]);
+
+            result.add(suggestion);
+        }
+
+        return result;
+    }
+
+    private int checkSize(int size, int max) throws IOException {
+        if (size < 0 || size > max)
+            throw new IOException("Suggestion catalog corrupted");
+
+        return size;
+    }
+
+    private boolean readHeader(DataInputStream input) throws IOException {
+        return input.readInt() == MAGIC && input.readInt() == FORMAT_VERSION
+                && input.readInt() == ENUMS_VERSION;
+    }
+
+    /**
+     * Write the catalog to disk, replacing any existing one. The file is only
+     * replaced once it is completely written.
+     * 
+     * @param suggestions The suggestions to store.
+     * @param version The version tag to store alongside.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(List<Podcast> suggestions, String version) throws IOException {
+        // 1. Build the string pool
+        final Map<String, Integer> indices = new HashMap<String, Integer>();
+        final List<String> pool = new ArrayList<String>();
+        final int[] references = new int[suggestions.size() * 3];
+
+        for (int index = 0; index < suggestions.size(); index++) {
+            final Podcast suggestion = suggestions.get(index);
+
+            references[index * 3] = addToPool(suggestion.getName(), pool, indices);
+            references[index * 3 + 1] = addToPool(suggestion.getUrl().toString(), pool, indices);
+            references[index * 3 + 2] = addToPool(suggestion.getDescription(), pool, indices);
+        }
+
+        // 2. Create the file content
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(content);
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(ENUMS_VERSION);
+        output.writeUTF(version);
+
+        output.writeInt(pool.size());
+        for (String value : pool) {
+            final byte[] bytes = value.getBytes(ENCODING);
+
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        output.writeInt(suggestions.size());
+        for (int index = 0; index < suggestions.size(); index++) {
+            final Podcast suggestion = suggestions.get(index);
+
+            output.writeInt(references[index * 3]);
+            output.writeInt(references[index * 3 + 1]);
+            output.writeInt(references[index * 3 + 2]);
+            output.writeByte(ordinal(suggestion.getLanguage()));
+            output.writeByte(ordinal(suggestion.getGenre()));
+            output.writeByte(ordinal(suggestion.getMediaType()));
+        }
+
+        // 3. Replace the actual catalog file
+        writeFile(file, content.toByteArray());
+    }
+
+    private int addToPool(String value, List<String> pool, Map<String, Integer> indices) {
+        // Descriptions might be missing, store the empty string instead
+        if (value == null)
+            value = "";
+
+        Integer index = indices.get(value);
+        if (index == null) {
+            index = pool.size();
+
+            pool.add(value);
+            indices.put(value, index);
+        }
+
+        return index;
+    }
+
+    private int ordinal(Enum<?> value) {
+        return value == null ? -1 : value.ordinal();
+    }
+
+    private static int hashEnums(Enum<?>[]... types) {
+        int hash = 1;
+
+        for (Enum<?>[] constants : types) {
+            hash = 31 * hash + constants.length;
+
+            for (Enum<?> constant : constants)
+                hash = 31 * hash + constant.name().hashCode();
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,282 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import net.alliknow.podcatcher.model.types.Genre;
+import net.alliknow.podcatcher.model.types.Language;
+import net.alliknow.podcatcher.model.types.MediaType;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Read-only index over the podcast suggestions. It is built once (off the UI
+ * thread) when the suggestions are loaded and afterwards answers filter and
+ * search requests by intersecting pre-computed bit sets. Bit <i>n</i> in any of
+ * the sets returned or used here refers to the <i>n</i>th podcast in
+ * {@link #getSuggestions()}.
+ */
+public class SuggestionIndex {
+
+    /** The suggestions indexed, sorted */
+    private final List<Podcast> suggestions;
+
+    /** The language buckets, indexed by enum ordinal */
+    private final BitSet[] languages = new BitSet[Language.values().length];
+    /** The genre buckets, indexed by enum ordinal */
+    private final BitSet[] genres = new BitSet[Genre.values().length];
+    /** The media type buckets, indexed by enum ordinal */
+    private final BitSet[] mediaTypes = new BitSet[MediaType.values().length];
+    /** The token index for the full text search, sorted for prefix lookups */
+    private final TreeMap<String, BitSet> tokens = new TreeMap<String, BitSet>();
+
+    /**
+     * Create and fill the index. This iterates all suggestions once and should
+     * not be called on the UI thread for larger catalogs.
+     * 
+     * @param suggestions The suggestions to index. The index keeps a read-only
+     *            view of this list, do not alter it afterwards.
+     */
+    public SuggestionIndex(List<Podcast> suggestions) {
+        this.suggestions = Collections.unmodifiableList(suggestions);
+
+        createBuckets(languages);
+        createBuckets(genres);
+        createBuckets(mediaTypes);
+
+        for (int position = 0; position < suggestions.size(); position++) {
+            final Podcast suggestion = suggestions.get(position);
+
+            // 1. Put suggestion into the classification buckets
+            if (suggestion.getLanguage() != null)
+                languages[suggestion.getLanguage().ordinal()].set(position);
+            if (suggestion.getGenre() != null)
+                genres[suggestion.getGenre().ordinal()].set(position);
+            if (suggestion.getMediaType() != null)
+                mediaTypes[suggestion.getMediaType().ordinal()].set(position);
+
+            // 2. Add all words from title and description to the token index
+            final Set<String> words = new HashSet<String>();
+            tokenize(suggestion.getName(), words);
+            tokenize(suggestion.getDescription(), words);
+
+            for (String word : words) {
+                BitSet matches = tokens.get(word);
+                if (matches == null) {
+                    matches = new BitSet(suggestions.size());
+                    tokens.put(word, matches);
+                }
+
+                matches.set(position);
+            }
+        }
+    }
+
+    /**
+     * @return The indexed suggestions, sorted and read-only.
+     */
+    public List<Podcast> getSuggestions() {
+        return suggestions;
+    }
+
+    /**
+     * @return The number of suggestions in the index.
+     */
+    public int size() {
+        return suggestions.size();
+    }
+
+    /**
+     * Find all the suggestions matching the given filter. Give
+     * <code>null</code> for any of the parameters to not filter on it.
+     * 
+     * @param language The language to match.
+     * @param genre The genre to match.
+     * @param mediaType The media type to match.
+     * @param query Search text, every word in it has to be the prefix of a
+     *            word in the suggestion's title or description.
+     * @return A new bit set with all matching suggestions' positions set. The
+     *         caller owns the set and might alter it.
+     */
+    public BitSet getMatching(Language language, Genre genre, MediaType mediaType, String query) {
+        final BitSet result = new BitSet(suggestions.size());
+        result.set(0, suggestions.size());
+
+        if (language != null)
+            result.and(languages[language.ordinal()]);
+        if (genre != null)
+            result.and(genres[genre.ordinal()]);
+        if (mediaType != null)
+            result.and(mediaTypes[mediaType.ordinal()]);
+
+        if (query != null) {
+            final Set<String> words = new HashSet<String>();
+            tokenize(query, words);
+
+            for (String word : words) {
+                // Stop early if there is nothing left to match
+                if (result.isEmpty())
+                    break;
+
+                result.and(getPrefixMatches(word));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Find the position of the given podcasts in the index.
+     * 
+     * @param podcasts Podcasts to look for (not <code>null</code>).
+     * @return A new bit set with the positions of all suggestions that are also
+     *         in the given collection.
+     */
+    public BitSet getPositions(Collection<Podcast> podcasts) {
+        final Set<Podcast> lookup = new HashSet<Podcast>(podcasts);
+        final BitSet result = new BitSet(suggestions.size());
+
+        for (int position = 0; position < suggestions.size(); position++)
+            if (lookup.contains(suggestions.get(position)))
+                result.set(position);
+
+        return result;
+    }
+
+    /**
+     * Copy the suggestions from the given positions into a list.
+     * 
+     * @param positions The positions to pick.
+     * @return A new list with the podcasts picked, sort order is retained.
+     */
+    public List<Podcast> getSuggestions(BitSet positions) {
+        final List<Podcast> result = new ArrayList<Podcast>(positions.cardinality());
+
+        for (int position = positions.nextSetBit(0); position >= 0; position = positions
+                .nextSetBit(position + 1))
+            result.add(suggestions.get(position));
+
+        return result;
+    }
+
+    /**
+     * Get the number of suggestions per language.
+     * 
+     * @param excluded Positions not to count, might be <code>null</code>.
+     * @return The counts, indexed by enum ordinal.
+     */
+    public int[] getLanguageCounts(BitSet excluded) {
+        return countBuckets(languages, excluded);
+    }
+
+    /**
+     * Get the number of suggestions per genre.
+     * 
+     * @param excluded Positions not to count, might be <code>null</code>.
+     * @return The counts, indexed by enum ordinal.
+     */
+    public int[] getGenreCounts(BitSet excluded) {
+        return countBuckets(genres, excluded);
+    }
+
+    /**
+     * Get the number of suggestions per media type.
+     * 
+     * @param excluded Positions not to count, might be <code>null</code>.
+     * @return The counts, indexed by enum ordinal.
+     */
+    public int[] getMediaTypeCounts(BitSet excluded) {
+        return countBuckets(mediaTypes, excluded);
+    }
+
+    private BitSet getPrefixMatches(String prefix) {
+        final BitSet result = new BitSet(suggestions.size());
+        // All tokens starting with the prefix are sorted right behind it
+        final SortedMap<String, BitSet> candidates =
+                tokens.subMap(prefix, prefix + Character.MAX_VALUE);
+
+        for (BitSet matches : candidates.values())
+            result.or(matches);
+
+        return result;
+    }
+
+    private int[] countBuckets(BitSet[] buckets, BitSet excluded) {
+        final int[] result = new int[buckets.length];
+
+        for (int index = 0; index < buckets.length; index++)
+            if (excluded == null)
+                result[index] = buckets[index].cardinality();
+            else {
+                final BitSet remaining = (BitSet) buckets[index].clone();
+                remaining.andNot(excluded);
+
+                result[index] = remaining.cardinality();
+            }
+
+        return result;
+    }
+
+    private void createBuckets(BitSet[] buckets) {
+        for (int index = 0; index < buckets.length; index++)
+            buckets[index] = new BitSet(suggestions.size());
+    }
+
+    /**
+     * Split the given text into lower case words with accents removed and add
+     * them to the set given.
+     * 
+     * @param text Text to split, might be <code>null</code>.
+     * @param words The set to add the words to.
+     */
+    private static void tokenize(String text, Set<String> words) {
+        if (text == null)
+            return;
+
+        final String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .toLowerCase(Locale.US);
+        final StringBuilder word = new StringBuilder();
+
+        for (int index = 0; index < normalized.length(); index++) {
+            final char character = normalized.charAt(index);
+
+            if (Character.isLetterOrDigit(character))
+                word.append(character);
+            // Skip the accents split off by the normalizer
+            else if (Character.getType(character) == Character.NON_SPACING_MARK)
+                continue;
+            else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        if (word.length() > 0)
+            words.add(word.toString());
+    }
+}
@@ -20,11 +20,9 @@ package net.alliknow.podcatcher.model;
 import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.listeners.OnLoadSuggestionListener;
 import net.alliknow.podcatcher.model.tasks.remote.LoadSuggestionsTask;
-import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -37,8 +35,8 @@ public class SuggestionManager implements OnLoadSuggestionListener {
     /** The application itself */
     private Podcatcher podcatcher;
 
-    /** The list of podcast suggestions */
-    private List<Podcast> podcastSuggestions;
+    /** The indexed podcast suggestions */
+    private SuggestionIndex podcastSuggestions;
 
     /** The suggestions load task */
     private LoadSuggestionsTask loadTask;
@@ -127,7 +125,13 @@ public class SuggestionManager implements OnLoadSuggestionListener {
     }
 
     @Override
-    public void onSuggestionsLoaded(List<Podcast> suggestions) {
+    public void onFeaturedSuggestionsLoaded(SuggestionIndex featured) {
+        for (OnLoadSuggestionListener listener : loadSuggestionListListeners)
+            listener.onFeaturedSuggestionsLoaded(featured);
+    }
+
+    @Override
+    public void onSuggestionsLoaded(SuggestionIndex suggestions) {
         // Cache the load result
         this.podcastSuggestions = suggestions;
         // Reset task
@@ -0,0 +1,211 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model;
+
+import android.text.Html;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decoder for short texts that might contain HTML, like podcast and episode
+ * titles. Most of these are plain text with maybe a couple of character
+ * references, so running them through {@link Html#fromHtml(String)} (which
+ * tokenizes the text and builds a span for it) is a waste. This decodes
+ * named, decimal and hexadecimal character references and CDATA sections
+ * and collapses white space the way {@link Html#fromHtml(String)} does. Only
+ * if the text has actual markup or references we do not know, it falls back
+ * to the full HTML pipeline.
+ */
+public class TextDecoder {
+
+    /** The names of the Latin-1 character references, starting at 160 */
+    private static final String[] LATIN1 = {
+            "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar", "sect", "uml",
+            "copy", "ordf", "laquo", "not", "shy", "reg", "macr", "deg", "plusmn", "sup2",
+            "sup3", "acute", "micro", "para", "middot", "cedil", "sup1", "ordm", "raquo",
+            "frac14", "frac12", "frac34", "iquest", "Agrave", "Aacute", "Acirc", "Atilde",
+            "Auml", "Aring", "AElig", "Ccedil", "Egrave", "Eacute", "Ecirc", "Euml", "Igrave",
+            "Iacute", "Icirc", "Iuml", "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde",
+            "Ouml", "times", "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN",
+            "szlig", "agrave", "aacute", "acirc", "atilde", "auml", "aring", "aelig", "ccedil",
+            "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", "iuml", "eth",
+            "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide", "oslash",
+            "ugrave", "uacute", "ucirc", "uuml", "yacute", "thorn", "yuml"
+    };
+
+    /** The named character references we decode ourselves */
+    private static final Map<String, Character> ENTITIES = new HashMap<String, Character>(160);
+    static {
+        for (int index = 0; index < LATIN1.length; index++)
+            ENTITIES.put(LATIN1[index], (char) (160 + index));
+
+        final Object[] others = {
+                "quot", '"', "amp", '&', "apos", '\'', "lt", '<', "gt", '>',
+                "OElig", '\u0152', "oelig", '\u0153', "Scaron", '\u0160', "scaron", '\u0161',
+                "Yuml", '\u0178', "fnof", '\u0192', "circ", '\u02c6', "tilde", '\u02dc',
+                "ensp", '\u2002', "emsp", '\u2003', "thinsp", '\u2009', "ndash", '\u2013',
+                "mdash", '\u2014', "lsquo", '\u2018', "rsquo", '\u2019', "sbquo", '\u201a',
+                "ldquo", '\u201c', "rdquo", '\u201d', "bdquo", '\u201e', "dagger", '\u2020',
+                "Dagger", '\u2021', "bull", '\u2022', "hellip", '\u2026', "permil", '\u2030',
+                "prime", '\u2032', "Prime", '\u2033', "lsaquo", '\u2039', "rsaquo", '\u203a',
+                "euro", '\u20ac', "trade", '\u2122', "larr", '\u2190', "rarr", '\u2192',
+                "hearts", '\u2665'
+        };
+        for (int index = 0; index < others.length; index += 2)
+            ENTITIES.put((String) others[index], (Character) others[index + 1]);
+    }
+
+    /** The start of a CDATA section */
+    private static final String CDATA_START = "<![CDATA[";
+    /** The end of a CDATA section */
+    private static final String CDATA_END = "]]>";
+
+    private TextDecoder() {
+        // No instances, please
+    }
+
+    /**
+     * Decode the given text. The result is the same as
+     * <code>Html.fromHtml(text).toString()</code>, but much cheaper for
+     * texts without markup.
+     * 
+     * @param text The text to decode, might be <code>null</code>.
+     * @return The decoded text or <code>null</code> if <code>null</code> was
+     *         given.
+     */
+    public static String decode(String text) {
+        if (text == null)
+            return null;
+
+        final String result = decodePlain(text);
+
+        return result != null ? result : Html.fromHtml(text).toString();
+    }
+
+    /**
+     * Decode the given text unless it needs the full HTML pipeline.
+     * 
+     * @param text The text to decode.
+     * @return The decoded text or <code>null</code> if the text has markup or
+     *         character references we cannot handle.
+     */
+    static String decodePlain(String text) {
+        final int length = text.length();
+
+        // 1. Most titles have nothing to decode at all, no need to copy
+        boolean simple = true;
+        char previous = ' ';
+        for (int index = 0; index < length && simple; index++) {
+            final char character = text.charAt(index);
+
+            simple = character != '&' && character != '<' && !(isWhitespace(character)
+                    && (character != ' ' || isWhitespace(previous)));
+            previous = character;
+        }
+        if (simple)
+            return text;
+
+        // 2. Decode into a new string
+        final StringBuilder result = new StringBuilder(length);
+        int index = 0;
+        while (index < length) {
+            final char character = text.charAt(index);
+
+            if (character == '&') {
+                final int end = text.indexOf(';', index);
+                if (end < 0 || !appendReference(text.substring(index + 1, end), result))
+                    return null;
+
+                index = end + 1;
+            }
+            else if (character == '<') {
+                // Only CDATA sections are handled here, their content is taken
+                // as is
+                if (!text.startsWith(CDATA_START, index))
+                    return null;
+
+                final int end = text.indexOf(CDATA_END, index);
+                if (end < 0)
+                    return null;
+
+                for (int position = index + CDATA_START.length(); position < end; position++)
+                    append(text.charAt(position), result);
+
+                index = end + CDATA_END.length();
+            }
+            else {
+                append(character, result);
+                index++;
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Append the character for a reference.
+     * 
+     * @param reference The reference without '&amp;' and ';'.
+     * @param result The builder to append to.
+     * @return Whether the reference was decoded.
+     */
+    private static boolean appendReference(String reference, StringBuilder result) {
+        // 1. Numeric references
+        if (reference.length() > 1 && reference.charAt(0) == '#') {
+            try {
+                final boolean hex = reference.charAt(1) == 'x' || reference.charAt(1) == 'X';
+                final int codePoint = hex ? Integer.parseInt(reference.substring(2), 16)
+                        : Integer.parseInt(reference.substring(1));
+
+                if (codePoint <= 0 || codePoint > Character.MAX_CODE_POINT)
+                    return false;
+                else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+                    append((char) codePoint, result);
+                else
+                    result.append(Character.toChars(codePoint));
+
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        // 2. Named references
+        final Character character = ENTITIES.get(reference);
+        if (character != null)
+            append(character, result);
+
+        return character != null;
+    }
+
+    /**
+     * Append a character, collapsing white space into a single blank, leading
+     * white space is dropped.
+     */
+    private static void append(char character, StringBuilder result) {
+        if (!isWhitespace(character))
+            result.append(character);
+        else if (result.length() > 0 && result.charAt(result.length() - 1) != ' ')
+            result.append(' ');
+    }
+
+    private static boolean isWhitespace(char character) {
+        return character == ' ' || character == '\n' || character == '\r' || character == '\t';
+    }
+}
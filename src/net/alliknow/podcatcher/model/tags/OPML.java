@@ -29,4 +29,5 @@ public abstract class OPML {
     public static final String TYPE = "type";
     public static final String RSS_TYPE = "rss";
     public static final String XMLURL = "xmlUrl";
+    public static final String EPISODE_LIMIT = "episodeLimit";
 }
@@ -34,6 +34,8 @@ public class LoadDownloadsTask extends AsyncTask<Void, Void, List<Episode>> {
 
     /** Call back */
     private WeakReference<OnLoadDownloadsListener> listener;
+    /** Flag to indicate that we need to try again once metadata is available */
+    private boolean deferred = false;
 
     /**
      * Create new task.
@@ -43,14 +45,23 @@ public class LoadDownloadsTask extends AsyncTask<Void, Void, List<Episode>> {
      *            activity without leaking it.
      */
     public LoadDownloadsTask(OnLoadDownloadsListener listener) {
-        this.listener = new WeakReference<OnLoadDownloadsListener>(listener);
+        this(new WeakReference<OnLoadDownloadsListener>(listener));
+    }
+
+    private LoadDownloadsTask(WeakReference<OnLoadDownloadsListener> listener) {
+        this.listener = listener;
     }
 
     @Override
     protected List<Episode> doInBackground(Void... nothing) {
         try {
-            // Block if episode metadata not yet available
-            EpisodeManager.getInstance().blockUntilEpisodeMetadataIsLoaded();
+            // Do not wait if episode metadata not yet available, we will
+            // come back once it is (see onPostExecute)
+            if (!EpisodeManager.getInstance().isEpisodeMetadataLoaded()) {
+                deferred = true;
+                return null;
+            }
+
             // Get the list of downloads
             return EpisodeManager.getInstance().getDownloads();
         } catch (Exception e) {
@@ -64,6 +75,19 @@ public class LoadDownloadsTask extends AsyncTask<Void, Void, List<Episode>> {
 
     @Override
     protected void onPostExecute(List<Episode> downloads) {
+        // Episode metadata not available yet, run again once it is
+        if (deferred) {
+            EpisodeManager.getInstance().runWhenEpisodeMetadataIsLoaded(new Runnable() {
+
+                @Override
+                public void run() {
+                    new LoadDownloadsTask(LoadDownloadsTask.this.listener).execute((Void) null);
+                }
+            });
+
+            return;
+        }
+
         // List of downloads available
         final OnLoadDownloadsListener listener = this.listener.get();
 
@@ -28,6 +28,8 @@ import android.util.Log;
 import net.alliknow.podcatcher.SettingsActivity;
 import net.alliknow.podcatcher.listeners.OnLoadEpisodeMetadataListener;
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.EpisodeMetadataStore;
+import net.alliknow.podcatcher.model.ParserPool;
 import net.alliknow.podcatcher.model.tags.METADATA;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
 import net.alliknow.podcatcher.model.types.Progress;
@@ -35,7 +37,6 @@ import net.alliknow.podcatcher.preferences.DownloadFolderPreference;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -48,7 +49,10 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Load the episode metadata from the file system.
+ * Load the episode metadata needed on start-up from the file system. The
+ * records for the individual podcasts are loaded on demand by the episode
+ * manager. If there is a metadata file in the format used by older versions,
+ * it is read completely and moved into the {@link EpisodeMetadataStore}.
  */
 public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL, EpisodeMetadata>> {
 
@@ -79,15 +83,54 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
         // Record start time
         this.startTime = new Date();
 
+        final EpisodeMetadataStore store = EpisodeManager.getInstance().getMetadataStore();
+        final File legacyFile = context.getFileStreamPath(EpisodeManager.METADATA_FILENAME);
+        Map<URL, EpisodeMetadata> result = new ConcurrentHashMap<URL, EpisodeMetadata>();
+
+        try {
+            // 1. Read the old single metadata file and move it into the store
+            if (legacyFile.exists()) {
+                result = readLegacyFile();
+
+                // Keep the old file if anything goes wrong, we will try again
+                if (store.migrate(result))
+                    legacyFile.delete();
+            }
+            // 2. Read only the shards needed on start-up
+            else
+                result.putAll(store.loadStartupShards());
+
+            // 3. Do some house keeping since file availability might have
+            // changed
+            cleanMetadata(result);
+        } catch (Exception e) {
+            Log.e(getClass().getSimpleName(), "Load failed for episode metadata!", e);
+        }
+
+        return result;
+    }
+
+    @Override
+    protected void onPostExecute(Map<URL, EpisodeMetadata> result) {
+        Log.i(getClass().getSimpleName(), "Read " + result.size() + " metadata records in "
+                + (new Date().getTime() - startTime.getTime()) + "ms.");
+
+        if (listener != null)
+            listener.onEpisodeMetadataLoaded(result);
+        else
+            Log.w(getClass().getSimpleName(), "Episode metadata loaded, but no listener attached");
+    }
+
+    private Map<URL, EpisodeMetadata> readLegacyFile() throws XmlPullParserException,
+            IOException {
         // Create resulting data structure and file stream
         Map<URL, EpisodeMetadata> result = new ConcurrentHashMap<URL, EpisodeMetadata>();
         InputStream fileStream = null;
+        XmlPullParser parser = null;
 
         try {
-            // 1. Build parser
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            // Create the parser to use
-            XmlPullParser parser = factory.newPullParser();
+            // 1. Get the parser to use
+            parser = ParserPool.acquire(false);
 
             // 2. Open default podcast file
             fileStream = context.openFileInput(EpisodeManager.METADATA_FILENAME);
@@ -115,13 +158,9 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
                 // Done, get next parsing event
                 eventType = parser.next();
             }
-
-            // 4. Do some house keeping since file availability might have
-            // changed
-            cleanMetadata(result);
-        } catch (Exception e) {
-            Log.e(getClass().getSimpleName(), "Load failed for episode metadata!", e);
         } finally {
+            ParserPool.release(parser);
+
             // Make sure we close the file stream
             if (fileStream != null)
                 try {
@@ -136,17 +175,6 @@ public class LoadEpisodeMetadataTask extends AsyncTask<Void, Progress, Map<URL,
         return result;
     }
 
-    @Override
-    protected void onPostExecute(Map<URL, EpisodeMetadata> result) {
-        Log.i(getClass().getSimpleName(), "Read " + result.size() + " metadata records in "
-                + (new Date().getTime() - startTime.getTime()) + "ms.");
-
-        if (listener != null)
-            listener.onEpisodeMetadataLoaded(result);
-        else
-            Log.w(getClass().getSimpleName(), "Episode metadata loaded, but no listener attached");
-    }
-
     private EpisodeMetadata readMetadata(XmlPullParser parser)
             throws XmlPullParserException, IOException {
 
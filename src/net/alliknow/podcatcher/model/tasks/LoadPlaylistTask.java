@@ -34,6 +34,8 @@ public class LoadPlaylistTask extends AsyncTask<Void, Void, List<Episode>> {
 
     /** Call back */
     private WeakReference<OnLoadPlaylistListener> listener;
+    /** Flag to indicate that we need to try again once metadata is available */
+    private boolean deferred = false;
 
     /**
      * Create new task.
@@ -43,14 +45,23 @@ public class LoadPlaylistTask extends AsyncTask<Void, Void, List<Episode>> {
      *            activity without leaking it.
      */
     public LoadPlaylistTask(OnLoadPlaylistListener listener) {
-        this.listener = new WeakReference<OnLoadPlaylistListener>(listener);
+        this(new WeakReference<OnLoadPlaylistListener>(listener));
+    }
+
+    private LoadPlaylistTask(WeakReference<OnLoadPlaylistListener> listener) {
+        this.listener = listener;
     }
 
     @Override
     protected List<Episode> doInBackground(Void... nothing) {
         try {
-            // Block if episode metadata not yet available
-            EpisodeManager.getInstance().blockUntilEpisodeMetadataIsLoaded();
+            // Do not wait if episode metadata not yet available, we will
+            // come back once it is (see onPostExecute)
+            if (!EpisodeManager.getInstance().isEpisodeMetadataLoaded()) {
+                deferred = true;
+                return null;
+            }
+
             // Get the playlist
             return EpisodeManager.getInstance().getPlaylist();
         } catch (Exception e) {
@@ -64,6 +75,19 @@ public class LoadPlaylistTask extends AsyncTask<Void, Void, List<Episode>> {
 
     @Override
     protected void onPostExecute(List<Episode> playlist) {
+        // Episode metadata not available yet, run again once it is
+        if (deferred) {
+            EpisodeManager.getInstance().runWhenEpisodeMetadataIsLoaded(new Runnable() {
+
+                @Override
+                public void run() {
+                    new LoadPlaylistTask(LoadPlaylistTask.this.listener).execute((Void) null);
+                }
+            });
+
+            return;
+        }
+
         // Playlist available
         final OnLoadPlaylistListener listener = this.listener.get();
 
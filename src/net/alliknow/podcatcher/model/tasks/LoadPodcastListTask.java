@@ -19,18 +19,18 @@ package net.alliknow.podcatcher.model.tasks;
 
 import android.content.Context;
 import android.os.AsyncTask;
-import android.text.Html;
 import android.util.Log;
 
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListListener;
+import net.alliknow.podcatcher.model.ParserPool;
 import net.alliknow.podcatcher.model.PodcastManager;
+import net.alliknow.podcatcher.model.TextDecoder;
 import net.alliknow.podcatcher.model.tags.OPML;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -93,6 +93,7 @@ public class LoadPodcastListTask extends AsyncTask<Void, Progress, List<Podcast>
         // Create resulting data structure and file stream
         List<Podcast> result = new ArrayList<Podcast>();
         InputStream fileStream = null;
+        XmlPullParser parser = null;
 
         try {
             // 1. Open the podcast file
@@ -101,11 +102,8 @@ public class LoadPodcastListTask extends AsyncTask<Void, Progress, List<Podcast>
             else
                 fileStream = new FileInputStream(importFile);
 
-            // 2. Build parser
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            // Create the parser to use
-            XmlPullParser parser = factory.newPullParser();
+            // 2. Get the parser to use
+            parser = ParserPool.acquire(true);
 
             // 3. Parse the OPML file
             parser.setInput(fileStream, PodcastManager.OPML_FILE_ENCODING);
@@ -133,6 +131,8 @@ public class LoadPodcastListTask extends AsyncTask<Void, Progress, List<Podcast>
         } catch (Exception e) {
             Log.e(getClass().getSimpleName(), "Load failed for podcast list!", e);
         } finally {
+            ParserPool.release(parser);
+
             // Make sure we close the file stream
             if (fileStream != null)
                 try {
@@ -176,11 +176,21 @@ public class LoadPodcastListTask extends AsyncTask<Void, Progress, List<Podcast>
             if (name.equals("null"))
                 name = null;
             else
-                name = Html.fromHtml(name).toString();
+                name = TextDecoder.decode(name);
             // Get and parse podcast url
             URL url = new URL(parser.getAttributeValue("", OPML.XMLURL));
             // Create the podcast
-            return new Podcast(name, url);
+            final Podcast podcast = new Podcast(name, url);
+            // Set the episode limit if any
+            final String episodeLimit = parser.getAttributeValue("", OPML.EPISODE_LIMIT);
+            if (episodeLimit != null)
+                try {
+                    podcast.setEpisodeLimit(Integer.parseInt(episodeLimit));
+                } catch (NumberFormatException e) {
+                    // Use the default
+                }
+
+            return podcast;
         } catch (MalformedURLException e) {
             Log.w(getClass().getSimpleName(), "OPML outline has bad URL!", e);
         } catch (XmlPullParserException e) {
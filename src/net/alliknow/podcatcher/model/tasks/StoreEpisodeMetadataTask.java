@@ -17,141 +17,48 @@
 
 package net.alliknow.podcatcher.model.tasks;
 
-import static net.alliknow.podcatcher.model.tags.METADATA.DOWNLOAD_ID;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_DATE;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_DESCRIPTION;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_NAME;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_RESUME_AT;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_STATE;
-import static net.alliknow.podcatcher.model.tags.METADATA.EPISODE_URL;
-import static net.alliknow.podcatcher.model.tags.METADATA.LOCAL_FILE_PATH;
-import static net.alliknow.podcatcher.model.tags.METADATA.METADATA;
-import static net.alliknow.podcatcher.model.tags.METADATA.PLAYLIST_POSITION;
-import static net.alliknow.podcatcher.model.tags.METADATA.PODCAST_NAME;
-import static net.alliknow.podcatcher.model.tags.METADATA.PODCAST_URL;
-
-import android.content.Context;
-import android.text.TextUtils;
 import android.util.Log;
 
-import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.EpisodeMetadataStore;
 import net.alliknow.podcatcher.model.types.EpisodeMetadata;
 
-import java.io.BufferedWriter;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
- * Stores the episode metadata information to the file system.
+ * Stores the episode metadata information to the file system. Only the
+ * podcast shards that actually changed are written.
+ * 
+ * @see EpisodeMetadataStore
  */
 public class StoreEpisodeMetadataTask extends StoreFileTask<Map<URL, EpisodeMetadata>> {
 
-    /** Our context */
-    protected Context context;
+    /** The store to write to */
+    protected EpisodeMetadataStore store;
 
     /**
      * Create a new persistence task.
      * 
-     * @param context Context to use for file writing.
+     * @param store The metadata store to write to.
      */
-    public StoreEpisodeMetadataTask(Context context) {
-        this.context = context;
+    public StoreEpisodeMetadataTask(EpisodeMetadataStore store) {
+        this.store = store;
     }
 
     @Override
     protected Void doInBackground(Map<URL, EpisodeMetadata>... params) {
         try {
-            // 1. Do house keeping and remove all metadata instances without
-            // data
-            cleanMetadata(params[0]);
-
-            // 2. Open the file and get a writer
-            OutputStream fileStream =
-                    context.openFileOutput(EpisodeManager.METADATA_FILENAME, Context.MODE_PRIVATE);
-            writer = new BufferedWriter(new OutputStreamWriter(fileStream, FILE_ENCODING));
+            final Date startTime = new Date();
+            // The store skips all metadata instances without data
+            final int written = store.write(params[0]);
 
-            // 3. Write new file content
-            writeHeader();
-            for (Entry<URL, EpisodeMetadata> entry : params[0].entrySet())
-                writeRecord(entry.getKey(), entry.getValue());
-            writeFooter();
+            Log.i(getClass().getSimpleName(), "Wrote " + written + " metadata shards in "
+                    + (new Date().getTime() - startTime.getTime()) + "ms.");
         } catch (Exception e) {
-            Log.e(getClass().getSimpleName(), "Cannot store episode metadata file", e);
-        } finally {
-            // Make sure we close the file stream
-            if (writer != null)
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    /* Nothing we can do here */
-                    Log.w(getClass().getSimpleName(),
-                            "Failed to close episode metadata file writer!", e);
-                }
+            Log.e(getClass().getSimpleName(), "Cannot store episode metadata", e);
         }
 
         return null;
     }
-
-    private void writeRecord(URL key, EpisodeMetadata value) throws IOException {
-        writeLine(1, "<" + METADATA + " " + EPISODE_URL
-                + "=\"" + TextUtils.htmlEncode(key.toString()) + "\">");
-
-        writeData(value.episodeName, EPISODE_NAME);
-        if (value.episodePubDate != null)
-            writeData(value.episodePubDate.getTime(), EPISODE_DATE);
-        writeData(value.episodeDescription, EPISODE_DESCRIPTION);
-        writeData(value.podcastName, PODCAST_NAME);
-        writeData(value.podcastUrl, PODCAST_URL);
-        writeData(value.downloadId, DOWNLOAD_ID);
-        writeData(value.filePath, LOCAL_FILE_PATH);
-        writeData(value.resumeAt, EPISODE_RESUME_AT);
-        if (value.isOld != null && value.isOld)
-            writeData("true", EPISODE_STATE);
-        writeData(value.playlistPosition, PLAYLIST_POSITION);
-
-        writeLine(1, "</" + METADATA + ">");
-    }
-
-    private void writeData(String data, String tag) throws IOException {
-        // For all fields: only write data that is actually there!
-        if (data != null)
-            writeLine(2, "<" + tag + ">" + TextUtils.htmlEncode(data) + "</" + tag + ">");
-    }
-
-    private void writeData(Long data, String tag) throws IOException {
-        // For all fields: only write data that is actually there!
-        if (data != null)
-            writeLine(2, "<" + tag + ">" + data + "</" + tag + ">");
-    }
-
-    private void writeData(Integer data, String tag) throws IOException {
-        if (data != null)
-            writeData(Long.valueOf(data), tag);
-    }
-
-    private void writeHeader() throws IOException {
-        writeLine(0, "<?xml version=\"1.0\" encoding=\"" + FILE_ENCODING + "\"?>");
-        writeLine(0, "<xml dateModified=\"" + new Date().getTime() + "\">");
-    }
-
-    private void writeFooter() throws IOException {
-        writeLine(0, "</xml>");
-    }
-
-    private void cleanMetadata(Map<URL, EpisodeMetadata> metadata) {
-        Iterator<Entry<URL, EpisodeMetadata>> iterator = metadata.entrySet().iterator();
-
-        while (iterator.hasNext()) {
-            Entry<URL, EpisodeMetadata> entry = iterator.next();
-
-            if (!entry.getValue().hasData())
-                iterator.remove();
-        }
-    }
 }
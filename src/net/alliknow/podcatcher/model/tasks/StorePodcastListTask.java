@@ -156,7 +156,10 @@ public class StorePodcastListTask extends StoreFileTask<List<Podcast>> {
                     TextUtils.htmlEncode(podcast.getName()) + "\" " +
                     OPML.TYPE + "=\"" + OPML.RSS_TYPE + "\" " +
                     OPML.XMLURL + "=\"" +
-                    TextUtils.htmlEncode(podcast.getUrl().toString()) + "\"/>";
+                    TextUtils.htmlEncode(podcast.getUrl().toString()) + "\"" +
+                    // Only podcasts with a limit of their own need this
+                    (podcast.getEpisodeLimit() > 0 ? " " + OPML.EPISODE_LIMIT + "=\"" +
+                            podcast.getEpisodeLimit() + "\"" : "") + "/>";
 
             writeLine(2, opmlString);
         }
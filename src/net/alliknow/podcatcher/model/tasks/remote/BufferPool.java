@@ -0,0 +1,89 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A small pool of read buffers shared by all remote loaders. A refresh of all
+ * podcasts starts a lot of loads at the same time, each of which used to
+ * allocate its own transient buffers. Take a buffer with {@link #acquire()}
+ * and make sure to give it back via {@link #release(byte[])} once done,
+ * preferably in a <code>finally</code> block. Buffers not given back are
+ * simply garbage collected.
+ */
+public class BufferPool {
+
+    /** The size of the buffers handed out */
+    public static final int BUFFER_SIZE = 32 * 1024;
+    /** The maximum number of idle buffers kept in the pool */
+    private static final int MAX_POOLED = 8;
+
+    /** The idle buffers */
+    private static final Deque<byte[]> pool = new ArrayDeque<byte[]>(MAX_POOLED);
+    /** The number of buffers allocated since start */
+    private static int allocations;
+
+    private BufferPool() {
+        // No instances, please
+    }
+
+    /**
+     * Take a buffer from the pool or allocate a new one if the pool is empty.
+     * 
+     * @return A buffer of {@link #BUFFER_SIZE} bytes. Its content is
+     *         undefined.
+     */
+    public static byte[] acquire() {
+        synchronized (pool) {
+            final byte[] buffer = pool.poll();
+            if (buffer != null)
+                return buffer;
+
+            allocations++;
+        }
+
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Give a buffer back to the pool. Do not use the buffer afterwards.
+     * 
+     * @param buffer The buffer taken via {@link #acquire()}, might be
+     *            <code>null</code>, which is ignored.
+     */
+    public static void release(byte[] buffer) {
+        if (buffer != null && buffer.length == BUFFER_SIZE)
+            synchronized (pool) {
+                if (pool.size() < MAX_POOLED)
+                    pool.push(buffer);
+            }
+    }
+
+    /**
+     * @return The number of buffers allocated by the pool so far. If the pool
+     *         works well, this stays close to the maximum number of loads
+     *         running in parallel.
+     */
+    public static int getAllocationCount() {
+        synchronized (pool) {
+            return allocations;
+        }
+    }
+}
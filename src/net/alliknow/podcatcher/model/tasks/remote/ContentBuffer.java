@@ -0,0 +1,55 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream collecting a remote file in memory. Other than its super
+ * class, it is presized to the expected content length (if known) and hands
+ * out its backing array without another copy if the length was right.
+ */
+public class ContentBuffer extends ByteArrayOutputStream {
+
+    /** The largest content length we trust enough to presize for */
+    private static final int MAX_PRESIZE = 16 * 1024 * 1024;
+
+    /**
+     * Create a new content buffer.
+     * 
+     * @param expectedLength The expected number of bytes, e.g. the content
+     *            length reported by the server. Give a negative value if
+     *            unknown.
+     */
+    public ContentBuffer(int expectedLength) {
+        super(expectedLength > 0 ? Math.min(expectedLength, MAX_PRESIZE)
+                : BufferPool.BUFFER_SIZE);
+    }
+
+    /**
+     * Get the content written so far. If the buffer is filled exactly, i.e.
+     * the expected length was correct, the backing array is returned and no
+     * copy is made. Do not write to the buffer afterwards.
+     * 
+     * @return The content as a byte array.
+     */
+    public synchronized byte[] getContent() {
+        return count == buf.length ? buf : Arrays.copyOf(buf, count);
+    }
+}
@@ -0,0 +1,661 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote;
+
+import android.util.Base64;
+import android.util.Log;
+
+import net.alliknow.podcatcher.listeners.OnDownloadEpisodeFileListener;
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnections.Timing;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Progress;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An async task to download an episode's media file to the local file system
+ * without the help of the system's download manager. Implement
+ * {@link OnDownloadEpisodeFileListener} to be alerted on progress, completion
+ * and failure.<br />
+ * The task uses HTTP range requests where the server supports them: Large files
+ * are split into a number of segments loaded in parallel, each segment writing
+ * to its own region of a file preallocated to the full size. Content goes to a
+ * <b><i>destination</i>.part</b> file first, the state of all segments is
+ * recorded in a <b><i>destination</i>.part.state</b> side-car every couple of
+ * seconds. If the task is started again for the same destination (e.g. after
+ * the app process died), it will pick up where it left off. Connection
+ * failures are retried with an increasing back-off. Once complete, the file
+ * size (and the Content-MD5 if given by the server) is verified and the partial
+ * file is moved to its final destination.
+ */
+public class DownloadEpisodeTask extends LoadRemoteFileTask<Episode, File> {
+
+    /** The suffix for the partial file while downloading */
+    public static final String PARTIAL_SUFFIX = ".part";
+    /** The suffix for the segment state file (appended to partial file name) */
+    public static final String STATE_SUFFIX = ".state";
+
+    /** The state file format version */
+    private static final int STATE_VERSION = 1;
+    /** The minimum file size in bytes to split the download into segments */
+    private static final long MIN_SEGMENTED_SIZE = 4 * 1024 * 1024;
+    /** The maximum number of parallel segments */
+    private static final int MAX_SEGMENTS = 4;
+    /** The number of retries per segment without any progress made */
+    private static final int MAX_RETRIES = 5;
+    /** The back-off before the first retry in millis (doubled every time) */
+    private static final long RETRY_BACKOFF = 2000;
+    /** The interval to persist the segment state in millis */
+    private static final long STATE_INTERVAL = 5000;
+    /** The interval to publish progress in millis */
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    /** Call back */
+    private final OnDownloadEpisodeFileListener listener;
+    /** The local file to create */
+    private final File destination;
+    /** The partial file we write to while downloading */
+    private final File partial;
+    /** The file we store the segment state in */
+    private final File state;
+
+    /** The episode we are downloading */
+    private Episode episode;
+    /** The segments to load */
+    private List<Segment> segments;
+    /** The file channel all segments write to */
+    private FileChannel channel;
+    /** The total file size in bytes, negative if unknown */
+    private long total = -1;
+    /** The validator (ETag or Last-Modified) we use for If-Range */
+    private String validator;
+    /** The checksum given by the server (base64 encoded), if any */
+    private String contentMd5;
+
+    /** The number of bytes available locally */
+    private final AtomicLong loaded = new AtomicLong();
+    /** The last time we stored the segment state */
+    private final AtomicLong lastStateSave = new AtomicLong();
+    /** The last time we published progress */
+    private final AtomicLong lastProgress = new AtomicLong();
+
+    /** Flag to indicate that partial content should be deleted on cancel */
+    private volatile boolean discard = false;
+
+    /**
+     * A byte range of the remote file, loaded independently. The end is
+     * inclusive and negative if unknown (read until end of stream).
+     */
+    private static class Segment {
+
+        /** The first byte of the segment */
+        private final long start;
+        /** The last byte of the segment */
+        private final long end;
+        /** The next byte to load */
+        private volatile long position;
+
+        private Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        private boolean isComplete() {
+            return end >= 0 && position > end;
+        }
+    }
+
+    /**
+     * Create new task.
+     * 
+     * @param destination The local file to download the episode media to.
+     * @param listener Callback to be alerted on progress and completion.
+     */
+    public DownloadEpisodeTask(File destination, OnDownloadEpisodeFileListener listener) {
+        this.destination = destination;
+        this.partial = new File(destination.getPath() + PARTIAL_SUFFIX);
+        this.state = new File(partial.getPath() + STATE_SUFFIX);
+        this.listener = listener;
+    }
+
+    /**
+     * Cancel the download and delete all partial content already loaded. Use
+     * {@link #cancel(boolean)} to stop the download, but keep the content for
+     * later resumption.
+     */
+    public void cancelAndDiscard() {
+        this.discard = true;
+
+        cancel(true);
+    }
+
+    /**
+     * @return The local file this task downloads to.
+     */
+    public File getDestination() {
+        return destination;
+    }
+
+    @Override
+    protected File doInBackground(Episode... episodes) {
+        this.episode = episodes[0];
+
+        try {
+            // 1. Find out about the remote file
+            publishProgress(Progress.CONNECT);
+            final URL remote = probe(episode.getMediaUrl());
+
+            // 2. Prepare the segments, re-use the state from an earlier run if
+            // it is still valid
+            if (!restoreState())
+                createSegments();
+
+            // 3. Preallocate the partial file and load
+            partial.getParentFile().mkdirs();
+            final RandomAccessFile file = new RandomAccessFile(partial, "rw");
+            try {
+                if (total >= 0 && file.length() != total)
+                    file.setLength(total);
+                channel = file.getChannel();
+
+                publishProgress(Progress.LOAD);
+                loadSegments(remote);
+            } finally {
+                storeState();
+                file.close();
+            }
+
+            // 4. Check whether the file is complete and valid
+            if (!isCancelled()) {
+                verify();
+
+                if (destination.exists())
+                    destination.delete();
+                if (!partial.renameTo(destination))
+                    throw new IOException("Cannot move " + partial + " to " + destination);
+
+                state.delete();
+                publishProgress(Progress.DONE);
+
+                return destination;
+            }
+        } catch (Throwable throwable) {
+            Log.w(getClass().getSimpleName(), "Download failed for episode \"" + episode
+                    + "\" to " + destination, throwable);
+
+            cancel(true);
+        }
+
+        return null;
+    }
+
+    @Override
+    protected void onProgressUpdate(Progress... progress) {
+        if (listener != null)
+            listener.onEpisodeFileDownloadProgress(episode, progress[0]);
+    }
+
+    @Override
+    protected void onPostExecute(File result) {
+        if (listener != null)
+            listener.onEpisodeFileDownloaded(episode, result);
+        else
+            Log.w(getClass().getSimpleName(), "Episode downloaded, but no listener attached");
+    }
+
+    @Override
+    protected void onCancelled(File result) {
+        // Remove all traces if requested, the listener does not need to know
+        if (discard) {
+            partial.delete();
+            state.delete();
+        }
+        // Background task failed to complete
+        else if (listener != null)
+            listener.onEpisodeFileDownloadFailed(episode);
+        else
+            Log.w(getClass().getSimpleName(), "Episode download failed, but no listener attached");
+    }
+
+    /**
+     * Send a HEAD request for the media file and record size, validator and
+     * range support.
+     * 
+     * @param remote The media file URL.
+     * @return The URL to actually load from (redirects resolved).
+     * @throws IOException If the server cannot be reached.
+     */
+    private URL probe(URL remote) throws IOException {
+        final HttpURLConnection connection = openConnection(remote);
+        connection.setRequestMethod("HEAD");
+        // A HEAD response has no body, so the connection can be reused
+        boolean complete = false;
+
+        try {
+            final Timing timing = HttpConnections.connect(connection);
+            final int code = connection.getResponseCode();
+            // Some servers do not like HEAD requests, we will have to go
+            // without the information then
+            if (code / 100 != 2)
+                return remote;
+
+            final String length = connection.getHeaderField("Content-Length");
+            final boolean ranges = "bytes".equalsIgnoreCase(
+                    connection.getHeaderField("Accept-Ranges"));
+
+            this.total = length == null ? -1 : Long.parseLong(length.trim());
+            this.contentMd5 = connection.getHeaderField("Content-MD5");
+            this.validator = connection.getHeaderField("ETag");
+            if (validator == null)
+                validator = connection.getHeaderField("Last-Modified");
+            // Without range support, we cannot segment or resume
+            if (!ranges)
+                validator = null;
+
+            complete = true;
+            timing.finish();
+
+            return connection.getURL();
+        } catch (NumberFormatException nfe) {
+            return remote;
+        } finally {
+            if (!complete)
+                connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection openConnection(URL remote) throws IOException {
+        final HttpURLConnection connection = HttpConnections.open(remote);
+        connection.setUseCaches(false);
+        // Episode media should not end up in the http cache and we need the
+        // raw bytes to have ranges and sizes make sense
+        connection.setRequestProperty("Cache-Control", "no-store");
+        connection.setRequestProperty("Accept-Encoding", "identity");
+
+        return connection;
+    }
+
+    /**
+     * Split the remote file into segments, if we know its size and the server
+     * supports range requests. Otherwise create one open-ended segment.
+     */
+    private void createSegments() {
+        segments = new ArrayList<Segment>();
+        loaded.set(0);
+        partial.delete();
+
+        if (total > 0 && validator != null && total >= MIN_SEGMENTED_SIZE) {
+            final long size = total / MAX_SEGMENTS;
+
+            for (int index = 0; index < MAX_SEGMENTS; index++) {
+                final long start = index * size;
+                final long end = index == MAX_SEGMENTS - 1 ? total - 1 : start + size - 1;
+
+                segments.add(new Segment(start, end, start));
+            }
+        }
+        else
+            segments.add(new Segment(0, total - 1, 0));
+    }
+
+    /**
+     * Read the segment state from an earlier run.
+     * 
+     * @return <code>true</code> iff the state was restored and can be used to
+     *         resume the download.
+     */
+    private boolean restoreState() {
+        // We can only resume if the server allows for it and the remote file
+        // did not change since the last run
+        if (validator == null || total < 0 || !state.exists() || !partial.exists())
+            return false;
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(state));
+
+            if (Integer.parseInt(reader.readLine()) != STATE_VERSION
+                    || Long.parseLong(reader.readLine()) != total
+                    || !validator.equals(reader.readLine()))
+                return false;
+
+            final int count = Integer.parseInt(reader.readLine());
+            final List<Segment> restored = new ArrayList<Segment>(count);
+            long available = 0;
+
+            for (int index = 0; index < count; index++) {
+                final String[] values = reader.readLine().split(" ");
+                final Segment segment = new Segment(Long.parseLong(values[0]),
+                        Long.parseLong(values[1]), Long.parseLong(values[2]));
+
+                restored.add(segment);
+                available += segment.position - segment.start;
+            }
+
+            this.segments = restored;
+            loaded.set(available);
+
+            return true;
+        } catch (Exception e) {
+            Log.w(getClass().getSimpleName(), "Cannot restore download state from " + state, e);
+
+            return false;
+        } finally {
+            if (reader != null)
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing more we can do here
+                }
+        }
+    }
+
+    /**
+     * Write the segment state to disk. Content is forced to the device first,
+     * so the state never claims more than is actually available.
+     */
+    private synchronized void storeState() {
+        // No point in keeping state if we cannot resume anyway
+        if (validator == null || total < 0 || segments == null)
+            return;
+
+        final File temp = new File(state.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            if (channel != null && channel.isOpen())
+                channel.force(false);
+
+            writer = new BufferedWriter(new FileWriter(temp));
+            writer.write(STATE_VERSION + "\n" + total + "\n" + validator + "\n"
+                    + segments.size() + "\n");
+            for (Segment segment : segments)
+                writer.write(segment.start + " " + segment.end + " " + segment.position + "\n");
+            writer.close();
+            writer = null;
+
+            temp.renameTo(state);
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Cannot store download state to " + state, e);
+        } finally {
+            if (writer != null)
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // Nothing more we can do here
+                }
+        }
+    }
+
+    /**
+     * Load all segments not complete yet. Multiple segments are loaded in
+     * parallel, a single segment is loaded on the calling thread.
+     * 
+     * @param remote The URL to load from.
+     * @throws Exception If any of the segments failed.
+     */
+    private void loadSegments(final URL remote) throws Exception {
+        final List<Segment> open = new ArrayList<Segment>();
+        for (Segment segment : segments)
+            if (!segment.isComplete())
+                open.add(segment);
+
+        if (open.size() == 1)
+            loadSegment(remote, open.get(0));
+        else if (open.size() > 1) {
+            final ExecutorService executor = Executors.newFixedThreadPool(open.size());
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+            for (final Segment segment : open)
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        loadSegment(remote, segment);
+
+                        return null;
+                    }
+                }));
+
+            try {
+                for (Future<Void> result : results)
+                    result.get();
+            } catch (ExecutionException ee) {
+                // Make the other segments stop, their state is kept
+                cancel(false);
+
+                if (ee.getCause() instanceof Exception)
+                    throw (Exception) ee.getCause();
+                else
+                    throw new IOException(ee.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Load a segment, retrying on failure.
+     * 
+     * @param remote The URL to load from.
+     * @param segment The segment to complete.
+     * @throws IOException If the segment fails to load and we are out of
+     *             retries.
+     * @throws InterruptedException If interrupted while waiting for retry.
+     */
+    private void loadSegment(URL remote, Segment segment) throws IOException,
+            InterruptedException {
+        int attempt = 0;
+
+        while (!segment.isComplete() && !isCancelled()) {
+            final long before = segment.position;
+
+            try {
+                if (readSegment(remote, segment))
+                    return;
+            } catch (IOException e) {
+                if (isCancelled())
+                    return;
+
+                // Any progress made resets the retry counter
+                if (segment.position > before)
+                    attempt = 0;
+                if (++attempt > MAX_RETRIES)
+                    throw e;
+
+                final long wait = RETRY_BACKOFF << (attempt - 1);
+                Log.d(getClass().getSimpleName(), "Segment " + segment.start + "-" + segment.end
+                        + " failed at " + segment.position + ", retry #" + attempt + " in "
+                        + wait + "ms (" + e.getMessage() + ")");
+                Thread.sleep(wait);
+            }
+        }
+    }
+
+    /**
+     * Do one request for the missing part of the segment and read it.
+     * 
+     * @return <code>true</code> if the end of stream was reached for a
+     *         segment without known end.
+     */
+    private boolean readSegment(URL remote, Segment segment) throws IOException {
+        final HttpURLConnection connection = openConnection(remote);
+        InputStream input = null;
+        byte[] buffer = null;
+        // Only a completely read response leaves the connection reusable
+        boolean complete = false;
+
+        try {
+            // 1. Ask for the missing range only
+            final boolean partialRequest = validator != null
+                    && (segment.position > 0 || segment.end < total - 1);
+            if (partialRequest) {
+                connection.setRequestProperty("Range", "bytes=" + segment.position + "-"
+                        + (segment.end >= 0 ? segment.end : ""));
+                connection.setRequestProperty("If-Range", validator);
+            }
+
+            // 2. Check the response: The server might return the complete
+            // file if the remote file changed (If-Range mismatch)
+            final Timing timing = HttpConnections.connect(connection);
+            final int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK && segment.position > 0) {
+                if (segments.size() > 1)
+                    throw new IllegalStateException("Remote file changed, cannot resume");
+                // Only one segment, we can simply start over
+                loaded.addAndGet(-segment.position);
+                segment.position = 0;
+            }
+            else if (code != HttpURLConnection.HTTP_OK
+                    && code != HttpURLConnection.HTTP_PARTIAL)
+                throw new IOException("Unexpected response code " + code);
+
+            // 3. Read and write to our region of the file
+            input = connection.getInputStream();
+            buffer = BufferPool.acquire();
+            final ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+
+            while (!segment.isComplete()) {
+                if (isCancelled())
+                    return false;
+
+                int length = buffer.length;
+                if (segment.end >= 0)
+                    length = (int) Math.min(length, segment.end - segment.position + 1);
+
+                final int read = input.read(buffer, 0, length);
+                if (read < 0)
+                    break;
+
+                wrapper.position(0).limit(read);
+                while (wrapper.hasRemaining())
+                    segment.position += channel.write(wrapper, segment.position);
+
+                loaded.addAndGet(read);
+                onSegmentProgress();
+            }
+
+            // 4. A premature end of stream is a failure if we know the size
+            if (!segment.isComplete() && segment.end >= 0)
+                throw new IOException("Connection closed at byte " + segment.position);
+
+            // The response is consumed if we got exactly the range asked for,
+            // read up to the end of stream or up to the end of the file
+            complete = code == HttpURLConnection.HTTP_PARTIAL || segment.end < 0
+                    || segment.end == total - 1;
+            timing.finish();
+
+            return segment.end < 0;
+        } finally {
+            BufferPool.release(buffer);
+
+            if (input != null)
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    // Nothing more we can do here
+                }
+
+            if (!complete)
+                connection.disconnect();
+        }
+    }
+
+    private void onSegmentProgress() {
+        final long now = System.currentTimeMillis();
+
+        final long progress = lastProgress.get();
+        if (now - progress >= PROGRESS_INTERVAL && lastProgress.compareAndSet(progress, now))
+            // Progress only holds integers, so we report in KiB
+            publishProgress(new Progress((int) (loaded.get() / 1024),
+                    total < 0 ? -1 : (int) (total / 1024)));
+
+        final long save = lastStateSave.get();
+        if (now - save >= STATE_INTERVAL && lastStateSave.compareAndSet(save, now))
+            storeState();
+    }
+
+    /**
+     * Make sure the partial file is complete. Deletes all partial content if it
+     * is found to be corrupt.
+     * 
+     * @throws IOException If verification fails.
+     */
+    private void verify() throws IOException {
+        if (total >= 0 && partial.length() != total)
+            throw new IOException("Size mismatch (" + partial.length() + " bytes on disk, "
+                    + total + " bytes expected)");
+
+        if (contentMd5 != null) {
+            final String expected = contentMd5.trim();
+            final String actual = Base64.encodeToString(md5(partial), Base64.NO_WRAP);
+
+            if (!expected.equals(actual)) {
+                partial.delete();
+                state.delete();
+
+                throw new IOException("Checksum mismatch (" + actual + " on disk, "
+                        + expected + " expected)");
+            }
+        }
+    }
+
+    private static byte[] md5(File file) throws IOException {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final InputStream input = new FileInputStream(file);
+
+            final byte[] buffer = BufferPool.acquire();
+
+            try {
+                int read;
+                while ((read = input.read(buffer)) > 0)
+                    digest.update(buffer, 0, read);
+            } finally {
+                BufferPool.release(buffer);
+                input.close();
+            }
+
+            return digest.digest();
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException("MD5 not available");
+        }
+    }
+}
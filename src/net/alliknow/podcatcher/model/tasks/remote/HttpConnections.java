@@ -0,0 +1,580 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote;
+
+import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
+import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_VALUE;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * The HTTP layer shared by all remote file tasks. The platform's
+ * {@link HttpURLConnection} already pools connections per host, as long as
+ * responses are read completely, the streams are closed and the connection is
+ * not disconnected. This class configures the pool's idle policy, makes all
+ * HTTPS connections use one socket factory with a persistent TLS session
+ * cache (the pool only shares connections created by the same factory) and
+ * measures each request.<br />
+ * Call {@link #configure(Context, int, long)} once on start-up, before any
+ * connection is opened, and use {@link #open(URL)} and
+ * {@link #connect(HttpURLConnection)} to do requests.<br />
+ * Callers that want to tell permanent from temporary redirects turn off
+ * {@link HttpURLConnection#setInstanceFollowRedirects(boolean)} and use
+ * {@link #followRedirect(HttpURLConnection, Timing)}. Temporary redirects that
+ * are cacheable are remembered for their lifetime, see
+ * {@link #resolveRedirect(URL)}.
+ */
+public class HttpConnections {
+
+    /** The TLS handshake timeout */
+    private static final int HANDSHAKE_TIMEOUT = 8000;
+    /** HTTP status code for a temporary redirect keeping the method */
+    public static final int HTTP_TEMPORARY_REDIRECT = 307;
+    /** HTTP status code for a permanent redirect keeping the method */
+    public static final int HTTP_PERMANENT_REDIRECT = 308;
+    /** The maximum number of temporary redirects remembered */
+    private static final int MAX_CACHED_REDIRECTS = 64;
+    /** The maximum number of bytes we read from a redirect's body */
+    private static final int MAX_REDIRECT_BODY = 16 * 1024;
+
+    /** The socket factory for all HTTPS connections, shared for pooling */
+    private static SSLSocketFactory socketFactory;
+    /** Flag to indicate whether the DNS lookup is timed separately */
+    private static volatile boolean detailedTiming;
+    /** The timing of the request connecting on the current thread (if any) */
+    private static final ThreadLocal<Timing> connecting = new ThreadLocal<Timing>();
+
+    /** The number of requests connected */
+    private static final AtomicInteger requestCount = new AtomicInteger();
+    /** The number of TLS handshakes done */
+    private static final AtomicInteger handshakeCount = new AtomicInteger();
+
+    /** The temporary redirects remembered by source URL, least recent first */
+    private static final Map<String, CachedRedirect> redirects =
+            new LinkedHashMap<String, CachedRedirect>(16, 0.75f, true) {
+
+                /** Generated UID */
+                private static final long serialVersionUID = 3087226396104389457L;
+
+                @Override
+                protected boolean removeEldestEntry(Entry<String, CachedRedirect> eldest) {
+                    return size() > MAX_CACHED_REDIRECTS;
+                }
+            };
+
+    /** A temporary redirect remembered */
+    private static class CachedRedirect {
+
+        /** The redirect's target */
+        private final URL location;
+        /** The time the redirect expires */
+        private final long expires;
+
+        private CachedRedirect(URL location, long expires) {
+            this.location = location;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The timing of one request. All durations are in milliseconds, -1 means
+     * not measured or did not happen.
+     */
+    public static class Timing {
+
+        /** The URL requested */
+        private final URL url;
+        /** The request start time */
+        private final long start = SystemClock.elapsedRealtime();
+        /** The time the DNS lookup took */
+        private long dns = -1;
+        /** The time the TCP connection took */
+        private long connect = -1;
+        /** The time the TLS handshake took, set by the handshake listener */
+        private volatile long tls = -1;
+        /** The time until the first response byte */
+        private long firstByte = -1;
+        /** The time until the response was completely read */
+        private long total = -1;
+
+        /** The time the TCP connection was up, used to time the handshake */
+        private volatile long connected = -1;
+
+        private Timing(URL url) {
+            this.url = url;
+        }
+
+        /**
+         * @return The time the DNS lookup took. Only measured if detailed
+         *         timing is on.
+         */
+        public long getDns() {
+            return dns;
+        }
+
+        /**
+         * @return The time it took to connect. This includes the DNS lookup
+         *         if it is not measured separately and the TLS handshake if
+         *         it could not be told apart.
+         */
+        public long getConnect() {
+            return connect;
+        }
+
+        /**
+         * @return The time the TLS handshake took, -1 for plain HTTP and
+         *         pooled connections.
+         */
+        public long getTls() {
+            return tls;
+        }
+
+        /**
+         * @return The time from the start of the request until the first
+         *         response byte (the response head) was available.
+         */
+        public long getFirstByte() {
+            return firstByte;
+        }
+
+        /**
+         * @return The time from the start of the request until the response
+         *         was completely read, -1 if not finished.
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * Mark the request done, call this after reading the response.
+         */
+        public void finish() {
+            total = SystemClock.elapsedRealtime() - start;
+
+            Log.d(HttpConnections.class.getSimpleName(), toString());
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: dns %dms, connect %dms, tls %dms, first byte %dms, total %dms",
+                    url, dns, connect, tls, firstByte, total);
+        }
+
+        private void onConnected() {
+            connected = SystemClock.elapsedRealtime();
+        }
+
+        private void onHandshakeCompleted() {
+            if (connected >= 0)
+                tls = SystemClock.elapsedRealtime() - connected;
+        }
+    }
+
+    /**
+     * Configure the shared HTTP layer. The pool settings only take effect if
+     * this runs before the first connection is opened in the process.
+     * 
+     * @param context The context to store the TLS sessions in.
+     * @param maxIdleConnections The maximum number of idle connections kept
+     *            in the pool (for all hosts together).
+     * @param keepAlive The time in milliseconds idle connections are kept.
+     */
+    public static synchronized void configure(Context context, int maxIdleConnections,
+            long keepAlive) {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+        System.setProperty("http.keepAliveDuration", String.valueOf(keepAlive));
+
+        if (socketFactory == null)
+            socketFactory = new TimingSocketFactory(SSLCertificateSocketFactory.getDefault(
+                    HANDSHAKE_TIMEOUT, new SSLSessionCache(context)));
+    }
+
+    /**
+     * Set whether the DNS lookup is timed separately. This costs an extra
+     * lookup (which will mostly be answered from the resolver cache), so it
+     * should only be turned on for debugging.
+     * 
+     * @param detailed The flag.
+     */
+    public static void setDetailedTiming(boolean detailed) {
+        detailedTiming = detailed;
+    }
+
+    /**
+     * Create a connection using the shared HTTP layer. Timeouts and our user
+     * agent are set, the connection is not yet connected.
+     * 
+     * @param remote The URL to connect to.
+     * @return The connection, set it up further as needed.
+     * @throws IOException If the connection cannot be created.
+     */
+    public static HttpURLConnection open(URL remote) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
+        connection.setConnectTimeout(LoadRemoteFileTask.CONNECT_TIMEOUT);
+        connection.setReadTimeout(LoadRemoteFileTask.READ_TIMEOUT);
+        // We set a custom user agent here because some servers (e.g. ZDF.de)
+        // redirect connections from mobile devices to servers where the content
+        // we are looking for might not be available.
+        connection.setRequestProperty(USER_AGENT_KEY, USER_AGENT_VALUE);
+
+        synchronized (HttpConnections.class) {
+            if (socketFactory != null && connection instanceof HttpsURLConnection)
+                ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Connect and wait for the response head. Afterwards, the response code
+     * and headers are available. To have the connection go back to the pool,
+     * read the response completely, close the stream and do not call
+     * {@link HttpURLConnection#disconnect()} (only do that on failure).
+     * 
+     * @param connection The connection created by {@link #open(URL)}.
+     * @return The request timing, call {@link Timing#finish()} once done.
+     * @throws IOException If the connection fails.
+     */
+    public static Timing connect(HttpURLConnection connection) throws IOException {
+        final Timing timing = new Timing(connection.getURL());
+        requestCount.incrementAndGet();
+
+        // 1. Look up the host, the connection will then find it in the cache
+        if (detailedTiming) {
+            InetAddress.getAllByName(connection.getURL().getHost());
+            timing.dns = SystemClock.elapsedRealtime() - timing.start;
+        }
+
+        // 2. Connect, the socket factory picks up the timing from the thread
+        // if a new TLS connection is created
+        connecting.set(timing);
+        try {
+            connection.connect();
+        } finally {
+            connecting.remove();
+        }
+
+        // The handshake might complete on another thread and be reported
+        // late, so the TCP connection time is taken from the time the socket
+        // factory was handed the connected socket (if it was)
+        final long connected = (timing.connected >= 0 ?
+                timing.connected : SystemClock.elapsedRealtime()) - timing.start;
+        timing.connect = connected - Math.max(0, timing.dns);
+
+        // 3. Wait for the response head
+        connection.getResponseCode();
+        timing.firstByte = SystemClock.elapsedRealtime() - timing.start;
+
+        return timing;
+    }
+
+    /**
+     * Check whether the response is a redirect we can follow.
+     * 
+     * @param connection The connection, connected.
+     * @return <code>true</code> iff the response code is a redirect and the
+     *         new location is given.
+     * @throws IOException If the response cannot be read.
+     */
+    public static boolean isRedirect(HttpURLConnection connection) throws IOException {
+        switch (connection.getResponseCode()) {
+            case HttpURLConnection.HTTP_MOVED_PERM:
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+            case HttpURLConnection.HTTP_SEE_OTHER:
+            case HTTP_TEMPORARY_REDIRECT:
+            case HTTP_PERMANENT_REDIRECT:
+                return connection.getHeaderField("Location") != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param connection The connection, connected.
+     * @return <code>true</code> iff the response is a permanent redirect.
+     * @throws IOException If the response cannot be read.
+     */
+    public static boolean isPermanentRedirect(HttpURLConnection connection) throws IOException {
+        final int code = connection.getResponseCode();
+
+        return code == HttpURLConnection.HTTP_MOVED_PERM || code == HTTP_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * Finish a redirect response: Remember it if it is temporary and
+     * cacheable, read and close its body, so the connection can go back to
+     * the pool. Redirects from HTTPS to plain HTTP and to any other protocol
+     * are refused, just like the platform does when following redirects.
+     * 
+     * @param connection The connection, connected and redirected.
+     * @param timing The request timing.
+     * @return The location redirected to.
+     * @throws IOException If the location is not valid or refused. The
+     *             connection is not disconnected in this case.
+     */
+    public static URL followRedirect(HttpURLConnection connection, Timing timing)
+            throws IOException {
+        final URL location = new URL(connection.getURL(), connection.getHeaderField("Location"));
+
+        // 0. Never downgrade the protocol
+        final boolean secure = "https".equals(location.getProtocol());
+        if (!(secure || "http".equals(location.getProtocol()))
+                || (!secure && "https".equals(connection.getURL().getProtocol())))
+            throw new IOException("Refusing redirect from " + connection.getURL()
+                    + " to " + location);
+
+        // 1. Remember temporary redirects for their lifetime (if any)
+        if (!isPermanentRedirect(connection)) {
+            final long lifetime = getLifetime(connection);
+
+            if (lifetime > 0)
+                synchronized (redirects) {
+                    redirects.put(connection.getURL().toString(), new CachedRedirect(location,
+                            SystemClock.elapsedRealtime() + lifetime));
+                }
+        }
+
+        // 2. Consume the body, unless it is too large to bother
+        final byte[] buffer = BufferPool.acquire();
+        InputStream body = null;
+        boolean complete = false;
+
+        try {
+            body = connection.getErrorStream() != null ? connection.getErrorStream()
+                    : connection.getInputStream();
+
+            int total = 0;
+            int read = 0;
+            while (total <= MAX_REDIRECT_BODY && (read = body.read(buffer)) >= 0)
+                total += read;
+
+            complete = read < 0;
+        } catch (IOException e) {
+            // Not worth it, we just drop the connection
+        } finally {
+            BufferPool.release(buffer);
+
+            if (body != null)
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    // Nothing more we can do here
+                }
+
+            if (complete)
+                timing.finish();
+            else
+                connection.disconnect();
+        }
+
+        return location;
+    }
+
+    /**
+     * Find where the given URL currently points to, following the temporary
+     * redirects remembered. Use this before opening a connection to skip
+     * known redirect hops.
+     * 
+     * @param remote The URL to resolve.
+     * @return The location to ask for, this is the URL given if no redirect
+     *         is known.
+     */
+    public static URL resolveRedirect(URL remote) {
+        URL result = remote;
+
+        synchronized (redirects) {
+            for (int hop = 0; hop < MAX_CACHED_REDIRECTS; hop++) {
+                final String key = result.toString();
+                final CachedRedirect redirect = redirects.get(key);
+
+                if (redirect == null)
+                    break;
+                else if (redirect.expires < SystemClock.elapsedRealtime()) {
+                    redirects.remove(key);
+                    break;
+                }
+                else
+                    result = redirect.location;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Forget the temporary redirect remembered for the given URL (if any).
+     * Call this if the redirect led to a failure.
+     * 
+     * @param remote The redirected URL.
+     */
+    public static void forgetRedirect(URL remote) {
+        synchronized (redirects) {
+            redirects.remove(remote.toString());
+        }
+    }
+
+    /**
+     * @return The number of requests connected since start-up.
+     */
+    public static int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The number of TLS handshakes done since start-up. Compare this
+     *         to the number of requests to see how well connections are
+     *         pooled.
+     */
+    public static int getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    /**
+     * Get the time the response may be cached for from its headers.
+     * 
+     * @return The lifetime in milliseconds, zero if not cacheable.
+     */
+    private static long getLifetime(HttpURLConnection connection) {
+        final String cacheControl = connection.getHeaderField("Cache-Control");
+
+        // 1. Cache control wins over the expiration date
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+
+                if (directive.equals("no-cache") || directive.equals("no-store"))
+                    return 0;
+                else if (directive.startsWith("max-age="))
+                    try {
+                        return Long.parseLong(directive.substring(8).trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+            }
+        }
+
+        // 2. Fall back to the expiration date
+        final long expires = connection.getExpiration();
+        if (expires > 0) {
+            final long date = connection.getDate();
+
+            return expires - (date > 0 ? date : System.currentTimeMillis());
+        }
+
+        return 0;
+    }
+
+    /**
+     * The socket factory we use for all HTTPS connections. It delegates to
+     * the platform's factory and times the TLS handshakes.
+     */
+    private static class TimingSocketFactory extends SSLSocketFactory {
+
+        /** The factory doing the actual work */
+        private final SSLSocketFactory delegate;
+
+        private TimingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose)
+                throws IOException {
+            // This is called on the connecting thread once the TCP connection
+            // is up and wraps it into TLS
+            final Timing timing = connecting.get();
+            if (timing != null)
+                timing.onConnected();
+
+            return watch(delegate.createSocket(socket, host, port, autoClose), timing);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return watch(delegate.createSocket(host, port), null);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            return watch(delegate.createSocket(host, port, localHost, localPort), null);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return watch(delegate.createSocket(host, port), null);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                int localPort) throws IOException {
+            return watch(delegate.createSocket(address, port, localAddress, localPort), null);
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        private Socket watch(Socket socket, final Timing timing) {
+            if (socket instanceof SSLSocket)
+                ((SSLSocket) socket).addHandshakeCompletedListener(
+                        new HandshakeCompletedListener() {
+
+                            @Override
+                            public void handshakeCompleted(HandshakeCompletedEvent event) {
+                                handshakeCount.incrementAndGet();
+
+                                if (timing != null)
+                                    timing.onHandshakeCompleted();
+                            }
+                        });
+
+            return socket;
+        }
+    }
+}
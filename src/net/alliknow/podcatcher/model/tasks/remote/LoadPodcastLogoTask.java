@@ -22,6 +22,8 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Metrics.Timer;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastLogoListener;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
@@ -29,6 +31,7 @@ import net.alliknow.podcatcher.model.types.Progress;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URL;
 import java.util.Date;
 
 /**
@@ -185,19 +188,27 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
      * @return The decoded and sampled bitmap.
      */
     protected Bitmap decodeAndSampleBitmap(byte[] data) {
+        final long start = Metrics.start();
         final BitmapFactory.Options options = new BitmapFactory.Options();
+        // Use a pooled buffer instead of letting the decoder allocate its own
+        options.inTempStorage = BufferPool.acquire();
 
-        // Decode with inJustDecodeBounds=true to check dimensions
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        try {
+            // Decode with inJustDecodeBounds=true to check dimensions
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
 
-        // Calculate inSampleSize
-        options.inSampleSize = calculateInSampleSize(options);
+            // Calculate inSampleSize
+            options.inSampleSize = calculateInSampleSize(options);
 
-        // Decode bitmap with inSampleSize set
-        options.inJustDecodeBounds = false;
+            // Decode bitmap with inSampleSize set
+            options.inJustDecodeBounds = false;
 
-        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } finally {
+            BufferPool.release(options.inTempStorage);
+            Metrics.record(Timer.LOGO_DECODE, start);
+        }
     }
 
     /**
@@ -222,10 +233,31 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
         return inSampleSize;
     }
 
-    private File getLogoCacheFile(Podcast podcast) {
+    /**
+     * Move the cached logo for a podcast that changed its location, so it does
+     * not need to be loaded again. Does nothing if there is no cached logo.
+     * 
+     * @param context The context to find the cache in.
+     * @param from The podcast's former location.
+     * @param to The podcast's new location.
+     */
+    public static void moveCachedLogo(Context context, URL from, URL to) {
+        final File source = getLogoCacheFile(context, from);
+        final File target = getLogoCacheFile(context, to);
+
+        if (source.exists() && !target.exists() && !source.renameTo(target))
+            Log.w(LoadPodcastLogoTask.class.getSimpleName(), "Failed to move cached logo "
+                    + source + " to " + target);
+    }
+
+    private static File getLogoCacheFile(Context context, URL podcastUrl) {
         // Create the complete path leading to where we expect the cached file
         return new File(context.getCacheDir(), CACHE_DIR + File.separator
-                + podcast.getUrl().hashCode() + ".jpeg");
+                + podcastUrl.hashCode() + ".jpeg");
+    }
+
+    private File getLogoCacheFile(Podcast podcast) {
+        return getLogoCacheFile(context, podcast.getUrl());
     }
 
     private boolean isCachedLocally(Podcast podcast) {
@@ -241,7 +273,16 @@ public class LoadPodcastLogoTask extends LoadRemoteFileTask<Podcast, Bitmap> {
     }
 
     private Bitmap restoreBitmapFromFileCache(Podcast podcast) {
-        return BitmapFactory.decodeFile(getLogoCacheFile(podcast).getAbsolutePath());
+        final long start = Metrics.start();
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inTempStorage = BufferPool.acquire();
+
+        try {
+            return BitmapFactory.decodeFile(getLogoCacheFile(podcast).getAbsolutePath(), options);
+        } finally {
+            BufferPool.release(options.inTempStorage);
+            Metrics.record(Timer.LOGO_DECODE, start);
+        }
     }
 
     private void storeBitmapToFileCache(Podcast podcast, Bitmap bitmap) {
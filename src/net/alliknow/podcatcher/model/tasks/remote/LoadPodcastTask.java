@@ -19,29 +19,58 @@ package net.alliknow.podcatcher.model.tasks.remote;
 
 import android.util.Log;
 
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Metrics.Counter;
+import net.alliknow.podcatcher.Metrics.Timer;
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
 import net.alliknow.podcatcher.model.EpisodeManager;
+import net.alliknow.podcatcher.model.ParserPool;
+import net.alliknow.podcatcher.model.PodcastSnapshotStore;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
 import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserFactory;
-
-import java.io.ByteArrayInputStream;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
  * Loads podcast RSS file asynchronously. Implement the PodcastLoader interface
- * to be alerted on completion or failure. The downloaded file will be used as
- * the podcast's content via {@link Podcast#parse(XmlPullParser)}, use the
- * podcast object given (and returned via callbacks) to access it.
+ * to be alerted on completion or failure. The file will be parsed as the
+ * podcast's content via {@link Podcast#parse(XmlPullParser, int)} while it is
+ * loaded, use the podcast object given (and returned via callbacks) to access
+ * it. The podcast's episodes only change once the parse succeeded. Large feeds
+ * and podcasts with an episode limit of their own are parsed in bounded mode:
+ * Only the newest episodes are kept and the load stops once we have them, so
+ * large feeds do not fail but end up truncated. If a snapshot store is set and
+ * the podcast has not been loaded before, it is restored from its snapshot
+ * first and handed to the listener marked stale while the feed is loaded.
+ * Each successful parse updates the snapshot. If the feed cannot be loaded,
+ * the listener is alerted of the failure in any case. A restored podcast then
+ * keeps the snapshot's content and stays stale.
+ * 
+ * @see PodcastSnapshotStore
  */
 public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
-    /** Maximum byte size for the RSS file to load */
-    public static final int MAX_RSS_FILE_SIZE = 2000000;
+    /**
+     * Maximum byte size for the RSS file to read. Larger feeds are cut off
+     * here and the podcast is marked truncated.
+     */
+    public static final int MAX_RSS_FILE_SIZE = 12000000;
+    /**
+     * Byte size from which on feeds are parsed in bounded mode even if the
+     * podcast has no episode limit of its own.
+     */
+    public static final int LARGE_RSS_FILE_SIZE = 2000000;
+    /** The number of episodes kept for large feeds without a limit of their own */
+    public static final int DEFAULT_EPISODE_LIMIT = 300;
+
+    /** The progress flag we use to signal the snapshot restored */
+    private static final Progress RESTORED = new Progress(Progress.DONE.getProgress(), -1);
 
     /** Call back */
     private OnLoadPodcastListener listener;
+    /** The snapshot store to use (if any) */
+    private PodcastSnapshotStore snapshots;
 
     /** Podcast currently loading */
     private Podcast podcast;
@@ -56,37 +85,91 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
         this.loadLimit = MAX_RSS_FILE_SIZE;
     }
 
+    /**
+     * Set the snapshot store to use. If set, the podcast will be restored from
+     * its snapshot (if any) and the snapshot is updated after the load.
+     * 
+     * @param snapshots The store to use.
+     */
+    public void setSnapshotStore(PodcastSnapshotStore snapshots) {
+        this.snapshots = snapshots;
+    }
+
     @Override
     protected Void doInBackground(Podcast... podcasts) {
         this.podcast = podcasts[0];
 
         try {
-            // 1. Load the file from the internets
+            // 0. Restore the podcast from its snapshot, so it can be shown
+            // while the feed is loaded (unless it has content already)
+            if (snapshots != null && podcast.getLastLoaded() == null
+                    && snapshots.restore(podcast)) {
+                EpisodeManager.getInstance().loadEpisodeMetadata(podcast);
+                publishProgress(RESTORED);
+            }
+
+            // 1. Open the file from the internets, we parse while loading
+            // and stop reading once we have all the episodes we want
             publishProgress(Progress.CONNECT);
-            byte[] podcastRssFile = loadFile(podcast.getUrl());
+            final long fetchStart = Metrics.start();
+            final RemoteStream feed = openStream(podcast.getUrl());
+            Metrics.record(Timer.FEED_FETCH, fetchStart);
+            final long parseStart = Metrics.start();
+            XmlPullParser parser = null;
 
-            if (isCancelled())
-                return null;
-            else
+            try {
                 publishProgress(Progress.PARSE);
 
-            // 2. Create the parser to use
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            XmlPullParser parser = factory.newPullParser();
-            parser.setInput(new ByteArrayInputStream(podcastRssFile), null);
-
-            // 3. Parse as podcast content
-            if (!isCancelled())
-                podcast.parse(parser);
-
-            // 4. We need to wait here and make sure the episode metadata is
-            // available before we return
-            EpisodeManager.getInstance().blockUntilEpisodeMetadataIsLoaded();
+                // 2. Get the parser to use
+                parser = ParserPool.acquire(true);
+                parser.setInput(feed, null);
+
+                // 3. Parse as podcast content, large feeds (as far as we can
+                // tell) are bounded to the default episode limit
+                int episodeLimit = podcast.getEpisodeLimit();
+                if (episodeLimit <= 0 && (podcast.isTruncated()
+                        || feed.getContentLength() > LARGE_RSS_FILE_SIZE))
+                    episodeLimit = DEFAULT_EPISODE_LIMIT;
+
+                try {
+                    podcast.parse(parser, episodeLimit);
+                } catch (XmlPullParserException e) {
+                    // If the feed was cut off at the load limit, we keep the
+                    // episodes parsed so far
+                    if (!(feed.isLimitReached() && podcast.keepPartialParse()))
+                        throw e;
+                }
+            } finally {
+                ParserPool.release(parser);
+                feed.close();
+            }
+
+            Metrics.record(Timer.FEED_PARSE, parseStart);
+            Metrics.count(Counter.FEEDS_LOADED, 1);
+
+            // Record whether the feed moved, the podcast manager will take
+            // care of the migration
+            podcast.setMovedTo(getMovedTo());
+
+            // Update the snapshot, we are off the main thread anyway
+            if (snapshots != null && !isCancelled())
+                snapshots.write(podcast);
+
+            if (podcast.isTruncated())
+                Log.i(getClass().getSimpleName(), "Podcast \"" + podcast + "\" truncated to "
+                        + podcast.getEpisodeNumber() + " episodes");
+
+            // 4. Make the episode metadata for the podcast available while we
+            // are off the main thread anyway (if it is not there yet, the
+            // result will be held back in onPostExecute)
+            EpisodeManager.getInstance().loadEpisodeMetadata(podcast);
         } catch (Throwable throwable) {
             Log.w(getClass().getSimpleName(), "Load failed for podcast \"" + podcasts[0] + "\"",
                     throwable);
+            Metrics.count(Counter.FEEDS_FAILED, 1);
 
+            // A failed parse does not change the podcast, so a restored
+            // podcast still shows its snapshot, but the load failed anyway
             cancel(true);
         } finally {
             publishProgress(Progress.DONE);
@@ -97,7 +180,9 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
     @Override
     protected void onProgressUpdate(Progress... progress) {
-        if (listener != null)
+        if (progress[0] == RESTORED)
+            deliver();
+        else if (listener != null)
             listener.onPodcastLoadProgress(podcast, progress[0]);
         else if (listener == null)
             Log.w(getClass().getSimpleName(), "Podcast progress update, but no listener attached");
@@ -105,11 +190,7 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
 
     @Override
     protected void onPostExecute(Void nothing) {
-        // Podcast was loaded
-        if (listener != null)
-            listener.onPodcastLoaded(podcast);
-        else
-            Log.w(getClass().getSimpleName(), "Podcast loaded, but no listener attached");
+        deliver();
     }
 
     @Override
@@ -120,4 +201,20 @@ public class LoadPodcastTask extends LoadRemoteFileTask<Podcast, Void> {
         else
             Log.w(getClass().getSimpleName(), "Podcast failed to load, but no listener attached");
     }
+
+    private void deliver() {
+        // Podcast was loaded (or restored), but we can only deliver once the
+        // episode metadata is available, this does not block
+        EpisodeManager.getInstance().runWhenEpisodeMetadataIsLoaded(podcast, new Runnable() {
+
+            @Override
+            public void run() {
+                if (listener != null)
+                    listener.onPodcastLoaded(podcast);
+                else
+                    Log.w(LoadPodcastTask.class.getSimpleName(),
+                            "Podcast loaded, but no listener attached");
+            }
+        });
+    }
 }
@@ -17,18 +17,20 @@
 
 package net.alliknow.podcatcher.model.tasks.remote;
 
-import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
-import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_VALUE;
-
-import android.net.http.HttpResponseCache;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.Log;
 
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Metrics.Counter;
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnections.Timing;
 import net.alliknow.podcatcher.model.types.Progress;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Iterator;
@@ -36,7 +38,9 @@ import java.util.List;
 import java.util.Map.Entry;
 
 /**
- * Abstract super class for file download tasks.
+ * Abstract super class for file download tasks. All connections are created
+ * via the shared {@link HttpConnections} layer and are only disconnected on
+ * failure, so they can be reused.
  * 
  * @param <Params> Params as defined by {@link AsyncTask}
  * @param <Result> Result as defined by {@link AsyncTask}
@@ -49,6 +53,12 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
     protected static final int CONNECT_TIMEOUT = 8000;
     /** The read timeout */
     protected static final int READ_TIMEOUT = 60000;
+    /** The minimum time between two load progress reports in millis */
+    protected static final int PROGRESS_INTERVAL = 250;
+    /** The minimum change in percent for a load progress report */
+    protected static final int PROGRESS_MIN_DELTA = 2;
+    /** The maximum number of redirects we follow */
+    protected static final int MAX_REDIRECTS = 5;
 
     /** The use caches flag set to the http connection before it is opened. */
     protected boolean useCaches;
@@ -70,11 +80,20 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
     /** A file size limit in bytes for the download */
     protected int loadLimit = -1;
 
+    /** The location the file permanently moved to (if the remote said so) */
+    private URL movedTo;
+    /** The number of bytes loaded so far */
+    private volatile int bytesLoaded;
+    /** The percentage last reported */
+    private int lastPercentReported = -1;
+    /** The time progress was last reported */
+    private long lastProgressReport;
+
     /**
      * Set a load limit for the actual download of the file. The default is a
      * negative number, turning off the limit evaluation. If positive and
-     * reached, {@link #loadFile(URL)} below will return <code>null</code>
-     * immediately.
+     * reached, {@link #loadFile(URL)} below will fail immediately, streams
+     * from {@link #openStream(URL)} will end.
      * 
      * @param bytes The limit to set in bytes.
      */
@@ -82,6 +101,23 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
         this.loadLimit = bytes;
     }
 
+    /**
+     * @return The location the file last loaded permanently moved to, i.e.
+     *         where the chain of permanent redirects from the URL asked for
+     *         ended. <code>null</code> if it did not move.
+     */
+    public URL getMovedTo() {
+        return movedTo;
+    }
+
+    /**
+     * @return The number of bytes loaded from remote so far. This is safe to
+     *         call from any thread.
+     */
+    public int getBytesLoaded() {
+        return bytesLoaded;
+    }
+
     /**
      * Download the file and return it as a byte array. Will feed
      * {@link #publishProgress(Object...)}.
@@ -91,31 +127,18 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
      * @throws IOException If something goes wrong.
      */
     protected byte[] loadFile(URL remote) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
-        connection.setConnectTimeout(CONNECT_TIMEOUT);
-        connection.setReadTimeout(READ_TIMEOUT);
-        // Set whether we use the http cache
-        connection.setUseCaches(useCaches);
-        // We set a custom user agent here because some servers (e.g. ZDF.de)
-        // redirect connections from mobile devices to servers where the content
-        // we are looking for might not be available.
-        connection.setRequestProperty(USER_AGENT_KEY, USER_AGENT_VALUE);
-        // Set cache control directive
-        if (maxStale >= 0)
-            connection.addRequestProperty("Cache-Control", "max-stale=" + maxStale);
+        final Request request = connect(remote);
+        final HttpURLConnection connection = request.connection;
 
-        // TODO allow for password protected feeds
-        // String userpass = username + ":" + password;
-        // String basicAuth = "Basic " +
-        // DatatypeCon.encode(userpass.getBytes()));
-        // connection.setRequestProperty ("Authorization", basicAuth);
-
-        BufferedInputStream bufferedRemoteStream = null;
-        ByteArrayOutputStream result = null;
+        InputStream remoteStream = null;
+        ContentBuffer result = null;
+        byte[] buffer = null;
+        // Only a completely read response leaves the connection reusable
+        boolean complete = false;
 
         try {
             // 1. Open stream and check whether we know its length
-            bufferedRemoteStream = new BufferedInputStream(connection.getInputStream());
+            remoteStream = connection.getInputStream();
             final int contentLength = connection.getContentLength();
             // Check whether we should abort load since we have a load limit set
             // and the content length is higher.
@@ -131,16 +154,18 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
 
             // showResponseHeaderDetails(connection);
 
-            // 2. Create the byte buffer to write to
-            result = new ByteArrayOutputStream();
+            // 2. Create the byte buffer to write to, presized if we know what
+            // to expect, and get a read buffer from the pool (we read in large
+            // chunks, so there is no need for another buffered stream)
+            result = new ContentBuffer(isZippedResponse ? -1 : contentLength);
+            buffer = BufferPool.acquire();
             publishProgress(Progress.LOAD);
 
-            byte[] buffer = new byte[1024];
             int bytesRead = 0;
             int totalBytes = 0;
 
             // 3. Read stream and report progress (if possible)
-            while ((bytesRead = bufferedRemoteStream.read(buffer)) > 0) {
+            while ((bytesRead = remoteStream.read(buffer)) > 0) {
                 if (isCancelled())
                     return null;
 
@@ -150,19 +175,24 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
                             " bytes, limit was " + loadLimit + " bytes)!");
 
                 result.write(buffer, 0, bytesRead);
+                Metrics.count(Counter.BYTES_DOWNLOADED, bytesRead);
 
-                if (sendLoadProgress)
-                    publishProgress(new Progress(totalBytes, contentLength));
+                onBytesLoaded(totalBytes, sendLoadProgress ? contentLength : -1);
             }
 
             // 4. Return result as a byte array
-            return result.toByteArray();
+            complete = true;
+            request.timing.finish();
+
+            return result.getContent();
         } finally {
+            BufferPool.release(buffer);
+
             // Close the streams
             // To remote
-            if (bufferedRemoteStream != null)
+            if (remoteStream != null)
                 try {
-                    bufferedRemoteStream.close();
+                    remoteStream.close();
                 } catch (Exception e) {
                     Log.w(getClass().getSimpleName(), "Failed to close remote stream", e);
                 }
@@ -175,11 +205,258 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
                     Log.w(getClass().getSimpleName(), "Failed to close local output stream", e);
                 }
 
-            // Disconnect
-            connection.disconnect();
+            // Disconnect, unless the connection can go back to the pool
+            if (!complete)
+                connection.disconnect();
+        }
+    }
+
+    /**
+     * Open the remote file as a stream to read it bit by bit. The stream will
+     * feed {@link #publishProgress(Object...)} as it is read. Other than
+     * {@link #loadFile(URL)}, this does not fail if the load limit is hit:
+     * The stream simply ends there and flags it. Stop reading whenever you
+     * are done, but make sure to close the stream.
+     * 
+     * @param remote URL connection to load from.
+     * @return The stream, buffered.
+     * @throws IOException If the remote file cannot be opened.
+     */
+    protected RemoteStream openStream(URL remote) throws IOException {
+        final Request request = connect(remote);
+
+        try {
+            final RemoteStream result = new RemoteStream(request.connection, request.timing);
+            publishProgress(Progress.LOAD);
+
+            return result;
+        } catch (IOException e) {
+            request.connection.disconnect();
+
+            throw e;
+        }
+    }
+
+    /** A request connected, with all redirects followed */
+    private static class Request {
+
+        /** The connection for the final response */
+        private final HttpURLConnection connection;
+        /** The final request's timing */
+        private final Timing timing;
+
+        private Request(HttpURLConnection connection, Timing timing) {
+            this.connection = connection;
+            this.timing = timing;
+        }
+    }
+
+    /**
+     * Connect to the given URL and follow all redirects. Known temporary
+     * redirects are skipped, permanent ones are recorded (see
+     * {@link #getMovedTo()}). Redirects downgrading from HTTPS are refused.
+     * 
+     * @param remote URL to connect to.
+     * @return The request for the final response (not a redirect).
+     * @throws IOException If the connection fails or a redirect is refused,
+     *             the connection will be disconnected.
+     */
+    private Request connect(URL remote) throws IOException {
+        URL location = HttpConnections.resolveRedirect(remote);
+        // The file only moved if all redirects from where we started are
+        // permanent, a cached temporary redirect breaks that chain already
+        boolean permanent = location == remote;
+        movedTo = null;
+
+        for (int redirects = 0;; redirects++) {
+            final HttpURLConnection connection = createConnection(location);
+
+            try {
+                final Timing timing = HttpConnections.connect(connection);
+
+                // 1. This is the actual response
+                if (!HttpConnections.isRedirect(connection)) {
+                    // A remembered redirect might have gone stale
+                    if (location != remote && connection.getResponseCode() >= 400)
+                        HttpConnections.forgetRedirect(remote);
+
+                    return new Request(connection, timing);
+                }
+                // 2. We are redirected
+                else if (redirects >= MAX_REDIRECTS)
+                    throw new IOException("Too many redirects for " + remote);
+
+                permanent = permanent && HttpConnections.isPermanentRedirect(connection);
+                location = HttpConnections.followRedirect(connection, timing);
+
+                if (permanent)
+                    movedTo = location;
+            } catch (IOException e) {
+                connection.disconnect();
+                if (location != remote)
+                    HttpConnections.forgetRedirect(remote);
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The stream returned by {@link #openStream(URL)}. It counts the bytes
+     * read, reports progress and ends once the load limit is reached. Closing
+     * it puts the connection back into the pool if the stream was read
+     * completely and disconnects otherwise.
+     */
+    protected class RemoteStream extends FilterInputStream {
+
+        /** The connection the stream is from */
+        private final HttpURLConnection connection;
+        /** The request timing */
+        private final Timing timing;
+        /** The content length as reported by the server */
+        private final int contentLength;
+        /** Flag to indicate whether we can report progress in percent */
+        private final boolean sendLoadProgress;
+        /** Buffer for single byte reads */
+        private final byte[] single = new byte[1];
+
+        /** The number of bytes read so far */
+        private int totalBytes;
+        /** Flag to indicate whether the end of stream was reached */
+        private boolean complete;
+        /** Flag to indicate whether the stream was ended by the load limit */
+        private boolean limitReached;
+
+        private RemoteStream(HttpURLConnection connection, Timing timing) throws IOException {
+            super(new BufferedInputStream(connection.getInputStream()));
+
+            this.connection = connection;
+            this.timing = timing;
+            this.contentLength = connection.getContentLength();
+            // Check whether we could calculate the percentage of completion,
+            // this only works if a content length is given and the content is
+            // not gzipped
+            this.sendLoadProgress = contentLength > 0
+                    && !"gzip".equals(connection.getContentEncoding());
+        }
+
+        /**
+         * @return The number of bytes the stream will deliver as reported by
+         *         the server, -1 if not known (this is also the case for
+         *         gzipped content).
+         */
+        public int getContentLength() {
+            return sendLoadProgress ? contentLength : -1;
+        }
+
+        /**
+         * @return Whether the stream ended because the load limit was reached
+         *         before the end of the remote file.
+         */
+        public boolean isLimitReached() {
+            return limitReached;
+        }
 
-            // reportCacheStats();
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
         }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (isCancelled())
+                throw new InterruptedIOException("Load cancelled");
+            else if (limitReached)
+                return -1;
+
+            final int bytesRead = super.read(buffer, offset, count);
+            if (bytesRead < 0)
+                complete = true;
+            else {
+                totalBytes += bytesRead;
+                // We return what we have and end the stream on the next read
+                limitReached = loadLimit >= 0 && totalBytes > loadLimit;
+                Metrics.count(Counter.BYTES_DOWNLOADED, bytesRead);
+
+                onBytesLoaded(totalBytes, sendLoadProgress ? contentLength : -1);
+            }
+
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Make sure skipped bytes are counted as well
+            final byte[] buffer = BufferPool.acquire();
+
+            try {
+                final int bytesRead = read(buffer, 0, (int) Math.min(count, buffer.length));
+
+                return bytesRead < 0 ? 0 : bytesRead;
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // Disconnect, unless the connection can go back to the pool
+                if (complete)
+                    timing.finish();
+                else
+                    connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Count the bytes loaded and report the progress, but only if it changed
+     * enough and not too often. Each report is a message to the main thread
+     * and we might have a lot of loads running at the same time.
+     * 
+     * @param totalBytes The number of bytes loaded so far.
+     * @param contentLength The content length, -1 if progress cannot be
+     *            given in percent.
+     */
+    private void onBytesLoaded(int totalBytes, int contentLength) {
+        this.bytesLoaded = totalBytes;
+
+        if (contentLength > 0) {
+            final int percent = (int) ((long) totalBytes * 100 / contentLength);
+            final long now = SystemClock.elapsedRealtime();
+
+            // Always report completion, otherwise throttle by time and delta
+            if ((percent >= 100 && lastPercentReported < 100)
+                    || (percent - lastPercentReported >= PROGRESS_MIN_DELTA
+                    && now - lastProgressReport >= PROGRESS_INTERVAL)) {
+                lastPercentReported = percent;
+                lastProgressReport = now;
+
+                publishProgress(Progress.forPercent(percent));
+            }
+        }
+    }
+
+    private HttpURLConnection createConnection(URL remote) throws IOException {
+        final HttpURLConnection connection = HttpConnections.open(remote);
+        // We follow redirects ourselves, see connect()
+        connection.setInstanceFollowRedirects(false);
+        // Set whether we use the http cache
+        connection.setUseCaches(useCaches);
+        // Set cache control directive
+        if (maxStale >= 0)
+            connection.addRequestProperty("Cache-Control", "max-stale=" + maxStale);
+
+        // TODO allow for password protected feeds
+        // String userpass = username + ":" + password;
+        // String basicAuth = "Basic " +
+        // DatatypeCon.encode(userpass.getBytes()));
+        // connection.setRequestProperty ("Authorization", basicAuth);
+
+        return connection;
     }
 
     private void showResponseHeaderDetails(HttpURLConnection connection) {
@@ -194,18 +471,4 @@ public abstract class LoadRemoteFileTask<Params, Result> extends
                 Log.i(getClass().getSimpleName(), " " + value);
         }
     }
-
-    private void reportCacheStats() {
-        HttpResponseCache cache = HttpResponseCache.getInstalled();
-        if (cache != null) {
-            Log.i(getClass().getSimpleName(),
-                    "HTTP cache size: " + cache.size() + " / " + cache.maxSize());
-            Log.i(getClass().getSimpleName(),
-                    "HTTP request count: " + cache.getRequestCount());
-            Log.i(getClass().getSimpleName(),
-                    "HTTP network requests: " + cache.getNetworkCount());
-            Log.i(getClass().getSimpleName(),
-                    "HTTP cache hits: " + cache.getHitCount());
-        }
-    }
 }
@@ -18,9 +18,13 @@
 package net.alliknow.podcatcher.model.tasks.remote;
 
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import net.alliknow.podcatcher.listeners.OnLoadSuggestionListener;
+import net.alliknow.podcatcher.model.SuggestionCatalog;
+import net.alliknow.podcatcher.model.SuggestionIndex;
 import net.alliknow.podcatcher.model.tags.JSON;
 import net.alliknow.podcatcher.model.types.Genre;
 import net.alliknow.podcatcher.model.types.Language;
@@ -28,26 +32,23 @@ import net.alliknow.podcatcher.model.types.MediaType;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
 /**
  * A task that loads and reads suggested podcasts.
  */
-public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, List<Podcast>> {
+public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, SuggestionIndex> {
 
     /** Call back */
     private OnLoadSuggestionListener listener;
@@ -62,6 +63,11 @@ public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, List<Podcast>>
     /** Flag to indicate the max age that would trigger re-load. */
     private int maxAge = 60 * 24 * 7;
 
+    /** The featured suggestions, set once parsed and not yet handed out */
+    private volatile SuggestionIndex featured;
+    /** The last parse progress published in percent */
+    private int parsePercent = -1;
+
     /**
      * Create new task.
      * 
@@ -74,76 +80,71 @@ public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, List<Podcast>>
     }
 
     @Override
-    protected List<Podcast> doInBackground(Void... params) {
-        List<Podcast> result = new ArrayList<Podcast>();
-        byte[] suggestions = null;
+    protected SuggestionIndex doInBackground(Void... params) {
+        final SuggestionCatalog catalog = new SuggestionCatalog(getSuggestionsCatalogFile());
+        List<Podcast> result = null;
 
-        // 1. Load the file from the cache or the Internet
         try {
             publishProgress(Progress.CONNECT);
-            // 1.1 This the simple case where we have the local version and
-            // it is fresh enough. Use that one.
-            if (isCachedLocally() && getCachedLogoAge() <= maxAge)
-                suggestions = restoreSuggestionsFromFileCache();
-            // 1.2 If that is not the case, we need to go over the air.
-            else {
+            // 1. This the simple case where we have the pre-parsed local
+            // version and it is fresh enough. Use that one.
+            if (catalog.exists() && catalog.getAge() <= maxAge)
+                result = restoreSuggestionsFromCatalog(catalog);
+
+            // 2. If that is not the case, we need to go over the air.
+            if (result == null) {
                 // We store a cached version ourselves
                 // useCaches = false;
-                suggestions = loadFile(new URL(SOURCE));
-
-                storeSuggestionsToFileCache(suggestions);
+                final byte[] suggestions = loadFile(new URL(SOURCE));
+                final String version = createVersionTag(suggestions);
+
+                // 2.1 The remote file did not change, no need to parse it
+                if (version.equals(catalog.readVersion()))
+                    result = restoreSuggestionsFromCatalog(catalog);
+
+                if (result != null)
+                    catalog.touch();
+                // 2.2 We got a new version of the file, parse and store it
+                else {
+                    result = parse(suggestions);
+                    if (isCancelled())
+                        return null;
+
+                    storeSuggestionsToCatalog(catalog, result, version);
+                }
             }
         } catch (Throwable throwable) {
-            // Use cached version even if it is stale
-            if (isCachedLocally())
-                try {
-                    suggestions = restoreSuggestionsFromFileCache();
-                } catch (IOException ioe) {
-                    cancel(true);
-                    return null; // Nothing more we could do here
-                }
-            else {
-                Log.w(getClass().getSimpleName(), "Load failed for podcast suggestions file",
-                        throwable);
+            Log.w(getClass().getSimpleName(), "Load failed for podcast suggestions file",
+                    throwable);
 
+            // Use cached version even if it is stale
+            result = restoreSuggestionsFromCatalog(catalog);
+            if (result == null) {
                 cancel(true);
-                return null;
+                return null; // Nothing more we could do here
             }
         }
 
-        // 2. Parse the result
-        try {
-            // 2.1 Get result as a document
-            publishProgress(Progress.PARSE);
-            JSONObject completeJson = new JSONObject(new String(suggestions, SUGGESTIONS_ENCODING));
-            if (isCancelled())
-                return null;
-
-            // 2.2 Add all featured podcasts
-            addSuggestionsFromJsonArray(completeJson.getJSONArray(JSON.FEATURED), result);
-            if (isCancelled())
-                return null;
-
-            // 2.3 Add all suggestions
-            addSuggestionsFromJsonArray(completeJson.getJSONArray(JSON.SUGGESTION), result);
-            if (isCancelled())
-                return null;
-
-            // 2.4 Sort the result
-            Collections.sort(result);
-            publishProgress(Progress.DONE);
-        } catch (Exception e) {
-            Log.w(getClass().getSimpleName(), "Parse failed for podcast suggestions ", e);
-
-            cancel(true);
+        // 3. Build the index the UI filters on
+        if (isCancelled())
             return null;
-        }
 
-        return result;
+        final SuggestionIndex index = new SuggestionIndex(result);
+        publishProgress(Progress.DONE);
+
+        return index;
     }
 
     @Override
     protected void onProgressUpdate(Progress... progress) {
+        // The featured suggestions are available before the complete catalog
+        final SuggestionIndex featuredIndex = featured;
+        if (featuredIndex != null && listener != null) {
+            featured = null;
+
+            listener.onFeaturedSuggestionsLoaded(featuredIndex);
+        }
+
         if (listener != null)
             listener.onSuggestionsLoadProgress(progress[0]);
         else if (listener == null)
@@ -152,7 +153,7 @@ public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, List<Podcast>>
     }
 
     @Override
-    protected void onPostExecute(List<Podcast> suggestions) {
+    protected void onPostExecute(SuggestionIndex suggestions) {
         // Suggestions loaded successfully
         if (listener != null)
             listener.onSuggestionsLoaded(suggestions);
@@ -161,7 +162,7 @@ public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, List<Podcast>>
     }
 
     @Override
-    protected void onCancelled(List<Podcast> suggestions) {
+    protected void onCancelled(SuggestionIndex suggestions) {
         // Suggestions failed to load
         if (listener != null)
             listener.onSuggestionsLoadFailed();
@@ -171,50 +172,142 @@ public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, List<Podcast>>
     }
 
     /**
-     * Add all podcast suggestions in given array to the list.
+     * Parse the suggestions JSON file. This reads the file token by token and
+     * creates the suggestions right away. Publishes progress for the entries
+     * read and makes the featured suggestions available via
+     * {@link #featured} as soon as they are complete.
      * 
-     * @param array JSON array to scan.
-     * @param list List to add suggestions to.
+     * @param suggestions The file content.
+     * @return The suggestions found, sorted.
+     * @throws IOException If the file is not valid JSON or the encoding is
+     *             not supported.
      */
-    private void addSuggestionsFromJsonArray(JSONArray array, List<Podcast> list) {
-        for (int index = 0; index < array.length(); index++) {
-            JSONObject object;
+    private List<Podcast> parse(byte[] suggestions) throws IOException {
+        final List<Podcast> result = new ArrayList<Podcast>();
 
-            try {
-                object = array.getJSONObject(index);
-            } catch (JSONException e) {
-                continue; // If an index fails, try the next one...
+        final ByteArrayInputStream input = new ByteArrayInputStream(suggestions);
+        final JsonReader reader = new JsonReader(new InputStreamReader(input,
+                SUGGESTIONS_ENCODING));
+
+        try {
+            publishProgress(Progress.PARSE);
+            reader.beginObject();
+
+            while (reader.hasNext() && !isCancelled()) {
+                final String name = reader.nextName();
+
+                // 1. Add all featured podcasts, and hand them out right away
+                if (JSON.FEATURED.equals(name)) {
+                    final List<Podcast> featuredList = new ArrayList<Podcast>();
+                    readSuggestions(reader, featuredList, input, suggestions.length);
+                    result.addAll(featuredList);
+
+                    Collections.sort(featuredList);
+                    featured = new SuggestionIndex(featuredList);
+                    publishProgress(Progress.PARSE);
+                }
+                // 2. Add all suggestions
+                else if (JSON.SUGGESTION.equals(name))
+                    readSuggestions(reader, result, input, suggestions.length);
+                else
+                    reader.skipValue();
             }
+        } finally {
+            reader.close();
+        }
+
+        // 3. Sort the result
+        Collections.sort(result);
+
+        return result;
+    }
 
-            Podcast suggestion = createSuggestion(object);
+    /**
+     * Read all podcast suggestions in the JSON array the reader is at and add
+     * them to the list.
+     * 
+     * @param reader The reader positioned at the start of the array.
+     * @param list List to add suggestions to.
+     * @param input The stream the reader works on, used for progress.
+     * @param length The total number of bytes in the stream.
+     * @throws IOException If the JSON is not valid.
+     */
+    private void readSuggestions(JsonReader reader, List<Podcast> list,
+            ByteArrayInputStream input, int length) throws IOException {
+        reader.beginArray();
+
+        while (reader.hasNext() && !isCancelled()) {
+            final Podcast suggestion = readSuggestion(reader);
             if (suggestion != null)
                 list.add(suggestion);
+
+            // Report progress per entry, but only if it actually changed
+            final int position = length - input.available();
+            final int percent = (int) (position * 100L / length);
+            if (percent > parsePercent) {
+                parsePercent = percent;
+                publishProgress(new Progress(position, length));
+            }
         }
+
+        if (!isCancelled())
+            reader.endArray();
     }
 
     /**
-     * Create a podcast suggestion for the given JSON object and set its
-     * properties.
+     * Read the podcast suggestion the reader is at and set its properties.
      * 
-     * @param json The JSON object to work on.
-     * @return The podcast suggestion or <code>null</code> if any problem
-     *         occurs.
+     * @param reader The reader positioned at the start of the object.
+     * @return The podcast suggestion or <code>null</code> if it is incomplete
+     *         or any value is invalid.
+     * @throws IOException If the JSON is not valid.
      */
-    private Podcast createSuggestion(JSONObject json) {
-        Podcast suggestion = null;
+    private Podcast readSuggestion(JsonReader reader) throws IOException {
+        String title = null;
+        String url = null;
+        String description = null;
+        String language = null;
+        String type = null;
+        String category = null;
+
+        // 1. Read all the values we are interested in
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+
+            if (reader.peek() == JsonToken.NULL)
+                reader.nextNull();
+            else if (JSON.TITLE.equals(name))
+                title = reader.nextString();
+            else if (JSON.URL.equals(name))
+                url = reader.nextString();
+            else if (JSON.DESCRIPTION.equals(name))
+                description = reader.nextString();
+            else if (JSON.LANGUAGE.equals(name))
+                language = reader.nextString();
+            else if (JSON.TYPE.equals(name))
+                type = reader.nextString();
+            else if (JSON.CATEGORY.equals(name))
+                category = reader.nextString();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
 
-        try {
-            suggestion = new Podcast(json.getString(JSON.TITLE), new URL(json.getString(JSON.URL)));
-            suggestion.setDescription(json.getString(JSON.DESCRIPTION).trim());
-            suggestion.setLanguage(Language.valueOf(json.getString(JSON.LANGUAGE)
-                    .toUpperCase(Locale.US).trim()));
-            suggestion.setMediaType(MediaType.valueOf(json.getString(JSON.TYPE)
-                    .toUpperCase(Locale.US).trim()));
-            suggestion.setGenre(Genre.valueOf(json.getString(JSON.CATEGORY).toUpperCase(Locale.US)
-                    .trim()));
-        } catch (JSONException e) {
-            Log.w(getClass().getSimpleName(), "JSON parsing failed for: " + suggestion, e);
+        // 2. Create the suggestion
+        if (title == null || url == null || description == null || language == null
+                || type == null || category == null) {
+            Log.w(getClass().getSimpleName(), "JSON incomplete for: " + title);
             return null;
+        }
+
+        Podcast suggestion = null;
+        try {
+            suggestion = new Podcast(title, new URL(url));
+            suggestion.setDescription(description.trim());
+            suggestion.setLanguage(Language.valueOf(language.toUpperCase(Locale.US).trim()));
+            suggestion.setMediaType(MediaType.valueOf(type.toUpperCase(Locale.US).trim()));
+            suggestion.setGenre(Genre.valueOf(category.toUpperCase(Locale.US).trim()));
         } catch (IllegalArgumentException e) {
             Log.w(getClass().getSimpleName(), "Enum value missing for: " + suggestion, e);
             return null;
@@ -226,61 +319,52 @@ public class LoadSuggestionsTask extends LoadRemoteFileTask<Void, List<Podcast>>
         return suggestion;
     }
 
-    private File getSuggestionsCacheFile() {
-        // Create the complete path leading to where we expect the cached file
-        return new File(context.getCacheDir(), "suggestions.json");
-    }
+    private File getSuggestionsCatalogFile() {
+        // The raw JSON file cached by earlier versions is not needed anymore
+        new File(context.getCacheDir(), "suggestions.json").delete();
 
-    private boolean isCachedLocally() {
-        return getSuggestionsCacheFile().exists();
+        // Create the complete path leading to where we expect the catalog
+        return new File(context.getCacheDir(), "suggestions.catalog");
     }
 
-    private int getCachedLogoAge() {
-        if (isCachedLocally())
-            return (int) ((new Date().getTime() - getSuggestionsCacheFile().lastModified())
-            / (60 * 1000)); // Calculate to minutes
-        else
-            return -1;
-    }
+    /**
+     * Create a tag for the given suggestions file that changes whenever the
+     * file content changes.
+     * 
+     * @param suggestions The file content.
+     * @return The tag, a hex hash of the content.
+     * @throws NoSuchAlgorithmException If the hash is not available.
+     */
+    private String createVersionTag(byte[] suggestions) throws NoSuchAlgorithmException {
+        final byte[] hash = MessageDigest.getInstance("SHA-1").digest(suggestions);
+        final StringBuilder result = new StringBuilder(hash.length * 2);
 
-    private byte[] restoreSuggestionsFromFileCache() throws IOException {
-        final File cachedFile = getSuggestionsCacheFile();
-        final byte[] result = new byte[(int) cachedFile.length()];
+        for (byte value : hash)
+            result.append(String.format(Locale.US, "%02x", value));
 
-        FileInputStream input = null;
-        try {
-            input = new FileInputStream(cachedFile);
-            input.read(result);
-        } catch (IOException e) {
-            throw e;
-        } finally {
+        return result.toString();
+    }
+
+    private List<Podcast> restoreSuggestionsFromCatalog(SuggestionCatalog catalog) {
+        if (catalog.exists())
             try {
-                input.close();
-            } catch (Exception e) {
-                // Nothing more we could do here
+                return catalog.read();
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Failed to read suggestions catalog", e);
             }
-        }
 
-        return result;
+        return null;
     }
 
-    private void storeSuggestionsToFileCache(byte[] suggestions) {
+    private void storeSuggestionsToCatalog(SuggestionCatalog catalog, List<Podcast> suggestions,
+            String version) {
         context.getCacheDir().mkdirs();
 
-        FileOutputStream out = null;
         // If this fails, we have no cached version, but that's okay
         try {
-            out = new FileOutputStream(getSuggestionsCacheFile());
-            out.write(suggestions);
-            out.flush();
+            catalog.write(suggestions, version);
         } catch (IOException e) {
-            // pass
-        } finally {
-            try {
-                out.close();
-            } catch (Exception e) {
-                // Nothing more we could do here
-            }
+            Log.w(getClass().getSimpleName(), "Failed to store suggestions catalog", e);
         }
     }
 }
@@ -0,0 +1,65 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.types;
+
+/**
+ * Progress information for a batch of loads, e.g. a refresh of all podcasts.
+ * Progress and total are given in number of items, in addition the number of
+ * bytes loaded for the whole batch is available.
+ */
+public class BatchProgress extends Progress {
+
+    /** The number of bytes loaded for the batch so far */
+    private final long bytes;
+
+    /**
+     * Create new batch progress information.
+     * 
+     * @param done Number of items finished.
+     * @param total Number of items in the batch.
+     * @param bytes Number of bytes loaded so far.
+     */
+    public BatchProgress(int done, int total, long bytes) {
+        super(done, total);
+
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return The number of bytes loaded for the batch so far.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return progress + " of " + total + " (" + bytes + " bytes)";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        // The super class makes sure o is a batch progress as well
+        return super.equals(o) && bytes == ((BatchProgress) o).getBytes();
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + (int) (bytes ^ (bytes >>> 32));
+    }
+}
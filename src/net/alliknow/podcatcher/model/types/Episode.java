@@ -17,10 +17,10 @@
 
 package net.alliknow.podcatcher.model.types;
 
-import android.text.Html;
 import android.util.Log;
 
 import net.alliknow.podcatcher.model.ParserUtils;
+import net.alliknow.podcatcher.model.TextDecoder;
 import net.alliknow.podcatcher.model.tags.RSS;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -92,6 +92,25 @@ public class Episode implements Comparable<Episode> {
             this.pubDate = new Date(pubDate.getTime());
     }
 
+    /**
+     * Create a new episode and set all fields manually, including the
+     * duration.
+     * 
+     * @param podcast Podcast this episode belongs to. Cannot be
+     *            <code>null</code>.
+     * @param name Episode name.
+     * @param mediaUrl The remote URL of this episode.
+     * @param pubDate The publication date.
+     * @param duration The episode's duration in seconds, -1 if not known.
+     * @param description The episode's description.
+     */
+    public Episode(Podcast podcast, String name, URL mediaUrl, Date pubDate, int duration,
+            String description) {
+        this(podcast, name, mediaUrl, pubDate, description);
+
+        this.duration = duration;
+    }
+
     /**
      * @return The owning podcast. This will not be <code>null</code>.
      */
@@ -212,7 +231,7 @@ public class Episode implements Comparable<Episode> {
 
             // Episode title
             if (tagName.equalsIgnoreCase(RSS.TITLE))
-                name = Html.fromHtml(parser.nextText().trim()).toString();
+                name = TextDecoder.decode(parser.nextText().trim());
             // Episode media URL
             else if (tagName.equalsIgnoreCase(RSS.ENCLOSURE)) {
                 mediaUrl = createMediaUrl(parser.getAttributeValue("", RSS.URL));
@@ -40,7 +40,7 @@ public class EpisodeMetadata {
     public Integer resumeAt;
     /** The state information (old/new) for the episode */
     public Boolean isOld;
-    /** The playlist position for the episode */
+    /** The playlist position, only read to migrate older playlists */
     public Integer playlistPosition;
 
     /**
@@ -81,6 +81,34 @@ public class EpisodeMetadata {
                 playlistPosition == null;
     }
 
+    /**
+     * Copy all fields that are set in the given record, but not in this one.
+     * 
+     * @param other The record to take the values from.
+     */
+    public void fillFrom(EpisodeMetadata other) {
+        if (downloadId == null)
+            downloadId = other.downloadId;
+        if (filePath == null)
+            filePath = other.filePath;
+        if (resumeAt == null)
+            resumeAt = other.resumeAt;
+        if (isOld == null)
+            isOld = other.isOld;
+        if (playlistPosition == null)
+            playlistPosition = other.playlistPosition;
+        if (podcastName == null)
+            podcastName = other.podcastName;
+        if (podcastUrl == null)
+            podcastUrl = other.podcastUrl;
+        if (episodeName == null)
+            episodeName = other.episodeName;
+        if (episodePubDate == null)
+            episodePubDate = other.episodePubDate;
+        if (episodeDescription == null)
+            episodeDescription = other.episodeDescription;
+    }
+
     /**
      * Create an actual episode object from the metadata.
      * 
@@ -18,10 +18,10 @@
 package net.alliknow.podcatcher.model.types;
 
 import android.graphics.Bitmap;
-import android.text.Html;
 import android.util.Log;
 
 import net.alliknow.podcatcher.model.ParserUtils;
+import net.alliknow.podcatcher.model.TextDecoder;
 import net.alliknow.podcatcher.model.tags.RSS;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -46,6 +47,8 @@ public class Podcast implements Comparable<Podcast> {
     private String name;
     /** Location of the podcast's RSS file */
     private URL url;
+    /** The location the RSS file permanently moved to (if any) */
+    private URL movedTo;
 
     /** The podcasts list of episodes */
     private List<Episode> episodes = new ArrayList<Episode>();
@@ -66,6 +69,14 @@ public class Podcast implements Comparable<Podcast> {
 
     /** The point in time when the RSS file as last been set */
     private Date updated;
+    /** Flag to indicate whether the content is restored from a snapshot */
+    private boolean stale;
+    /** Flag to indicate whether the feed had more episodes than we kept */
+    private boolean truncated;
+    /** The maximum number of episodes to keep for this podcast */
+    private int episodeLimit = -1;
+    /** The episodes read by the last parse if it failed half-way */
+    private List<Episode> partial;
 
     /**
      * Create a new podcast by name and RSS file location. The name will not be
@@ -97,6 +108,33 @@ public class Podcast implements Comparable<Podcast> {
         return url;
     }
 
+    /**
+     * Change the podcast's online location. Since podcasts are identified by
+     * their location, this changes the podcast's identity and hash code: Take
+     * it out of any hashed collection before calling this.
+     * 
+     * @param url The new location of the podcast's RSS file.
+     */
+    public void setUrl(URL url) {
+        this.url = url;
+    }
+
+    /**
+     * @return The location the podcast's RSS file permanently moved to as
+     *         found on the last load, <code>null</code> if it did not move.
+     */
+    public URL getMovedTo() {
+        return movedTo;
+    }
+
+    /**
+     * @param movedTo The location the podcast's RSS file permanently moved
+     *            to, give <code>null</code> to reset.
+     */
+    public void setMovedTo(URL movedTo) {
+        this.movedTo = movedTo;
+    }
+
     /**
      * @return The description.
      */
@@ -204,47 +242,187 @@ public class Podcast implements Comparable<Podcast> {
         this.logo = logo;
     }
 
+    /**
+     * @return The maximum number of episodes to keep for this podcast, or -1
+     *         if the podcast has no limit of its own.
+     */
+    public int getEpisodeLimit() {
+        return episodeLimit;
+    }
+
+    /**
+     * @param episodeLimit The maximum number of episodes to keep for this
+     *            podcast, give -1 to keep all episodes unless the feed is
+     *            too large.
+     */
+    public void setEpisodeLimit(int episodeLimit) {
+        this.episodeLimit = episodeLimit;
+    }
+
+    /**
+     * @return Whether the podcast's feed had more episodes than were kept
+     *         (or could be read) on the last parse.
+     * @see #parse(XmlPullParser, int)
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Keep the episodes read by the last call to
+     * {@link #parse(XmlPullParser, int)} even though it failed half-way and
+     * mark the podcast's content as truncated. Use this if the feed was cut
+     * off on purpose, but the episodes parsed so far are good to show.
+     * 
+     * @return Whether there were any episodes to keep. If not, the podcast's
+     *         content is not changed.
+     */
+    public boolean keepPartialParse() {
+        final List<Episode> kept = partial;
+        partial = null;
+
+        if (kept == null || kept.isEmpty())
+            return false;
+        else {
+            setContent(kept, true);
+
+            return true;
+        }
+    }
+
     /**
      * Set the RSS file parser representing this podcast. This is were the
      * object gets its information from. Many of its methods will not return
      * valid results unless this method was called. Calling this method also
-     * resets all information read earlier.
+     * resets all information read earlier, but only once the parse succeeded:
+     * Until then, and if it fails, the podcast's episodes stay as they are.
      * 
      * @param parser Parser used to read the RSS/XML file.
      * @throws IOException If we encounter problems read the file.
      * @throws XmlPullParserException On parsing errors.
      */
     public void parse(XmlPullParser parser) throws XmlPullParserException, IOException {
-        // Reset state
-        episodes.clear();
-        updated = new Date();
-
-        // Start parsing
-        int eventType = parser.next();
-
-        // Read complete document
-        while (eventType != XmlPullParser.END_DOCUMENT) {
-            // We only need start tags here
-            if (eventType == XmlPullParser.START_TAG) {
-                String tagName = parser.getName();
-
-                // Podcast name found
-                if (tagName.equalsIgnoreCase(RSS.TITLE))
-                    loadName(parser);
-                // Image found
-                else if (tagName.equalsIgnoreCase(RSS.IMAGE))
-                    loadImage(parser);
-                // Thumbnail found
-                else if (tagName.equalsIgnoreCase(RSS.THUMBNAIL))
-                    loadThumbnail(parser);
-                // Episode found
-                else if (tagName.equalsIgnoreCase(RSS.ITEM))
-                    loadEpisode(parser);
+        parse(parser, -1);
+    }
+
+    /**
+     * Parse the podcast, but only keep the newest episodes. Most feeds list
+     * their episodes newest first: In that case, parsing stops as soon as the
+     * episode after the last one to keep is found and the rest of the file is
+     * never read. Otherwise, the complete file is parsed, keeping the newest
+     * episodes seen. If any episodes are dropped, the podcast is marked
+     * truncated. If the parse fails on malformed input, the podcast does not
+     * change, but the episodes read so far can be kept via
+     * {@link #keepPartialParse()}.
+     * 
+     * @param parser Parser used to read the RSS/XML file.
+     * @param maxEpisodes The number of episodes to keep, give a number <= 0
+     *            to keep all of them.
+     * @throws IOException If we encounter problems read the file.
+     * @throws XmlPullParserException On parsing errors.
+     * @see #parse(XmlPullParser)
+     * @see #isTruncated()
+     * @see #keepPartialParse()
+     */
+    public void parse(XmlPullParser parser, int maxEpisodes) throws XmlPullParserException,
+            IOException {
+        // The episodes are collected in a list of their own and only replace
+        // the current ones once we are done, the podcast might be on display
+        final List<Episode> parsed = new ArrayList<Episode>();
+        boolean cut = false;
+        boolean newestFirst = true;
+        partial = null;
+
+        try {
+            // Start parsing
+            int eventType = parser.next();
+
+            // Read complete document
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                // We only need start tags here
+                if (eventType == XmlPullParser.START_TAG) {
+                    String tagName = parser.getName();
+
+                    // Podcast name found
+                    if (tagName.equalsIgnoreCase(RSS.TITLE))
+                        loadName(parser);
+                    // Image found
+                    else if (tagName.equalsIgnoreCase(RSS.IMAGE))
+                        loadImage(parser);
+                    // Thumbnail found
+                    else if (tagName.equalsIgnoreCase(RSS.THUMBNAIL))
+                        loadThumbnail(parser);
+                    // Episode found
+                    else if (tagName.equalsIgnoreCase(RSS.ITEM)) {
+                        // We have all we need from a newest first feed
+                        if (maxEpisodes > 0 && newestFirst && parsed.size() >= maxEpisodes) {
+                            cut = true;
+                            break;
+                        }
+
+                        final Episode episode = loadEpisode(parser);
+                        if (episode != null) {
+                            // Check whether the feed still looks like newest first
+                            if (!parsed.isEmpty()) {
+                                final Episode last = parsed.get(parsed.size() - 1);
+                                newestFirst &= episode.getPubDate() != null
+                                        && last.getPubDate() != null
+                                        && !episode.getPubDate().after(last.getPubDate());
+                            }
+
+                            parsed.add(episode);
+
+                            // Drop the oldest episode if we have too many
+                            if (maxEpisodes > 0 && parsed.size() > maxEpisodes) {
+                                parsed.remove(Collections.max(parsed));
+                                cut = true;
+                            }
+                        }
+                    }
+                }
+
+                // Done, get next parsing event
+                eventType = parser.next();
             }
+        } catch (XmlPullParserException e) {
+            partial = parsed;
 
-            // Done, get next parsing event
-            eventType = parser.next();
+            throw e;
         }
+
+        setContent(parsed, cut);
+    }
+
+    /**
+     * Set this podcast's content from a snapshot of an earlier parse. The
+     * podcast will be marked stale until {@link #parse(XmlPullParser)} is
+     * called. The name is only used if none is set.
+     * 
+     * @param name The podcast's name from the snapshot.
+     * @param logoUrl The logo location from the snapshot.
+     * @param loaded The point in time the snapshot's content was parsed.
+     * @param episodes The episodes from the snapshot, these need to belong to
+     *            this podcast.
+     * @see #isStale()
+     */
+    public void restore(String name, URL logoUrl, Date loaded, List<Episode> episodes) {
+        if (this.name == null)
+            this.name = name;
+        if (this.logoUrl == null)
+            this.logoUrl = logoUrl;
+
+        this.episodes = new ArrayList<Episode>(episodes);
+        this.updated = new Date(loaded.getTime());
+        this.stale = true;
+    }
+
+    /**
+     * @return Whether the podcast's content was restored from a snapshot and
+     *         not yet revalidated by parsing the feed.
+     * @see #restore(String, URL, Date, List)
+     */
+    public boolean isStale() {
+        return stale;
     }
 
     /**
@@ -303,7 +481,7 @@ public class Podcast implements Comparable<Podcast> {
     private void loadName(XmlPullParser parser) throws XmlPullParserException, IOException {
         // Only update the name if not set
         if (name == null)
-            name = Html.fromHtml(parser.nextText().trim()).toString();
+            name = TextDecoder.decode(parser.nextText().trim());
     }
 
     private void loadImage(XmlPullParser parser) throws XmlPullParserException, IOException {
@@ -352,13 +530,21 @@ public class Podcast implements Comparable<Podcast> {
         return null;
     }
 
-    private void loadEpisode(XmlPullParser parser) throws XmlPullParserException, IOException {
+    private Episode loadEpisode(XmlPullParser parser) throws XmlPullParserException,
+            IOException {
         // Create episode and parse the data
         Episode newEpisode = new Episode(this);
         newEpisode.parse(parser);
 
-        // Only add if there is some actual content to play
-        if (newEpisode.getMediaUrl() != null)
-            episodes.add(newEpisode);
+        // Only use if there is some actual content to play
+        return newEpisode.getMediaUrl() == null ? null : newEpisode;
+    }
+
+    private void setContent(List<Episode> parsed, boolean cut) {
+        // Swap in the new list as a whole, readers only ever copy it
+        this.episodes = parsed;
+        this.updated = new Date();
+        this.stale = false;
+        this.truncated = cut;
     }
 }
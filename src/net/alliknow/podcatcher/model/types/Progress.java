@@ -46,6 +46,13 @@ public class Progress {
     /** Done state */
     public static final Progress DONE = new Progress(PROGRESS_DONE, -1);
 
+    /** The shared instances for all percentages, see {@link #forPercent(int)} */
+    private static final Progress[] PERCENTAGES = new Progress[101];
+    static {
+        for (int percent = 0; percent < PERCENTAGES.length; percent++)
+            PERCENTAGES[percent] = new Progress(percent, 100);
+    }
+
     /** The actual amount of progress made */
     protected final int progress;
     /** The total amount of work */
@@ -62,6 +69,18 @@ public class Progress {
         this.total = total;
     }
 
+    /**
+     * Get the progress information for a percentage. This does not allocate,
+     * the instances returned are shared.
+     * 
+     * @param percent The amount of work done in percent, values out of range
+     *            are clamped to 0 and 100.
+     * @return The progress information.
+     */
+    public static Progress forPercent(int percent) {
+        return PERCENTAGES[Math.max(0, Math.min(100, percent))];
+    }
+
     /**
      * @return The amount of work already done.
      */
@@ -114,7 +133,8 @@ public class Progress {
     public boolean equals(Object o) {
         if (this == o)
             return true;
-        else if (!(o instanceof Progress))
+        // Subclasses add fields, so only compare instances of the same class
+        else if (o == null || getClass() != o.getClass())
             return false;
 
         Progress other = (Progress) o;
@@ -0,0 +1,70 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Podcatcher;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Dumps the {@link Metrics} to the log and to {@link Podcatcher#getMetricsFile()}.
+ * Trigger from a shell via
+ * <code>adb shell am broadcast -a com.podcatcher.deluxe.action.DUMP_METRICS</code>.
+ * The receiver is protected by the DUMP permission, so normal apps cannot
+ * send this.
+ */
+public class MetricsDumpReceiver extends BroadcastReceiver {
+
+    /** The action to dump metrics */
+    public static final String ACTION_DUMP_METRICS = "com.podcatcher.deluxe.action.DUMP_METRICS";
+
+    /** Our log tag */
+    private static final String TAG = "Metrics";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (ACTION_DUMP_METRICS.equals(intent.getAction())) {
+            final File file = ((Podcatcher) context.getApplicationContext()).getMetricsFile();
+            final PendingResult result = goAsync();
+
+            // Do not write to disk on the main thread
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        Log.i(TAG, Metrics.dump());
+                        Metrics.export(file);
+                        Log.i(TAG, "Metrics written to " + file.getAbsolutePath());
+                    } catch (IOException e) {
+                        Log.w(TAG, "Cannot dump metrics", e);
+                    } finally {
+                        result.finish();
+                    }
+                }
+            }, TAG).start();
+        }
+    }
+}
@@ -23,11 +23,14 @@ import static android.media.RemoteControlClient.PLAYSTATE_PAUSED;
 import static android.media.RemoteControlClient.PLAYSTATE_PLAYING;
 import static android.media.RemoteControlClient.PLAYSTATE_STOPPED;
 
+import android.annotation.TargetApi;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.media.AudioManager;
 import android.media.AudioManager.OnAudioFocusChangeListener;
@@ -40,6 +43,7 @@ import android.media.MediaPlayer.OnPreparedListener;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiManager.WifiLock;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.preference.PreferenceManager;
@@ -47,15 +51,14 @@ import android.util.Log;
 
 import net.alliknow.podcatcher.SettingsActivity;
 import net.alliknow.podcatcher.listeners.OnChangePlaylistListener;
+import net.alliknow.podcatcher.listeners.OnPlaybackProgressListener;
 import net.alliknow.podcatcher.listeners.PlayServiceListener;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.types.Episode;
 
+import java.io.IOException;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * Play an episode service, wraps media player. This class implements an Android
@@ -63,7 +66,16 @@ import java.util.TimerTask;
  * the complexity of the media player support in Android. All methods should
  * fail gracefully. Connect (bind) to the service from your activity/fragment
  * and/or send intent actions to use it. For even more interaction, implement
- * {@link PlayServiceListener}.
+ * {@link PlayServiceListener}.<br />
+ * When the current episode nears its end and there is another episode waiting
+ * on the playlist, a second media player is prepared for it ahead of time
+ * (look-ahead). On completion, playback is handed over to this player without
+ * the gap caused by releasing and preparing. On Jelly Bean and later, the
+ * players are chained using {@link MediaPlayer#setNextMediaPlayer(MediaPlayer)}.<br />
+ * Episodes not downloaded are streamed through the {@link StreamCacheProxy},
+ * so seeks into parts already loaded and replays do not hit the network.<br />
+ * All regular work during playback (notification progress, look-ahead, UI
+ * updates in bound activities) is driven by a single {@link PlaybackClock}.
  */
 public class PlayEpisodeService extends Service implements OnPreparedListener,
         OnCompletionListener, OnErrorListener, OnBufferingUpdateListener,
@@ -101,6 +113,13 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
     /** Are we bound to any activity ? */
     private boolean bound = false;
 
+    /** The episode prepared ahead of time (look-ahead) */
+    private Episode nextEpisode;
+    /** The media player for the look-ahead episode */
+    private MediaPlayer nextPlayer;
+    /** Is the look-ahead player prepared ? */
+    private boolean nextPrepared = false;
+
     /** Our audio manager handle */
     private AudioManager audioManager;
     /** Our becoming noisy broadcast receiver */
@@ -113,11 +132,13 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
     private WifiLock wifiLock;
     /** Our notification helper */
     private PlayEpisodeNotification notification;
+    /** Our caching proxy for streamed episodes */
+    private StreamCacheProxy cacheProxy;
 
-    /** Play update timer for notification */
-    private Timer playUpdateTimer = new Timer();
-    /** Play update timer task for notification */
-    private TimerTask playUpdateTimerTask;
+    /** The playback clock driving all progress updates */
+    private PlaybackClock clock;
+    /** The progress step currently shown in the notification */
+    private int notificationStep = -1;
 
     /** Our notification id (does not really matter) */
     private static final int NOTIFICATION_ID = 123;
@@ -125,6 +146,21 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
     private static final int SKIP_AMOUNT = 3;
     /** The volume we duck playback to */
     private static final float DUCK_VOLUME = 0.1f;
+    /** The interval to check the notification progress at in millis */
+    private static final int NOTIFICATION_INTERVAL = 1000;
+    /** The number of steps the notification progress bar can show */
+    private static final int NOTIFICATION_STEPS = 500;
+    /** The interval to check whether we need to look ahead in millis */
+    private static final int LOOK_AHEAD_INTERVAL = 5000;
+    /** The interval to checkpoint the playback position at in millis */
+    private static final int CHECKPOINT_INTERVAL = 15000;
+    /** The seconds before the end we prepare the next local episode */
+    private static final int LOOK_AHEAD_LOCAL = 15;
+    /**
+     * The seconds before the end we prepare the next remote episode, this
+     * leaves time to buffer its first seconds
+     */
+    private static final int LOOK_AHEAD_REMOTE = 60;
 
     /** The call-back set for the play service listeners */
     private Set<PlayServiceListener> listeners = new HashSet<PlayServiceListener>();
@@ -169,6 +205,24 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
         episodeManager.addPlaylistListener(this);
         // Our notification helper
         notification = PlayEpisodeNotification.getInstance(this);
+
+        // Create the clock and subscribe our own tasks
+        clock = new PlaybackClock(this);
+        clock.addSubscriber(notificationUpdater, NOTIFICATION_INTERVAL);
+        clock.addSubscriber(lookAheadChecker, LOOK_AHEAD_INTERVAL);
+        clock.addSubscriber(resumeCheckpointer, CHECKPOINT_INTERVAL);
+        // Screen state broadcasts are only send to registered receivers
+        final IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenReceiver, screenFilter);
+
+        // Start the caching proxy, if this fails we stream directly
+        cacheProxy = new StreamCacheProxy(this);
+        try {
+            cacheProxy.start();
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Cannot start stream cache proxy", e);
+        }
     }
 
     @Override
@@ -239,8 +293,11 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
 
         // Unregister listener
         episodeManager.removePlaylistListener(this);
-        // Stop the timer
-        playUpdateTimer.cancel();
+        // Stop the clock
+        clock.stop();
+        unregisterReceiver(screenReceiver);
+        // Stop the proxy
+        cacheProxy.shutdown();
 
         // Disable broadcast receivers
         disableReceiver(noisyReceiver);
@@ -265,6 +322,28 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
         listeners.remove(listener);
     }
 
+    /**
+     * Register a listener to be called regularly while an episode plays. Use
+     * this instead of running your own timer.
+     * 
+     * @param listener Listener to add.
+     * @param interval Interval in millis the listener would like to be called
+     *            at (this is stretched while the screen is off).
+     * @see PlaybackClock
+     */
+    public void addPlaybackProgressListener(OnPlaybackProgressListener listener, int interval) {
+        clock.addSubscriber(listener, interval);
+    }
+
+    /**
+     * Unregister a playback progress listener.
+     * 
+     * @param listener Listener to remove.
+     */
+    public void removePlaybackProgressListener(OnPlaybackProgressListener listener) {
+        clock.removeSubscriber(listener);
+    }
+
     /**
      * Load and start playback for given episode. Will end any current playback.
      * 
@@ -285,10 +364,13 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
                 // Play local file
                 if (episodeManager.isDownloaded(episode))
                     player.setDataSource(episodeManager.getLocalPath(episode));
-                // Need to resort to remote file
+                // Need to resort to remote file (through our cache)
                 else {
-                    player.setDataSource(episode.getMediaUrl().toString());
-                    wifiLock.acquire();
+                    player.setDataSource(cacheProxy.getProxyUrl(episode.getMediaUrl()));
+
+                    // No need for wifi if the episode is cached completely
+                    if (!cacheProxy.isCached(episode.getMediaUrl()))
+                        wifiLock.acquire();
                 }
 
                 player.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
@@ -303,10 +385,9 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
      * Play the next episode in the playlist. Does nothing if there is none.
      */
     public void playNext() {
-        final List<Episode> playlist = episodeManager.getPlaylist();
+        final Episode next = episodeManager.getPlaylistHead();
 
-        if (!playlist.isEmpty()) {
-            Episode next = playlist.get(0);
+        if (next != null) {
             // This will be done again on onPrepared but we what the UI to
             // update immediately on user action and it does no harm.
             episodeManager.removeFromPlaylist(next);
@@ -317,6 +398,10 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
 
     @Override
     public void onPlaylistChanged() {
+        // The look-ahead episode might not be up next anymore
+        if (nextEpisode != null && !nextEpisode.equals(episodeManager.getPlaylistHead()))
+            releaseNextPlayer();
+
         rebuildNotification();
     }
 
@@ -328,8 +413,9 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
             Log.d(getClass().getSimpleName(), "Called pause without setting episode");
         else if (prepared && isPlaying()) {
             player.pause();
+            episodeManager.checkpointResumeAt(currentEpisode, player.getCurrentPosition());
 
-            stopPlayProgressTimer();
+            clock.stop();
             updateRemoteControlPlaystate(PLAYSTATE_PAUSED);
             rebuildNotification();
         }
@@ -346,7 +432,7 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
         else if (prepared && !isPlaying()) {
             player.start();
 
-            startPlayProgressTimer();
+            clock.start();
             updateRemoteControlPlaystate(PLAYSTATE_PLAYING);
             rebuildNotification();
         }
@@ -457,7 +543,7 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
             player.seekTo(episodeManager.getResumeAt(currentEpisode));
             player.start();
             startForeground(NOTIFICATION_ID, notification.build(currentEpisode));
-            startPlayProgressTimer();
+            clock.start();
 
             // Pop the episode off the playlist
             episodeManager.removeFromPlaylist(currentEpisode);
@@ -513,15 +599,25 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
         if (shouldAutoDeleteCompletedEpisode(currentEpisode))
             episodeManager.deleteDownload(currentEpisode);
 
-        // If there is another episode on the playlist, play it.
-        if (!episodeManager.isPlaylistEmpty())
-            playNext();
-        else {
-            reset();
-            stopSelfIfUnboundAndIdle();
+        // If the next episode is prepared already, switch over. The listeners
+        // need to hear about the completion before the next episode starts.
+        if (nextPrepared && nextEpisode.equals(episodeManager.getPlaylistHead())) {
+            alertPlaybackComplete();
+            switchToNextPlayer();
+        } else {
+            // If there is another episode on the playlist, play it.
+            if (!episodeManager.isPlaylistEmpty())
+                playNext();
+            else {
+                reset();
+                stopSelfIfUnboundAndIdle();
+            }
+
+            alertPlaybackComplete();
         }
+    }
 
-        // Alert listeners
+    private void alertPlaybackComplete() {
         if (listeners.size() > 0)
             for (PlayServiceListener listener : listeners)
                 listener.onPlaybackComplete();
@@ -597,6 +693,7 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
         this.currentEpisode = null;
         this.prepared = false;
         this.buffering = false;
+        this.notificationStep = -1;
 
         // Release resources
         audioManager.abandonAudioFocus(this);
@@ -608,13 +705,158 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
 
         // Remove notification
         stopForeground(true);
-        stopPlayProgressTimer();
+        clock.stop();
 
         // Release player
         if (player != null) {
             player.release();
             player = null;
         }
+        releaseNextPlayer();
+    }
+
+    /**
+     * Prepare the next episode on the playlist in a second media player if the
+     * current episode is about to end.
+     */
+    private void prepareNextIfNearEnd() {
+        // Nothing to do if already prepared or nothing to play next
+        if (!prepared || nextPlayer != null || episodeManager.isPlaylistEmpty())
+            return;
+
+        final Episode next = episodeManager.getPlaylistHead();
+        final boolean remote = !episodeManager.isDownloaded(next);
+        final int remaining = getDuration() - getCurrentPosition();
+
+        if (next != null && !next.equals(currentEpisode) && getDuration() > 0
+                && remaining <= (remote ? LOOK_AHEAD_REMOTE : LOOK_AHEAD_LOCAL))
+            try {
+                this.nextEpisode = next;
+                this.nextPlayer = new MediaPlayer();
+
+                nextPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+                nextPlayer.setOnPreparedListener(lookAheadListener);
+                nextPlayer.setOnErrorListener(lookAheadListener);
+
+                // Preparing a remote episode will buffer its first seconds
+                if (remote) {
+                    nextPlayer.setDataSource(cacheProxy.getProxyUrl(next.getMediaUrl()));
+                    if (!wifiLock.isHeld() && !cacheProxy.isCached(next.getMediaUrl()))
+                        wifiLock.acquire();
+                }
+                else
+                    nextPlayer.setDataSource(episodeManager.getLocalPath(next));
+
+                nextPlayer.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
+                nextPlayer.prepareAsync();
+            } catch (Exception e) {
+                Log.w(getClass().getSimpleName(), "Look-ahead failed for episode: " + next, e);
+
+                releaseNextPlayer();
+            }
+    }
+
+    /** The listener for the look-ahead player */
+    private LookAheadListener lookAheadListener = new LookAheadListener();
+
+    /** Call-back for the look-ahead player's preparation */
+    private class LookAheadListener implements OnPreparedListener, OnErrorListener {
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            // Player might have been released in the meantime
+            if (mp == nextPlayer) {
+                nextPrepared = true;
+
+                mp.seekTo(episodeManager.getResumeAt(nextEpisode));
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                    chainNextPlayer(nextPlayer);
+            }
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            // No harm done, we will simply prepare the episode on completion
+            Log.w(getClass().getSimpleName(), "Look-ahead player send error: " + what + "/"
+                    + extra);
+
+            if (mp == nextPlayer)
+                releaseNextPlayer();
+
+            return true;
+        }
+    }
+
+    /**
+     * Make the look-ahead player the current one. This keeps audio focus,
+     * notification and receivers in place.
+     */
+    private void switchToNextPlayer() {
+        final MediaPlayer completed = player;
+        storeResumeAt();
+
+        this.player = nextPlayer;
+        this.currentEpisode = nextEpisode;
+        this.nextPlayer = null;
+        this.nextEpisode = null;
+        this.nextPrepared = false;
+        this.notificationStep = -1;
+
+        // Hook up the new player and release the old one
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        player.setOnInfoListener(this);
+        player.setOnBufferingUpdateListener(this);
+        completed.release();
+
+        // When chained, the new player started all by itself
+        if (!player.isPlaying())
+            player.start();
+        if (hasFocus)
+            player.setVolume(1.0f, 1.0f);
+
+        // Only hold the wifi lock when streaming
+        if ((episodeManager.isDownloaded(currentEpisode)
+                || cacheProxy.isCached(currentEpisode.getMediaUrl())) && wifiLock.isHeld())
+            wifiLock.release();
+
+        // Update remote control and notification for the new episode
+        audioManager.unregisterRemoteControlClient(remoteControlClient);
+        updateAudioManager();
+        updateRemoteControlPlaystate(PLAYSTATE_PLAYING);
+        startForeground(NOTIFICATION_ID, notification.build(currentEpisode));
+
+        // Pop the episode off the playlist
+        episodeManager.removeFromPlaylist(currentEpisode);
+
+        for (PlayServiceListener listener : listeners)
+            listener.onPlaybackStarted();
+    }
+
+    private void releaseNextPlayer() {
+        if (nextPlayer != null) {
+            // Unchain the player, so playback does not continue with it
+            if (nextPrepared && player != null
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                chainNextPlayer(null);
+
+            nextPlayer.release();
+        }
+
+        this.nextPlayer = null;
+        this.nextEpisode = null;
+        this.nextPrepared = false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void chainNextPlayer(MediaPlayer next) {
+        try {
+            player.setNextMediaPlayer(next);
+        } catch (IllegalStateException ise) {
+            // Current player is not ready to be chained, we will switch over
+            // on completion instead
+        }
     }
 
     private void storeResumeAt() {
@@ -651,22 +893,50 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
         player.setOnBufferingUpdateListener(this);
     }
 
-    private void startPlayProgressTimer() {
-        // Only start task if it isn't already running
-        if (playUpdateTimerTask == null) {
-            final TimerTask task = new TimerTask() {
+    /** Updates the notification progress if the displayed value changes */
+    private OnPlaybackProgressListener notificationUpdater = new OnPlaybackProgressListener() {
 
-                @Override
-                public void run() {
-                    startForeground(NOTIFICATION_ID,
-                            notification.updateProgress(getCurrentPosition(), getDuration()));
-                }
-            };
+        @Override
+        public void onPlaybackProgress(int position, int duration) {
+            // Use long arithmetic, the product overflows for long episodes
+            final int step = duration > 0 ?
+                    (int) ((long) position * NOTIFICATION_STEPS / duration) : 0;
 
-            playUpdateTimer.schedule(task, 1000, 1000);
-            playUpdateTimerTask = task;
+            if (step != notificationStep) {
+                notificationStep = step;
+
+                startForeground(NOTIFICATION_ID, notification.updateProgress(position, duration));
+            }
         }
-    }
+    };
+
+    /** Prepares the next episode when the current one nears its end */
+    private OnPlaybackProgressListener lookAheadChecker = new OnPlaybackProgressListener() {
+
+        @Override
+        public void onPlaybackProgress(int position, int duration) {
+            prepareNextIfNearEnd();
+        }
+    };
+
+    /** Regularly stores the playback position, in case we are killed */
+    private OnPlaybackProgressListener resumeCheckpointer = new OnPlaybackProgressListener() {
+
+        @Override
+        public void onPlaybackProgress(int position, int duration) {
+            if (prepared && currentEpisode != null)
+                episodeManager.checkpointResumeAt(currentEpisode, player.getCurrentPosition());
+        }
+    };
+
+    /** Slows down the clock while the screen is off */
+    private BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            clock.setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
 
     private void rebuildNotification() {
         if (isPrepared() && currentEpisode != null)
@@ -675,13 +945,6 @@ public class PlayEpisodeService extends Service implements OnPreparedListener,
                             getDuration()));
     }
 
-    private void stopPlayProgressTimer() {
-        if (playUpdateTimerTask != null) {
-            playUpdateTimerTask.cancel();
-            playUpdateTimerTask = null;
-        }
-    }
-
     private void stopSelfIfUnboundAndIdle() {
         if (!bound && currentEpisode == null) {
             stopSelf();
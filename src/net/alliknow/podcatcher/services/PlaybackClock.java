@@ -0,0 +1,176 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.services;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import net.alliknow.podcatcher.listeners.OnPlaybackProgressListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The single clock ticking while the {@link PlayEpisodeService} plays an
+ * episode. Subscribers register with the update interval they need, the clock
+ * reads the playback position once per tick (on the main thread) and only
+ * calls subscribers that are due. While the screen is off, all intervals are
+ * stretched to at least {@link #SCREEN_OFF_INTERVAL}. The clock does not tick
+ * at all while stopped.
+ */
+public class PlaybackClock {
+
+    /** The minimum interval used while the screen is off in millis */
+    public static final int SCREEN_OFF_INTERVAL = 10000;
+
+    /** The service we get the playback position from */
+    private final PlayEpisodeService service;
+    /** The handler we post ticks to */
+    private final Handler handler = new Handler();
+
+    /** The subscribers mapped to their interval in millis */
+    private final Map<OnPlaybackProgressListener, Integer> subscribers =
+            new HashMap<OnPlaybackProgressListener, Integer>();
+    /** The time each subscriber was called last */
+    private final Map<OnPlaybackProgressListener, Long> lastCalled =
+            new HashMap<OnPlaybackProgressListener, Long>();
+
+    /** Flag indicating whether the clock is running */
+    private boolean running = false;
+    /** Flag indicating whether the screen is on */
+    private boolean screenOn = true;
+
+    /**
+     * Create a new clock, it will not run until {@link #start()} is called.
+     * 
+     * @param service The service to get playback position and duration from.
+     */
+    public PlaybackClock(PlayEpisodeService service) {
+        this.service = service;
+    }
+
+    /**
+     * Add a subscriber or change its interval. It will be called on the next
+     * tick.
+     * 
+     * @param listener Listener to call.
+     * @param interval Interval to call the listener at in millis.
+     */
+    public void addSubscriber(OnPlaybackProgressListener listener, int interval) {
+        subscribers.put(listener, interval);
+        lastCalled.remove(listener);
+
+        // Make sure the new interval is respected
+        reschedule(0);
+    }
+
+    /**
+     * Remove a subscriber.
+     * 
+     * @param listener Listener to remove.
+     */
+    public void removeSubscriber(OnPlaybackProgressListener listener) {
+        subscribers.remove(listener);
+        lastCalled.remove(listener);
+    }
+
+    /**
+     * Start the clock (playback started or resumed). Does nothing if already
+     * running.
+     */
+    public void start() {
+        if (!running) {
+            running = true;
+
+            reschedule(0);
+        }
+    }
+
+    /**
+     * Stop the clock (playback paused or stopped).
+     */
+    public void stop() {
+        running = false;
+
+        handler.removeCallbacks(tick);
+    }
+
+    /**
+     * Set whether the screen is on. While off, the clock ticks less often.
+     * 
+     * @param screenOn The screen state.
+     */
+    public void setScreenOn(boolean screenOn) {
+        this.screenOn = screenOn;
+
+        // Wake up right away to catch up with the fast intervals
+        if (screenOn)
+            reschedule(0);
+    }
+
+    /** The actual tick */
+    private final Runnable tick = new Runnable() {
+
+        @Override
+        public void run() {
+            if (running && !subscribers.isEmpty()) {
+                final long now = SystemClock.elapsedRealtime();
+                final int position = service.getCurrentPosition();
+                final int duration = service.getDuration();
+
+                // Copy entries, subscribers might unregister when called
+                final Map<OnPlaybackProgressListener, Integer> due =
+                        new HashMap<OnPlaybackProgressListener, Integer>(subscribers);
+
+                for (Entry<OnPlaybackProgressListener, Integer> entry : due.entrySet()) {
+                    final Long last = lastCalled.get(entry.getKey());
+
+                    // Allow a little jitter, the tick might run a bit early
+                    if (last == null || now - last >= getInterval(entry.getValue()) - 50) {
+                        lastCalled.put(entry.getKey(), now);
+                        entry.getKey().onPlaybackProgress(position, duration);
+                    }
+                }
+            }
+
+            reschedule(getTickInterval());
+        }
+    };
+
+    private void reschedule(long delay) {
+        // No need to tick if nobody is interested
+        if (running && !subscribers.isEmpty()) {
+            handler.removeCallbacks(tick);
+            handler.postDelayed(tick, delay);
+        }
+    }
+
+    private int getTickInterval() {
+        int result = Integer.MAX_VALUE;
+
+        for (Integer interval : subscribers.values())
+            result = Math.min(result, getInterval(interval));
+
+        return result;
+    }
+
+    private int getInterval(int interval) {
+        return screenOn ? interval : Math.max(interval, SCREEN_OFF_INTERVAL);
+    }
+}
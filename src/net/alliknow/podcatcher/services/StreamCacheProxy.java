@@ -0,0 +1,434 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.services;
+
+import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_KEY;
+import static net.alliknow.podcatcher.Podcatcher.USER_AGENT_VALUE;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.alliknow.podcatcher.model.StreamCacheFile;
+import net.alliknow.podcatcher.model.tasks.remote.BufferPool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A caching proxy for streamed episodes. This runs a minimal HTTP server on the
+ * loopback interface the media player connects to instead of the remote host.
+ * All bytes loaded from the remote host are teed to a {@link StreamCacheFile},
+ * so seeks into ranges already loaded and replays are served from the local
+ * cache without going over the air again. Each connection holds the cache file
+ * only while it is served, so the file is closed once the player moves on.
+ * Other apps can connect to the loopback interface as well, so the proxy only
+ * serves the media files handed out via {@link #getProxyUrl(URL)} and only
+ * under a path with a random token created on {@link #start()}. Any other
+ * request is answered with 403.
+ */
+public class StreamCacheProxy implements Runnable {
+
+    /** The connection timeout */
+    private static final int CONNECT_TIMEOUT = 8000;
+    /** The read timeout */
+    private static final int READ_TIMEOUT = 60000;
+    /** The number of bytes loaded between storing the cache ranges */
+    private static final int STORE_RANGES_INTERVAL = 1024 * 1024;
+    /** The default content type if the remote does not send one */
+    private static final String DEFAULT_CONTENT_TYPE = "audio/mpeg";
+
+    /** The context we run in */
+    private final Context context;
+    /** Our server socket */
+    private ServerSocket socket;
+    /** The random path prefix for this run of the proxy */
+    private String token;
+    /** The remote media files handed out for this run of the proxy */
+    private final Set<String> issued = new HashSet<String>();
+
+    /**
+     * Create a new proxy, this will not start listening for connections. Call
+     * {@link #start()} to do so.
+     * 
+     * @param context The context to use for the cache files.
+     */
+    public StreamCacheProxy(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Start the proxy. Does nothing if already running.
+     * 
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public synchronized void start() throws IOException {
+        if (socket == null) {
+            socket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            token = new BigInteger(128, new SecureRandom()).toString(Character.MAX_RADIX);
+
+            final Thread thread = new Thread(this, getClass().getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the proxy. Connections still served will close their cache files
+     * when they end.
+     */
+    public synchronized void shutdown() {
+        if (socket != null)
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more we can do here
+            }
+        socket = null;
+        issued.clear();
+    }
+
+    /**
+     * Get the URL to give to the media player for the given remote media file.
+     * 
+     * @param remote The remote media file.
+     * @return The local URL to load from or the remote URL if the proxy is not
+     *         running.
+     */
+    public synchronized String getProxyUrl(URL remote) {
+        if (socket == null)
+            return remote.toString();
+
+        try {
+            final String url = "http://127.0.0.1:" + socket.getLocalPort() + "/" + token
+                    + "/stream?url=" + URLEncoder.encode(remote.toString(), "UTF-8");
+            issued.add(remote.toString());
+
+            return url;
+        } catch (UnsupportedEncodingException e) {
+            return remote.toString();
+        }
+    }
+
+    /**
+     * Check whether the given media file is completely available from the
+     * cache, i.e. playing it will not need any network connection.
+     * 
+     * @param remote The remote media file.
+     * @return <code>true</code> iff the file is cached completely.
+     */
+    public boolean isCached(URL remote) {
+        return StreamCacheFile.isComplete(context, remote);
+    }
+
+    @Override
+    public void run() {
+        ServerSocket server;
+        while ((server = socket) != null && !server.isClosed())
+            try {
+                final Socket client = server.accept();
+
+                new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                }).start();
+            } catch (IOException e) {
+                // Socket closed, we are done
+            }
+    }
+
+    private void serve(Socket client) {
+        StreamCacheFile cache = null;
+
+        try {
+            // 1. Read the request, the range is either "bytes=start-[end]" or
+            // "bytes=-suffix", we always serve to the end of the file
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    client.getInputStream(), "ISO-8859-1"));
+            final String[] request = reader.readLine().split(" ");
+            long start = 0;
+            long suffix = -1;
+            boolean rangeRequest = false;
+
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0)
+                if (line.toLowerCase().startsWith("range:")) {
+                    final String range = line.substring(6).trim();
+
+                    if (range.startsWith("bytes=") && range.indexOf('-') > 0) {
+                        final String first = range.substring(6, range.indexOf('-')).trim();
+
+                        if (first.length() > 0)
+                            start = Long.parseLong(first);
+                        else
+                            suffix = Long.parseLong(range.substring(range.indexOf('-') + 1)
+                                    .trim());
+                        rangeRequest = true;
+                    }
+                }
+
+            // 2. Only serve what we handed out
+            final URL remote = getIssuedUrl(request);
+            final OutputStream out = client.getOutputStream();
+            final StringBuilder headers = new StringBuilder();
+            if (remote == null) {
+                headers.append("HTTP/1.1 403 Forbidden\r\n");
+                headers.append("Connection: close\r\n\r\n");
+                out.write(headers.toString().getBytes("ISO-8859-1"));
+                out.flush();
+
+                return;
+            }
+            cache = StreamCacheFile.acquire(context, remote);
+
+            // 3. Make sure we know the length, this might need a connection
+            HttpURLConnection upstream = null;
+            if (suffix >= 0 && cache.getLength() < 0)
+                upstream = openUpstream(remote, 0, cache);
+            if (suffix >= 0) {
+                start = Math.max(0, cache.getLength() - suffix);
+
+                // We need to go on from a different position
+                if (upstream != null && start > 0) {
+                    upstream.disconnect();
+                    upstream = null;
+                }
+            }
+            if (upstream == null && (cache.getLength() < 0
+                    || !cache.isComplete() && cache.available(start) == 0))
+                upstream = openUpstream(remote, start, cache);
+
+            // 4. Send the headers
+            final long length = cache.getLength();
+            if (length >= 0 && start >= length && start > 0) {
+                // Nothing there to send
+                if (upstream != null)
+                    upstream.disconnect();
+
+                headers.append("HTTP/1.1 416 Requested Range Not Satisfiable\r\n");
+                headers.append("Content-Range: bytes */").append(length).append("\r\n");
+                headers.append("Connection: close\r\n\r\n");
+                out.write(headers.toString().getBytes("ISO-8859-1"));
+                out.flush();
+
+                return;
+            }
+
+            // Without a length, the range we send is what the remote sends
+            final String contentRange;
+            if (!rangeRequest)
+                contentRange = null;
+            else if (length >= 0)
+                contentRange = "bytes " + start + "-" + (length - 1) + "/" + length;
+            else if (start == 0)
+                contentRange = null;
+            else if (upstream.getHeaderField("Content-Range") != null)
+                contentRange = upstream.getHeaderField("Content-Range");
+            else {
+                upstream.disconnect();
+                throw new IOException("Remote did not send a content range for " + remote);
+            }
+
+            headers.append(contentRange != null ? "HTTP/1.1 206 Partial Content\r\n"
+                    : "HTTP/1.1 200 OK\r\n");
+            headers.append("Content-Type: ").append(cache.getContentType() == null ?
+                    DEFAULT_CONTENT_TYPE : cache.getContentType()).append("\r\n");
+            headers.append("Accept-Ranges: bytes\r\n");
+            headers.append("Connection: close\r\n");
+            if (length >= 0)
+                headers.append("Content-Length: ").append(length - start).append("\r\n");
+            if (contentRange != null)
+                headers.append("Content-Range: ").append(contentRange).append("\r\n");
+            headers.append("\r\n");
+            out.write(headers.toString().getBytes("ISO-8859-1"));
+
+            // 5. Send the body
+            if (!"HEAD".equals(request[0]))
+                sendBody(remote, cache, upstream, start, out);
+            else if (upstream != null)
+                upstream.disconnect();
+
+            out.flush();
+        } catch (SocketException se) {
+            // Media player closed the connection, e.g. because of a seek
+        } catch (Exception e) {
+            Log.w(getClass().getSimpleName(), "Failed to serve stream", e);
+        } finally {
+            if (cache != null)
+                cache.release();
+
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Nothing more we can do here
+            }
+        }
+    }
+
+    /**
+     * @return The remote media file the request line asks for or
+     *         <code>null</code> if the request is not for a file handed out by
+     *         {@link #getProxyUrl(URL)} while the proxy runs.
+     */
+    private synchronized URL getIssuedUrl(String[] request) throws IOException {
+        final String prefix = "/" + token + "/stream?url=";
+        if (socket == null || request.length < 2 || !request[1].startsWith(prefix))
+            return null;
+
+        final String remote = URLDecoder.decode(request[1].substring(prefix.length()), "UTF-8");
+        return issued.contains(remote) ? new URL(remote) : null;
+    }
+
+    /**
+     * Send bytes from the cache where available, fill the gaps from the remote
+     * host (teeing them to the cache).
+     */
+    private void sendBody(URL remote, StreamCacheFile cache, HttpURLConnection upstream,
+            long position, OutputStream out) throws IOException {
+        final byte[] buffer = BufferPool.acquire();
+
+        try {
+            while (cache.getLength() < 0 || position < cache.getLength()) {
+                final long available = cache.available(position);
+
+                // 1. Serve from cache
+                if (available > 0) {
+                    if (upstream != null) {
+                        upstream.disconnect();
+                        upstream = null;
+                    }
+
+                    final int count = (int) Math.min(available, buffer.length);
+                    cache.read(position, buffer, 0, count);
+                    out.write(buffer, 0, count);
+                    position += count;
+                }
+                // 2. Get missing bytes from remote
+                else {
+                    if (upstream == null)
+                        upstream = openUpstream(remote, position, cache);
+
+                    final long end = loadUpstream(upstream, cache, position, out, buffer);
+                    // End of stream reached
+                    if (end == position)
+                        break;
+
+                    position = end;
+                }
+            }
+        } finally {
+            BufferPool.release(buffer);
+
+            if (upstream != null)
+                upstream.disconnect();
+
+            cache.storeRanges();
+        }
+    }
+
+    /**
+     * Copy bytes from the remote connection to the cache and the player until
+     * we reach a position already cached or the stream ends.
+     * 
+     * @return The position reached.
+     */
+    private long loadUpstream(HttpURLConnection upstream, StreamCacheFile cache, long position,
+            OutputStream out, byte[] buffer) throws IOException {
+        final InputStream in = upstream.getInputStream();
+        long sinceStored = 0;
+
+        while (cache.available(position) == 0) {
+            final int read = in.read(buffer);
+            if (read < 0)
+                break;
+
+            cache.write(position, buffer, 0, read);
+            out.write(buffer, 0, read);
+            position += read;
+
+            sinceStored += read;
+            if (sinceStored >= STORE_RANGES_INTERVAL) {
+                cache.storeRanges();
+                sinceStored = 0;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Open a connection to the remote host, asking for all bytes from the
+     * given position on. This also updates the cache's length and type.
+     */
+    private HttpURLConnection openUpstream(URL remote, long position, StreamCacheFile cache)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) remote.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setRequestProperty(USER_AGENT_KEY, USER_AGENT_VALUE);
+        connection.setRequestProperty("Cache-Control", "no-store");
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (position > 0)
+            connection.setRequestProperty("Range", "bytes=" + position + "-");
+
+        final int code = connection.getResponseCode();
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            // Content-Range is "bytes start-end/total"
+            final String range = connection.getHeaderField("Content-Range");
+            if (range != null && range.indexOf('/') > 0 && !range.endsWith("*"))
+                cache.setLength(Long.parseLong(range.substring(range.indexOf('/') + 1).trim()));
+        }
+        else if (code == HttpURLConnection.HTTP_OK) {
+            // We cannot deal with servers ignoring our range request
+            if (position > 0) {
+                connection.disconnect();
+                throw new IOException("Remote does not support range requests");
+            }
+
+            final String length = connection.getHeaderField("Content-Length");
+            if (length != null)
+                cache.setLength(Long.parseLong(length.trim()));
+        }
+        else {
+            connection.disconnect();
+            throw new IOException("Unexpected response code " + code);
+        }
+
+        cache.setContentType(connection.getContentType());
+        return connection;
+    }
+}
@@ -22,6 +22,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Metrics.Timer;
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.types.Episode;
@@ -88,6 +90,7 @@ public class EpisodeListAdapter extends PodcatcherBaseListAdapter {
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        final long start = Metrics.start();
         // Get the return view (possibly recycle a used one)
         View listItemView = findReturnView(convertView, parent, R.layout.episode_list_item);
 
@@ -104,6 +107,7 @@ public class EpisodeListAdapter extends PodcatcherBaseListAdapter {
         // Update the icons to show for this episode
         updateIcons(listItemView, episode);
 
+        Metrics.record(Timer.EPISODE_LIST_BIND, start);
         return listItemView;
     }
 
@@ -26,6 +26,8 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Metrics.Timer;
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.model.EpisodeManager;
 import net.alliknow.podcatcher.model.PodcastManager;
@@ -92,6 +94,7 @@ public class PodcastListAdapter extends PodcatcherBaseListAdapter {
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        final long start = Metrics.start();
         // Get the return view (possibly recycle a used one)
         View listItemView = findReturnView(convertView, parent, R.layout.podcast_list_item);
 
@@ -121,6 +124,7 @@ public class PodcastListAdapter extends PodcatcherBaseListAdapter {
         progressView.setVisibility(podcastManager.isLoading(podcast)
                 && selectAll ? VISIBLE : GONE);
 
+        Metrics.record(Timer.PODCAST_LIST_BIND, start);
         return listItemView;
     }
 
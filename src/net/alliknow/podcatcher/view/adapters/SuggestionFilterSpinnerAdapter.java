@@ -38,6 +38,8 @@ public abstract class SuggestionFilterSpinnerAdapter extends PodcatcherBaseAdapt
      * sorting in different languages.
      */
     protected final TreeMap<String, Object> values = new TreeMap<String, Object>();
+    /** The number of suggestions per value, indexed by enum ordinal */
+    protected int[] counts;
 
     /**
      * Create the adapter.
@@ -48,6 +50,19 @@ public abstract class SuggestionFilterSpinnerAdapter extends PodcatcherBaseAdapt
         super(context);
     }
 
+    /**
+     * Set the number of suggestions available for each filter value. These
+     * will be shown next to the value's label.
+     * 
+     * @param counts The counts indexed by the enum's ordinal. Give
+     *            <code>null</code> to not show any counts.
+     */
+    public void setCounts(int[] counts) {
+        this.counts = counts;
+
+        notifyDataSetChanged();
+    }
+
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         return getLabel(position, convertView, parent, false);
@@ -72,8 +87,11 @@ public abstract class SuggestionFilterSpinnerAdapter extends PodcatcherBaseAdapt
         // Apply the appropriate text label
         if (position == 0)
             result.setText(resources.getString(R.string.wildcard));
-        else
+        else if (counts == null)
             result.setText((String) values.keySet().toArray()[position - 1]);
+        else
+            result.setText(values.keySet().toArray()[position - 1] + " ("
+                    + counts[((Enum<?>) getItem(position)).ordinal()] + ")");
 
         return result;
     }
@@ -54,6 +54,17 @@ public class SuggestionListAdapter extends PodcastListAdapter {
         this.listener = listener;
     }
 
+    /**
+     * Replace the suggestions shown by this adapter and redraw the list.
+     * 
+     * @param suggestions List of podcasts (suggestions) to wrap.
+     */
+    public void updateList(List<Podcast> suggestions) {
+        this.list = suggestions;
+
+        notifyDataSetChanged();
+    }
+
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         // Create the return view (this should not be recycled)
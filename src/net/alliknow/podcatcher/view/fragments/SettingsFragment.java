@@ -17,25 +17,35 @@
 
 package net.alliknow.podcatcher.view.fragments;
 
+import android.app.AlertDialog;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.preference.Preference;
+import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.View;
 import android.widget.BaseAdapter;
+import android.widget.Toast;
 
+import net.alliknow.podcatcher.Metrics;
+import net.alliknow.podcatcher.Podcatcher;
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.SettingsActivity;
 import net.alliknow.podcatcher.preferences.DownloadFolderPreference;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
- * Fragment for settings.
+ * Fragment for settings. In debug mode, there are extra entries to show and
+ * dump the {@link Metrics}.
  */
 public class SettingsFragment extends PreferenceFragment implements
-        OnSharedPreferenceChangeListener {
+        OnSharedPreferenceChangeListener, OnPreferenceClickListener {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -43,6 +53,13 @@ public class SettingsFragment extends PreferenceFragment implements
 
         // Load the preferences from an XML resource
         addPreferencesFromResource(R.xml.preferences);
+        // Add the debug entries if needed
+        if (((Podcatcher) getActivity().getApplication()).isInDebugMode()) {
+            addPreferencesFromResource(R.xml.preferences_debug);
+
+            findPreference(SettingsActivity.SHOW_METRICS_KEY).setOnPreferenceClickListener(this);
+            findPreference(SettingsActivity.DUMP_METRICS_KEY).setOnPreferenceClickListener(this);
+        }
         // Register this fragment to listen to preference changes
         PreferenceManager.getDefaultSharedPreferences(getActivity())
                 .registerOnSharedPreferenceChangeListener(this);
@@ -80,6 +97,20 @@ public class SettingsFragment extends PreferenceFragment implements
         }
     }
 
+    @Override
+    public boolean onPreferenceClick(Preference preference) {
+        if (SettingsActivity.SHOW_METRICS_KEY.equals(preference.getKey()))
+            new AlertDialog.Builder(getActivity())
+                    .setTitle(R.string.pref_show_metrics_title)
+                    .setMessage(Metrics.dump())
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+        else if (SettingsActivity.DUMP_METRICS_KEY.equals(preference.getKey()))
+            dumpMetrics();
+
+        return true;
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -88,4 +119,35 @@ public class SettingsFragment extends PreferenceFragment implements
         PreferenceManager.getDefaultSharedPreferences(getActivity())
                 .unregisterOnSharedPreferenceChangeListener(this);
     }
+
+    private void dumpMetrics() {
+        // Use the application context, we might be gone once the file is written
+        final Podcatcher app = (Podcatcher) getActivity().getApplication();
+        final File file = app.getMetricsFile();
+
+        new AsyncTask<Void, Void, Boolean>() {
+
+            @Override
+            protected Boolean doInBackground(Void... nothing) {
+                try {
+                    Metrics.export(file);
+
+                    return true;
+                } catch (IOException e) {
+                    Log.w(SettingsFragment.class.getSimpleName(), "Cannot dump metrics", e);
+
+                    return false;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Boolean written) {
+                final String message = written ?
+                        app.getString(R.string.pref_dump_metrics_done, file.getAbsolutePath()) :
+                        app.getString(R.string.pref_dump_metrics_failed);
+
+                Toast.makeText(app, message, Toast.LENGTH_LONG).show();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 }
@@ -26,19 +26,23 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.graphics.Rect;
 import android.os.Bundle;
+import android.text.Editable;
 import android.text.Html;
+import android.text.TextWatcher;
 import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.Spinner;
 import android.widget.TextView;
 
 import net.alliknow.podcatcher.R;
 import net.alliknow.podcatcher.listeners.OnAddSuggestionListener;
+import net.alliknow.podcatcher.model.SuggestionIndex;
 import net.alliknow.podcatcher.model.types.Genre;
 import net.alliknow.podcatcher.model.types.Language;
 import net.alliknow.podcatcher.model.types.MediaType;
@@ -48,9 +52,10 @@ import net.alliknow.podcatcher.view.ProgressView;
 import net.alliknow.podcatcher.view.adapters.GenreSpinnerAdapter;
 import net.alliknow.podcatcher.view.adapters.LanguageSpinnerAdapter;
 import net.alliknow.podcatcher.view.adapters.MediaTypeSpinnerAdapter;
+import net.alliknow.podcatcher.view.adapters.SuggestionFilterSpinnerAdapter;
 import net.alliknow.podcatcher.view.adapters.SuggestionListAdapter;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Locale;
 
@@ -69,9 +74,15 @@ public class SuggestionFragment extends DialogFragment {
 
     /** The call back we work on */
     private OnAddSuggestionListener listener;
-    /** The list of suggestions to show */
-    private List<Podcast> suggestionList;
-
+    /** The index of suggestions to show */
+    private SuggestionIndex suggestions;
+    /** The suggestions not to show (because they are already added) */
+    private BitSet hiddenSuggestions;
+    /** The adapter for the suggestions list view */
+    private SuggestionListAdapter suggestionListAdapter;
+
+    /** The search field */
+    private EditText searchField;
     /** The language filter */
     private Spinner languageFilter;
     /** The genre filter */
@@ -108,6 +119,25 @@ public class SuggestionFragment extends DialogFragment {
         }
     };
 
+    /** The listener to update the list on search text change */
+    private final TextWatcher searchListener = new TextWatcher() {
+
+        @Override
+        public void onTextChanged(CharSequence text, int start, int before, int count) {
+            updateList();
+        }
+
+        @Override
+        public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            // pass
+        }
+
+        @Override
+        public void afterTextChanged(Editable text) {
+            // pass
+        }
+    };
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -142,6 +172,9 @@ public class SuggestionFragment extends DialogFragment {
     public void onViewCreated(View view, Bundle savedInstanceState) {
         getDialog().setTitle(R.string.suggested_podcasts);
 
+        searchField = (EditText) view.findViewById(R.id.suggestion_search);
+        searchField.addTextChangedListener(searchListener);
+
         languageFilter = (Spinner) view.findViewById(R.id.suggestion_language_select);
         languageFilter.setAdapter(new LanguageSpinnerAdapter(getActivity()));
         languageFilter.setOnItemSelectedListener(selectionListener);
@@ -157,6 +190,7 @@ public class SuggestionFragment extends DialogFragment {
         progressView = (ProgressView) view.findViewById(R.id.suggestion_list_progress);
 
         suggestionsListView = (ListView) view.findViewById(R.id.suggestion_podcasts);
+        suggestionListAdapter = null;
         noSuggestionsView = (TextView) view.findViewById(R.id.suggestion_none);
 
         sendSuggestionView = (TextView) view.findViewById(R.id.suggestion_send);
@@ -181,6 +215,7 @@ public class SuggestionFragment extends DialogFragment {
         super.onResume();
 
         // The list might have changed while we were paused
+        updateFilterCounts();
         updateList();
     }
 
@@ -201,17 +236,22 @@ public class SuggestionFragment extends DialogFragment {
     }
 
     /**
-     * Set list of suggestions to show and update the UI.
+     * Set the suggestions to show and update the UI.
      * 
-     * @param suggestions Podcasts to show.
+     * @param suggestions Podcast suggestions to show.
+     * @param hidden Positions in the suggestion index not to show, e.g.
+     *            because the podcast is already added.
      */
-    public void setList(List<Podcast> suggestions) {
-        // Set the list to show
-        this.suggestionList = suggestions;
+    public void setSuggestions(SuggestionIndex suggestions, BitSet hidden) {
+        // Set the suggestions to show
+        this.suggestions = suggestions;
+        this.hiddenSuggestions = hidden;
 
         // Filter list and update UI (if ready)
-        if (isResumed())
+        if (isResumed()) {
+            updateFilterCounts();
             updateList();
+        }
     }
 
     /**
@@ -251,19 +291,40 @@ public class SuggestionFragment extends DialogFragment {
         mediaTypeFilter.setSelection(1);
     }
 
+    private void updateFilterCounts() {
+        if (suggestions != null) {
+            ((SuggestionFilterSpinnerAdapter) languageFilter.getAdapter())
+                    .setCounts(suggestions.getLanguageCounts(hiddenSuggestions));
+            ((SuggestionFilterSpinnerAdapter) genreFilter.getAdapter())
+                    .setCounts(suggestions.getGenreCounts(hiddenSuggestions));
+            ((SuggestionFilterSpinnerAdapter) mediaTypeFilter.getAdapter())
+                    .setCounts(suggestions.getMediaTypeCounts(hiddenSuggestions));
+        }
+    }
+
     private void updateList() {
-        // Filter the suggestion list
-        if (suggestionList != null) {
-            // Resulting list
-            List<Podcast> filteredSuggestionList = new ArrayList<Podcast>();
-            // Do filter!
-            for (Podcast suggestion : suggestionList)
-                if (matchesFilter(suggestion))
-                    filteredSuggestionList.add(suggestion);
-
-            // Set filtered list
-            suggestionsListView.setAdapter(new SuggestionListAdapter(getActivity(),
-                    filteredSuggestionList, listener));
+        // Filter the suggestions
+        if (suggestions != null) {
+            // Intersect the pre-computed filter buckets
+            final BitSet matches = suggestions.getMatching(
+                    (Language) getFilterValue(languageFilter),
+                    (Genre) getFilterValue(genreFilter),
+                    (MediaType) getFilterValue(mediaTypeFilter),
+                    searchField.getText().toString());
+            matches.andNot(hiddenSuggestions);
+
+            final List<Podcast> filteredSuggestionList = suggestions.getSuggestions(matches);
+
+            // Set filtered list, keep the adapter and list view state if
+            // possible
+            if (suggestionListAdapter == null) {
+                suggestionListAdapter = new SuggestionListAdapter(getActivity(),
+                        filteredSuggestionList, listener);
+                suggestionsListView.setAdapter(suggestionListAdapter);
+            }
+            else
+                suggestionListAdapter.updateList(filteredSuggestionList);
+
             // Update UI
             if (filteredSuggestionList.isEmpty()) {
                 suggestionsListView.setVisibility(GONE);
@@ -279,17 +340,13 @@ public class SuggestionFragment extends DialogFragment {
     }
 
     /**
-     * Checks whether the given podcast matches the filter selection.
+     * Get the selected value of the given filter.
      * 
-     * @param suggestion Podcast to check.
-     * @return <code>true</code> if the podcast fits.
+     * @param filter Spinner to check.
+     * @return The enum value selected or <code>null</code> if the wildcard is
+     *         selected.
      */
-    private boolean matchesFilter(Podcast suggestion) {
-        return (languageFilter.getSelectedItemPosition() == 0 ||
-                ((Language) languageFilter.getSelectedItem()).equals(suggestion.getLanguage())) &&
-                (genreFilter.getSelectedItemPosition() == 0 ||
-                ((Genre) genreFilter.getSelectedItem()).equals(suggestion.getGenre())) &&
-                (mediaTypeFilter.getSelectedItemPosition() == 0 ||
-                ((MediaType) mediaTypeFilter.getSelectedItem()).equals(suggestion.getMediaType()));
+    private Object getFilterValue(Spinner filter) {
+        return filter.getSelectedItemPosition() <= 0 ? null : filter.getSelectedItem();
     }
 }
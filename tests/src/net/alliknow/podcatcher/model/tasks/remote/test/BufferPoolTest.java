@@ -0,0 +1,167 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote.test;
+
+import android.os.Debug;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.tasks.remote.BufferPool;
+import net.alliknow.podcatcher.model.tasks.remote.ContentBuffer;
+import net.alliknow.podcatcher.model.tasks.remote.LoadRemoteFileTask;
+import net.alliknow.podcatcher.model.test.LocalHttpServer;
+import net.alliknow.podcatcher.model.test.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+@SuppressWarnings("javadoc")
+public class BufferPoolTest extends TestCase {
+
+    private static final int FILE_SIZE = 256 * 1024;
+    private static final int RUNS = 50;
+
+    private static class Loader extends LoadRemoteFileTask<Void, Void> {
+
+        public byte[] load(URL remote) throws IOException {
+            return loadFile(remote);
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            return null;
+        }
+    }
+
+    public final void testAcquireRelease() {
+        final byte[] buffer = BufferPool.acquire();
+        assertEquals(BufferPool.BUFFER_SIZE, buffer.length);
+
+        BufferPool.release(buffer);
+        assertSame(buffer, BufferPool.acquire());
+
+        // Foreign buffers are not pooled
+        BufferPool.release(new byte[42]);
+        assertEquals(BufferPool.BUFFER_SIZE, BufferPool.acquire().length);
+    }
+
+    public final void testContentBuffer() {
+        final byte[] content = Utils.createContent(1000);
+
+        // Presized correctly: no copy
+        ContentBuffer buffer = new ContentBuffer(content.length);
+        buffer.write(content, 0, content.length);
+        assertTrue(Arrays.equals(content, buffer.getContent()));
+        assertSame(buffer.getContent(), buffer.getContent());
+
+        // Length unknown or wrong
+        buffer = new ContentBuffer(-1);
+        buffer.write(content, 0, content.length);
+        assertTrue(Arrays.equals(content, buffer.getContent()));
+
+        buffer = new ContentBuffer(10);
+        buffer.write(content, 0, content.length);
+        assertTrue(Arrays.equals(content, buffer.getContent()));
+    }
+
+    public final void testLoadAllocations() throws Exception {
+        final byte[] content = Utils.createContent(FILE_SIZE);
+        final LocalHttpServer server = new LocalHttpServer(content);
+
+        try {
+            final URL url = server.getUrl("/feed.xml");
+            final Loader loader = new Loader();
+            // Warm up
+            assertTrue(Arrays.equals(content, loader.load(url)));
+            assertTrue(Arrays.equals(content, loadUnpooled(url)));
+
+            // The way remote files used to be loaded
+            final long unpooled = measure(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        loadUnpooled(url);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            final int allocations = BufferPool.getAllocationCount();
+            final long pooled = measure(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        loader.load(url);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            // Only report, the counters are global and other threads might
+            // allocate or take buffers meanwhile, see the JVM benchmark
+            Log.i(getClass().getSimpleName(), RUNS + " loads of " + FILE_SIZE
+                    + " bytes, allocated " + unpooled + " bytes unpooled, " + pooled
+                    + " bytes pooled, " + (BufferPool.getAllocationCount() - allocations)
+                    + " buffers allocated by the pool");
+            assertTrue(Arrays.equals(content, loader.load(url)));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static long measure(Runnable runnable) {
+        Debug.resetGlobalAllocSize();
+        Debug.startAllocCounting();
+
+        try {
+            for (int run = 0; run < RUNS; run++)
+                runnable.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        return Debug.getGlobalAllocSize();
+    }
+
+    private static byte[] loadUnpooled(URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        final InputStream in = new BufferedInputStream(connection.getInputStream());
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                out.write(buffer, 0, read);
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
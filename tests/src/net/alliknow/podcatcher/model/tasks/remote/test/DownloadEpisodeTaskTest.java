@@ -0,0 +1,251 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote.test;
+
+import android.test.InstrumentationTestCase;
+
+import net.alliknow.podcatcher.listeners.OnDownloadEpisodeFileListener;
+import net.alliknow.podcatcher.model.tasks.remote.DownloadEpisodeTask;
+import net.alliknow.podcatcher.model.test.LocalHttpServer;
+import net.alliknow.podcatcher.model.test.Utils;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Podcast;
+import net.alliknow.podcatcher.model.types.Progress;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+@SuppressWarnings("javadoc")
+public class DownloadEpisodeTaskTest extends InstrumentationTestCase {
+
+    private static final int SMALL = 300 * 1024;
+    private static final int LARGE = 5 * 1024 * 1024;
+
+    private CountDownLatch signal = null;
+
+    private File folder;
+    private File destination;
+
+    private class MockDownloader implements OnDownloadEpisodeFileListener {
+
+        protected File result;
+        protected boolean failed;
+
+        @Override
+        public void onEpisodeFileDownloadProgress(Episode episode, Progress progress) {
+            // System.out.println(progress);
+        }
+
+        @Override
+        public void onEpisodeFileDownloaded(Episode episode, File file) {
+            this.result = file;
+            this.failed = false;
+
+            signal.countDown();
+        }
+
+        @Override
+        public void onEpisodeFileDownloadFailed(Episode episode) {
+            this.result = null;
+            this.failed = true;
+
+            signal.countDown();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = new File(getInstrumentation().getTargetContext().getCacheDir(), "downloadTest");
+        folder.mkdirs();
+
+        destination = new File(folder, "episode.mp3");
+        destination.delete();
+        new File(destination.getPath() + DownloadEpisodeTask.PARTIAL_SUFFIX).delete();
+        new File(destination.getPath() + DownloadEpisodeTask.PARTIAL_SUFFIX
+                + DownloadEpisodeTask.STATE_SUFFIX).delete();
+    }
+
+    public final void testDownloadSmallFile() throws Throwable {
+        final byte[] content = Utils.createContent(SMALL);
+        final LocalHttpServer server = new LocalHttpServer(content);
+
+        try {
+            final MockDownloader mockDownloader = new MockDownloader();
+            downloadAndWait(mockDownloader, server);
+
+            assertFalse(mockDownloader.failed);
+            assertTrue(Arrays.equals(content, read(mockDownloader.result)));
+            assertEquals(0, server.getRangeRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public final void testDownloadSegmented() throws Throwable {
+        final byte[] content = Utils.createContent(LARGE);
+        final LocalHttpServer server = new LocalHttpServer(content);
+
+        try {
+            final MockDownloader mockDownloader = new MockDownloader();
+            downloadAndWait(mockDownloader, server);
+
+            assertFalse(mockDownloader.failed);
+            assertTrue(Arrays.equals(content, read(mockDownloader.result)));
+            assertTrue(server.getRangeRequestCount() > 1);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public final void testDownloadFlakyConnection() throws Throwable {
+        final byte[] content = Utils.createContent(LARGE);
+        final LocalHttpServer server = new LocalHttpServer(content);
+        // Drop the connection after 100 KiB for the first six responses
+        server.setDropAfter(100 * 1024, 6);
+
+        try {
+            final MockDownloader mockDownloader = new MockDownloader();
+            downloadAndWait(mockDownloader, server);
+
+            assertFalse(mockDownloader.failed);
+            assertTrue(Arrays.equals(content, read(mockDownloader.result)));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public final void testResume() throws Throwable {
+        final byte[] content = Utils.createContent(SMALL);
+        final LocalHttpServer server = new LocalHttpServer(content);
+
+        // Fake an interrupted download with the first half available
+        final int half = SMALL / 2;
+        final File partial = new File(destination.getPath() + DownloadEpisodeTask.PARTIAL_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(partial);
+        out.write(content, 0, half);
+        out.write(new byte[SMALL - half]);
+        out.close();
+        final FileWriter state = new FileWriter(partial.getPath()
+                + DownloadEpisodeTask.STATE_SUFFIX);
+        state.write("1\n" + SMALL + "\n\"v1\"\n1\n0 " + (SMALL - 1) + " " + half + "\n");
+        state.close();
+
+        try {
+            final MockDownloader mockDownloader = new MockDownloader();
+            downloadAndWait(mockDownloader, server);
+
+            assertFalse(mockDownloader.failed);
+            assertTrue(Arrays.equals(content, read(mockDownloader.result)));
+            assertEquals(1, server.getRangeRequestCount());
+            assertFalse(partial.exists());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public final void testResumeChangedRemote() throws Throwable {
+        final byte[] content = Utils.createContent(SMALL);
+        final LocalHttpServer server = new LocalHttpServer(content);
+        server.setEtag("\"v2\"");
+
+        // Fake an interrupted download with an outdated validator
+        final File partial = new File(destination.getPath() + DownloadEpisodeTask.PARTIAL_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(partial);
+        out.write(new byte[SMALL]);
+        out.close();
+        final FileWriter state = new FileWriter(partial.getPath()
+                + DownloadEpisodeTask.STATE_SUFFIX);
+        state.write("1\n" + SMALL + "\n\"v1\"\n1\n0 " + (SMALL - 1) + " " + SMALL / 2 + "\n");
+        state.close();
+
+        try {
+            final MockDownloader mockDownloader = new MockDownloader();
+            downloadAndWait(mockDownloader, server);
+
+            assertFalse(mockDownloader.failed);
+            assertTrue(Arrays.equals(content, read(mockDownloader.result)));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public final void testChecksumMismatch() throws Throwable {
+        final LocalHttpServer server = new LocalHttpServer(Utils.createContent(SMALL));
+        server.setContentMd5("AAAAAAAAAAAAAAAAAAAAAA==");
+
+        try {
+            final MockDownloader mockDownloader = new MockDownloader();
+            downloadAndWait(mockDownloader, server);
+
+            assertTrue(mockDownloader.failed);
+            assertFalse(destination.exists());
+            assertFalse(new File(destination.getPath() + DownloadEpisodeTask.PARTIAL_SUFFIX)
+                    .exists());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private DownloadEpisodeTask downloadAndWait(final MockDownloader mockDownloader,
+            LocalHttpServer server) throws Throwable {
+        final DownloadEpisodeTask task = new DownloadEpisodeTask(destination, mockDownloader);
+        final Podcast podcast = new Podcast("Test", server.getUrl("/feed.xml"));
+        final Episode episode = new Episode(podcast, "Episode", server.getUrl("/episode.mp3"),
+                new Date(), null);
+
+        signal = new CountDownLatch(1);
+
+        runTestOnUiThread(new Runnable() {
+
+            @Override
+            public void run() {
+                task.execute(episode);
+            }
+        });
+
+        final Date start = new Date();
+        signal.await();
+        System.out.println("Waited " + (new Date().getTime() - start.getTime())
+                + "ms for download of " + episode.getMediaUrl() + "...");
+
+        return task;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        final byte[] result = new byte[(int) file.length()];
+        final FileInputStream in = new FileInputStream(file);
+
+        try {
+            int offset = 0;
+            int read;
+            while (offset < result.length
+                    && (read = in.read(result, offset, result.length - offset)) > 0)
+                offset += read;
+        } finally {
+            in.close();
+        }
+
+        return result;
+    }
+}
@@ -20,12 +20,16 @@ package net.alliknow.podcatcher.model.tasks.remote.test;
 import android.test.InstrumentationTestCase;
 
 import net.alliknow.podcatcher.listeners.OnLoadPodcastListener;
+import net.alliknow.podcatcher.model.PodcastSnapshotStore;
 import net.alliknow.podcatcher.model.tasks.remote.LoadPodcastTask;
 import net.alliknow.podcatcher.model.test.Utils;
+import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
 
+import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -41,11 +45,13 @@ public class LoadPodcastTaskTest extends InstrumentationTestCase {
 
         protected Podcast result;
         protected boolean failed;
+        protected boolean restored;
 
         @Override
         public void onPodcastLoaded(Podcast podcast) {
             this.result = podcast;
             this.failed = false;
+            this.restored |= podcast.isStale();
 
             signal.countDown();
         }
@@ -118,11 +124,69 @@ public class LoadPodcastTaskTest extends InstrumentationTestCase {
         assertNull(mockLoader.result.getLastLoaded());
     }
 
+    public final void testRestoredOffline() throws Throwable {
+        final File dir = Utils.createTempLocation("snapshots", "");
+        // Nothing listens on port 1, so this is as good as being offline
+        final URL url = new URL("http://localhost:1/feed.xml");
+
+        try {
+            final List<Episode> episodes = new ArrayList<Episode>();
+            final Podcast parsed = new Podcast("Offline", url) {
+
+                @Override
+                public Date getLastLoaded() {
+                    return new Date(1000);
+                }
+
+                @Override
+                public List<Episode> getEpisodes() {
+                    return episodes;
+                }
+            };
+            episodes.add(new Episode(parsed, "Episode", new URL(url + "?1"), new Date(1000), 60,
+                    null));
+
+            final PodcastSnapshotStore store = new PodcastSnapshotStore(dir);
+            assertTrue(store.write(parsed));
+
+            // The snapshot is handed out first, then the load fails
+            final MockPodcastLoader mockLoader = new MockPodcastLoader();
+            final LoadPodcastTask task = new LoadPodcastTask(mockLoader);
+            task.setSnapshotStore(store);
+            final Podcast podcast = new Podcast(null, url);
+            loadAndWait(task, podcast, 2);
+
+            assertTrue(mockLoader.restored);
+            assertTrue(mockLoader.failed);
+            assertTrue(task.isCancelled());
+            assertSame(podcast, mockLoader.result);
+
+            // The podcast keeps its snapshot
+            assertTrue(podcast.isStale());
+            assertEquals("Offline", podcast.getName());
+            assertEquals(1, podcast.getEpisodeNumber());
+
+            // Loading it again fails right away, it is not restored twice
+            final LoadPodcastTask again = new LoadPodcastTask(mockLoader);
+            again.setSnapshotStore(store);
+            mockLoader.restored = false;
+            loadAndWait(again, podcast, 1);
+            assertFalse(mockLoader.restored);
+            assertTrue(mockLoader.failed);
+            assertTrue(podcast.isStale());
+        } finally {
+            Utils.delete(dir);
+        }
+    }
+
     private LoadPodcastTask loadAndWait(final MockPodcastLoader mockLoader, final Podcast podcast)
             throws Throwable {
-        final LoadPodcastTask task = new LoadPodcastTask(mockLoader);
+        return loadAndWait(new LoadPodcastTask(mockLoader), podcast, 1);
+    }
 
-        signal = new CountDownLatch(1);
+    private LoadPodcastTask loadAndWait(final LoadPodcastTask task, final Podcast podcast,
+            int calls) throws Throwable {
+        signal = new CountDownLatch(calls);
 
         runTestOnUiThread(new Runnable() {
 
@@ -0,0 +1,163 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.tasks.remote.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.tasks.remote.HttpConnections;
+import net.alliknow.podcatcher.model.tasks.remote.LoadRemoteFileTask;
+import net.alliknow.podcatcher.model.test.LocalHttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+@SuppressWarnings("javadoc")
+public class LoadRemoteFileTaskTest extends TestCase {
+
+    private static final byte[] CONTENT = "<rss />".getBytes();
+
+    private LocalHttpServer server;
+
+    private static class Loader extends LoadRemoteFileTask<Void, Void> {
+
+        public byte[] load(URL remote) throws IOException {
+            return loadFile(remote);
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            return null;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalHttpServer(CONTENT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    public final void testNoRedirect() throws IOException {
+        final Loader loader = new Loader();
+
+        assertTrue(Arrays.equals(CONTENT, loader.load(server.getUrl("/feed.xml"))));
+        assertNull(loader.getMovedTo());
+    }
+
+    public final void testPermanentRedirect() throws IOException {
+        server.setRedirect("/old.xml", 301, "/older.xml", null);
+        server.setRedirect("/older.xml", 308, server.getUrl("/feed.xml").toString(), null);
+        final Loader loader = new Loader();
+
+        assertTrue(Arrays.equals(CONTENT, loader.load(server.getUrl("/old.xml"))));
+        assertEquals(server.getUrl("/feed.xml").toString(), loader.getMovedTo().toString());
+    }
+
+    public final void testTemporaryRedirectInChain() throws IOException {
+        server.setRedirect("/old.xml", 301, "/tracker", null);
+        server.setRedirect("/tracker", 302, "/feed.xml", null);
+        final Loader loader = new Loader();
+
+        assertTrue(Arrays.equals(CONTENT, loader.load(server.getUrl("/old.xml"))));
+        // The feed moved to the tracker, not further
+        assertEquals(server.getUrl("/tracker").toString(), loader.getMovedTo().toString());
+    }
+
+    public final void testTemporaryRedirectCached() throws IOException {
+        server.setRedirect("/cached", 302, "/feed.xml", "max-age=60");
+        server.setRedirect("/uncached", 307, "/feed.xml", "no-cache");
+
+        for (int run = 0; run < 3; run++) {
+            final Loader loader = new Loader();
+
+            assertTrue(Arrays.equals(CONTENT, loader.load(server.getUrl("/cached"))));
+            assertTrue(Arrays.equals(CONTENT, loader.load(server.getUrl("/uncached"))));
+            assertNull(loader.getMovedTo());
+        }
+
+        assertEquals(1, server.getRequestCount("/cached"));
+        assertEquals(3, server.getRequestCount("/uncached"));
+        assertEquals(6, server.getRequestCount("/feed.xml"));
+    }
+
+    public final void testOtherProtocolRefused() throws IOException {
+        server.setRedirect("/old.xml", 301, "ftp://example.com/feed.xml", null);
+        final Loader loader = new Loader();
+
+        try {
+            loader.load(server.getUrl("/old.xml"));
+            fail("Redirect to other protocol followed");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertNull(loader.getMovedTo());
+    }
+
+    public final void testDowngradeRefused() throws IOException {
+        final HttpURLConnection connection = new HttpURLConnection(
+                new URL("https://example.com/feed.xml")) {
+
+            @Override
+            public String getHeaderField(String name) {
+                return "Location".equalsIgnoreCase(name) ? "http://example.com/feed.xml" : null;
+            }
+
+            @Override
+            public int getResponseCode() {
+                return HTTP_MOVED_PERM;
+            }
+
+            @Override
+            public void connect() {
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+        };
+
+        try {
+            HttpConnections.followRedirect(connection, null);
+            fail("Redirect from HTTPS to HTTP followed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public final void testTooManyRedirects() {
+        server.setRedirect("/loop", 302, "/loop", null);
+
+        try {
+            new Loader().load(server.getUrl("/loop"));
+            fail("Redirect loop not detected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.EpisodeMetadataStore;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@SuppressWarnings("javadoc")
+public class EpisodeMetadataStoreTest extends TestCase {
+
+    private static final String PODCAST = "http://example.com/feed.xml";
+    private static final String OTHER_PODCAST = "http://example.com/other.xml";
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Utils.createTempLocation("episodes", "");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utils.delete(dir);
+    }
+
+    public final void testMigrateAndLoad() throws Exception {
+        final Map<URL, EpisodeMetadata> metadata = new ConcurrentHashMap<URL, EpisodeMetadata>();
+        final URL old = put(metadata, "old", PODCAST);
+        final URL downloaded = put(metadata, "downloaded", OTHER_PODCAST);
+        metadata.get(downloaded).downloadId = 42L;
+        metadata.get(downloaded).episodeName = "Episode \u00e9";
+
+        assertTrue(new EpisodeMetadataStore(dir).migrate(metadata));
+
+        // Only the shard with the download is needed on start-up
+        EpisodeMetadataStore store = new EpisodeMetadataStore(dir);
+        final Map<URL, EpisodeMetadata> startup = store.loadStartupShards();
+        assertEquals(1, startup.size());
+        assertEquals(Long.valueOf(42), startup.get(downloaded).downloadId);
+        assertEquals("Episode \u00e9", startup.get(downloaded).episodeName);
+        assertEquals(OTHER_PODCAST, startup.get(downloaded).podcastUrl);
+        assertFalse(store.isLoaded(PODCAST));
+
+        // The other shard is loaded on demand
+        assertEquals(1, store.load(PODCAST, startup).size());
+        assertTrue(store.isLoaded(PODCAST));
+        assertTrue(startup.get(old).isOld);
+        assertEquals(0, store.load(PODCAST, startup).size());
+    }
+
+    public final void testWriteChangedOnly() throws Exception {
+        final Map<URL, EpisodeMetadata> metadata = new ConcurrentHashMap<URL, EpisodeMetadata>();
+        final URL episode = put(metadata, "episode", PODCAST);
+        put(metadata, "other", OTHER_PODCAST);
+
+        final EpisodeMetadataStore store = new EpisodeMetadataStore(dir);
+        assertTrue(store.migrate(metadata));
+        assertEquals(0, store.write(metadata));
+
+        metadata.get(episode).resumeAt = 1000;
+        assertEquals(1, store.write(metadata));
+
+        // Records without data are dropped and so is the empty shard
+        metadata.get(episode).isOld = null;
+        metadata.get(episode).resumeAt = null;
+        assertEquals(1, store.write(metadata));
+        assertTrue(new EpisodeMetadataStore(dir).load(PODCAST, metadata).isEmpty());
+    }
+
+    public final void testWriteNotLoaded() throws Exception {
+        final Map<URL, EpisodeMetadata> metadata = new ConcurrentHashMap<URL, EpisodeMetadata>();
+        final URL episode = put(metadata, "episode", PODCAST);
+        final URL other = put(metadata, "other", PODCAST);
+        assertTrue(new EpisodeMetadataStore(dir).migrate(metadata));
+
+        // Create a record before the shard is loaded
+        final Map<URL, EpisodeMetadata> current = new ConcurrentHashMap<URL, EpisodeMetadata>();
+        final EpisodeMetadataStore store = new EpisodeMetadataStore(dir);
+        final EpisodeMetadata resume = new EpisodeMetadata();
+        resume.resumeAt = 1000;
+        resume.podcastUrl = PODCAST;
+        current.put(episode, resume);
+        assertEquals(1, store.write(current));
+
+        // All records are still there and the new data is merged in
+        final Map<URL, EpisodeMetadata> result = new ConcurrentHashMap<URL, EpisodeMetadata>();
+        assertEquals(2, new EpisodeMetadataStore(dir).load(PODCAST, result).size());
+        assertEquals(Integer.valueOf(1000), result.get(episode).resumeAt);
+        assertTrue(result.get(episode).isOld);
+        assertTrue(result.get(other).isOld);
+        // The record given was not touched
+        assertNull(resume.isOld);
+    }
+
+    private URL put(Map<URL, EpisodeMetadata> metadata, String name, String podcastUrl)
+            throws Exception {
+        final URL url = new URL("http://example.com/" + name + ".mp3");
+        final EpisodeMetadata meta = new EpisodeMetadata();
+        meta.isOld = true;
+        meta.podcastUrl = podcastUrl;
+
+        metadata.put(url, meta);
+        return url;
+    }
+}
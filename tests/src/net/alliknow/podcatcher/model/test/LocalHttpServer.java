@@ -0,0 +1,249 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP server running on the loopback interface, used as a stand-in
+ * for remote hosts in tests. It serves the same content for any path, answers
+ * HEAD and GET requests and understands single byte ranges. Use
+ * {@link #setDropAfter(int, int)} to simulate a flaky connection and
+ * {@link #setRedirect(String, int, String, String)} to have paths redirect.
+ */
+@SuppressWarnings("javadoc")
+public class LocalHttpServer implements Runnable {
+
+    private final ServerSocket socket;
+    private final byte[] content;
+
+    private volatile String etag = "\"v1\"";
+    private volatile String contentMd5;
+    private volatile boolean acceptRanges = true;
+    private volatile int dropAfter = -1;
+    private final AtomicInteger dropsLeft = new AtomicInteger();
+
+    private final Map<String, String[]> redirects = new ConcurrentHashMap<String, String[]>();
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final Map<String, AtomicInteger> pathRequests =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    public LocalHttpServer(byte[] content) throws IOException {
+        this.content = content;
+        this.socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        final Thread thread = new Thread(this, "LocalHttpServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public URL getUrl(String path) throws IOException {
+        return new URL("http", "127.0.0.1", socket.getLocalPort(), path);
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public void setContentMd5(String contentMd5) {
+        this.contentMd5 = contentMd5;
+    }
+
+    public void setAcceptRanges(boolean acceptRanges) {
+        this.acceptRanges = acceptRanges;
+    }
+
+    /**
+     * Make the server close the connection after the given number of body
+     * bytes for the next responses.
+     * 
+     * @param bytes Bytes to send before the connection is dropped.
+     * @param times The number of responses to drop.
+     */
+    public void setDropAfter(int bytes, int times) {
+        this.dropAfter = bytes;
+        this.dropsLeft.set(times);
+    }
+
+    /**
+     * Make the server redirect requests for the given path.
+     * 
+     * @param path The path to redirect.
+     * @param code The status code to send, e.g. 301.
+     * @param location The location to redirect to, relative or absolute.
+     * @param cacheControl The cache control header to send, might be
+     *            <code>null</code>.
+     */
+    public void setRedirect(String path, int code, String location, String cacheControl) {
+        redirects.put(path, new String[] {
+                String.valueOf(code), location, cacheControl
+        });
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public int getRequestCount(String path) {
+        final AtomicInteger count = pathRequests.get(path);
+
+        return count == null ? 0 : count.get();
+    }
+
+    public int getRangeRequestCount() {
+        return rangeRequests.get();
+    }
+
+    public void shutdown() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!socket.isClosed())
+            try {
+                final Socket client = socket.accept();
+
+                new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                }).start();
+            } catch (IOException e) {
+                // Socket closed
+            }
+    }
+
+    private void serve(Socket client) {
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    client.getInputStream(), "ISO-8859-1"));
+            final OutputStream out = client.getOutputStream();
+
+            // Read request line and headers
+            final String[] request = reader.readLine().split(" ");
+            String range = null;
+            String ifRange = null;
+
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                final int colon = line.indexOf(':');
+                final String name = line.substring(0, colon).trim();
+                final String value = line.substring(colon + 1).trim();
+
+                if ("Range".equalsIgnoreCase(name))
+                    range = value;
+                else if ("If-Range".equalsIgnoreCase(name))
+                    ifRange = value;
+            }
+            requests.incrementAndGet();
+            synchronized (pathRequests) {
+                if (!pathRequests.containsKey(request[1]))
+                    pathRequests.put(request[1], new AtomicInteger());
+            }
+            pathRequests.get(request[1]).incrementAndGet();
+
+            // Redirect if asked to
+            final String[] redirect = redirects.get(request[1]);
+            if (redirect != null) {
+                final StringBuilder headers = new StringBuilder();
+                headers.append("HTTP/1.1 ").append(redirect[0]).append(" Redirect\r\n");
+                headers.append("Location: ").append(redirect[1]).append("\r\n");
+                headers.append("Content-Length: 0\r\n");
+                headers.append("Connection: close\r\n");
+                if (redirect[2] != null)
+                    headers.append("Cache-Control: ").append(redirect[2]).append("\r\n");
+                headers.append("\r\n");
+                out.write(headers.toString().getBytes("ISO-8859-1"));
+                out.flush();
+
+                return;
+            }
+
+            // Find the range to send
+            int start = 0;
+            int end = content.length - 1;
+            boolean partial = false;
+            if (acceptRanges && range != null && range.startsWith("bytes=")
+                    && (ifRange == null || ifRange.equals(etag))) {
+                final String[] bounds = range.substring(6).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (bounds[1].length() > 0)
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                partial = true;
+
+                rangeRequests.incrementAndGet();
+            }
+
+            // Write headers
+            final StringBuilder headers = new StringBuilder();
+            headers.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+            headers.append("Content-Type: audio/mpeg\r\n");
+            headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+            headers.append("Connection: close\r\n");
+            if (partial)
+                headers.append("Content-Range: bytes ").append(start).append('-').append(end)
+                        .append('/').append(content.length).append("\r\n");
+            if (acceptRanges)
+                headers.append("Accept-Ranges: bytes\r\n");
+            if (etag != null)
+                headers.append("ETag: ").append(etag).append("\r\n");
+            if (contentMd5 != null)
+                headers.append("Content-MD5: ").append(contentMd5).append("\r\n");
+            headers.append("\r\n");
+            out.write(headers.toString().getBytes("ISO-8859-1"));
+
+            // Write body, unless HEAD was requested
+            if (!"HEAD".equals(request[0])) {
+                int length = end - start + 1;
+                if (dropAfter >= 0 && dropsLeft.getAndDecrement() > 0)
+                    length = Math.min(length, dropAfter);
+
+                out.write(content, start, length);
+            }
+
+            out.flush();
+        } catch (Exception e) {
+            // Client went away, nothing to do
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
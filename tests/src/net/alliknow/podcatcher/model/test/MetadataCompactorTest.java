@@ -0,0 +1,113 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.MetadataCompactor;
+import net.alliknow.podcatcher.model.types.EpisodeMetadata;
+
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@SuppressWarnings("javadoc")
+public class MetadataCompactorTest extends TestCase {
+
+    private static final String PODCAST = "http://example.com/feed.xml";
+    private static final String OTHER_PODCAST = "http://example.com/other.xml";
+
+    private Map<URL, EpisodeMetadata> metadata;
+    private MetadataCompactor compactor;
+
+    @Override
+    protected void setUp() throws Exception {
+        metadata = new ConcurrentHashMap<URL, EpisodeMetadata>();
+        compactor = new MetadataCompactor(metadata);
+    }
+
+    public final void testCompactFeed() throws Exception {
+        final URL current = putState("current", PODCAST);
+        final URL gone = putState("gone", PODCAST);
+        final URL downloaded = putState("downloaded", PODCAST);
+        metadata.get(downloaded).filePath = "/sdcard/downloaded.mp3";
+        final URL other = putState("other", OTHER_PODCAST);
+        compactor.rebuild();
+
+        final Set<String> inFeed = new HashSet<String>();
+        inFeed.add(current.toString());
+
+        assertEquals(1, compactor.compact(PODCAST, inFeed));
+        assertTrue(metadata.containsKey(current));
+        assertFalse(metadata.containsKey(gone));
+        assertTrue(metadata.containsKey(downloaded));
+        assertTrue(metadata.containsKey(other));
+
+        // Nothing left to do
+        assertEquals(0, compactor.compact(PODCAST, inFeed));
+        assertEquals(2, compactor.getRunCount());
+        assertEquals(1, compactor.getReclaimedCount());
+    }
+
+    public final void testCompactRemovedPodcast() throws Exception {
+        putState("one", PODCAST);
+        putState("two", PODCAST);
+        final URL other = putState("other", OTHER_PODCAST);
+        compactor.rebuild();
+
+        assertEquals(2, compactor.compact(PODCAST, null));
+        assertEquals(1, metadata.size());
+        assertTrue(metadata.containsKey(other));
+    }
+
+    public final void testRegister() throws Exception {
+        compactor.rebuild();
+        final URL late = putState("late", PODCAST);
+
+        // Not yet known to the index
+        assertEquals(0, compactor.compact(PODCAST, null));
+        assertTrue(metadata.containsKey(late));
+
+        compactor.register(late, PODCAST);
+        assertEquals(1, compactor.compact(PODCAST, null));
+        assertTrue(metadata.isEmpty());
+    }
+
+    public final void testStaleIndex() throws Exception {
+        final URL moved = putState("moved", PODCAST);
+        compactor.rebuild();
+
+        // Record now belongs to another podcast and must not be touched
+        metadata.get(moved).podcastUrl = OTHER_PODCAST;
+        assertEquals(0, compactor.compact(PODCAST, null));
+        assertTrue(metadata.containsKey(moved));
+        assertEquals(1, compactor.getExaminedCount());
+    }
+
+    private URL putState(String name, String podcastUrl) throws Exception {
+        final URL url = new URL("http://example.com/" + name + ".mp3");
+        final EpisodeMetadata meta = new EpisodeMetadata();
+        meta.isOld = true;
+        meta.podcastUrl = podcastUrl;
+
+        metadata.put(url, meta);
+        return url;
+    }
+}
@@ -0,0 +1,99 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.ParserPool;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.ByteArrayInputStream;
+
+@SuppressWarnings("javadoc")
+public class ParserPoolTest extends TestCase {
+
+    private static final String XML = "<rss xmlns:itunes=\"http://www.itunes.com/dtds/podcast-1.0.dtd\">"
+            + "<itunes:author>Author</itunes:author></rss>";
+
+    public final void testReuse() throws Exception {
+        final XmlPullParser parser = ParserPool.acquire(true);
+        assertTrue(parser.getFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES));
+        ParserPool.release(parser);
+
+        // Same thread, same kind: pooled instance
+        final int reused = ParserPool.getReusedCount();
+        assertSame(parser, ParserPool.acquire(true));
+        assertEquals(reused + 1, ParserPool.getReusedCount());
+
+        // Pooled parser is in use, we get a new one
+        final XmlPullParser other = ParserPool.acquire(true);
+        assertNotSame(parser, other);
+
+        // Other kind
+        final XmlPullParser plain = ParserPool.acquire(false);
+        assertFalse(plain.getFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES));
+
+        ParserPool.release(parser);
+        ParserPool.release(other);
+        ParserPool.release(plain);
+    }
+
+    public final void testPerThread() throws Exception {
+        final XmlPullParser parser = ParserPool.acquire(true);
+        ParserPool.release(parser);
+
+        final XmlPullParser[] result = new XmlPullParser[1];
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    result[0] = ParserPool.acquire(true);
+                } catch (Exception e) {
+                    // Result stays empty
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotNull(result[0]);
+        assertNotSame(parser, result[0]);
+    }
+
+    public final void testParseWithReusedParser() throws Exception {
+        for (int run = 0; run < 3; run++) {
+            final XmlPullParser parser = ParserPool.acquire(true);
+
+            try {
+                parser.setInput(new ByteArrayInputStream(XML.getBytes("UTF-8")), null);
+                parser.nextTag();
+                parser.nextTag();
+
+                assertEquals("author", parser.getName());
+                assertEquals("http://www.itunes.com/dtds/podcast-1.0.dtd", parser.getNamespace());
+                assertEquals("Author", parser.nextText());
+            } finally {
+                ParserPool.release(parser);
+            }
+        }
+
+        assertTrue(ParserPool.getSavedTime() >= 0);
+    }
+}
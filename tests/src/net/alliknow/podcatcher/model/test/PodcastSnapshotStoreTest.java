@@ -0,0 +1,206 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.PodcastSnapshotStore;
+import net.alliknow.podcatcher.model.types.Episode;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@SuppressWarnings("javadoc")
+public class PodcastSnapshotStoreTest extends TestCase {
+
+    private static final String PODCAST = "http://example.com/feed.xml";
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Utils.createTempLocation("snapshots", "");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utils.delete(dir);
+    }
+
+    public final void testWriteAndRestore() throws Exception {
+        final Podcast podcast = new Podcast("Podcast", new URL(PODCAST));
+        final List<Episode> episodes = new ArrayList<Episode>();
+        episodes.add(new Episode(podcast, "Episode \u00e9", new URL(PODCAST + "?1"),
+                new Date(1000), 3600, "Description"));
+        episodes.add(new Episode(podcast, null, new URL(PODCAST + "?2"), null, null));
+        podcast.restore(null, new URL(PODCAST + ".png"), new Date(2000), episodes);
+
+        // Stale podcasts are not written
+        final PodcastSnapshotStore store = new PodcastSnapshotStore(dir);
+        assertFalse(store.write(podcast));
+        assertFalse(store.contains(podcast));
+
+        // Pretend the podcast was parsed
+        final Podcast written = spy(podcast);
+        assertTrue(store.write(written));
+        assertTrue(store.contains(written));
+
+        final Podcast restored = new Podcast(null, new URL(PODCAST));
+        assertFalse(restored.isStale());
+        assertTrue(new PodcastSnapshotStore(dir).restore(restored));
+        assertTrue(restored.isStale());
+        assertEquals("Podcast", restored.getName());
+        assertEquals(PODCAST + ".png", restored.getLogoUrl().toString());
+        assertEquals(2000, restored.getLastLoaded().getTime());
+        assertEquals(2, restored.getEpisodeNumber());
+
+        final Episode first = restored.getEpisodes().get(0);
+        assertSame(restored, first.getPodcast());
+        assertEquals("Episode \u00e9", first.getName());
+        assertEquals(PODCAST + "?1", first.getMediaUrl().toString());
+        assertEquals(1000, first.getPubDate().getTime());
+        assertEquals(3600, first.getDuration());
+        assertEquals("Description", first.getDescription());
+
+        final Episode second = restored.getEpisodes().get(1);
+        assertNull(second.getName());
+        assertNull(second.getPubDate());
+        assertEquals(-1, second.getDuration());
+        assertNull(second.getDescription());
+    }
+
+    public final void testUnchangedNotWritten() throws Exception {
+        final Podcast podcast = new Podcast("Podcast", new URL(PODCAST));
+        final List<Episode> episodes = new ArrayList<Episode>();
+        episodes.add(new Episode(podcast, "Episode", new URL(PODCAST + "?1"),
+                new Date(1000), 3600, "Description"));
+        podcast.restore(null, null, new Date(2000), episodes);
+
+        final PodcastSnapshotStore store = new PodcastSnapshotStore(dir);
+        assertTrue(store.write(spy(podcast)));
+
+        // Mark the file, it is only replaced if the content changes
+        final File file = dir.listFiles()[0];
+        final long length = file.length();
+        final RandomAccessFile marker = new RandomAccessFile(file, "rw");
+        marker.setLength(length + 1);
+        marker.close();
+
+        podcast.restore(null, null, new Date(4000), episodes);
+        assertTrue(store.write(spy(podcast)));
+        assertEquals(length + 1, file.length());
+        assertEquals(4000, file.lastModified());
+
+        episodes.add(new Episode(podcast, "Other", new URL(PODCAST + "?2"), null, null));
+        podcast.restore(null, null, new Date(6000), episodes);
+        assertTrue(store.write(spy(podcast)));
+        assertTrue(file.length() > length + 1);
+    }
+
+    public final void testDescriptionsRestored() throws Exception {
+        final Podcast podcast = new Podcast("Podcast", new URL(PODCAST));
+        final List<Episode> episodes = new ArrayList<Episode>();
+        episodes.add(new Episode(podcast, "Episode", new URL(PODCAST + "?1"),
+                new Date(1000), 3600, "Description"));
+        episodes.add(new Episode(podcast, "Other", new URL(PODCAST + "?2"),
+                new Date(1000), 3600, "Other description"));
+        podcast.restore(null, null, new Date(2000), episodes);
+
+        final PodcastSnapshotStore store = new PodcastSnapshotStore(dir);
+        assertTrue(store.write(spy(podcast)));
+
+        final Podcast restored = new Podcast(null, new URL(PODCAST));
+        assertTrue(store.restore(restored));
+        assertEquals("Description", restored.getEpisodes().get(0).getDescription());
+        assertEquals("Other description", restored.getEpisodes().get(1).getDescription());
+
+        // Replacing the snapshot does not affect the episodes already restored
+        episodes.remove(1);
+        podcast.restore(null, null, new Date(2000), episodes);
+        assertTrue(store.write(spy(podcast)));
+        assertEquals("Description", restored.getEpisodes().get(0).getDescription());
+        assertEquals("Other description", restored.getEpisodes().get(1).getDescription());
+    }
+
+    public final void testRestoreMissingAndDelete() throws Exception {
+        final PodcastSnapshotStore store = new PodcastSnapshotStore(dir);
+        final Podcast podcast = new Podcast("Podcast", new URL(PODCAST));
+        assertFalse(store.restore(podcast));
+        assertFalse(podcast.isStale());
+        assertNull(podcast.getLastLoaded());
+
+        final Podcast parsed = spy(new Podcast("Podcast", new URL(PODCAST)));
+        assertTrue(store.write(parsed));
+        assertTrue(store.restore(podcast));
+
+        store.delete(podcast);
+        assertFalse(store.contains(podcast));
+        assertFalse(store.restore(new Podcast("Podcast", new URL(PODCAST))));
+    }
+
+    public final void testMove() throws Exception {
+        final PodcastSnapshotStore store = new PodcastSnapshotStore(dir);
+        final Podcast podcast = spy(new Podcast("Podcast", new URL(PODCAST)));
+        assertTrue(store.write(podcast));
+
+        final URL from = podcast.getUrl();
+        podcast.setUrl(new URL(PODCAST + ".moved"));
+        assertFalse(store.contains(podcast));
+        assertTrue(store.move(from, podcast));
+        assertTrue(store.contains(podcast));
+        assertFalse(store.contains(new Podcast("Podcast", from)));
+
+        // Nothing left to move
+        assertFalse(store.move(from, podcast));
+        assertTrue(store.restore(new Podcast(null, new URL(PODCAST + ".moved"))));
+    }
+
+    /**
+     * @return A podcast looking like it was parsed with the given podcast's
+     *         content (parsing needs the platform's XML parser).
+     */
+    private static Podcast spy(final Podcast podcast) {
+        return new Podcast(podcast.getName(), podcast.getUrl()) {
+
+            @Override
+            public boolean isStale() {
+                return false;
+            }
+
+            @Override
+            public Date getLastLoaded() {
+                return podcast.getLastLoaded() == null ? new Date() : podcast.getLastLoaded();
+            }
+
+            @Override
+            public URL getLogoUrl() {
+                return podcast.getLogoUrl();
+            }
+
+            @Override
+            public List<Episode> getEpisodes() {
+                return podcast.getEpisodes();
+            }
+        };
+    }
+}
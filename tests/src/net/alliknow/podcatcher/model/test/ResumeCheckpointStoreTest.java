@@ -0,0 +1,102 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.ResumeCheckpointStore;
+import net.alliknow.podcatcher.model.ResumeCheckpointStore.Checkpoint;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Map;
+
+@SuppressWarnings("javadoc")
+public class ResumeCheckpointStoreTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Utils.createTempLocation("resume", ".dat");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utils.delete(file);
+    }
+
+    public final void testPutAndRead() throws Exception {
+        final URL episode = new URL("http://example.com/episode.mp3");
+
+        ResumeCheckpointStore store = new ResumeCheckpointStore(file);
+        assertTrue(store.readAll(0).isEmpty());
+
+        store.put(episode, "http://example.com/feed.xml", 1000);
+        store.put(episode, "http://example.com/feed.xml", 2000);
+
+        // Read with a fresh store, as we would on start-up
+        store = new ResumeCheckpointStore(file);
+        final Map<URL, Checkpoint> result = store.readAll(0);
+        assertEquals(1, result.size());
+        assertEquals(2000, result.get(episode).position);
+        assertEquals("http://example.com/feed.xml", result.get(episode).podcastUrl);
+
+        // Only newer checkpoints are returned
+        assertTrue(store.readAll(System.currentTimeMillis() + 1).isEmpty());
+    }
+
+    public final void testMovePodcast() throws Exception {
+        final URL episode = new URL("http://example.com/episode.mp3");
+        final URL other = new URL("http://example.com/other.mp3");
+
+        ResumeCheckpointStore store = new ResumeCheckpointStore(file);
+        store.put(episode, "http://example.com/feed.xml", 1000);
+        store.put(other, "http://example.com/other.xml", 3000);
+        final long time = store.readAll(0).get(episode).time;
+
+        store.movePodcast("http://example.com/feed.xml", "http://example.org/feed.xml");
+
+        store = new ResumeCheckpointStore(file);
+        final Map<URL, Checkpoint> result = store.readAll(0);
+        assertEquals(2, result.size());
+        assertEquals("http://example.org/feed.xml", result.get(episode).podcastUrl);
+        assertEquals(1000, result.get(episode).position);
+        assertEquals(time, result.get(episode).time);
+        assertEquals("http://example.com/other.xml", result.get(other).podcastUrl);
+    }
+
+    public final void testFixedSize() throws Exception {
+        final ResumeCheckpointStore store = new ResumeCheckpointStore(file);
+
+        store.put(new URL("http://example.com/first.mp3"), null, 1);
+        final long size = file.length();
+
+        for (int index = 0; index < 100; index++) {
+            store.put(new URL("http://example.com/" + index + ".mp3"), null, index + 1);
+            Thread.sleep(1);
+        }
+
+        assertEquals(size, file.length());
+        // The oldest checkpoints are replaced
+        final Map<URL, Checkpoint> result = store.readAll(0);
+        assertFalse(result.containsKey(new URL("http://example.com/first.mp3")));
+        assertTrue(result.containsKey(new URL("http://example.com/99.mp3")));
+        assertNull(result.get(new URL("http://example.com/99.mp3")).podcastUrl);
+    }
+}
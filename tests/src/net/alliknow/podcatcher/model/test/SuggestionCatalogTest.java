@@ -0,0 +1,127 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.SuggestionCatalog;
+import net.alliknow.podcatcher.model.types.Genre;
+import net.alliknow.podcatcher.model.types.Language;
+import net.alliknow.podcatcher.model.types.MediaType;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings("javadoc")
+public class SuggestionCatalogTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Utils.createTempLocation("suggestions", ".catalog");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utils.delete(file);
+    }
+
+    public final void testWriteAndRead() throws Exception {
+        final List<Podcast> suggestions = new ArrayList<Podcast>();
+        for (int index = 0; index < 10; index++) {
+            Podcast podcast = new Podcast("Podcast \u00e9 " + index,
+                    new URL("http://example.com/" + index + ".xml"));
+            podcast.setDescription(index % 2 == 0 ? "Same description" : null);
+            podcast.setLanguage(Language.GERMAN);
+            podcast.setGenre(Genre.values()[index]);
+            podcast.setMediaType(index == 0 ? null : MediaType.VIDEO);
+
+            suggestions.add(podcast);
+        }
+
+        final SuggestionCatalog catalog = new SuggestionCatalog(file);
+        assertFalse(catalog.exists());
+        assertNull(catalog.readVersion());
+
+        catalog.write(suggestions, "abc123");
+        assertTrue(catalog.exists());
+        assertEquals("abc123", catalog.readVersion());
+
+        final List<Podcast> result = new SuggestionCatalog(file).read();
+        assertEquals(suggestions.size(), result.size());
+        for (int index = 0; index < suggestions.size(); index++) {
+            final Podcast expected = suggestions.get(index);
+            final Podcast actual = result.get(index);
+
+            assertEquals(expected, actual);
+            assertEquals(expected.getName(), actual.getName());
+            assertEquals(index % 2 == 0 ? "Same description" : "", actual.getDescription());
+            assertEquals(expected.getLanguage(), actual.getLanguage());
+            assertEquals(expected.getGenre(), actual.getGenre());
+            assertEquals(expected.getMediaType(), actual.getMediaType());
+        }
+    }
+
+    public final void testCorrupted() throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[] {
+                1, 2, 3
+        });
+        output.close();
+
+        final SuggestionCatalog catalog = new SuggestionCatalog(file);
+        assertNull(catalog.readVersion());
+        try {
+            catalog.read();
+            fail("Corrupted catalog read");
+        } catch (IOException e) {
+            // pass
+        }
+        assertFalse(catalog.exists());
+    }
+
+    public final void testTruncated() throws Exception {
+        final List<Podcast> suggestions = new ArrayList<Podcast>();
+        for (int index = 0; index < 10; index++)
+            suggestions.add(new Podcast("Podcast " + index,
+                    new URL("http://example.com/" + index + ".xml")));
+
+        final SuggestionCatalog catalog = new SuggestionCatalog(file);
+        catalog.write(suggestions, "abc123");
+
+        // Cut the file off somewhere in the string pool
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() / 3);
+        raf.close();
+
+        try {
+            catalog.read();
+            fail("Truncated catalog read");
+        } catch (IOException e) {
+            // pass
+        }
+        assertFalse(catalog.exists());
+    }
+}
@@ -0,0 +1,95 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.SuggestionIndex;
+import net.alliknow.podcatcher.model.types.Genre;
+import net.alliknow.podcatcher.model.types.Language;
+import net.alliknow.podcatcher.model.types.MediaType;
+import net.alliknow.podcatcher.model.types.Podcast;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+@SuppressWarnings("javadoc")
+public class SuggestionIndexTest extends TestCase {
+
+    private SuggestionIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        List<Podcast> suggestions = new ArrayList<Podcast>();
+        suggestions.add(createSuggestion("Caf\u00e9 Science", "Weekly chats about physics",
+                Language.FRENCH, Genre.SCIENCE, MediaType.AUDIO));
+        suggestions.add(createSuggestion("Daily News", "Politics and physical sports",
+                Language.ENGLISH, Genre.NEWS, MediaType.AUDIO));
+        suggestions.add(createSuggestion("Science Video", null,
+                Language.ENGLISH, Genre.SCIENCE, MediaType.VIDEO));
+
+        index = new SuggestionIndex(suggestions);
+    }
+
+    public final void testFilter() {
+        assertEquals(3, index.getMatching(null, null, null, null).cardinality());
+        assertEquals(2, index.getMatching(Language.ENGLISH, null, null, null).cardinality());
+        assertEquals(2, index.getMatching(null, Genre.SCIENCE, null, "").cardinality());
+
+        final BitSet matches = index.getMatching(Language.ENGLISH, Genre.SCIENCE, null, null);
+        assertEquals(1, matches.cardinality());
+        assertEquals("Science Video", index.getSuggestions(matches).get(0).getName());
+    }
+
+    public final void testSearch() {
+        assertEquals(2, index.getMatching(null, null, null, "phys").cardinality());
+        assertEquals(1, index.getMatching(null, null, null, "PHYS sport").cardinality());
+        assertEquals(1, index.getMatching(null, null, null, "cafe").cardinality());
+        assertEquals(2, index.getMatching(null, null, null, "  sci ").cardinality());
+        assertEquals(1, index.getMatching(null, null, MediaType.AUDIO, "sci").cardinality());
+        assertTrue(index.getMatching(null, null, null, "radio").isEmpty());
+    }
+
+    public final void testCounts() {
+        assertEquals(2, index.getLanguageCounts(null)[Language.ENGLISH.ordinal()]);
+        assertEquals(0, index.getLanguageCounts(null)[Language.GERMAN.ordinal()]);
+
+        final List<Podcast> existing = new ArrayList<Podcast>();
+        existing.add(index.getSuggestions().get(2));
+        final BitSet hidden = index.getPositions(existing);
+
+        assertEquals(1, hidden.cardinality());
+        assertEquals(1, index.getGenreCounts(hidden)[Genre.SCIENCE.ordinal()]);
+        assertEquals(2, index.getMediaTypeCounts(hidden)[MediaType.AUDIO.ordinal()]);
+        assertEquals(0, index.getMediaTypeCounts(hidden)[MediaType.VIDEO.ordinal()]);
+    }
+
+    private Podcast createSuggestion(String name, String description, Language language,
+            Genre genre, MediaType mediaType) throws Exception {
+        Podcast podcast = new Podcast(name, new URL("http://example.com/"
+                + name.hashCode() + ".xml"));
+        podcast.setDescription(description);
+        podcast.setLanguage(language);
+        podcast.setGenre(genre);
+        podcast.setMediaType(mediaType);
+
+        return podcast;
+    }
+}
@@ -0,0 +1,69 @@
+/** Copyright 2012, 2013 Kevin Hausmann
+ *
+ * This file is part of PodCatcher Deluxe.
+ *
+ * PodCatcher Deluxe is free software: you can redistribute it 
+ * and/or modify it under the terms of the GNU General Public License as 
+ * published by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * PodCatcher Deluxe is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PodCatcher Deluxe. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.alliknow.podcatcher.model.test;
+
+import android.text.Html;
+
+import junit.framework.TestCase;
+
+import net.alliknow.podcatcher.model.TextDecoder;
+
+@SuppressWarnings("javadoc")
+public class TextDecoderTest extends TestCase {
+
+    private static final String[] TITLES = {
+            "Plain episode title",
+            "Folge 42: Gr\u00fc\u00dfe aus K\u00f6ln",
+            "Q&amp;A with the team",
+            "Tom &amp; Jerry&#8217;s &quot;Best of&quot; &ndash; Part 2",
+            "Caf&eacute; &#x263A; &hellip; &#233;t&eacute;",
+            "<![CDATA[Raw & unescaped]]> title",
+            "Line\nbreaks\t and   spaces",
+            "&euro;5 &trade; &copy; 2013"
+    };
+
+    public final void testDecode() {
+        assertNull(TextDecoder.decode(null));
+        assertEquals("", TextDecoder.decode(""));
+
+        assertEquals("Plain episode title", TextDecoder.decode(TITLES[0]));
+        assertSame(TITLES[0], TextDecoder.decode(TITLES[0]));
+        assertEquals("Q&A with the team", TextDecoder.decode(TITLES[2]));
+        assertEquals("Tom & Jerry\u2019s \"Best of\" \u2013 Part 2", TextDecoder.decode(TITLES[3]));
+        assertEquals("Caf\u00e9 \u263a \u2026 \u00e9t\u00e9", TextDecoder.decode(TITLES[4]));
+        assertEquals("Raw & unescaped title", TextDecoder.decode(TITLES[5]));
+        assertEquals("Line breaks and spaces", TextDecoder.decode(TITLES[6]));
+        assertEquals("\u20ac5 \u2122 \u00a9 2013", TextDecoder.decode(TITLES[7]));
+
+        assertEquals("a\u00a0b", TextDecoder.decode("a&nbsp;b"));
+        assertEquals("\ud83d\ude00", TextDecoder.decode("&#128512;"));
+    }
+
+    public final void testSameAsHtml() {
+        for (String title : TITLES)
+            assertEquals(Html.fromHtml(title).toString(), TextDecoder.decode(title));
+
+        // These are handed to the full HTML pipeline
+        final String[] markup = {
+                "<b>Bold</b> title", "Unknown &foo; entity", "Missing semicolon &amp",
+                "Bad &#xZZ; number"
+        };
+        for (String title : markup)
+            assertEquals(Html.fromHtml(title).toString(), TextDecoder.decode(title));
+    }
+}
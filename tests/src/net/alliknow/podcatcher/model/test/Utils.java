@@ -18,6 +18,7 @@
 package net.alliknow.podcatcher.model.test;
 
 import net.alliknow.podcatcher.listeners.OnLoadSuggestionListener;
+import net.alliknow.podcatcher.model.SuggestionIndex;
 import net.alliknow.podcatcher.model.tasks.remote.LoadSuggestionsTask;
 import net.alliknow.podcatcher.model.types.Podcast;
 import net.alliknow.podcatcher.model.types.Progress;
@@ -25,8 +26,11 @@ import net.alliknow.podcatcher.model.types.Progress;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -58,8 +62,12 @@ public class Utils {
         LoadSuggestionsTask task = new LoadSuggestionsTask(null, new OnLoadSuggestionListener() {
 
             @Override
-            public void onSuggestionsLoaded(List<Podcast> suggestions) {
-                for (Podcast podcast : suggestions)
+            public void onFeaturedSuggestionsLoaded(SuggestionIndex featured) {
+            }
+
+            @Override
+            public void onSuggestionsLoaded(SuggestionIndex suggestions) {
+                for (Podcast podcast : suggestions.getSuggestions())
                     examples.add(podcast);
 
                 signal.countDown();
@@ -80,4 +88,27 @@ public class Utils {
 
         return examples;
     }
+
+    public static File createTempLocation(String prefix, String suffix) throws IOException {
+        // We only want the name, the stores create the file themselves
+        final File file = File.createTempFile(prefix, suffix);
+        file.delete();
+
+        return file;
+    }
+
+    public static void delete(File file) {
+        if (file.listFiles() != null)
+            for (File child : file.listFiles())
+                child.delete();
+
+        file.delete();
+    }
+
+    public static byte[] createContent(int size) {
+        final byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+
+        return content;
+    }
 }
@@ -4,11 +4,16 @@ package net.alliknow.podcatcher.model.types.test;
 import junit.framework.TestCase;
 
 import net.alliknow.podcatcher.model.test.Utils;
+import net.alliknow.podcatcher.model.types.Episode;
 import net.alliknow.podcatcher.model.types.Podcast;
 
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
 import java.util.Date;
 import java.util.List;
 
@@ -128,4 +133,88 @@ public class PodcastTest extends TestCase {
             assertNotNull(podcast.getLastLoaded());
         }
     }
+
+    public final void testParseBounded() throws XmlPullParserException, IOException {
+        final int[] newestFirst = { 5, 4, 3, 2, 1 };
+        final int[] unordered = { 2, 5, 1, 4, 3 };
+
+        // Newest first, we stop after the third episode
+        Podcast podcast = new Podcast(null, new URL("http://example.com/feed.xml"));
+        podcast.parse(createParser(newestFirst), 3);
+        assertEquals(3, podcast.getEpisodeNumber());
+        assertTrue(podcast.isTruncated());
+        assertEquals("Episode 5", podcast.getEpisodes().get(0).getName());
+        assertEquals("Episode 3", podcast.getEpisodes().get(2).getName());
+
+        // Out of order, we read all and keep the newest
+        podcast.parse(createParser(unordered), 3);
+        assertEquals(3, podcast.getEpisodeNumber());
+        assertTrue(podcast.isTruncated());
+        for (Episode episode : podcast.getEpisodes())
+            assertFalse(episode.getName().equals("Episode 1")
+                    || episode.getName().equals("Episode 2"));
+
+        // Everything fits
+        podcast.parse(createParser(unordered), 5);
+        assertEquals(5, podcast.getEpisodeNumber());
+        assertFalse(podcast.isTruncated());
+
+        podcast.parse(createParser(newestFirst));
+        assertEquals(5, podcast.getEpisodeNumber());
+        assertFalse(podcast.isTruncated());
+    }
+
+    public final void testParseFailed() throws XmlPullParserException, IOException {
+        final Podcast podcast = new Podcast(null, new URL("http://example.com/feed.xml"));
+        podcast.parse(createParser(new int[] {
+                3, 2, 1
+        }));
+        final Date loaded = podcast.getLastLoaded();
+
+        // Cut off feed, nothing changes
+        final XmlPullParser parser = createParser(new int[] {
+                5, 4
+        }, true);
+        try {
+            podcast.parse(parser, -1);
+            fail("Parse should fail");
+        } catch (XmlPullParserException e) {
+            // pass
+        }
+        assertEquals(3, podcast.getEpisodeNumber());
+        assertEquals(loaded, podcast.getLastLoaded());
+        assertFalse(podcast.isTruncated());
+
+        // Unless we keep what was read
+        assertTrue(podcast.keepPartialParse());
+        assertEquals(2, podcast.getEpisodeNumber());
+        assertEquals("Episode 5", podcast.getEpisodes().get(0).getName());
+        assertTrue(podcast.isTruncated());
+        assertFalse(podcast.keepPartialParse());
+    }
+
+    private XmlPullParser createParser(int[] days) throws XmlPullParserException {
+        return createParser(days, false);
+    }
+
+    private XmlPullParser createParser(int[] days, boolean cutOff) throws XmlPullParserException {
+        final StringBuilder feed = new StringBuilder("<rss><channel><title>Feed</title>");
+        for (int day : days)
+            feed.append("<item><title>Episode ").append(day).append("</title>")
+                    .append("<pubDate>Mon, 0").append(day)
+                    .append(" Jan 2013 12:00:00 GMT</pubDate>")
+                    .append("<enclosure url=\"http://example.com/").append(day)
+                    .append(".mp3\" /></item>");
+        if (cutOff)
+            feed.append("<item><title>Episode 0</tit");
+        else
+            feed.append("</channel></rss>");
+
+        final XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new StringReader(feed.toString()));
+
+        return parser;
+    }
 }
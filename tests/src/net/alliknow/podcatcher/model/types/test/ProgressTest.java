@@ -3,6 +3,7 @@ package net.alliknow.podcatcher.model.types.test;
 
 import junit.framework.TestCase;
 
+import net.alliknow.podcatcher.model.types.BatchProgress;
 import net.alliknow.podcatcher.model.types.Progress;
 
 @SuppressWarnings("javadoc")
@@ -34,4 +35,29 @@ public class ProgressTest extends TestCase {
         assertEquals(p.getPercentDone(), 150);
     }
 
+    public void testForPercent() {
+        assertSame(Progress.forPercent(42), Progress.forPercent(42));
+        assertEquals(42, Progress.forPercent(42).getPercentDone());
+        assertEquals(new Progress(42, 100), Progress.forPercent(42));
+
+        assertEquals(0, Progress.forPercent(-5).getPercentDone());
+        assertEquals(100, Progress.forPercent(150).getPercentDone());
+    }
+
+    public void testBatchProgress() {
+        BatchProgress p = new BatchProgress(3, 12, 2048);
+        assertEquals(3, p.getProgress());
+        assertEquals(12, p.getTotal());
+        assertEquals(25, p.getPercentDone());
+        assertEquals(2048, p.getBytes());
+
+        assertEquals(new BatchProgress(3, 12, 2048), p);
+        assertEquals(new BatchProgress(3, 12, 2048).hashCode(), p.hashCode());
+        assertFalse(new BatchProgress(3, 12, 4096).equals(p));
+
+        // Equality is symmetric with plain progress information
+        assertFalse(new Progress(3, 12).equals(p));
+        assertFalse(p.equals(new Progress(3, 12)));
+    }
+
 }